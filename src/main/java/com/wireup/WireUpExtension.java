@@ -3,10 +3,18 @@ package com.wireup;
 import burp.api.montoya.BurpExtension;
 import burp.api.montoya.MontoyaApi;
 import com.wireup.docker.DockerManager;
+import com.wireup.docker.DockerProbe;
+import com.wireup.jmx.MBeanRegistry;
 import com.wireup.ui.WireUpTab;
 import com.wireup.utils.Logger;
 import com.wireup.vpn.ConnectionManager;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * WireUp - Burp Suite Extension for WireGuard VPN Routing
  * 
@@ -16,11 +24,18 @@ import com.wireup.vpn.ConnectionManager;
  */
 public class WireUpExtension implements BurpExtension {
 
+    private static final int BOOTSTRAP_THREADS = 3;
+    private static final long DOCKER_START_TIMEOUT_MS = 30_000;
+
     private MontoyaApi api;
     private Logger logger;
-    private DockerManager dockerManager;
-    private ConnectionManager connectionManager;
+    private volatile DockerManager dockerManager;
+    private volatile ConnectionManager connectionManager;
+    private volatile MBeanRegistry mbeans;
     private WireUpTab mainTab;
+    private ExecutorService bootstrapExecutor;
+    private final AtomicInteger bootstrapThreadCount = new AtomicInteger();
+    private volatile boolean unloading;
 
     @Override
     public void initialize(MontoyaApi api) {
@@ -49,105 +64,198 @@ public class WireUpExtension implements BurpExtension {
             // Don't throw - try to continue anyway
         }
 
-        // Now try to initialize Docker components with smart detection
-        try {
-            logger.info("Checking Docker availability...");
-
-            // Check if Docker is installed
-            if (!com.wireup.utils.DockerUtils.isDockerInstalled()) {
-                logger.warn("=".repeat(60));
-                logger.warn("Docker is NOT installed on this system");
-                logger.warn("OS: " + com.wireup.utils.DockerUtils.getOsName());
-                logger.warn("Download from: " + com.wireup.utils.DockerUtils.getDockerDownloadUrl());
-                logger.warn("=".repeat(60));
-
-                // Show installation dialog
-                showDockerInstallationDialog();
-                return; // Stop here, UI is still loaded
-            }
-
-            logger.info("✓ Docker is installed");
+        // Register unload handler first so an unload during bootstrap still cleans up
+        api.extension().registerUnloadingHandler(this::cleanup);
 
-            // Check if Docker is running
-            if (!com.wireup.utils.DockerUtils.isDockerRunning()) {
-                logger.warn("Docker is installed but not running");
-                logger.info("Attempting to start Docker...");
-
-                if (com.wireup.utils.DockerUtils.tryStartDocker()) {
-                    logger.info("Docker start command sent - waiting 10 seconds...");
-
-                    // Wait for Docker to start
-                    for (int i = 0; i < 20; i++) {
-                        Thread.sleep(500);
-                        if (com.wireup.utils.DockerUtils.isDockerRunning()) {
-                            logger.info("✓ Docker started successfully!");
-                            break;
-                        }
-                    }
-
-                    // Check again
-                    if (!com.wireup.utils.DockerUtils.isDockerRunning()) {
-                        logger.warn("Docker did not start automatically");
-                        logger.warn("Please start Docker Desktop manually and reload extension");
-                        return;
-                    }
-                } else {
-                    logger.warn("Could not auto-start Docker");
-                    logger.warn("Please start Docker Desktop manually and reload extension");
-                    return;
-                }
-            }
+        // Docker setup runs in the background: Burp startup must not wait on
+        // process spawns, Docker Desktop start-up or image builds
+        startBootstrap();
+    }
 
-            logger.info("✓ Docker is running");
-            logger.info("Initializing Docker manager...");
-            this.dockerManager = new DockerManager(logger);
-            logger.info("✓ Docker manager initialized");
+    /**
+     * Bootstrap pipeline. Once the Docker endpoint answers, the connection
+     * manager is published to the UI immediately while image preparation and
+     * orphan cleanup continue in parallel. The standby pool starts after both.
+     */
+    private void startBootstrap() {
+        bootstrapExecutor = Executors.newFixedThreadPool(BOOTSTRAP_THREADS, r -> {
+            Thread thread = new Thread(r, "WireUp-Bootstrap-" + bootstrapThreadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        long start = System.nanoTime();
+        setSetupStatus("Checking Docker...", false);
 
-            // Pre-build the Docker image so it's ready when user connects
-            logger.info("Preparing WireGuard+SOCKS5 Docker image...");
-            try {
-                if (!dockerManager.imageExists()) {
-                    logger.info("Building Docker image (first time setup - may take 1-2 minutes)...");
-                    dockerManager.buildImage();
-                    logger.info("✓ Docker image built successfully!");
-                } else {
-                    logger.info("✓ Docker image already exists (skipping build)");
-                }
-            } catch (Exception e) {
-                logger.warn("Failed to build Docker image: " + e.getMessage());
-                logger.warn("Image will be built when you first connect to VPN");
-                // Don't fail - image can be built on first connect
-            }
+        CompletableFuture<DockerManager> docker = CompletableFuture.supplyAsync(this::awaitDocker, bootstrapExecutor);
 
+        CompletableFuture<ConnectionManager> connection = docker.thenApplyAsync(manager -> {
             logger.info("Initializing connection manager...");
-            this.connectionManager = new ConnectionManager(api, dockerManager, logger);
-            logger.info("✓ Connection manager initialized");
-
-            // Update the tab with the real connection manager
+            ConnectionManager connectionManager = new ConnectionManager(api, manager, logger);
+            this.connectionManager = connectionManager;
             if (mainTab != null) {
                 mainTab.setConnectionManager(connectionManager);
                 logger.info("✓ UI connected to connection manager");
             }
+            registerMBeans(connectionManager);
+            logger.info("✓ Connect available after " + elapsedMs(start) + " ms");
+            return connectionManager;
+        }, bootstrapExecutor);
 
-            // Register unload handler
-            api.extension().registerUnloadingHandler(this::cleanup);
+        CompletableFuture<Void> images = docker.thenAcceptAsync(this::prepareImages, bootstrapExecutor);
+        CompletableFuture<Void> orphans = docker.thenAcceptAsync(manager -> {
+            logger.info("Removing orphaned containers...");
+            manager.removeOrphanedContainers();
+        }, bootstrapExecutor);
 
+        CompletableFuture.allOf(connection, images, orphans).whenComplete((ignored, error) -> {
+            if (error != null) {
+                onBootstrapFailed(error);
+                return;
+            }
+            if (unloading) {
+                return;
+            }
+            dockerManager.startContainerPool();
+            setSetupStatus("Ready", false);
             logger.info("=".repeat(60));
-            logger.info("✓ WireUp extension loaded successfully!");
+            logger.info("✓ WireUp extension loaded successfully! (setup " + elapsedMs(start) + " ms)");
             logger.info("  Check 'WireUp' tab in Burp Suite main window");
             logger.info("=".repeat(60));
+            bootstrapExecutor.shutdown();
+        });
+    }
+
+    /**
+     * Expose connection state and tunnel metrics over JMX
+     */
+    private synchronized void registerMBeans(ConnectionManager connectionManager) {
+        if (unloading) {
+            return;
+        }
+        MBeanRegistry registry = new MBeanRegistry(connectionManager, logger);
+        registry.register();
+        this.mbeans = registry;
+    }
+
+    /**
+     * Probe the Docker endpoint, starting Docker if it is installed but not
+     * running, and create the Docker manager
+     */
+    private DockerManager awaitDocker() {
+        DockerProbe probe = new DockerProbe(logger);
+        try {
+            logger.info("Checking Docker availability (" + probe.getDockerHost() + ")...");
+            DockerProbe.Status status = probe.probe();
+
+            if (status == DockerProbe.Status.DAEMON_DOWN) {
+                logger.warn("Docker is installed but not running");
+                status = startDocker(probe);
+            }
+
+            switch (status) {
+                case AVAILABLE:
+                    break;
 
+                case NOT_INSTALLED:
+                    logger.warn("=".repeat(60));
+                    logger.warn("Docker is NOT installed on this system");
+                    logger.warn("OS: " + com.wireup.utils.DockerUtils.getOsName());
+                    logger.warn("Download from: " + com.wireup.utils.DockerUtils.getDockerDownloadUrl());
+                    logger.warn("=".repeat(60));
+
+                    // Show installation dialog
+                    showDockerInstallationDialog();
+                    throw new Exception(status.getDescription());
+
+                case PERMISSION_DENIED:
+                    logger.warn("Cannot access " + probe.getDockerHost() + ": " + probe.getDetail());
+                    logger.warn("Add your user to the 'docker' group (Linux) or check Docker Desktop settings");
+                    throw new Exception(status.getDescription());
+
+                default:
+                    logger.warn("Please start Docker Desktop manually and reload extension");
+                    throw new Exception(status.getDescription());
+            }
+
+            logger.info("✓ Docker is running");
+            DockerManager manager = new DockerManager(logger);
+            logger.info("✓ Docker manager initialized");
+            if (unloading) {
+                manager.cleanup();
+                throw new Exception("Extension unloaded during setup");
+            }
+            this.dockerManager = manager;
+            setSetupStatus("Preparing images...", false);
+            return manager;
+        } catch (Exception e) {
+            throw new CompletionException(e);
+        } finally {
+            probe.close();
+        }
+    }
+
+    private DockerProbe.Status startDocker(DockerProbe probe) throws Exception {
+        logger.info("Attempting to start Docker...");
+        setSetupStatus("Starting Docker...", false);
+
+        if (!com.wireup.utils.DockerUtils.tryStartDocker()) {
+            logger.warn("Could not auto-start Docker");
+            return probe.probe();
+        }
+
+        logger.info("Docker start command sent - waiting up to " + DOCKER_START_TIMEOUT_MS / 1000 + " seconds...");
+        DockerProbe.Status status = probe.awaitAvailable(DOCKER_START_TIMEOUT_MS);
+        if (status == DockerProbe.Status.AVAILABLE) {
+            logger.info("✓ Docker started successfully!");
+        } else {
+            logger.warn("Docker did not start automatically");
+        }
+        return status;
+    }
+
+    /**
+     * Pre-build the Docker images so they are ready when the user connects
+     */
+    private void prepareImages(DockerManager manager) {
+        logger.info("Preparing WireGuard+SOCKS5 Docker image...");
+        try {
+            if (!manager.imageExists()) {
+                logger.info("Building Docker images (first time setup - may take 1-2 minutes)...");
+                setSetupStatus("Building images (connect available)...", false);
+                manager.ensureImage();
+                logger.info("✓ Docker images built successfully!");
+            } else {
+                logger.info("✓ Docker images already exist (skipping build)");
+            }
         } catch (Exception e) {
-            logger.error("WARNING: Failed to initialize Docker components: " + e.getMessage(), e);
-            logger.warn("=".repeat(60));
-            logger.warn("WireUp UI is available, but VPN features are disabled");
-            logger.warn("Reason: " + e.getMessage());
-            logger.warn("Fix: Ensure Docker Desktop is running and try reloading extension");
-            logger.warn("=".repeat(60));
-            // Don't throw - extension can still load with UI only
+            logger.warn("Failed to build Docker image: " + e.getMessage());
+            logger.warn("Image will be built when you first connect to VPN");
+            // Don't fail - image can be built on first connect
         }
     }
 
+    private void onBootstrapFailed(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        logger.error("WARNING: Failed to initialize Docker components: " + cause.getMessage(), cause);
+        logger.warn("=".repeat(60));
+        logger.warn("WireUp UI is available, but VPN features are disabled");
+        logger.warn("Reason: " + cause.getMessage());
+        logger.warn("Fix: Ensure Docker Desktop is running and try reloading extension");
+        logger.warn("=".repeat(60));
+        setSetupStatus(cause.getMessage(), true);
+        bootstrapExecutor.shutdown();
+    }
+
+    private void setSetupStatus(String status, boolean failed) {
+        if (mainTab != null) {
+            mainTab.setSetupStatus(status, failed);
+        }
+    }
+
+    private static long elapsedMs(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
+
     /**
      * Show Docker installation dialog with instructions
      */
@@ -167,10 +275,21 @@ public class WireUpExtension implements BurpExtension {
      */
     private void cleanup() {
         logger.info("WireUp extension unloading...");
+        unloading = true;
+        if (bootstrapExecutor != null) {
+            bootstrapExecutor.shutdownNow();
+        }
 
         try {
+            synchronized (this) {
+                if (mbeans != null) {
+                    mbeans.unregister();
+                }
+            }
+
             if (connectionManager != null) {
                 connectionManager.disconnect();
+                connectionManager.shutdown();
             }
 
             if (dockerManager != null) {
@@ -0,0 +1,215 @@
+package com.wireup.docker;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Boot profile, per-stage timings, the tunnel data plane, the chosen MTU and
+ * checksum offload policy reported by start.sh through "WIREUP_PROFILE",
+ * "WIREUP_STAGE", "WIREUP_DATAPLANE", "WIREUP_MTU" and "WIREUP_OFFLOAD" log lines
+ */
+public class BootReport {
+
+    private static final String PROFILE_MARKER = "WIREUP_PROFILE ";
+    private static final String STAGE_MARKER = "WIREUP_STAGE ";
+    private static final String MTU_MARKER = "WIREUP_MTU ";
+    private static final String OFFLOAD_MARKER = "WIREUP_OFFLOAD ";
+    private static final String DATA_PLANE_MARKER = "WIREUP_DATAPLANE ";
+
+    private volatile String profile;
+    private volatile int mtu;
+    private volatile String mtuSource;
+    private volatile int pathMtu;
+    private volatile String mtuEndpoint;
+    private volatile String offloadPolicy;
+    private volatile String offloadTest;
+    private volatile String dataPlane;
+    private final Map<String, Long> stages = new LinkedHashMap<>();
+
+    /**
+     * Record the line if it is a profile or stage marker
+     *
+     * @return true if the line was a boot marker
+     */
+    public boolean accept(String line) {
+        if (line.startsWith(PROFILE_MARKER)) {
+            profile = line.substring(PROFILE_MARKER.length()).trim();
+            return true;
+        }
+
+        if (line.startsWith(STAGE_MARKER)) {
+            String[] parts = line.substring(STAGE_MARKER.length()).trim().split("\\s+");
+            if (parts.length == 2) {
+                try {
+                    synchronized (stages) {
+                        stages.put(parts[0], Long.parseLong(parts[1]));
+                    }
+                } catch (NumberFormatException e) {
+                    // Not a timing line
+                }
+            }
+            return true;
+        }
+
+        if (line.startsWith(MTU_MARKER)) {
+            // "<tunnel mtu> <probed|cached|fallback|default|override> <path mtu, 0 if unknown> [endpoint]"
+            String[] parts = line.substring(MTU_MARKER.length()).trim().split("\\s+");
+            if (parts.length == 3 || parts.length == 4) {
+                try {
+                    mtuEndpoint = parts.length == 4 ? parts[3] : null;
+                    pathMtu = Integer.parseInt(parts[2]);
+                    mtuSource = parts[1];
+                    mtu = Integer.parseInt(parts[0]);
+                } catch (NumberFormatException e) {
+                    // Not an MTU line
+                }
+            }
+            return true;
+        }
+
+        if (line.startsWith(DATA_PLANE_MARKER)) {
+            dataPlane = line.substring(DATA_PLANE_MARKER.length()).trim();
+            return true;
+        }
+
+        if (line.startsWith(OFFLOAD_MARKER)) {
+            // "<none|fill|legacy|inconclusive> <passed|failed|forced>"
+            String[] parts = line.substring(OFFLOAD_MARKER.length()).trim().split("\\s+");
+            if (parts.length == 2) {
+                offloadTest = parts[1];
+                offloadPolicy = parts[0];
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Profile the container booted with, or null for images without boot markers
+     */
+    public String getProfile() {
+        return profile;
+    }
+
+    /**
+     * Stage name to duration in ms, in boot order
+     */
+    public Map<String, Long> getStages() {
+        synchronized (stages) {
+            return new LinkedHashMap<>(stages);
+        }
+    }
+
+    /**
+     * Tunnel interface MTU, or 0 for images without the MTU marker
+     */
+    public int getMtu() {
+        return mtu;
+    }
+
+    /**
+     * How the MTU was chosen: probed, cached (path MTU known from an earlier
+     * boot), fallback (probe not confirmed through the tunnel), default
+     * (endpoint did not answer probes) or override
+     */
+    public String getMtuSource() {
+        return mtuSource;
+    }
+
+    /**
+     * Probed path MTU to the VPN endpoint, or 0 if it was not probed
+     */
+    public int getPathMtu() {
+        return pathMtu;
+    }
+
+    /**
+     * VPN endpoint the path MTU applies to, or null if not reported
+     */
+    public String getMtuEndpoint() {
+        return mtuEndpoint;
+    }
+
+    /**
+     * e.g. "1420 (probed, path 1480)", or null if no MTU was reported
+     */
+    public String describeMtu() {
+        if (mtu <= 0) {
+            return null;
+        }
+        return mtu + " (" + mtuSource + (pathMtu > 0 ? ", path " + pathMtu : "") + ")";
+    }
+
+    /**
+     * "kernel", "wireguard-go" or "openvpn", or null for images without the
+     * data plane marker
+     */
+    public String getDataPlane() {
+        return dataPlane;
+    }
+
+    /**
+     * Checksum offload policy the container applied (none, fill or legacy),
+     * "inconclusive" if the self-test never got through and fill was kept,
+     * or null for images without the offload marker
+     */
+    public String getOffloadPolicy() {
+        return offloadPolicy;
+    }
+
+    /**
+     * Outcome of the TCP self-test that chose the policy: passed, failed
+     * (target unreachable, see {@link #getOffloadPolicy()}) or forced
+     */
+    public String getOffloadTest() {
+        return offloadTest;
+    }
+
+    /**
+     * Tunnel link settings for display, e.g.
+     * "kernel, MTU 1420 (probed, path 1480), checksum none",
+     * or null if the image reported none
+     */
+    public String describeLink() {
+        StringBuilder sb = new StringBuilder();
+        if (dataPlane != null) {
+            sb.append(dataPlane);
+        }
+        if (mtu > 0) {
+            sb.append(sb.length() > 0 ? ", " : "").append("MTU ").append(describeMtu());
+        }
+        if (offloadPolicy != null) {
+            sb.append(sb.length() > 0 ? ", " : "").append("checksum ")
+                    .append("inconclusive".equals(offloadPolicy) ? "fill (self-test inconclusive)" : offloadPolicy);
+        }
+        return sb.length() > 0 ? sb.toString() : null;
+    }
+
+    public long getTotalMs() {
+        long total = 0;
+        for (long ms : getStages().values()) {
+            total += ms;
+        }
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(profile != null ? profile : "unknown").append(" boot");
+        for (Map.Entry<String, Long> stage : getStages().entrySet()) {
+            sb.append(", ").append(stage.getKey()).append(' ').append(stage.getValue()).append(" ms");
+        }
+        sb.append(" (total ").append(getTotalMs()).append(" ms)");
+        if (dataPlane != null) {
+            sb.append(", ").append(dataPlane).append(" data plane");
+        }
+        if (mtu > 0) {
+            sb.append(", MTU ").append(describeMtu());
+        }
+        if (offloadPolicy != null) {
+            sb.append(", checksum ").append(offloadPolicy).append(" (").append(offloadTest).append(')');
+        }
+        return sb.toString();
+    }
+}
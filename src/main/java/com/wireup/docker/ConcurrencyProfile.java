@@ -0,0 +1,169 @@
+package com.wireup.docker;
+
+import com.github.dockerjava.api.model.Ulimit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Container limits sized together for a target number of concurrent SOCKS
+ * sessions per tunnel.
+ *
+ * Dante relays each session with two descriptors in an I/O child process that
+ * carries a few dozen sessions, and forks negotiate/request children as load
+ * grows; microsocks runs a thread per session, and the pids cgroup counts
+ * threads too. The descriptor, process and conntrack limits all have to grow
+ * with the session count; raising only one of them moves the failure elsewhere.
+ * Selected with -Dwireup.concurrency=standard|high|&lt;sessions&gt;.
+ */
+public class ConcurrencyProfile {
+
+    static final int STANDARD_SESSIONS = 256;
+    static final int HIGH_SESSIONS = 4096;
+
+    private final String name;
+    private final int sessions;
+
+    ConcurrencyProfile(String name, int sessions) {
+        this.name = name;
+        this.sessions = sessions;
+    }
+
+    public static ConcurrencyProfile fromSystemProperties() {
+        return parse(System.getProperty("wireup.concurrency", "standard"));
+    }
+
+    /**
+     * Profile for "standard", "high" or a session count; anything else is standard
+     */
+    static ConcurrencyProfile parse(String value) {
+        value = value.trim().toLowerCase();
+        if (value.equals("high")) {
+            return new ConcurrencyProfile("high", HIGH_SESSIONS);
+        }
+        try {
+            int sessions = Integer.parseInt(value);
+            if (sessions > 0) {
+                return new ConcurrencyProfile(sessions + " sessions", sessions);
+            }
+        } catch (NumberFormatException e) {
+            // Fall through to the standard profile
+        }
+        return new ConcurrencyProfile("standard", STANDARD_SESSIONS);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getSessions() {
+        return sessions;
+    }
+
+    /**
+     * Open files: two sockets per session plus headroom for Dante's
+     * inter-process pipes and the tunnel daemon
+     */
+    public long getNofile() {
+        return Math.max(4096, sessions * 4L + 1024);
+    }
+
+    /**
+     * Processes and threads for the engine, both counted by the pids cgroup.
+     *
+     * Dante: one single-threaded I/O child per 32 sessions (its compiled-in
+     * default), negotiate and request children that follow the rate of new
+     * sessions rather than their number, so sessions / 8 leaves room for a
+     * burst of them; the standard profile keeps the previous limit of 100.
+     * microsocks: one thread per session plus its listener. Both get 64 on top
+     * for the VPN daemon (wireguard-go alone runs a dozen threads), dnsmasq,
+     * the shell and execs.
+     */
+    public long getPidsLimit(SocksEngine engine) {
+        if (engine == SocksEngine.MICROSOCKS) {
+            return sessions + 64L;
+        }
+        return Math.max(100, sessions / 8 + 64);
+    }
+
+    /**
+     * Processes for a standby container, whose engine is only chosen when a
+     * tunnel claims it: enough for any engine
+     */
+    public long getPidsLimit() {
+        long limit = 0;
+        for (SocksEngine engine : SocksEngine.values()) {
+            limit = Math.max(limit, getPidsLimit(engine));
+        }
+        return limit;
+    }
+
+    /**
+     * Conntrack entries: each session is tracked on the Burp side and on the
+     * tunnel side
+     */
+    public long getConntrackMax() {
+        return Math.max(65536, sessions * 4L);
+    }
+
+    /**
+     * @param pidsLimit the container's pids limit, which nproc matches
+     */
+    public List<Ulimit> getUlimits(long pidsLimit) {
+        return Arrays.asList(
+                new Ulimit("nofile", getNofile(), getNofile()),
+                new Ulimit("nproc", pidsLimit, pidsLimit));
+    }
+
+    /**
+     * Namespaced sysctls for bridge mode (a host-network container cannot set
+     * them): accept backlog for bursts of new sessions and the local port range
+     * for Dante's outgoing connections
+     */
+    public Map<String, String> getSysctls() {
+        Map<String, String> sysctls = new LinkedHashMap<>();
+        sysctls.put("net.core.somaxconn", String.valueOf(Math.min(65535, Math.max(1024, sessions))));
+        sysctls.put("net.ipv4.ip_local_port_range", "1024 65535");
+        return sysctls;
+    }
+
+    /**
+     * Container environment consumed by start.sh
+     */
+    public List<String> getEnv() {
+        List<String> env = new ArrayList<>();
+        env.add("WIREUP_CONNTRACK_MAX=" + getConntrackMax());
+        return env;
+    }
+
+    /**
+     * Matching Dante server settings, rendered into danted.conf by {@link DanteConfig}
+     */
+    public List<String> getDanteSettings() {
+        boolean high = sessions > STANDARD_SESSIONS;
+        List<String> settings = new ArrayList<>();
+        if (high) {
+            // Recycle children periodically so a long scan does not grow them forever
+            settings.add("child.maxrequests: 10000");
+        }
+        // Give up on stalled clients and targets sooner when many sessions queue up
+        settings.add("timeout.negotiate: " + (high ? 10 : 30));
+        settings.add("timeout.connect: " + (high ? 15 : 30));
+        // Idle relays hold two descriptors each; Dante's default is a day
+        settings.add("timeout.io: " + (high ? 300 : 86400));
+        if (high) {
+            settings.add("timeout.tcp_fin_wait: 15");
+        }
+        return settings;
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + sessions + " sessions: nofile " + getNofile() + ", pids "
+                + getPidsLimit(SocksEngine.DANTE) + " dante / " + getPidsLimit(SocksEngine.MICROSOCKS)
+                + " microsocks, conntrack " + getConntrackMax() + ")";
+    }
+}
@@ -1,47 +1,73 @@
 package com.wireup.docker;
 
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.async.ResultCallback;
+import com.github.dockerjava.api.model.Container;
+import com.github.dockerjava.api.model.Event;
 import com.wireup.utils.Logger;
 
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.function.Consumer;
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 
 /**
- * Monitors container health and triggers callbacks on status changes
+ * Monitors container health and triggers callbacks on status changes.
+ *
+ * Follows the Docker event stream for WireUp-labelled containers and keeps the
+ * shared {@link ContainerStateCache} up to date. When the stream is lost it is
+ * re-attached with backoff and the cache is resynced from a full listing, since
+ * events in between are not replayed.
  */
 public class ContainerHealthMonitor {
 
-    private static final long CHECK_INTERVAL_MS = 5000; // 5 seconds
+    private static final String[] EVENTS = { "start", "die", "oom", "stop", "health_status", "destroy" };
+    private static final long INITIAL_RETRY_MS = 1000;
+    private static final long MAX_RETRY_MS = 30000;
 
     private final DockerManager dockerManager;
     private final Logger logger;
-    private Timer timer;
-    private boolean lastKnownState;
-    private Consumer<Boolean> statusChangeCallback;
+    private final ContainerStateCache stateCache;
+    private final Object lock = new Object();
+
+    private ScheduledExecutorService executor;
+    private ResultCallback.Adapter<Event> eventCallback;
+    private long retryDelayMs = INITIAL_RETRY_MS;
+    private final Map<Tunnel, Boolean> lastKnownStates = new ConcurrentHashMap<>();
+    private volatile BiConsumer<Tunnel, Boolean> statusChangeCallback;
 
     public ContainerHealthMonitor(DockerManager dockerManager, Logger logger) {
         this.dockerManager = dockerManager;
         this.logger = logger;
-        this.lastKnownState = false;
+        this.stateCache = dockerManager.getStateCache();
     }
 
     /**
-     * Start monitoring with a callback for status changes
+     * Start monitoring with a callback for running/stopped changes of the
+     * tunnels' containers
      */
-    public void startMonitoring(Consumer<Boolean> statusChangeCallback) {
+    public void startMonitoring(BiConsumer<Tunnel, Boolean> statusChangeCallback) {
         this.statusChangeCallback = statusChangeCallback;
 
-        if (timer != null) {
-            timer.cancel();
+        synchronized (lock) {
+            if (executor != null) {
+                return;
+            }
+            executor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "WireUp-HealthMonitor");
+                thread.setDaemon(true);
+                return thread;
+            });
         }
 
-        timer = new Timer("WireUp-HealthMonitor", true);
-        timer.scheduleAtFixedRate(new TimerTask() {
-            @Override
-            public void run() {
-                checkHealth();
-            }
-        }, 0, CHECK_INTERVAL_MS);
+        stateCache.addListener(this::onStateChange);
+        executor.execute(this::attach);
 
         logger.debug("Health monitoring started");
     }
@@ -50,28 +76,152 @@ public class ContainerHealthMonitor {
      * Stop monitoring
      */
     public void stopMonitoring() {
-        if (timer != null) {
-            timer.cancel();
-            timer = null;
+        synchronized (lock) {
+            if (executor != null) {
+                executor.shutdownNow();
+                executor = null;
+            }
+            closeQuietly(eventCallback);
+            eventCallback = null;
         }
         logger.debug("Health monitoring stopped");
     }
 
-    private void checkHealth() {
+    /**
+     * Subscribe to the event stream, then resync so nothing between the last
+     * event seen and the new subscription is missed
+     */
+    private void attach() {
+        DockerClient dockerClient = dockerManager.getDockerClient();
         try {
-            boolean currentState = dockerManager.isContainerRunning();
+            ResultCallback.Adapter<Event> callback = dockerClient.eventsCmd()
+                    .withLabelFilter(Collections.singletonMap(DockerManager.MANAGED_LABEL, "true"))
+                    .withEventFilter(EVENTS)
+                    .exec(new ResultCallback.Adapter<Event>() {
+                        @Override
+                        public void onNext(Event event) {
+                            onEvent(event);
+                        }
+
+                        @Override
+                        public void onError(Throwable throwable) {
+                            onStreamLost(this, throwable.getMessage());
+                        }
 
-            // Only trigger callback if state changed
-            if (currentState != lastKnownState) {
-                logger.info("Container state changed: " + (currentState ? "RUNNING" : "STOPPED"));
-                lastKnownState = currentState;
+                        @Override
+                        public void onComplete() {
+                            onStreamLost(this, "stream closed");
+                        }
+                    });
 
-                if (statusChangeCallback != null) {
-                    statusChangeCallback.accept(currentState);
+            synchronized (lock) {
+                if (executor == null) {
+                    closeQuietly(callback);
+                    return;
                 }
+                eventCallback = callback;
             }
+
+            resync(dockerClient);
+            retryDelayMs = INITIAL_RETRY_MS;
         } catch (Exception e) {
-            logger.debug("Error during health check: " + e.getMessage());
+            logger.debug("Could not attach to Docker events: " + e.getMessage());
+            scheduleReattach();
+        }
+    }
+
+    private void resync(DockerClient dockerClient) {
+        List<Container> containers = dockerClient.listContainersCmd()
+                .withShowAll(true)
+                .withLabelFilter(Collections.singletonMap(DockerManager.MANAGED_LABEL, "true"))
+                .exec();
+
+        Map<String, ContainerStateCache.ContainerState> snapshot = new HashMap<>();
+        for (Container container : containers) {
+            boolean running = "running".equalsIgnoreCase(container.getState());
+            snapshot.put(container.getId(),
+                    new ContainerStateCache.ContainerState(container.getId(), running, null, "resync"));
+        }
+        stateCache.resync(snapshot);
+        logger.debug("Container state resynced (" + snapshot.size() + " managed containers)");
+    }
+
+    private void onStreamLost(ResultCallback.Adapter<Event> callback, String reason) {
+        synchronized (lock) {
+            // Ignore callbacks closed on purpose
+            if (callback != eventCallback || executor == null) {
+                return;
+            }
+            eventCallback = null;
+        }
+        logger.debug("Docker event stream lost (" + reason + "), reattaching");
+        scheduleReattach();
+    }
+
+    private void scheduleReattach() {
+        synchronized (lock) {
+            if (executor == null) {
+                return;
+            }
+            executor.schedule(this::attach, retryDelayMs, TimeUnit.MILLISECONDS);
+        }
+        retryDelayMs = Math.min(retryDelayMs * 2, MAX_RETRY_MS);
+    }
+
+    private void onEvent(Event event) {
+        String id = event.getId();
+        String action = event.getAction() != null ? event.getAction() : event.getStatus();
+        if (id == null || action == null) {
+            return;
+        }
+
+        if (action.equals("start")) {
+            stateCache.setRunning(id, true, action);
+        } else if (action.equals("die") || action.equals("stop")) {
+            stateCache.setRunning(id, false, action);
+        } else if (action.equals("oom")) {
+            logger.warn("Container ran out of memory: " + id);
+            stateCache.setHealth(id, "oom", action);
+        } else if (action.equals("destroy")) {
+            stateCache.remove(id, action);
+        } else if (action.startsWith("health_status")) {
+            String health = action.substring(action.indexOf(':') + 1).trim();
+            stateCache.setHealth(id, health, action);
+        }
+    }
+
+    private void onStateChange(ContainerStateCache.ContainerState state) {
+        Tunnel tunnel = dockerManager.findTunnelByContainerId(state.getId());
+        if (tunnel == null) {
+            return;
+        }
+
+        if ("unhealthy".equals(state.getHealth())) {
+            logger.warn("Container reported unhealthy: " + state.getId() + " (tunnel " + tunnel + ")");
+        }
+
+        boolean currentState = state.isRunning();
+        Boolean previous = lastKnownStates.put(tunnel, currentState);
+
+        // Only trigger callback if state changed
+        if (previous == null || currentState != previous) {
+            logger.info("Container state changed: " + (currentState ? "RUNNING" : "STOPPED")
+                    + " (tunnel " + tunnel + ", " + state.getLastEvent() + ")");
+
+            BiConsumer<Tunnel, Boolean> callback = statusChangeCallback;
+            if (callback != null) {
+                callback.accept(tunnel, currentState);
+            }
+        }
+    }
+
+    private void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (Exception e) {
+                // Ignore
+            }
         }
     }
 }
@@ -0,0 +1,69 @@
+package com.wireup.docker;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Recognises fatal tunnel failures in container log output so a connect can
+ * be aborted as soon as the cause is known
+ */
+public class ContainerLogClassifier {
+
+    /**
+     * Typed reason for a failed connect
+     */
+    public enum FailureReason {
+        AUTH_FAILED("VPN server rejected the credentials"),
+        TLS_HANDSHAKE_FAILED("TLS handshake with the VPN server failed"),
+        CONFIG_ERROR("VPN client rejected the configuration"),
+        VPN_START_FAILED("VPN client failed to start"),
+        INTERFACE_TIMEOUT("VPN interface did not come up"),
+        HANDSHAKE_TIMEOUT("WireGuard handshake with the peer never completed"),
+        NO_TUNNEL_IP("VPN interface has no IP address"),
+        CONTAINER_EXITED("Container exited");
+
+        private final String description;
+
+        FailureReason(String description) {
+            this.description = description;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+    }
+
+    // Checked in order, first match wins
+    private static final Map<String, FailureReason> PATTERNS = new LinkedHashMap<>();
+
+    static {
+        PATTERNS.put("AUTH_FAILED", FailureReason.AUTH_FAILED);
+        PATTERNS.put("TLS Error: TLS handshake failed", FailureReason.TLS_HANDSHAKE_FAILED);
+        PATTERNS.put("TLS Error: TLS key negotiation failed", FailureReason.TLS_HANDSHAKE_FAILED);
+        PATTERNS.put("TLS_ERROR", FailureReason.TLS_HANDSHAKE_FAILED);
+        PATTERNS.put("Options error:", FailureReason.CONFIG_ERROR);
+        PATTERNS.put("WireGuard failed to start", FailureReason.VPN_START_FAILED);
+        PATTERNS.put("OpenVPN failed to start", FailureReason.VPN_START_FAILED);
+        PATTERNS.put("Timeout waiting for", FailureReason.INTERFACE_TIMEOUT);
+        PATTERNS.put("FATAL: WireGuard handshake", FailureReason.HANDSHAKE_TIMEOUT);
+        PATTERNS.put("FATAL: Could not detect IP", FailureReason.NO_TUNNEL_IP);
+    }
+
+    /**
+     * Classify a single log line
+     *
+     * @return the failure reason, or null if the line is not fatal
+     */
+    public FailureReason classify(String line) {
+        if (line == null || line.isEmpty()) {
+            return null;
+        }
+
+        for (Map.Entry<String, FailureReason> entry : PATTERNS.entrySet()) {
+            if (line.contains(entry.getKey())) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+}
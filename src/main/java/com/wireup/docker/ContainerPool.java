@@ -0,0 +1,270 @@
+package com.wireup.docker;
+
+import com.wireup.utils.VpnLogger;
+import com.wireup.vpn.VpnConfig;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of pre-created, pre-started standby containers.
+ *
+ * Standby containers have run the config-independent part of start.sh (tun
+ * device, offload fixes, rp_filter) and wait for a config to be injected, so a
+ * connect only pays for tunnel setup. Claimed containers are replaced in the
+ * background; idle ones are recycled after the configured TTL. Images are per
+ * protocol, so the pool is kept for the protocol that was used last.
+ */
+public class ContainerPool {
+
+    private static final long EVICTION_INTERVAL_SECONDS = 30;
+
+    /**
+     * Pool sizing, read from -Dwireup.pool.* system properties
+     */
+    public static class Settings {
+        private final int size;
+        private final long idleTtlMs;
+        private final long memoryCeilingBytes;
+        private final VpnConfig.VpnType initialType;
+
+        public Settings(int size, long idleTtlMs, long memoryCeilingBytes, VpnConfig.VpnType initialType) {
+            this.size = size;
+            this.idleTtlMs = idleTtlMs;
+            this.memoryCeilingBytes = memoryCeilingBytes;
+            this.initialType = initialType;
+        }
+
+        /**
+         * Disabled by default: standby containers publish SOCKS on an ephemeral
+         * host port rather than 1080, so the Burp upstream proxy port changes
+         */
+        public static Settings fromSystemProperties() {
+            return new Settings(
+                    Integer.getInteger("wireup.pool.size", 0),
+                    Long.getLong("wireup.pool.idleTtlSeconds", 600L) * 1000,
+                    Long.getLong("wireup.pool.memoryCeilingMb", 1024L) * 1024 * 1024,
+                    "openvpn".equalsIgnoreCase(System.getProperty("wireup.pool.protocol"))
+                            ? VpnConfig.VpnType.OPENVPN
+                            : VpnConfig.VpnType.WIREGUARD);
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public long getIdleTtlMs() {
+            return idleTtlMs;
+        }
+
+        public long getMemoryCeilingBytes() {
+            return memoryCeilingBytes;
+        }
+
+        public VpnConfig.VpnType getInitialType() {
+            return initialType;
+        }
+    }
+
+    /**
+     * A started standby container and the host port its SOCKS port is published on
+     */
+    public static class PooledContainer {
+        private final String id;
+        private final VpnConfig.VpnType type;
+        private final int hostPort;
+        private final long createdAt;
+
+        public PooledContainer(String id, VpnConfig.VpnType type, int hostPort, long createdAt) {
+            this.id = id;
+            this.type = type;
+            this.hostPort = hostPort;
+            this.createdAt = createdAt;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public VpnConfig.VpnType getType() {
+            return type;
+        }
+
+        public int getHostPort() {
+            return hostPort;
+        }
+
+        public long getCreatedAt() {
+            return createdAt;
+        }
+    }
+
+    private final DockerManager dockerManager;
+    private final VpnLogger logger;
+    private final Settings settings;
+    private final Deque<PooledContainer> idle = new ArrayDeque<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private ScheduledExecutorService executor;
+    private volatile VpnConfig.VpnType poolType;
+
+    public ContainerPool(DockerManager dockerManager, VpnLogger logger, Settings settings) {
+        this.dockerManager = dockerManager;
+        this.logger = logger;
+        this.settings = settings;
+        this.poolType = settings.getInitialType();
+    }
+
+    /**
+     * Start filling the pool and the periodic TTL eviction
+     */
+    public synchronized void start() {
+        if (getTargetSize() == 0 || executor != null) {
+            return;
+        }
+
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "WireUp-ContainerPool");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.execute(this::refill);
+        executor.scheduleWithFixedDelay(this::evictExpired, EVICTION_INTERVAL_SECONDS,
+                EVICTION_INTERVAL_SECONDS, TimeUnit.SECONDS);
+
+        logger.info("Standby container pool enabled (size " + getTargetSize() + ")");
+    }
+
+    /**
+     * Take a standby container for the given protocol, or null on a pool miss.
+     * A replacement is started in the background either way; when the protocol
+     * differs from the pool's, the pool switches to it.
+     */
+    public PooledContainer claim(VpnConfig.VpnType type) {
+        PooledContainer container = null;
+        Deque<PooledContainer> discarded = new ArrayDeque<>();
+        synchronized (this) {
+            if (type != poolType) {
+                poolType = type;
+                discarded.addAll(idle);
+                idle.clear();
+            } else {
+                container = idle.pollFirst();
+            }
+            if (executor != null) {
+                executor.execute(this::refill);
+            }
+        }
+
+        for (PooledContainer stale : discarded) {
+            dockerManager.removeContainerQuietly(stale.getId());
+        }
+
+        if (container != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return container;
+    }
+
+    /**
+     * Pool size after applying the memory ceiling
+     */
+    public int getTargetSize() {
+        long byMemory = settings.getMemoryCeilingBytes() / DockerManager.CONTAINER_MEMORY_BYTES;
+        return (int) Math.max(0, Math.min(settings.getSize(), byMemory));
+    }
+
+    private void refill() {
+        while (true) {
+            synchronized (this) {
+                if (executor == null || idle.size() >= getTargetSize()) {
+                    return;
+                }
+            }
+
+            try {
+                VpnConfig.VpnType type = poolType;
+                PooledContainer container = dockerManager.createStandbyContainer(type);
+                boolean keep;
+                synchronized (this) {
+                    keep = executor != null && type == poolType;
+                    if (keep) {
+                        idle.addLast(container);
+                    }
+                }
+                if (!keep) {
+                    dockerManager.removeContainerQuietly(container.getId());
+                    return;
+                }
+                logger.debug("Standby container ready: " + container.getId() + " (port " + container.getHostPort() + ")");
+            } catch (Exception e) {
+                logger.warn("Could not create standby container: " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    private void evictExpired() {
+        long now = System.currentTimeMillis();
+        Deque<PooledContainer> expired = new ArrayDeque<>();
+
+        synchronized (this) {
+            Iterator<PooledContainer> it = idle.iterator();
+            while (it.hasNext()) {
+                PooledContainer container = it.next();
+                if (now - container.getCreatedAt() > settings.getIdleTtlMs()) {
+                    it.remove();
+                    expired.add(container);
+                }
+            }
+        }
+
+        // Removal talks to the Docker daemon, so claim() must not wait on it
+        for (PooledContainer container : expired) {
+            dockerManager.removeContainerQuietly(container.getId());
+            logger.debug("Recycled idle standby container: " + container.getId());
+        }
+
+        if (!expired.isEmpty()) {
+            refill();
+        }
+    }
+
+    /**
+     * Stop refilling and remove all idle containers
+     */
+    public void shutdown() {
+        Deque<PooledContainer> remaining;
+        synchronized (this) {
+            if (executor != null) {
+                executor.shutdownNow();
+                executor = null;
+            }
+            remaining = new ArrayDeque<>(idle);
+            idle.clear();
+        }
+
+        for (PooledContainer container : remaining) {
+            dockerManager.removeContainerQuietly(container.getId());
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public synchronized int getIdleCount() {
+        return idle.size();
+    }
+}
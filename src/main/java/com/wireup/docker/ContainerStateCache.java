@@ -0,0 +1,141 @@
+package com.wireup.docker;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Last known state of the WireUp-managed containers, fed by the Docker event
+ * stream ({@link ContainerHealthMonitor}) and by DockerManager's own actions.
+ * Readers never call the Docker API.
+ */
+public class ContainerStateCache {
+
+    /**
+     * Immutable snapshot of one container
+     */
+    public static class ContainerState {
+        private final String id;
+        private final boolean running;
+        private final String health;
+        private final String lastEvent;
+        private final long updatedAt;
+
+        public ContainerState(String id, boolean running, String health, String lastEvent) {
+            this.id = id;
+            this.running = running;
+            this.health = health;
+            this.lastEvent = lastEvent;
+            this.updatedAt = System.currentTimeMillis();
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public boolean isRunning() {
+            return running;
+        }
+
+        /**
+         * Docker health status (starting, healthy, unhealthy) or null if not reported yet
+         */
+        public String getHealth() {
+            return health;
+        }
+
+        public String getLastEvent() {
+            return lastEvent;
+        }
+
+        public long getUpdatedAt() {
+            return updatedAt;
+        }
+
+        ContainerState withRunning(boolean running, String event) {
+            return new ContainerState(id, running, running ? health : null, event);
+        }
+
+        ContainerState withHealth(String health, String event) {
+            return new ContainerState(id, running, health, event);
+        }
+    }
+
+    private final Map<String, ContainerState> states = new ConcurrentHashMap<>();
+    private final List<Consumer<ContainerState>> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Listener called with the new state after every change; removals are
+     * reported as a non-running state
+     */
+    public void addListener(Consumer<ContainerState> listener) {
+        listeners.add(listener);
+    }
+
+    public ContainerState get(String containerId) {
+        return containerId != null ? states.get(containerId) : null;
+    }
+
+    public boolean isRunning(String containerId) {
+        ContainerState state = get(containerId);
+        return state != null && state.isRunning();
+    }
+
+    public Collection<ContainerState> getAll() {
+        return Collections.unmodifiableCollection(states.values());
+    }
+
+    void setRunning(String containerId, boolean running, String event) {
+        ContainerState updated = states.compute(containerId, (id, current) -> current != null
+                ? current.withRunning(running, event)
+                : new ContainerState(id, running, null, event));
+        notifyListeners(updated);
+    }
+
+    void setHealth(String containerId, String health, String event) {
+        ContainerState updated = states.compute(containerId, (id, current) -> current != null
+                ? current.withHealth(health, event)
+                : new ContainerState(id, true, health, event));
+        notifyListeners(updated);
+    }
+
+    void remove(String containerId, String event) {
+        ContainerState removed = states.remove(containerId);
+        if (removed != null) {
+            notifyListeners(removed.withRunning(false, event));
+        }
+    }
+
+    /**
+     * Replace the cache with a full listing after the event stream was
+     * (re)attached; only containers whose state differs are reported
+     */
+    void resync(Map<String, ContainerState> snapshot) {
+        for (String id : states.keySet()) {
+            if (!snapshot.containsKey(id)) {
+                remove(id, "resync");
+            }
+        }
+
+        for (ContainerState state : snapshot.values()) {
+            ContainerState previous = states.put(state.getId(), state);
+            if (previous == null || previous.isRunning() != state.isRunning()) {
+                notifyListeners(state);
+            }
+        }
+    }
+
+    private void notifyListeners(ContainerState state) {
+        for (Consumer<ContainerState> listener : listeners) {
+            try {
+                listener.accept(state);
+            } catch (Exception e) {
+                // A failing listener must not break the event stream
+            }
+        }
+    }
+}
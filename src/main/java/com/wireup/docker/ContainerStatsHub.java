@@ -0,0 +1,135 @@
+package com.wireup.docker;
+
+import com.github.dockerjava.api.async.ResultCallback;
+import com.github.dockerjava.api.model.Statistics;
+import com.wireup.utils.VpnLogger;
+
+import java.io.Closeable;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * One Docker stats stream per container, shared by everything that reads the
+ * container's stats (resource governor, telemetry). The stream is opened for
+ * the first subscriber and closed with the last one; if Docker ends it (the
+ * container stopped or the daemon went away) every subscriber is told.
+ */
+class ContainerStatsHub {
+
+    /**
+     * A subscriber's handle; closing it unsubscribes
+     */
+    final class Subscription implements Closeable {
+        private final Stream stream;
+        private final Consumer<Statistics> onStats;
+        private final Runnable onEnd;
+
+        private Subscription(Stream stream, Consumer<Statistics> onStats, Runnable onEnd) {
+            this.stream = stream;
+            this.onStats = onStats;
+            this.onEnd = onEnd;
+        }
+
+        @Override
+        public void close() {
+            unsubscribe(this);
+        }
+    }
+
+    private final class Stream extends ResultCallback.Adapter<Statistics> {
+        final String containerId;
+        final List<Subscription> subscribers = new CopyOnWriteArrayList<>();
+
+        Stream(String containerId) {
+            this.containerId = containerId;
+        }
+
+        @Override
+        public void onNext(Statistics stats) {
+            for (Subscription subscription : subscribers) {
+                try {
+                    subscription.onStats.accept(stats);
+                } catch (Exception e) {
+                    logger.debug("Stats subscriber failed for " + containerId + ": " + e.getMessage());
+                }
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            end();
+        }
+
+        @Override
+        public void onComplete() {
+            end();
+        }
+
+        private void end() {
+            synchronized (ContainerStatsHub.this) {
+                streams.remove(containerId, this);
+            }
+            for (Subscription subscription : subscribers) {
+                subscription.onEnd.run();
+            }
+            subscribers.clear();
+            closeQuietly(this);
+        }
+    }
+
+    private final DockerManager dockerManager;
+    private final VpnLogger logger;
+    private final Map<String, Stream> streams = new HashMap<>();
+
+    ContainerStatsHub(DockerManager dockerManager, VpnLogger logger) {
+        this.dockerManager = dockerManager;
+        this.logger = logger;
+    }
+
+    /**
+     * Receive the container's stats (about one sample per second) on Docker's
+     * callback thread
+     *
+     * @param onEnd called if Docker ends the stream; the subscription is
+     *              dropped and a new one is needed for a new container
+     */
+    synchronized Subscription subscribe(String containerId, Consumer<Statistics> onStats, Runnable onEnd) {
+        Stream stream = streams.get(containerId);
+        boolean opened = false;
+        if (stream == null) {
+            stream = new Stream(containerId);
+            streams.put(containerId, stream);
+            opened = true;
+        }
+        Subscription subscription = new Subscription(stream, onStats, onEnd);
+        stream.subscribers.add(subscription);
+        if (opened) {
+            try {
+                dockerManager.getDockerClient().statsCmd(containerId).exec(stream);
+            } catch (RuntimeException e) {
+                streams.remove(containerId);
+                throw e;
+            }
+        }
+        return subscription;
+    }
+
+    private synchronized void unsubscribe(Subscription subscription) {
+        Stream stream = subscription.stream;
+        if (stream.subscribers.remove(subscription) && stream.subscribers.isEmpty()
+                && streams.remove(stream.containerId, stream)) {
+            closeQuietly(stream);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (Exception e) {
+            // Ignore
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.wireup.docker;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Renders danted.conf for one tunnel from the danted.conf.template resource,
+ * so listen address, tunnel interface, log level and the concurrency profile's
+ * tuning are decided here instead of by sed inside the container
+ */
+class DanteConfig {
+
+    private static final String TEMPLATE = "/dockerfile/danted.conf.template";
+
+    private String internal = "0.0.0.0";
+    private int port = 1080;
+    private String external;
+    private boolean verbose;
+    private ConcurrencyProfile profile;
+
+    DanteConfig internal(String address, int port) {
+        this.internal = address;
+        this.port = port;
+        return this;
+    }
+
+    /**
+     * Tunnel interface outbound connections leave through
+     */
+    DanteConfig external(String iface) {
+        this.external = iface;
+        return this;
+    }
+
+    /**
+     * Log connects and disconnects, not only errors
+     */
+    DanteConfig verbose(boolean verbose) {
+        this.verbose = verbose;
+        return this;
+    }
+
+    DanteConfig profile(ConcurrencyProfile profile) {
+        this.profile = profile;
+        return this;
+    }
+
+    String render() throws Exception {
+        String template;
+        try (InputStream in = DanteConfig.class.getResourceAsStream(TEMPLATE)) {
+            if (in == null) {
+                throw new Exception("Resource not found in JAR: " + TEMPLATE);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+            }
+            template = new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+
+        StringBuilder settings = new StringBuilder();
+        if (profile != null) {
+            settings.append("\n# Concurrency profile: ").append(profile.getName()).append('\n');
+            for (String line : profile.getDanteSettings()) {
+                settings.append(line).append('\n');
+            }
+        }
+
+        return template
+                .replace("{{INTERNAL}}", internal)
+                .replace("{{PORT}}", String.valueOf(port))
+                .replace("{{EXTERNAL}}", external)
+                .replace("{{LOG}}", verbose ? "connect disconnect error" : "error")
+                .replace("{{SETTINGS}}", settings.toString());
+    }
+}
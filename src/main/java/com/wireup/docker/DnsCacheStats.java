@@ -0,0 +1,101 @@
+package com.wireup.docker;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Counters of the container's caching resolver, parsed from the statistics
+ * dnsmasq writes to its log on SIGUSR1. Queries answered locally are cache
+ * hits; forwarded queries are misses, and their upstream latency is the
+ * average reported per server weighted by the queries sent to it.
+ */
+public class DnsCacheStats {
+
+    private static final Pattern CACHE_SIZE = Pattern.compile("cache size (\\d+)");
+    private static final Pattern QUERIES = Pattern.compile(
+            "queries forwarded (\\d+), queries answered locally (\\d+)");
+    private static final Pattern SERVER = Pattern.compile(
+            "server (\\S+): queries sent (\\d+).*avg\\. latency (\\d+)ms");
+
+    private final int cacheSize;
+    private final long forwarded;
+    private final long answeredLocally;
+    private final long averageLatencyMs;
+
+    DnsCacheStats(int cacheSize, long forwarded, long answeredLocally, long averageLatencyMs) {
+        this.cacheSize = cacheSize;
+        this.forwarded = forwarded;
+        this.answeredLocally = answeredLocally;
+        this.averageLatencyMs = averageLatencyMs;
+    }
+
+    /**
+     * Parse the last statistics dump in a dnsmasq log
+     *
+     * @return the statistics, or null if the log holds no dump
+     */
+    public static DnsCacheStats parse(String log) {
+        int dump = log.lastIndexOf("cache size ");
+        if (dump < 0) {
+            return null;
+        }
+        String lines = log.substring(dump);
+
+        Matcher size = CACHE_SIZE.matcher(lines);
+        Matcher queries = QUERIES.matcher(lines);
+        if (!size.find() || !queries.find()) {
+            return null;
+        }
+
+        long sent = 0;
+        long weightedLatency = 0;
+        Matcher server = SERVER.matcher(lines);
+        while (server.find()) {
+            long serverSent = Long.parseLong(server.group(2));
+            sent += serverSent;
+            weightedLatency += serverSent * Long.parseLong(server.group(3));
+        }
+
+        return new DnsCacheStats(Integer.parseInt(size.group(1)), Long.parseLong(queries.group(1)),
+                Long.parseLong(queries.group(2)), sent > 0 ? weightedLatency / sent : -1);
+    }
+
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
+    public long getLookups() {
+        return forwarded + answeredLocally;
+    }
+
+    public long getHits() {
+        return answeredLocally;
+    }
+
+    public long getMisses() {
+        return forwarded;
+    }
+
+    /**
+     * Fraction of lookups answered from the cache, 0 before the first lookup
+     */
+    public double getHitRate() {
+        long lookups = getLookups();
+        return lookups > 0 ? (double) answeredLocally / lookups : 0;
+    }
+
+    /**
+     * Average upstream lookup latency through the tunnel in milliseconds, -1
+     * if nothing has been forwarded yet
+     */
+    public long getAverageLatencyMs() {
+        return averageLatencyMs;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("hit rate %.0f%% (%d/%d lookups), upstream latency %s, cache size %d",
+                getHitRate() * 100, answeredLocally, getLookups(),
+                averageLatencyMs >= 0 ? averageLatencyMs + " ms" : "-", cacheSize);
+    }
+}
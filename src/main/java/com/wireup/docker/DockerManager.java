@@ -9,6 +9,8 @@ import com.github.dockerjava.api.model.Capability;
 import com.github.dockerjava.api.model.Container;
 import com.github.dockerjava.api.model.ExposedPort;
 import com.github.dockerjava.api.model.HostConfig;
+import com.github.dockerjava.api.model.Image;
+import com.github.dockerjava.api.model.Info;
 import com.github.dockerjava.api.model.PortBinding;
 import com.github.dockerjava.api.model.Ports;
 import com.github.dockerjava.api.model.Ulimit;
@@ -18,6 +20,7 @@ import com.github.dockerjava.core.DockerClientConfig;
 import com.github.dockerjava.core.DockerClientImpl;
 import com.github.dockerjava.httpclient5.ApacheDockerHttpClient;
 import com.github.dockerjava.transport.DockerHttpClient;
+import com.wireup.utils.ConnectTrace;
 import com.wireup.utils.Logger;
 import com.wireup.utils.VpnLogger;
 import com.wireup.utils.SecurityUtils;
@@ -25,11 +28,23 @@ import com.wireup.vpn.VpnConfig;
 
 import java.io.File;
 import java.io.FileWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Manages Docker containers for WireGuard VPN
@@ -37,18 +52,59 @@ import java.util.List;
 public class DockerManager {
 
     private static final String IMAGE_NAME = "wireup-vpn";
-    private static final String IMAGE_TAG = "latest";
-    private static final String CONTAINER_NAME = "wireup-vpn-container";
+    private static final String IMAGE_DIGEST_LABEL = "com.wireup.resources-digest";
+    private static final String[] IMAGE_RESOURCES = { "Dockerfile", "start.sh", "reload.sh", "dns.sh", "mtu.sh",
+            "diagnose.sh" };
+    private static final boolean DEBUG_IMAGE = Boolean.getBoolean("wireup.image.debug");
+    // "fast" skips the in-container self-tests on boot; "diagnostic" runs them before ready
+    private static final String BOOT_PROFILE = "diagnostic".equalsIgnoreCase(System.getProperty("wireup.boot.profile"))
+            ? "diagnostic"
+            : "fast";
+    static final String MANAGED_LABEL = "com.wireup.managed";
+    private static final String ROLE_LABEL = "com.wireup.role";
+    private static final String TUNNEL_LABEL = "com.wireup.tunnel";
+    private static final String ROLE_ACTIVE = "active";
+    private static final String ROLE_STANDBY = "standby";
+    private static final String STANDBY_CONFIG_DIR = "/etc/wireup";
     private static final int SOCKS_PORT = 1080;
+    private static final boolean HOST_NETWORK_REQUESTED = "host".equalsIgnoreCase(
+            System.getProperty("wireup.network.mode"));
+    // Tunnel MTU override; 0 lets start.sh probe the path MTU
+    private static final int MTU_OVERRIDE = Integer.getInteger("wireup.mtu", 0);
+    // Checksum offload policy (none, fill, legacy); unset lets start.sh self-test
+    private static final String OFFLOAD_POLICY = System.getProperty("wireup.offload.policy");
+    private static final String SELF_TEST_TARGET = System.getProperty("wireup.selfTest.target");
+    // Seconds start.sh waits for the first WireGuard handshake; 0 skips the wait
+    private static final int HANDSHAKE_TIMEOUT = Integer.getInteger("wireup.wireguard.handshakeTimeout", 10);
+    // Caching resolver in the container; TTLs in seconds, unset keeps dnsmasq's defaults
+    private static final boolean DNS_CACHE = !"false".equalsIgnoreCase(System.getProperty("wireup.dns.cache"));
+    private static final int DNS_CACHE_SIZE = Integer.getInteger("wireup.dns.cacheSize", 1000);
+    private static final Integer DNS_MIN_TTL = Integer.getInteger("wireup.dns.minTtl");
+    private static final Integer DNS_MAX_TTL = Integer.getInteger("wireup.dns.maxTtl");
+    private static final int DNS_NEGATIVE_TTL = Integer.getInteger("wireup.dns.negativeTtl", 60);
+    static final long CONTAINER_MEMORY_BYTES = 512L * 1024 * 1024;
+    static final long CONTAINER_CPU_PERIOD = 100000L;
+    static final long CONTAINER_CPU_QUOTA = 50000L;
+    private static final ConcurrencyProfile CONCURRENCY = ConcurrencyProfile.fromSystemProperties();
 
     private final VpnLogger logger;
     private final DockerClient dockerClient;
-    private String currentContainerId;
+    private final ContainerPool containerPool;
+    private final ContainerStateCache stateCache = new ContainerStateCache();
+    private final ContainerStatsHub statsHub;
+    private final Map<String, Tunnel> tunnels = new ConcurrentHashMap<>();
+    // Path MTU per VPN endpoint from earlier boots, 0 if the endpoint drops ICMP
+    private final Map<String, Integer> pathMtus = new ConcurrentHashMap<>();
     private Path tempConfigDir;
+    private String resourceDigest;
+    private volatile boolean dynamicPorts;
+    private final AtomicInteger tunnelIndex = new AtomicInteger();
+    private final boolean hostNetwork;
 
     public DockerManager(VpnLogger logger) throws Exception {
         this.logger = logger;
         this.dockerClient = createDockerClient();
+        this.statsHub = new ContainerStatsHub(this, logger);
         this.tempConfigDir = Files.createTempDirectory("wireup-");
 
         logger.debug("Docker manager initialized with temp dir: " + tempConfigDir);
@@ -57,9 +113,135 @@ public class DockerManager {
         try {
             dockerClient.pingCmd().exec();
             logger.info("Docker daemon is accessible");
+            logEngineInfo();
+            logger.info("Concurrency profile: " + CONCURRENCY);
         } catch (Exception e) {
             throw new Exception("Cannot connect to Docker daemon. Is Docker running?", e);
         }
+
+        this.containerPool = new ContainerPool(this, logger, ContainerPool.Settings.fromSystemProperties());
+        this.hostNetwork = HOST_NETWORK_REQUESTED && checkHostNetworkSupported();
+    }
+
+    /**
+     * Log the engine's OS and kernel, so boot reports (e.g. the checksum
+     * offload policy picked by the self-test) can be compared per host type
+     */
+    private void logEngineInfo() {
+        try {
+            Info info = dockerClient.infoCmd().exec();
+            logger.info("Docker engine: " + info.getOperatingSystem() + ", kernel " + info.getKernelVersion()
+                    + ", " + info.getArchitecture());
+        } catch (Exception e) {
+            logger.debug("Could not read Docker engine info: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Host network mode needs the containers to share this machine's network
+     * namespace: a Linux host with a local Docker engine, not Docker Desktop's VM
+     */
+    private boolean checkHostNetworkSupported() {
+        String dockerHost = DefaultDockerClientConfig.createDefaultConfigBuilder().build().getDockerHost().toString();
+        if (!System.getProperty("os.name", "").toLowerCase().contains("linux")) {
+            logger.warn("Host network mode is only supported on Linux, using bridge mode");
+            return false;
+        }
+        if (!dockerHost.startsWith("unix://") || dockerHost.contains("desktop")) {
+            logger.warn("Host network mode needs a local Docker engine (" + dockerHost + "), using bridge mode");
+            return false;
+        }
+        logger.info("Host network mode: tunnels share the host network, SOCKS on 127.0.0.1");
+        return true;
+    }
+
+    /**
+     * Whether tunnel containers run in the host's network namespace
+     */
+    public boolean isHostNetwork() {
+        return hostNetwork;
+    }
+
+    /**
+     * Start filling the standby pool; call after orphan cleanup so the fresh
+     * standby containers are not removed with the stale ones
+     */
+    public void startContainerPool() {
+        // Standby containers are bridge-mode containers with a published port
+        if (hostNetwork) {
+            logger.debug("Standby pool not used in host network mode");
+            return;
+        }
+        containerPool.start();
+    }
+
+    /**
+     * Get or register the tunnel with the given name. Each tunnel gets its own
+     * config directory; the default tunnel prefers host port 1080, others use
+     * any free port.
+     */
+    public Tunnel getTunnel(String name) throws Exception {
+        if (name == null || !name.matches("[A-Za-z0-9_.-]{1,32}")) {
+            throw new Exception("Invalid tunnel name: " + name);
+        }
+
+        Tunnel existing = tunnels.get(name);
+        if (existing != null) {
+            return existing;
+        }
+
+        Path configDir = tempConfigDir.resolve(name);
+        Files.createDirectories(configDir);
+        Tunnel tunnel = new Tunnel(name, tunnelIndex.getAndIncrement(), configDir,
+                Tunnel.DEFAULT_NAME.equals(name) ? SOCKS_PORT : 0);
+        Tunnel previous = tunnels.putIfAbsent(name, tunnel);
+        return previous != null ? previous : tunnel;
+    }
+
+    /**
+     * Publish every tunnel on a Docker-assigned port, ignoring preferred
+     * ports; used while the front proxy owns port 1080
+     */
+    public void setDynamicPorts(boolean dynamicPorts) {
+        this.dynamicPorts = dynamicPorts;
+    }
+
+    public Tunnel getDefaultTunnel() {
+        try {
+            return getTunnel(Tunnel.DEFAULT_NAME);
+        } catch (Exception e) {
+            throw new IllegalStateException("Cannot create default tunnel config directory", e);
+        }
+    }
+
+    public Collection<Tunnel> getTunnels() {
+        return Collections.unmodifiableCollection(tunnels.values());
+    }
+
+    /**
+     * Stop the tunnel's container and forget the tunnel
+     */
+    public void removeTunnel(Tunnel tunnel) {
+        stopAndRemoveContainer(tunnel);
+        if (!tunnel.isDefault()) {
+            tunnels.remove(tunnel.getName(), tunnel);
+            deleteDirectory(tunnel.getConfigDir());
+        }
+    }
+
+    /**
+     * Tunnel currently running in the given container, or null
+     */
+    public Tunnel findTunnelByContainerId(String containerId) {
+        if (containerId == null) {
+            return null;
+        }
+        for (Tunnel tunnel : tunnels.values()) {
+            if (containerId.equals(tunnel.getContainerId())) {
+                return tunnel;
+            }
+        }
+        return null;
     }
 
     private DockerClient createDockerClient() {
@@ -74,17 +256,20 @@ public class DockerManager {
     }
 
     /**
-     * Build the WireGuard + SOCKS5 Docker image
+     * Build the image variant (Dockerfile target) for the given VPN type
      */
-    public void buildImage() throws Exception {
-        logger.info("Building Docker image: " + IMAGE_NAME + ":" + IMAGE_TAG);
+    public void buildImage(VpnConfig.VpnType type) throws Exception {
+        String image = getImageName(type);
+        logger.info("Building Docker image: " + image);
 
         // Get Dockerfile from resources
         File dockerfileDir = getDockerfileDirectory();
 
         BuildImageCmd buildCmd = dockerClient.buildImageCmd()
                 .withDockerfile(new File(dockerfileDir, "Dockerfile"))
-                .withTags(new HashSet<>(Arrays.asList(IMAGE_NAME + ":" + IMAGE_TAG)))
+                .withTarget(getImageVariant(type))
+                .withTags(new HashSet<>(Arrays.asList(image)))
+                .withLabels(Collections.singletonMap(IMAGE_DIGEST_LABEL, getResourceDigest()))
                 .withPull(false);
 
         String imageId = buildCmd.exec(new BuildImageResultCallback())
@@ -94,11 +279,11 @@ public class DockerManager {
     }
 
     /**
-     * Check if image exists
+     * Check if the image variant for the given VPN type exists
      */
-    public boolean imageExists() {
+    public boolean imageExists(VpnConfig.VpnType type) {
         try {
-            dockerClient.inspectImageCmd(IMAGE_NAME + ":" + IMAGE_TAG).exec();
+            dockerClient.inspectImageCmd(getImageName(type)).exec();
             return true;
         } catch (Exception e) {
             return false;
@@ -106,49 +291,384 @@ public class DockerManager {
     }
 
     /**
-     * Create and start a container with the given VPN config
+     * Check if the image variants for all VPN types exist
+     */
+    public boolean imageExists() {
+        for (VpnConfig.VpnType type : VpnConfig.VpnType.values()) {
+            if (!imageExists(type)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Make sure the image variant for the current Dockerfile resources is present.
+     * A cache hit costs a single inspectImageCmd; a miss builds the image and
+     * garbage-collects images built from older resources in the background.
+     *
+     * @return true on a cache hit, false if the image was built
+     */
+    public synchronized boolean ensureImage(VpnConfig.VpnType type) throws Exception {
+        long start = System.nanoTime();
+
+        if (imageExists(type)) {
+            logger.info("Image cache hit: " + getImageName(type) + " (" + elapsedMs(start) + " ms)");
+            return true;
+        }
+
+        logger.info("Image cache miss: " + getImageName(type) + ", building...");
+        buildImage(type);
+        logger.info("Image prepared in " + elapsedMs(start) + " ms");
+
+        Thread gcThread = new Thread(this::removeStaleImages, "WireUp-ImageGC");
+        gcThread.setDaemon(true);
+        gcThread.start();
+        return false;
+    }
+
+    /**
+     * Make sure the image variants for all VPN types are present
+     */
+    public void ensureImage() throws Exception {
+        for (VpnConfig.VpnType type : VpnConfig.VpnType.values()) {
+            ensureImage(type);
+        }
+    }
+
+    /**
+     * Remove wireup-vpn images whose tag no longer matches the resource digest.
+     * Images still referenced by a container are left alone by Docker.
      */
-    public String createAndStartContainer(com.wireup.vpn.VpnConfig config) throws Exception {
-        // Stop any existing container (including orphaned ones from previous extension
-        // loads)
-        stopAndRemoveContainer();
+    private void removeStaleImages() {
+        String currentSuffix = "-" + getResourceDigest();
 
-        // Force remove old image to ensure we rebuild with latest Dockerfile
         try {
-            dockerClient.removeImageCmd(IMAGE_NAME + ":" + IMAGE_TAG)
-                    .withForce(true)
+            List<Image> images = dockerClient.listImagesCmd()
+                    .withReferenceFilter(IMAGE_NAME)
                     .exec();
-            logger.debug("Removed old image to force rebuild");
+
+            for (Image image : images) {
+                if (image.getRepoTags() == null) {
+                    continue;
+                }
+
+                for (String tag : image.getRepoTags()) {
+                    if (!tag.startsWith(IMAGE_NAME + ":") || tag.endsWith(currentSuffix)) {
+                        continue;
+                    }
+
+                    try {
+                        dockerClient.removeImageCmd(tag).exec();
+                        logger.debug("Removed stale image: " + tag);
+                    } catch (Exception e) {
+                        logger.debug("Could not remove stale image " + tag + ": " + e.getMessage());
+                    }
+                }
+            }
         } catch (Exception e) {
-            // Image might not exist, that's fine
-            logger.debug("No old image to remove");
+            logger.debug("Error collecting stale images: " + e.getMessage());
         }
+    }
+
+    /**
+     * Dockerfile target for the given VPN type
+     */
+    public String getImageVariant(VpnConfig.VpnType type) {
+        String variant = type == VpnConfig.VpnType.OPENVPN ? "openvpn" : "wireguard";
+        return DEBUG_IMAGE ? variant + "-debug" : variant;
+    }
+
+    /**
+     * Full image reference (name:variant-digest) for the given VPN type
+     */
+    public String getImageName(VpnConfig.VpnType type) {
+        return IMAGE_NAME + ":" + getImageVariant(type) + "-" + getResourceDigest();
+    }
+
+    /**
+     * SHA-256 digest of the embedded Dockerfile resources, used in image tags so
+     * an image only changes when the resources do
+     */
+    public synchronized String getResourceDigest() {
+        if (resourceDigest == null) {
+            try {
+                MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                for (String resource : IMAGE_RESOURCES) {
+                    try (java.io.InputStream inputStream = getClass()
+                            .getResourceAsStream("/dockerfile/" + resource)) {
+                        if (inputStream == null) {
+                            throw new Exception("Resource not found in JAR: /dockerfile/" + resource);
+                        }
+                        digest.update(resource.getBytes(StandardCharsets.UTF_8));
+                        digest.update(inputStream.readAllBytes());
+                    }
+                }
 
-        // Ensure image exists (will build fresh image)
-        if (!imageExists()) {
-            logger.info("Image not found, building...");
-            buildImage();
+                StringBuilder hex = new StringBuilder();
+                for (byte b : digest.digest()) {
+                    hex.append(String.format("%02x", b));
+                }
+                resourceDigest = hex.substring(0, 16);
+            } catch (Exception e) {
+                logger.warn("Could not compute image digest, falling back to 'latest': " + e.getMessage());
+                resourceDigest = "latest";
+            }
         }
+        return resourceDigest;
+    }
+
+    private static long elapsedMs(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
 
-        String configContent = config.getRawConfig();
-        String configFileName;
-        String containerConfigPath;
-        String vpnTypeEnv;
+    /**
+     * Create and start the tunnel's container with the given VPN config. A warm
+     * standby container is claimed from the pool when one is available;
+     * otherwise a new container is created with the config bind-mounted.
+     * Different tunnels can be started concurrently.
+     *
+     * @param trace receives a span per phase (cleanup, image, config, pool,
+     *              create, start)
+     */
+    public String createAndStartContainer(Tunnel tunnel, VpnConfig config, ConnectTrace trace) throws Exception {
+        synchronized (tunnel) {
+            // Stop the tunnel's existing container (including orphaned ones from previous extension
+            // loads)
+            ConnectTrace.Span cleanupSpan = trace.span("cleanup");
+            try {
+                stopAndRemoveContainer(tunnel);
+            } catch (Exception e) {
+                cleanupSpan.error(e);
+                throw e;
+            } finally {
+                cleanupSpan.end();
+            }
+
+            // Reuse the image built from the current resources, rebuild only if they changed
+            ConnectTrace.Span imageSpan = trace.span("image");
+            try {
+                imageSpan.attr("cache_hit", ensureImage(config.getType()));
+            } catch (Exception e) {
+                imageSpan.error(e);
+                throw e;
+            } finally {
+                imageSpan.end();
+            }
+
+            ConnectTrace.Span configSpan = trace.span("config");
+            String vpnTypeEnv = config.getType() == VpnConfig.VpnType.OPENVPN ? "openvpn" : "wireguard";
+            File configFile;
+            try {
+                configFile = writeConfigFiles(tunnel, config, vpnTypeEnv);
+                tunnel.setType(config.getType());
+            } catch (Exception e) {
+                configSpan.error(e);
+                throw e;
+            } finally {
+                configSpan.end();
+            }
+            File authFile = new File(tunnel.getConfigDir().toFile(), "auth.txt");
 
-        if (config.getType() == com.wireup.vpn.VpnConfig.VpnType.OPENVPN) {
-            configFileName = "client.conf";
-            containerConfigPath = "/etc/openvpn/client.conf";
-            vpnTypeEnv = "openvpn";
-        } else {
-            configFileName = "wg0.conf";
-            containerConfigPath = "/etc/wireguard/wg0.conf";
-            vpnTypeEnv = "wireguard";
+            SocksEngine socksEngine = SocksEngine.forTunnel(tunnel.getName());
+            trace.attr("socks_engine", socksEngine).attr("network_mode", hostNetwork ? "host" : "bridge");
+
+            // A failed claim is recorded on the span; the connect goes on with a new container
+            ConnectTrace.Span poolSpan = trace.span("pool");
+            try {
+                ContainerPool.PooledContainer pooled = hostNetwork ? null : containerPool.claim(config.getType());
+                poolSpan.attr("pool_hit", pooled != null);
+                if (pooled != null) {
+                    try {
+                        writeSocksConfig(tunnel, socksEngine, SOCKS_PORT);
+                        injectConfig(tunnel, pooled.getId());
+                        claimContainerName(tunnel, pooled.getId());
+                        tunnel.setContainerId(pooled.getId());
+                        tunnel.setSocksPort(pooled.getHostPort());
+                        stateCache.setRunning(pooled.getId(), true, "claim");
+                        logger.info("Claimed standby container " + pooled.getId() + " for tunnel " + tunnel + " ("
+                                + vpnTypeEnv + ", " + socksEngine + " on SOCKS port " + pooled.getHostPort() + ")");
+                        return pooled.getId();
+                    } catch (Exception e) {
+                        logger.warn("Could not use standby container, creating a new one: " + e.getMessage());
+                        poolSpan.error(e);
+                        removeContainerQuietly(pooled.getId());
+                    }
+                }
+            } finally {
+                poolSpan.end();
+            }
+
+            ConnectTrace.Span createSpan = trace.span("create");
+            ExposedPort tcp1080 = ExposedPort.tcp(SOCKS_PORT);
+            int preferredPort = dynamicPorts ? 0 : tunnel.getPreferredPort();
+            boolean usePreferred;
+            String containerId;
+            try {
+                String containerConfigPath = config.getType() == VpnConfig.VpnType.OPENVPN
+                        ? "/etc/openvpn/client.conf"
+                        : "/etc/wireguard/wg0.conf";
+
+                // Create volume binding for config
+                Volume configVolume = new Volume(containerConfigPath);
+                Bind configBind = new Bind(configFile.getAbsolutePath(), configVolume);
+
+                // Create volume binding for the OpenVPN auth file, if credentials were written
+                Bind authBind = null;
+                if (authFile.exists()) {
+                    authBind = new Bind(authFile.getAbsolutePath(), new Volume("/etc/openvpn/auth.txt"));
+                    logger.info("OpenVPN authentication file mounted");
+                }
+
+                // Publish the SOCKS5 port on the tunnel's preferred host port if it is free,
+                // otherwise let Docker pick one
+                Ports portBindings = new Ports();
+                usePreferred = preferredPort > 0 && isPortFree(preferredPort);
+                List<String> env = bootEnv();
+                env.add("VPN_TYPE=" + vpnTypeEnv);
+
+                if (hostNetwork) {
+                    // Dante listens on the host's loopback itself; nothing is published
+                    int port = usePreferred ? preferredPort : findFreeLoopbackPort();
+                    tunnel.setSocksPort(port);
+                    env.add("WIREUP_NETWORK_MODE=host");
+                    env.add("WIREUP_SOCKS_PORT=" + port);
+                    env.add("WIREUP_IFACE=" + tunnel.getInterfaceName());
+                    env.add("WIREUP_ROUTE_TABLE=" + tunnel.getRouteTable());
+                    logger.debug("Host network: SOCKS on 127.0.0.1:" + port + ", interface "
+                            + tunnel.getInterfaceName() + ", table " + tunnel.getRouteTable());
+                } else {
+                    portBindings.bind(tcp1080,
+                            usePreferred ? Ports.Binding.bindPort(preferredPort) : Ports.Binding.empty());
+                    logger.debug("Port binding: " + (usePreferred ? preferredPort : "dynamic") + ":1080/tcp");
+                }
+
+                env.add("WIREUP_SOCKS_ENGINE=" + socksEngine.getId());
+                env.add("WIREUP_PATH_MTUS=" + describePathMtus());
+                File socksConfig = writeSocksConfig(tunnel, socksEngine,
+                        hostNetwork ? tunnel.getSocksPort() : SOCKS_PORT);
+                List<Bind> binds = new ArrayList<>();
+                binds.add(configBind);
+                if (authBind != null) {
+                    binds.add(authBind);
+                }
+                if (socksConfig != null) {
+                    binds.add(new Bind(socksConfig.getAbsolutePath(), new Volume("/etc/danted.conf")));
+                }
+
+                HostConfig hostConfig = newHostConfig(portBindings, CONCURRENCY.getPidsLimit(socksEngine))
+                        .withBinds(binds);
+                if (hostNetwork) {
+                    // Network sysctls cannot be set in the host's namespace
+                    hostConfig.withNetworkMode("host").withSysctls(null);
+                }
+
+                logger.securityInfo("Creating container with resource limits (512MB RAM, 0.5 CPU)");
+
+                logger.info("Creating container: " + tunnel.getContainerName() + " (" + vpnTypeEnv
+                        + ", SOCKS engine " + socksEngine + ")");
+
+                try {
+                    containerId = createTunnelContainer(tunnel, config, hostConfig, tcp1080, env);
+                    logger.info("Container created: " + containerId);
+
+                } catch (com.github.dockerjava.api.exception.ConflictException e) {
+                    // Container with this name already exists - force cleanup and retry
+                    logger.warn("Container name conflict detected - cleaning up old container");
+                    stopAndRemoveContainer(tunnel);
+
+                    // Retry creation
+                    containerId = createTunnelContainer(tunnel, config, hostConfig, tcp1080, env);
+                    logger.info("Container created after cleanup: " + containerId);
+                    createSpan.attr("name_conflict", true);
+                }
+                tunnel.setContainerId(containerId);
+            } catch (Exception e) {
+                createSpan.error(e);
+                throw e;
+            } finally {
+                createSpan.end();
+            }
+
+            // Start container
+            logger.info("Starting container...");
+            ConnectTrace.Span startSpan = trace.span("start");
+            try {
+                dockerClient.startContainerCmd(containerId).exec();
+                stateCache.setRunning(containerId, true, "start");
+                if (!hostNetwork) {
+                    tunnel.setSocksPort(usePreferred ? preferredPort : getPublishedPort(containerId, tcp1080));
+                }
+            } catch (Exception e) {
+                startSpan.error(e);
+                throw e;
+            } finally {
+                startSpan.end();
+            }
+
+            // Readiness is detected by the caller through watchReadiness()
+            logger.info("Container started successfully (tunnel " + tunnel + ", SOCKS port "
+                    + tunnel.getSocksPort() + ")");
+            return containerId;
         }
+    }
+
+    private String createTunnelContainer(Tunnel tunnel, VpnConfig config, HostConfig hostConfig,
+            ExposedPort socksPort, List<String> env) {
+        CreateContainerResponse container = dockerClient.createContainerCmd(getImageName(config.getType()))
+                .withName(tunnel.getContainerName())
+                .withHostConfig(hostConfig)
+                .withExposedPorts(socksPort)
+                .withLabels(containerLabels(ROLE_ACTIVE, tunnel.getName()))
+                .withEnv(env)
+                .exec();
+        return container.getId();
+    }
+
+    /**
+     * Host port Docker published the given container port on
+     */
+    private int getPublishedPort(String containerId, ExposedPort port) throws Exception {
+        Ports.Binding[] bindings = dockerClient.inspectContainerCmd(containerId).exec()
+                .getNetworkSettings().getPorts().getBindings().get(port);
+        if (bindings == null || bindings.length == 0) {
+            throw new Exception("No host port published for container " + containerId);
+        }
+        return Integer.parseInt(bindings[0].getHostPortSpec());
+    }
+
+    private static boolean isPortFree(int port) {
+        try (ServerSocket socket = new ServerSocket()) {
+            socket.setReuseAddress(false);
+            socket.bind(new InetSocketAddress(port));
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private static int findFreeLoopbackPort() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * Write the VPN config (and OpenVPN credentials, if any) to the temp config
+     * directory with restrictive permissions
+     *
+     * @return the written config file
+     */
+    private File writeConfigFiles(Tunnel tunnel, VpnConfig config, String vpnTypeEnv) throws Exception {
+        File configDir = tunnel.getConfigDir().toFile();
+        String configFileName = config.getType() == VpnConfig.VpnType.OPENVPN
+                ? "client.conf"
+                : "wg0.conf";
 
         // Write config to temp file with restrictive permissions
-        File configFile = new File(tempConfigDir.toFile(), configFileName);
+        File configFile = new File(configDir, configFileName);
         try (FileWriter writer = new FileWriter(configFile)) {
-            writer.write(configContent);
+            writer.write(config.getRawConfig());
         }
 
         // Set restrictive permissions (owner read/write only)
@@ -159,15 +679,20 @@ public class DockerManager {
             logger.warn("Could not set restrictive permissions: " + e.getMessage());
         }
 
+        // Tells a standby container which VPN client to start
+        try (FileWriter writer = new FileWriter(new File(configDir, "vpn_type"))) {
+            writer.write(vpnTypeEnv + "\n");
+        }
+
         logger.debug(vpnTypeEnv + " config written to temp directory (path redacted for security)");
 
         // Handle OpenVPN authentication if credentials are provided
-        Bind authBind = null;
-        if (config.getType() == com.wireup.vpn.VpnConfig.VpnType.OPENVPN) {
+        File authFile = new File(configDir, "auth.txt");
+        Files.deleteIfExists(authFile.toPath());
+        if (config.getType() == VpnConfig.VpnType.OPENVPN) {
             com.wireup.vpn.OpenVpnConfig ovpnConfig = (com.wireup.vpn.OpenVpnConfig) config;
             if (ovpnConfig.hasCredentials()) {
                 // Create auth file
-                File authFile = new File(tempConfigDir.toFile(), "auth.txt");
                 try (FileWriter authWriter = new FileWriter(authFile)) {
                     authWriter.write(ovpnConfig.getUsername() + "\n");
                     authWriter.write(ovpnConfig.getPassword() + "\n");
@@ -180,161 +705,475 @@ public class DockerManager {
                 } catch (Exception e) {
                     logger.warn("Could not set restrictive permissions on auth file: " + e.getMessage());
                 }
+            }
+        }
+
+        // Standby containers and in-place reloads read the known path MTUs from here
+        try (FileWriter writer = new FileWriter(new File(configDir, "path_mtus"))) {
+            writer.write(describePathMtus() + "\n");
+        }
 
-                // Create volume binding for auth file
-                Volume authVolume = new Volume("/etc/openvpn/auth.txt");
-                authBind = new Bind(authFile.getAbsolutePath(), authVolume);
+        // Config for the other protocol may be left over from an earlier connect
+        File staleConfig = new File(configDir,
+                configFileName.equals("wg0.conf") ? "client.conf" : "wg0.conf");
+        Files.deleteIfExists(staleConfig.toPath());
 
-                logger.info("OpenVPN authentication file mounted");
+        return configFile;
+    }
+
+    /**
+     * Record the tunnel's SOCKS engine in its config dir (read by standby
+     * containers) and render the engine's config file
+     *
+     * @param port port the engine listens on inside the container
+     * @return the rendered danted.conf, or null for engines configured by command line
+     */
+    private File writeSocksConfig(Tunnel tunnel, SocksEngine engine, int port) throws Exception {
+        File configDir = tunnel.getConfigDir().toFile();
+        try (FileWriter writer = new FileWriter(new File(configDir, "socks_engine"))) {
+            writer.write(engine.getId() + "\n");
+        }
+
+        File danteFile = new File(configDir, "danted.conf");
+        if (engine != SocksEngine.DANTE) {
+            Files.deleteIfExists(danteFile.toPath());
+            return null;
+        }
+
+        String config = new DanteConfig()
+                .internal(hostNetwork ? "127.0.0.1" : "0.0.0.0", port)
+                .external(getVpnInterface(tunnel))
+                .verbose("diagnostic".equals(BOOT_PROFILE))
+                .profile(CONCURRENCY)
+                .render();
+        try (FileWriter writer = new FileWriter(danteFile)) {
+            writer.write(config);
+        }
+        return danteFile;
+    }
+
+    /**
+     * Name of the tunnel's VPN interface as start.sh creates it
+     */
+    String getVpnInterface(Tunnel tunnel) {
+        if (hostNetwork) {
+            return tunnel.getInterfaceName();
+        }
+        return tunnel.getType() == VpnConfig.VpnType.OPENVPN ? "tun0" : "wg0-nodns";
+    }
+
+    /**
+     * Copy the temp config directory into a standby container and release it
+     * from its wait loop in start.sh
+     */
+    private void injectConfig(Tunnel tunnel, String containerId) throws Exception {
+        dockerClient.copyArchiveToContainerCmd(containerId)
+                .withHostResource(tunnel.getConfigDir().toString())
+                .withDirChildrenOnly(true)
+                .withRemotePath(STANDBY_CONFIG_DIR)
+                .exec();
+
+        execInContainer(containerId, 10, "touch", STANDBY_CONFIG_DIR + "/ready");
+        logger.securityInfo("VPN config injected into standby container");
+    }
+
+    /**
+     * Push a new config of the same protocol into the running container and
+     * re-establish only the tunnel. The container, its port mapping and Dante
+     * stay up; Dante is restarted only if the tunnel address changed.
+     *
+     * @param peersOnly apply WireGuard peer changes with wg syncconf instead of
+     *                  restarting the interface; a changed endpoint still
+     *                  restarts it so the new path MTU can be probed
+     */
+    public void reconfigureTunnel(Tunnel tunnel, VpnConfig config, boolean peersOnly) throws Exception {
+        String containerId = tunnel.getContainerId();
+        if (!isContainerRunning(tunnel)) {
+            throw new Exception("No running container to reconfigure");
+        }
+        String vpnTypeEnv = config.getType() == VpnConfig.VpnType.OPENVPN ? "openvpn" : "wireguard";
+        writeConfigFiles(tunnel, config, vpnTypeEnv);
+
+        // Drop files from the previous config (e.g. credentials) before copying
+        execInContainer(containerId, 10, "sh", "-c",
+                "rm -f " + STANDBY_CONFIG_DIR + "/*.conf " + STANDBY_CONFIG_DIR + "/auth.txt");
+        dockerClient.copyArchiveToContainerCmd(containerId)
+                .withHostResource(tunnel.getConfigDir().toString())
+                .withDirChildrenOnly(true)
+                .withRemotePath(STANDBY_CONFIG_DIR)
+                .exec();
+        logger.securityInfo("VPN config pushed into running container");
+
+        long start = System.nanoTime();
+        String output = execInContainer(containerId, 60, "/bin/sh", "/reload.sh",
+                peersOnly ? "peers" : "tunnel");
+        logger.debug("Reload output:\n" + output);
+
+        if (!output.contains("Reload complete")) {
+            String[] lines = output.trim().split("\n");
+            throw new Exception("Tunnel reload failed: " + lines[lines.length - 1]);
+        }
+        // A new endpoint was probed again and reports its MTU
+        BootReport bootReport = tunnel.getBootReport();
+        if (bootReport != null) {
+            for (String line : output.split("\n")) {
+                bootReport.accept(line.trim());
             }
+            rememberPathMtu(tunnel);
         }
+        logger.info("Tunnel " + tunnel + " reconfigured in place (" + (peersOnly ? "peers" : "tunnel") + ") in "
+                + elapsedMs(start) + " ms");
+    }
+
+    /**
+     * Give a claimed standby container the tunnel's container name, so orphan
+     * cleanup by name keeps working
+     */
+    private void claimContainerName(Tunnel tunnel, String containerId) {
+        try {
+            dockerClient.renameContainerCmd(containerId).withName(tunnel.getContainerName()).exec();
+        } catch (Exception e) {
+            logger.debug("Could not rename claimed container: " + e.getMessage());
+        }
+    }
 
-        // Create volume binding for config
-        Volume configVolume = new Volume(containerConfigPath);
-        Bind configBind = new Bind(configFile.getAbsolutePath(), configVolume);
+    /**
+     * Environment shared by tunnel and standby containers
+     */
+    private List<String> bootEnv() {
+        List<String> env = new ArrayList<>();
+        env.add("WIREUP_BOOT_PROFILE=" + BOOT_PROFILE);
+        env.addAll(CONCURRENCY.getEnv());
+        if (MTU_OVERRIDE > 0) {
+            env.add("WIREUP_MTU=" + MTU_OVERRIDE);
+        }
+        if (OFFLOAD_POLICY != null) {
+            env.add("WIREUP_OFFLOAD_POLICY=" + OFFLOAD_POLICY.toLowerCase());
+        }
+        if (SELF_TEST_TARGET != null) {
+            env.add("WIREUP_SELF_TEST_TARGET=" + SELF_TEST_TARGET);
+        }
+        env.add("WIREUP_HANDSHAKE_TIMEOUT=" + Math.max(0, HANDSHAKE_TIMEOUT));
+        env.add("WIREUP_DNS_CACHE=" + (DNS_CACHE ? 1 : 0));
+        env.add("WIREUP_DNS_CACHE_SIZE=" + DNS_CACHE_SIZE);
+        if (DNS_MIN_TTL != null) {
+            env.add("WIREUP_DNS_MIN_TTL=" + DNS_MIN_TTL);
+        }
+        if (DNS_MAX_TTL != null) {
+            env.add("WIREUP_DNS_MAX_TTL=" + DNS_MAX_TTL);
+        }
+        env.add("WIREUP_DNS_NEG_TTL=" + DNS_NEGATIVE_TTL);
+        return env;
+    }
+
+    /**
+     * Create and start a standby container that has done the config-independent
+     * setup and waits for a config to be injected. The SOCKS port is published on
+     * an ephemeral host port so several standby containers can coexist.
+     */
+    ContainerPool.PooledContainer createStandbyContainer(VpnConfig.VpnType type) throws Exception {
+        ensureImage(type);
 
-        // Create bind for SOCKS5 proxy port
-        ExposedPort tcp1080 = ExposedPort.tcp(1080);
+        ExposedPort tcp1080 = ExposedPort.tcp(SOCKS_PORT);
         Ports portBindings = new Ports();
-        portBindings.bind(tcp1080, Ports.Binding.bindPort(1080));
+        portBindings.bind(tcp1080, Ports.Binding.empty());
+        List<String> env = bootEnv();
+        env.add("WIREUP_STANDBY=1");
+
+        CreateContainerResponse container = dockerClient.createContainerCmd(getImageName(type))
+                .withHostConfig(newHostConfig(portBindings, CONCURRENCY.getPidsLimit()))
+                .withExposedPorts(tcp1080)
+                .withLabels(containerLabels(ROLE_STANDBY, null))
+                .withEnv(env)
+                .exec();
+
+        String containerId = container.getId();
+        try {
+            dockerClient.startContainerCmd(containerId).exec();
+            int hostPort = getPublishedPort(containerId, tcp1080);
 
-        logger.debug("Port binding: 1080:1080/tcp");
+            return new ContainerPool.PooledContainer(containerId, type, hostPort, System.currentTimeMillis());
+        } catch (Exception e) {
+            removeContainerQuietly(containerId);
+            throw e;
+        }
+    }
 
-        // Create host config with all settings
-        HostConfig hostConfig = HostConfig.newHostConfig()
+    /**
+     * Host config shared by active and standby containers
+     *
+     * @param pidsLimit processes and threads, sized for the container's SOCKS engine
+     */
+    private HostConfig newHostConfig(Ports portBindings, long pidsLimit) {
+        return HostConfig.newHostConfig()
                 .withPrivileged(true)
                 .withCapAdd(Capability.NET_ADMIN, Capability.SYS_MODULE)
-                .withBinds(authBind != null ? new Bind[] { configBind, authBind } : new Bind[] { configBind })
                 .withPortBindings(portBindings)
-                .withMemory(512L * 1024 * 1024) // 512MB RAM limit
-                .withCpuQuota(50000L) // 0.5 CPU limit
-                .withPidsLimit(100L)
-                .withPidsLimit(100L)
+                .withMemory(CONTAINER_MEMORY_BYTES) // 512MB RAM limit, adjusted by ResourceGovernor
+                .withCpuPeriod(CONTAINER_CPU_PERIOD)
+                .withCpuQuota(CONTAINER_CPU_QUOTA) // 0.5 CPU limit, adjusted by ResourceGovernor
+                .withPidsLimit(pidsLimit)
+                .withUlimits(CONCURRENCY.getUlimits(pidsLimit))
+                .withSysctls(CONCURRENCY.getSysctls())
                 // .withDns("8.8.8.8") // COMMENTED OUT: Caused resolution issues with
                 // host.docker.internal
                 .withReadonlyRootfs(false); // Helper tools need write access
+    }
 
-        logger.securityInfo("Creating container with resource limits (512MB RAM, 0.5 CPU)");
-
-        logger.info("Creating container: " + CONTAINER_NAME + " (" + vpnTypeEnv + ")");
+    private Map<String, String> containerLabels(String role, String tunnelName) {
+        Map<String, String> labels = new HashMap<>();
+        labels.put(MANAGED_LABEL, "true");
+        labels.put(ROLE_LABEL, role);
+        if (tunnelName != null) {
+            labels.put(TUNNEL_LABEL, tunnelName);
+        }
+        return labels;
+    }
 
-        try {
-            CreateContainerResponse container = dockerClient.createContainerCmd(IMAGE_NAME + ":" + IMAGE_TAG)
-                    .withName(CONTAINER_NAME)
-                    .withHostConfig(hostConfig)
-                    .withExposedPorts(tcp1080)
-                    .withEnv("VPN_TYPE=" + vpnTypeEnv)
-                    .exec();
+    /**
+     * Run a command inside a container and return its combined output
+     */
+    public String execInContainer(String containerId, int timeoutSeconds, String... command) throws Exception {
+        String execId = dockerClient.execCreateCmd(containerId)
+                .withAttachStdout(true)
+                .withAttachStderr(true)
+                .withCmd(command)
+                .exec()
+                .getId();
+
+        final StringBuilder output = new StringBuilder();
+        boolean completed = dockerClient.execStartCmd(execId)
+                .exec(new com.github.dockerjava.api.async.ResultCallback.Adapter<com.github.dockerjava.api.model.Frame>() {
+                    @Override
+                    public void onNext(com.github.dockerjava.api.model.Frame frame) {
+                        output.append(new String(frame.getPayload(), StandardCharsets.UTF_8));
+                    }
+                })
+                .awaitCompletion(timeoutSeconds, java.util.concurrent.TimeUnit.SECONDS);
+
+        if (!completed) {
+            throw new Exception("Command timed out in container: " + String.join(" ", command));
+        }
+        return output.toString();
+    }
 
-            currentContainerId = container.getId();
-            logger.info("Container created: " + currentContainerId);
+    /**
+     * Run the network self-tests skipped by the fast boot profile in the
+     * tunnel's container and return their output
+     */
+    public String runDiagnostics(Tunnel tunnel) throws Exception {
+        if (tunnel.getContainerId() == null) {
+            throw new Exception("No container running");
+        }
+        return execInContainer(tunnel.getContainerId(), 60, "/bin/sh", "/diagnose.sh");
+    }
 
-        } catch (com.github.dockerjava.api.exception.ConflictException e) {
-            // Container with this name already exists - force cleanup and retry
-            logger.warn("Container name conflict detected - cleaning up old container");
-            stopAndRemoveContainer();
+    /**
+     * Hit rate and upstream latency of the tunnel's caching resolver
+     *
+     * @return the statistics, or null if the resolver is disabled or not running
+     */
+    public DnsCacheStats getDnsStats(Tunnel tunnel) throws Exception {
+        if (tunnel.getContainerId() == null) {
+            throw new Exception("No container running");
+        }
+        // dnsmasq appends its counters to the log on SIGUSR1
+        String log = execInContainer(tunnel.getContainerId(), 10, "/bin/sh", "-c",
+                "[ -f /tmp/dnsmasq.pid ] && kill -USR1 $(cat /tmp/dnsmasq.pid) && sleep 0.2 "
+                        + "&& tail -n 50 /tmp/dnsmasq.log");
+        return DnsCacheStats.parse(log);
+    }
 
-            // Retry creation
-            CreateContainerResponse container = dockerClient.createContainerCmd(IMAGE_NAME + ":" + IMAGE_TAG)
-                    .withName(CONTAINER_NAME)
-                    .withHostConfig(hostConfig)
-                    .withExposedPorts(tcp1080)
-                    .withEnv("VPN_TYPE=" + vpnTypeEnv)
-                    .exec();
+    public String getBootProfile() {
+        return BOOT_PROFILE;
+    }
 
-            currentContainerId = container.getId();
-            logger.info("Container created after cleanup: " + currentContainerId);
+    void removeContainerQuietly(String containerId) {
+        try {
+            dockerClient.removeContainerCmd(containerId).withForce(true).exec();
+            stateCache.remove(containerId, "remove");
+        } catch (Exception e) {
+            logger.debug("Could not remove container " + containerId + ": " + e.getMessage());
         }
+    }
 
-        // Start container
-        logger.info("Starting container...");
-        dockerClient.startContainerCmd(currentContainerId).exec();
+    /**
+     * Create a watcher that reports when the tunnel's container and SOCKS
+     * server are usable
+     */
+    public TunnelReadinessWatcher watchReadiness(Tunnel tunnel) throws Exception {
+        if (tunnel.getContainerId() == null) {
+            throw new Exception("No container running");
+        }
+        BootReport bootReport = new BootReport();
+        tunnel.setBootReport(bootReport);
+        return new TunnelReadinessWatcher(dockerClient, logger, tunnel.getContainerId(), "127.0.0.1",
+                tunnel.getSocksPort(), bootReport);
+    }
 
-        // Wait a bit for container to initialize
-        Thread.sleep(3000);
+    /**
+     * Keep the path MTU the tunnel's container found for its endpoint, so the
+     * next boot towards the same endpoint skips the DF-bit probe. An endpoint
+     * that dropped the probes, or whose probed size did not fit through the
+     * tunnel, is remembered as 0 and gets the safe default right away.
+     */
+    public void rememberPathMtu(Tunnel tunnel) {
+        BootReport bootReport = tunnel.getBootReport();
+        String endpoint = bootReport != null ? bootReport.getMtuEndpoint() : null;
+        if (endpoint == null || bootReport.getMtuSource() == null) {
+            return;
+        }
+        switch (bootReport.getMtuSource()) {
+            case "probed":
+            case "cached":
+                pathMtus.put(endpoint, bootReport.getPathMtu());
+                break;
+            case "default":
+            case "fallback":
+                pathMtus.put(endpoint, 0);
+                break;
+            default:
+                // Override: nothing was learned about the path
+                break;
+        }
+    }
 
-        // Check if container is running
-        if (!isContainerRunning()) {
-            String logs = getContainerLogs();
-            throw new Exception("Container failed to start. Logs:\n" + logs);
+    /**
+     * Known path MTUs as "endpoint=mtu" entries for start.sh
+     */
+    private String describePathMtus() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Integer> entry : pathMtus.entrySet()) {
+            sb.append(sb.length() > 0 ? " " : "").append(entry.getKey()).append('=').append(entry.getValue());
         }
+        return sb.toString();
+    }
 
-        logger.info("Container started successfully");
-        return currentContainerId;
+    /**
+     * Data plane carrying the tunnel: "kernel" (in-kernel WireGuard),
+     * "wireguard-go" (userspace fallback) or "openvpn"; null if the container
+     * has not reported it
+     */
+    public String getDataPlane(Tunnel tunnel) {
+        BootReport bootReport = tunnel.getBootReport();
+        return bootReport != null ? bootReport.getDataPlane() : null;
     }
 
     /**
-     * Stop and remove current container
+     * Stop and remove the tunnel's container
      */
-    public void stopAndRemoveContainer() {
-        if (currentContainerId != null) {
+    public void stopAndRemoveContainer(Tunnel tunnel) {
+        synchronized (tunnel) {
+            // Detach first so the die/destroy events of an intended stop are not
+            // reported as a tunnel failure
+            String containerId = tunnel.getContainerId();
+            tunnel.setContainerId(null);
+            if (containerId != null) {
+                try {
+                    logger.info("Stopping container: " + containerId);
+                    dockerClient.stopContainerCmd(containerId)
+                            .withTimeout(10)
+                            .exec();
+
+                    logger.info("Removing container: " + containerId);
+                    dockerClient.removeContainerCmd(containerId).exec();
+                    stateCache.remove(containerId, "remove");
+                } catch (Exception e) {
+                    logger.warn("Error stopping/removing container: " + e.getMessage());
+                }
+            }
+
+            // Also try to remove by name in case of orphaned containers
             try {
-                logger.info("Stopping container: " + currentContainerId);
-                dockerClient.stopContainerCmd(currentContainerId)
-                        .withTimeout(10)
+                List<Container> containers = dockerClient.listContainersCmd()
+                        .withShowAll(true)
+                        .withNameFilter(Arrays.asList(tunnel.getContainerName()))
                         .exec();
 
-                logger.info("Removing container: " + currentContainerId);
-                dockerClient.removeContainerCmd(currentContainerId).exec();
-
-                currentContainerId = null;
+                for (Container container : containers) {
+                    // The name filter matches substrings; only remove exact matches
+                    if (!Arrays.asList(container.getNames()).contains("/" + tunnel.getContainerName())) {
+                        continue;
+                    }
+                    try {
+                        logger.info("Found existing container: " + container.getId() + " ("
+                                + Arrays.toString(container.getNames()) + ")");
+
+                        // Force remove the container (kills it if running)
+                        dockerClient.removeContainerCmd(container.getId())
+                                .withForce(true)
+                                .exec();
+                        stateCache.remove(container.getId(), "remove");
+
+                        logger.info("Removed existing container: " + container.getId());
+                    } catch (Exception e) {
+                        logger.warn("Could not remove container " + container.getId() + ": " + e.getMessage());
+                    }
+                }
             } catch (Exception e) {
-                logger.warn("Error stopping/removing container: " + e.getMessage());
+                logger.debug("Error cleaning up containers: " + e.getMessage());
             }
         }
+    }
 
-        // Also try to remove by name in case of orphaned containers
+    /**
+     * Remove containers labelled as WireUp-managed that were left behind by an
+     * earlier Burp session (crash or unload without cleanup)
+     */
+    public void removeOrphanedContainers() {
         try {
             List<Container> containers = dockerClient.listContainersCmd()
                     .withShowAll(true)
-                    .withNameFilter(Arrays.asList(CONTAINER_NAME))
+                    .withLabelFilter(Collections.singletonMap(MANAGED_LABEL, "true"))
                     .exec();
 
             for (Container container : containers) {
-                try {
-                    logger.info("Found existing container: " + container.getId() + " ("
-                            + Arrays.toString(container.getNames()) + ")");
-
-                    // Force remove the container (kills it if running)
-                    dockerClient.removeContainerCmd(container.getId())
-                            .withForce(true)
-                            .exec();
-
-                    logger.info("Removed existing container: " + container.getId());
-                } catch (Exception e) {
-                    logger.warn("Could not remove container " + container.getId() + ": " + e.getMessage());
+                if (findTunnelByContainerId(container.getId()) != null) {
+                    continue;
                 }
+                removeContainerQuietly(container.getId());
+                logger.info("Removed orphaned container: " + container.getId());
             }
         } catch (Exception e) {
-            logger.debug("Error cleaning up containers: " + e.getMessage());
+            logger.debug("Error removing orphaned containers: " + e.getMessage());
         }
     }
 
     /**
-     * Check if container is currently running
+     * Check if the tunnel's container is running, from the event-fed state cache
      */
-    public boolean isContainerRunning() {
-        if (currentContainerId == null) {
-            return false;
-        }
+    public boolean isContainerRunning(Tunnel tunnel) {
+        return stateCache.isRunning(tunnel.getContainerId());
+    }
 
-        try {
-            List<Container> containers = dockerClient.listContainersCmd()
-                    .withIdFilter(Arrays.asList(currentContainerId))
-                    .exec();
+    /**
+     * Cached state of the tunnel's container, or null if there is none
+     */
+    public ContainerStateCache.ContainerState getContainerState(Tunnel tunnel) {
+        return stateCache.get(tunnel.getContainerId());
+    }
 
-            return !containers.isEmpty() && "running".equalsIgnoreCase(containers.get(0).getState());
-        } catch (Exception e) {
-            logger.debug("Error checking container status: " + e.getMessage());
-            return false;
-        }
+    public ContainerStateCache getStateCache() {
+        return stateCache;
+    }
+
+    /**
+     * Shared Docker stats streams of running containers
+     */
+    ContainerStatsHub getStatsHub() {
+        return statsHub;
+    }
+
+    DockerClient getDockerClient() {
+        return dockerClient;
     }
 
     /**
      * Get container logs (for debugging)
      */
-    public String getContainerLogs() {
-        if (currentContainerId == null) {
+    public String getContainerLogs(Tunnel tunnel) {
+        String containerId = tunnel.getContainerId();
+        if (containerId == null) {
             return "No container running";
         }
 
@@ -342,7 +1181,7 @@ public class DockerManager {
             // Use LogContainerResultCallback to collect logs
             final StringBuilder logs = new StringBuilder();
 
-            dockerClient.logContainerCmd(currentContainerId)
+            dockerClient.logContainerCmd(containerId)
                     .withStdOut(true)
                     .withStdErr(true)
                     .withTailAll()
@@ -371,11 +1210,10 @@ public class DockerManager {
         logger.debug("Extracting Dockerfile resources to: " + tempDir.getAbsolutePath());
 
         try {
-            // Extract Dockerfile
-            extractResource("/dockerfile/Dockerfile", new File(tempDir, "Dockerfile"));
-
-            // Extract danted.conf
-            extractResource("/dockerfile/danted.conf", new File(tempDir, "danted.conf"));
+            // Extract Dockerfile and the files it copies into the image
+            for (String resource : IMAGE_RESOURCES) {
+                extractResource("/dockerfile/" + resource, new File(tempDir, resource));
+            }
 
             logger.debug("Dockerfile resources extracted successfully");
             return tempDir;
@@ -425,29 +1263,36 @@ public class DockerManager {
     public void cleanup() {
         logger.info("Cleaning up Docker resources...");
 
-        stopAndRemoveContainer();
+        containerPool.shutdown();
+        for (Tunnel tunnel : tunnels.values()) {
+            stopAndRemoveContainer(tunnel);
+        }
 
         // Clean up temp config directory
         if (tempConfigDir != null) {
-            try {
-                Files.walk(tempConfigDir)
-                        .sorted((a, b) -> -a.compareTo(b))
-                        .forEach(path -> {
-                            try {
-                                Files.delete(path);
-                            } catch (Exception e) {
-                                // Ignore
-                            }
-                        });
-            } catch (Exception e) {
-                logger.debug("Error cleaning temp directory: " + e.getMessage());
-            }
+            deleteDirectory(tempConfigDir);
         }
 
         logger.info("Docker cleanup complete");
     }
 
-    public String getCurrentContainerId() {
-        return currentContainerId;
+    private void deleteDirectory(Path directory) {
+        try {
+            Files.walk(directory)
+                    .sorted((a, b) -> -a.compareTo(b))
+                    .forEach(path -> {
+                        try {
+                            Files.delete(path);
+                        } catch (Exception e) {
+                            // Ignore
+                        }
+                    });
+        } catch (Exception e) {
+            logger.debug("Error cleaning temp directory: " + e.getMessage());
+        }
+    }
+
+    public ContainerPool getContainerPool() {
+        return containerPool;
     }
 }
@@ -0,0 +1,246 @@
+package com.wireup.docker;
+
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.core.DefaultDockerClientConfig;
+import com.github.dockerjava.core.DockerClientConfig;
+import com.github.dockerjava.core.DockerClientImpl;
+import com.github.dockerjava.httpclient5.ApacheDockerHttpClient;
+import com.wireup.utils.VpnLogger;
+
+import java.io.File;
+import java.net.URI;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+
+/**
+ * Checks the Docker endpoint (Unix socket, named pipe or DOCKER_HOST) with the
+ * API ping instead of forking the docker CLI, and caches the result.
+ *
+ * A failed ping is classified as not installed, daemon down or permission
+ * denied from the endpoint and the error, so the CLI does not have to be on PATH.
+ */
+public class DockerProbe {
+
+    public enum Status {
+        AVAILABLE("Docker is running"),
+        NOT_INSTALLED("Docker is not installed"),
+        DAEMON_DOWN("Docker is installed but not running"),
+        PERMISSION_DENIED("Permission denied on the Docker socket");
+
+        private final String description;
+
+        Status(String description) {
+            this.description = description;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+    }
+
+    private static final long DEFAULT_TTL_MS = 2000;
+    private static final long INITIAL_BACKOFF_MS = 250;
+    private static final long MAX_BACKOFF_MS = 4000;
+    private static final Duration PING_TIMEOUT = Duration.ofSeconds(3);
+
+    // Install locations checked when the endpoint itself is missing
+    private static final String[] INSTALL_PATHS = {
+            "/Applications/Docker.app",
+            "C:\\Program Files\\Docker\\Docker",
+            "/usr/bin/dockerd",
+            "/usr/local/bin/dockerd",
+            "/usr/bin/docker",
+            "/usr/local/bin/docker",
+            "/snap/bin/docker"
+    };
+
+    private final VpnLogger logger;
+    private final long ttlMs;
+    private final URI dockerHost;
+    private DockerClient client;
+
+    private Status cachedStatus;
+    private String cachedDetail;
+    private long cachedAt;
+
+    public DockerProbe(VpnLogger logger) {
+        this(logger, DEFAULT_TTL_MS);
+    }
+
+    public DockerProbe(VpnLogger logger, long ttlMs) {
+        this.logger = logger;
+        this.ttlMs = ttlMs;
+        this.dockerHost = DefaultDockerClientConfig.createDefaultConfigBuilder().build().getDockerHost();
+    }
+
+    /**
+     * Current status, from cache if probed within the TTL
+     */
+    public synchronized Status probe() {
+        if (cachedStatus != null && System.currentTimeMillis() - cachedAt < ttlMs) {
+            return cachedStatus;
+        }
+        return refresh();
+    }
+
+    /**
+     * Probe the endpoint now, ignoring the cache
+     */
+    public synchronized Status refresh() {
+        long start = System.nanoTime();
+        try {
+            getClient().pingCmd().exec();
+            cache(Status.AVAILABLE, dockerHost.toString());
+        } catch (Exception e) {
+            cache(classify(e), describe(e));
+        }
+
+        logger.debug("Docker probe (" + dockerHost + "): " + cachedStatus + " in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms");
+        return cachedStatus;
+    }
+
+    /**
+     * Poll with exponential backoff until Docker answers or the timeout
+     * expires; used after asking Docker Desktop to start
+     *
+     * @return the last probed status
+     */
+    public Status awaitAvailable(long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        long backoff = INITIAL_BACKOFF_MS;
+
+        Status status = refresh();
+        while (status != Status.AVAILABLE && status != Status.PERMISSION_DENIED) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                break;
+            }
+            Thread.sleep(Math.min(backoff, remaining));
+            backoff = Math.min(backoff * 2, MAX_BACKOFF_MS);
+            status = refresh();
+        }
+        return status;
+    }
+
+    /**
+     * Error detail of the last probe, or the endpoint when available
+     */
+    public synchronized String getDetail() {
+        return cachedDetail;
+    }
+
+    public URI getDockerHost() {
+        return dockerHost;
+    }
+
+    /**
+     * Release the probe's connection to the daemon
+     */
+    public synchronized void close() {
+        if (client != null) {
+            try {
+                client.close();
+            } catch (Exception e) {
+                // Ignore
+            }
+            client = null;
+        }
+    }
+
+    private void cache(Status status, String detail) {
+        cachedStatus = status;
+        cachedDetail = detail;
+        cachedAt = System.currentTimeMillis();
+    }
+
+    private Status classify(Exception e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            String message = t.getMessage() != null ? t.getMessage().toLowerCase() : "";
+            if (t instanceof AccessDeniedException || message.contains("permission denied")
+                    || message.contains("access is denied")) {
+                return Status.PERMISSION_DENIED;
+            }
+        }
+
+        Path socket = getUnixSocketPath();
+        if (socket != null && Files.exists(socket) && !Files.isWritable(socket)) {
+            return Status.PERMISSION_DENIED;
+        }
+
+        if (endpointExists() || isInstalled()) {
+            return Status.DAEMON_DOWN;
+        }
+        return Status.NOT_INSTALLED;
+    }
+
+    private String describe(Exception e) {
+        Throwable root = e;
+        while (root.getCause() != null) {
+            root = root.getCause();
+        }
+        return root.getClass().getSimpleName() + ": " + root.getMessage();
+    }
+
+    /**
+     * Remote endpoints (tcp://) are assumed to exist; a local socket or pipe
+     * only exists once Docker has been installed and usually run
+     */
+    private boolean endpointExists() {
+        String scheme = dockerHost.getScheme();
+        if ("unix".equals(scheme)) {
+            Path socket = getUnixSocketPath();
+            return socket != null && (Files.exists(socket) || Files.isSymbolicLink(socket));
+        }
+        if ("npipe".equals(scheme)) {
+            return false;
+        }
+        return true;
+    }
+
+    private Path getUnixSocketPath() {
+        if (!"unix".equals(dockerHost.getScheme()) || dockerHost.getPath() == null) {
+            return null;
+        }
+        return Paths.get(dockerHost.getPath());
+    }
+
+    /**
+     * Look for the docker binaries on PATH and in the usual install locations
+     * without executing anything
+     */
+    private boolean isInstalled() {
+        String path = System.getenv("PATH");
+        if (path != null) {
+            for (String dir : path.split(File.pathSeparator)) {
+                if (new File(dir, "docker").canExecute() || new File(dir, "docker.exe").canExecute()) {
+                    return true;
+                }
+            }
+        }
+
+        for (String installPath : INSTALL_PATHS) {
+            if (new File(installPath).exists()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private DockerClient getClient() {
+        if (client == null) {
+            DockerClientConfig config = DefaultDockerClientConfig.createDefaultConfigBuilder().build();
+            ApacheDockerHttpClient httpClient = new ApacheDockerHttpClient.Builder()
+                    .dockerHost(config.getDockerHost())
+                    .sslConfig(config.getSSLConfig())
+                    .connectionTimeout(PING_TIMEOUT)
+                    .responseTimeout(PING_TIMEOUT)
+                    .build();
+            client = DockerClientImpl.getInstance(config, httpClient);
+        }
+        return client;
+    }
+}
@@ -0,0 +1,365 @@
+package com.wireup.docker;
+
+import com.github.dockerjava.api.model.CpuStatsConfig;
+import com.github.dockerjava.api.model.HostConfig;
+import com.github.dockerjava.api.model.MemoryStatsConfig;
+import com.github.dockerjava.api.model.Statistics;
+import com.github.dockerjava.api.model.StatsConfig;
+import com.wireup.utils.Logger;
+
+import java.io.Closeable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Adjusts the CPU and memory limits of running tunnel containers from their
+ * Docker stats.
+ *
+ * Each watched container's stats (about one sample per second) come from the
+ * stream it shares with the telemetry collector.
+ * Samples are evaluated in windows: a window where the container was CPU
+ * throttled in a noticeable share of scheduler periods, or where its working
+ * set is close to the memory limit, raises that limit; a run of quiet windows
+ * lowers it again. Limits stay within the configured bounds and every change is
+ * logged with the reason, so hosts can be sized from the log.
+ */
+public class ResourceGovernor {
+
+    private static final int WINDOW_SAMPLES = 10;
+    private static final int QUIET_WINDOWS_BEFORE_SHRINK = 6;
+    private static final double THROTTLE_RAISE_RATIO = 0.2;
+    private static final double CPU_SHRINK_USAGE = 0.3;
+    private static final double MEMORY_RAISE_USAGE = 0.85;
+    private static final double MEMORY_SHRINK_USAGE = 0.3;
+    private static final double GROW_FACTOR = 1.5;
+    private static final double SHRINK_FACTOR = 0.75;
+    private static final long MB = 1024L * 1024;
+
+    /**
+     * Governor bounds, read from -Dwireup.governor.* system properties
+     */
+    public static class Settings {
+        private final boolean enabled;
+        private final double minCpus;
+        private final double maxCpus;
+        private final long minMemoryBytes;
+        private final long maxMemoryBytes;
+
+        public Settings(boolean enabled, double minCpus, double maxCpus, long minMemoryBytes, long maxMemoryBytes) {
+            this.enabled = enabled;
+            this.minCpus = minCpus;
+            this.maxCpus = Math.max(minCpus, maxCpus);
+            this.minMemoryBytes = minMemoryBytes;
+            this.maxMemoryBytes = Math.max(minMemoryBytes, maxMemoryBytes);
+        }
+
+        public static Settings fromSystemProperties() {
+            return new Settings(
+                    Boolean.parseBoolean(System.getProperty("wireup.governor.enabled", "true")),
+                    Double.parseDouble(System.getProperty("wireup.governor.minCpus", "0.25")),
+                    Double.parseDouble(System.getProperty("wireup.governor.maxCpus", "2.0")),
+                    Long.getLong("wireup.governor.minMemoryMb", 256L) * MB,
+                    Long.getLong("wireup.governor.maxMemoryMb", 1024L) * MB);
+        }
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public double getMinCpus() {
+            return minCpus;
+        }
+
+        public double getMaxCpus() {
+            return maxCpus;
+        }
+
+        public long getMinMemoryBytes() {
+            return minMemoryBytes;
+        }
+
+        public long getMaxMemoryBytes() {
+            return maxMemoryBytes;
+        }
+    }
+
+    /**
+     * Stats stream and current limits of one tunnel container
+     */
+    private class Watch {
+        final Tunnel tunnel;
+        final String containerId;
+        ContainerStatsHub.Subscription subscription;
+
+        double cpus = DockerManager.CONTAINER_CPU_QUOTA / (double) DockerManager.CONTAINER_CPU_PERIOD;
+        long memoryBytes = DockerManager.CONTAINER_MEMORY_BYTES;
+
+        int samples;
+        long periods;
+        long throttledPeriods;
+        double cpuUsageSum;
+        long peakWorkingSet;
+        int quietCpuWindows;
+        int quietMemoryWindows;
+
+        Watch(Tunnel tunnel, String containerId) {
+            this.tunnel = tunnel;
+            this.containerId = containerId;
+        }
+
+        /**
+         * Start from the container's actual limits, which an earlier watch
+         * may have raised or lowered; keeps the creation defaults if they
+         * cannot be read
+         */
+        synchronized void readLimits() {
+            try {
+                HostConfig hostConfig = dockerManager.getDockerClient().inspectContainerCmd(containerId).exec()
+                        .getHostConfig();
+                if (hostConfig == null) {
+                    return;
+                }
+                Long nanoCpus = hostConfig.getNanoCPUs();
+                Long quota = hostConfig.getCpuQuota();
+                Long period = hostConfig.getCpuPeriod();
+                if (nanoCpus != null && nanoCpus > 0) {
+                    cpus = nanoCpus / 1e9;
+                } else if (quota != null && quota > 0 && period != null && period > 0) {
+                    cpus = quota / (double) period;
+                }
+                if (hostConfig.getMemory() != null && hostConfig.getMemory() > 0) {
+                    memoryBytes = hostConfig.getMemory();
+                }
+            } catch (Exception e) {
+                logger.debug("Governor: could not read limits of tunnel " + tunnel + ": " + e.getMessage());
+            }
+        }
+
+        synchronized void onSample(Statistics stats) {
+            CpuStatsConfig cpu = stats.getCpuStats();
+            CpuStatsConfig preCpu = stats.getPreCpuStats();
+            if (cpu == null || preCpu == null || cpu.getCpuUsage() == null || preCpu.getCpuUsage() == null) {
+                return;
+            }
+
+            if (cpu.getThrottlingData() != null && preCpu.getThrottlingData() != null) {
+                periods += delta(cpu.getThrottlingData().getPeriods(), preCpu.getThrottlingData().getPeriods());
+                throttledPeriods += delta(cpu.getThrottlingData().getThrottledPeriods(),
+                        preCpu.getThrottlingData().getThrottledPeriods());
+            }
+            long systemDelta = delta(cpu.getSystemCpuUsage(), preCpu.getSystemCpuUsage());
+            if (systemDelta > 0) {
+                long onlineCpus = cpu.getOnlineCpus() != null ? cpu.getOnlineCpus() : 1;
+                cpuUsageSum += delta(cpu.getCpuUsage().getTotalUsage(), preCpu.getCpuUsage().getTotalUsage())
+                        / (double) systemDelta * onlineCpus;
+            }
+            peakWorkingSet = Math.max(peakWorkingSet, workingSet(stats.getMemoryStats()));
+
+            if (++samples >= WINDOW_SAMPLES) {
+                evaluate();
+                samples = 0;
+                periods = 0;
+                throttledPeriods = 0;
+                cpuUsageSum = 0;
+                peakWorkingSet = 0;
+            }
+        }
+
+        private void evaluate() {
+            double throttleRatio = periods > 0 ? throttledPeriods / (double) periods : 0;
+            double cpuUsage = cpuUsageSum / samples;
+            double memoryUsage = peakWorkingSet / (double) memoryBytes;
+
+            double newCpus = cpus;
+            String cpuReason = null;
+            if (throttleRatio >= THROTTLE_RAISE_RATIO) {
+                quietCpuWindows = 0;
+                newCpus = Math.min(settings.getMaxCpus(), cpus * GROW_FACTOR);
+                cpuReason = String.format("throttled in %.0f%% of periods", throttleRatio * 100);
+            } else if (throttledPeriods == 0 && cpuUsage < cpus * CPU_SHRINK_USAGE) {
+                if (++quietCpuWindows >= QUIET_WINDOWS_BEFORE_SHRINK) {
+                    quietCpuWindows = 0;
+                    newCpus = Math.max(settings.getMinCpus(), cpus * SHRINK_FACTOR);
+                    cpuReason = String.format("idle, using %.2f CPUs", cpuUsage);
+                }
+            } else {
+                quietCpuWindows = 0;
+            }
+
+            long newMemory = memoryBytes;
+            String memoryReason = null;
+            if (memoryUsage >= MEMORY_RAISE_USAGE) {
+                quietMemoryWindows = 0;
+                newMemory = Math.min(settings.getMaxMemoryBytes(), (long) (memoryBytes * GROW_FACTOR));
+                memoryReason = String.format("working set %d MB of %d MB", peakWorkingSet / MB, memoryBytes / MB);
+            } else if (memoryUsage < MEMORY_SHRINK_USAGE) {
+                if (++quietMemoryWindows >= QUIET_WINDOWS_BEFORE_SHRINK) {
+                    quietMemoryWindows = 0;
+                    // Never below twice the working set, so shrinking cannot trigger the OOM killer
+                    newMemory = Math.max(Math.max(settings.getMinMemoryBytes(), peakWorkingSet * 2),
+                            (long) (memoryBytes * SHRINK_FACTOR));
+                    newMemory = Math.min(newMemory, memoryBytes);
+                    memoryReason = String.format("working set %d MB", peakWorkingSet / MB);
+                }
+            } else {
+                quietMemoryWindows = 0;
+            }
+
+            boolean cpuChanged = Math.abs(newCpus - cpus) >= 0.01;
+            boolean memoryChanged = Math.abs(newMemory - memoryBytes) >= MB;
+            if (cpuChanged || memoryChanged) {
+                apply(cpuChanged ? newCpus : cpus, cpuChanged ? cpuReason : null,
+                        memoryChanged ? newMemory : memoryBytes, memoryChanged ? memoryReason : null);
+            }
+        }
+
+        private void apply(double newCpus, String cpuReason, long newMemory, String memoryReason) {
+            double oldCpus = cpus;
+            long oldMemory = memoryBytes;
+            cpus = newCpus;
+            memoryBytes = newMemory;
+
+            updateExecutor.execute(() -> {
+                try {
+                    dockerManager.getDockerClient().updateContainerCmd(containerId)
+                            .withCpuPeriod((int) DockerManager.CONTAINER_CPU_PERIOD)
+                            .withCpuQuota((int) Math.round(newCpus * DockerManager.CONTAINER_CPU_PERIOD))
+                            .withMemory(newMemory)
+                            // Same swap allowance Docker gives a container created with only a memory limit
+                            .withMemorySwap(newMemory * 2)
+                            .exec();
+
+                    StringBuilder change = new StringBuilder("Governor: tunnel " + tunnel);
+                    if (cpuReason != null) {
+                        change.append(String.format(", CPU %.2f -> %.2f (%s)", oldCpus, newCpus, cpuReason));
+                    }
+                    if (memoryReason != null) {
+                        change.append(", memory ").append(oldMemory / MB).append(" -> ").append(newMemory / MB)
+                                .append(" MB (").append(memoryReason).append(')');
+                    }
+                    logger.info(change.toString());
+                } catch (Exception e) {
+                    logger.warn("Governor: could not update limits of tunnel " + tunnel + ": " + e.getMessage());
+                    synchronized (Watch.this) {
+                        cpus = oldCpus;
+                        memoryBytes = oldMemory;
+                    }
+                }
+            });
+        }
+    }
+
+    private final DockerManager dockerManager;
+    private final Logger logger;
+    private final Settings settings;
+    private final Map<String, Watch> watches = new ConcurrentHashMap<>();
+    private final ExecutorService updateExecutor;
+
+    public ResourceGovernor(DockerManager dockerManager, Logger logger, Settings settings) {
+        this.dockerManager = dockerManager;
+        this.logger = logger;
+        this.settings = settings;
+        this.updateExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "WireUp-Governor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (settings.isEnabled()) {
+            logger.debug(String.format("Resource governor: %.2f-%.2f CPUs, %d-%d MB per tunnel",
+                    settings.getMinCpus(), settings.getMaxCpus(),
+                    settings.getMinMemoryBytes() / MB, settings.getMaxMemoryBytes() / MB));
+        }
+    }
+
+    /**
+     * Start governing the tunnel's current container; a no-op if it is
+     * already watched
+     */
+    public void watch(Tunnel tunnel) {
+        String containerId = tunnel.getContainerId();
+        if (!settings.isEnabled() || containerId == null) {
+            return;
+        }
+
+        Watch existing = watches.get(tunnel.getName());
+        if (existing != null) {
+            if (existing.containerId.equals(containerId)) {
+                return;
+            }
+            unwatch(tunnel);
+        }
+
+        Watch watch = new Watch(tunnel, containerId);
+        watches.put(tunnel.getName(), watch);
+        synchronized (watch) {
+            watch.readLimits();
+            // The limits may be outside the bounds, e.g. the creation defaults
+            double cpus = Math.min(settings.getMaxCpus(), Math.max(settings.getMinCpus(), watch.cpus));
+            long memory = Math.min(settings.getMaxMemoryBytes(), Math.max(settings.getMinMemoryBytes(),
+                    watch.memoryBytes));
+            if (cpus != watch.cpus || memory != watch.memoryBytes) {
+                watch.apply(cpus, cpus != watch.cpus ? "bounds" : null,
+                        memory, memory != watch.memoryBytes ? "bounds" : null);
+            }
+        }
+        try {
+            // Ends when the container stops or the daemon is gone; the next connect watches again
+            watch.subscription = dockerManager.getStatsHub().subscribe(containerId, watch::onSample,
+                    () -> watches.remove(tunnel.getName(), watch));
+        } catch (Exception e) {
+            watches.remove(tunnel.getName(), watch);
+            logger.debug("Governor: could not read stats of tunnel " + tunnel + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Stop governing the tunnel; its container keeps the last limits
+     */
+    public void unwatch(Tunnel tunnel) {
+        Watch watch = watches.remove(tunnel.getName());
+        if (watch != null) {
+            closeQuietly(watch.subscription);
+        }
+    }
+
+    public void shutdown() {
+        for (Watch watch : watches.values()) {
+            closeQuietly(watch.subscription);
+        }
+        watches.clear();
+        updateExecutor.shutdownNow();
+    }
+
+    /**
+     * Working set as reported by "docker stats": usage minus reclaimable page cache
+     */
+    static long workingSet(MemoryStatsConfig memory) {
+        if (memory == null || memory.getUsage() == null) {
+            return 0;
+        }
+        StatsConfig stats = memory.getStats();
+        long inactiveFile = 0;
+        if (stats != null) {
+            // cgroup v2 reports inactive_file, v1 total_inactive_file
+            inactiveFile = stats.getInactiveFile() != null ? stats.getInactiveFile()
+                    : stats.getTotalInactiveFile() != null ? stats.getTotalInactiveFile() : 0;
+        }
+        return Math.max(0, memory.getUsage() - inactiveFile);
+    }
+
+    private static long delta(Long current, Long previous) {
+        return current != null && previous != null ? Math.max(0, current - previous) : 0;
+    }
+
+    private void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (Exception e) {
+                // Ignore
+            }
+        }
+    }
+}
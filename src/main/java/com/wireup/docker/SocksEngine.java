@@ -0,0 +1,49 @@
+package com.wireup.docker;
+
+/**
+ * SOCKS5 server run inside a tunnel container.
+ *
+ * Dante forks children and hands each session to an I/O process, which is
+ * robust and configurable but costs a process per few dozen sessions;
+ * microsocks is a single small process with a thread per session, cheaper for
+ * many short-lived Burp connections. Chosen per tunnel with
+ * -Dwireup.socks.engine.&lt;tunnel&gt;, falling back to -Dwireup.socks.engine.
+ */
+public enum SocksEngine {
+    DANTE("dante"),
+    MICROSOCKS("microsocks");
+
+    private final String id;
+
+    SocksEngine(String id) {
+        this.id = id;
+    }
+
+    /**
+     * Name used in system properties and by start.sh
+     */
+    public String getId() {
+        return id;
+    }
+
+    public static SocksEngine fromName(String name) {
+        if (name != null) {
+            for (SocksEngine engine : values()) {
+                if (engine.id.equalsIgnoreCase(name.trim())) {
+                    return engine;
+                }
+            }
+        }
+        return DANTE;
+    }
+
+    public static SocksEngine forTunnel(String tunnelName) {
+        return fromName(System.getProperty("wireup.socks.engine." + tunnelName,
+                System.getProperty("wireup.socks.engine")));
+    }
+
+    @Override
+    public String toString() {
+        return id;
+    }
+}
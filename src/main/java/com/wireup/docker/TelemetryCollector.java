@@ -0,0 +1,360 @@
+package com.wireup.docker;
+
+import com.github.dockerjava.api.model.CpuStatsConfig;
+import com.github.dockerjava.api.model.Statistics;
+import com.wireup.utils.Logger;
+import com.wireup.utils.TelemetryStore;
+
+import java.io.Closeable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * Live telemetry of connected tunnels.
+ *
+ * CPU, throttling and memory come from the container's Docker stats stream,
+ * shared with the resource governor. Docker only counts the container's eth0,
+ * which carries the encapsulated tunnel and the SOCKS hop from Burp alike, so
+ * traffic is read from the VPN interface's own counters instead: through sysfs
+ * on the telemetry thread in host network mode (the interface is in the host's
+ * namespace), and otherwise with an exec on a pool thread, so a slow container
+ * only delays its own samples. Every tick records both into the tunnel's
+ * {@link TelemetryStore}, which is kept across reconnects so long sessions
+ * keep their history at constant memory.
+ */
+public class TelemetryCollector {
+
+    // Metric indexes in each tunnel's store
+    public static final int RX_BYTES_PER_SECOND = 0;
+    public static final int TX_BYTES_PER_SECOND = 1;
+    public static final int CPU_PERCENT = 2;
+    public static final int THROTTLED_PERCENT = 3;
+    public static final int MEMORY_BYTES = 4;
+    public static final int MEMORY_LIMIT_BYTES = 5;
+    private static final String[] METRICS = {"rx", "tx", "cpu", "throttled", "memory", "memoryLimit"};
+
+    private static final boolean ENABLED = Boolean.parseBoolean(
+            System.getProperty("wireup.telemetry.enabled", "true"));
+    private static final long INTERVAL_MS = Math.max(250, Long.getLong("wireup.telemetry.intervalMs", 1000L));
+
+    /**
+     * A tunnel's store, kept across reconnects, and its writer guard
+     */
+    private static class History {
+        final TelemetryStore store = new TelemetryStore(METRICS);
+        // Set while a sample of the tunnel runs: a tunnel whose exec is still
+        // pending skips ticks, and the store keeps a single writer at a time
+        // even when a reconnect's new watch starts before the old exec returns
+        final AtomicBoolean sampling = new AtomicBoolean();
+    }
+
+    /**
+     * Stats stream, counters and recent samples of one tunnel container
+     */
+    private static class Watch {
+        final Tunnel tunnel;
+        final String containerId;
+        final String iface;
+        final TelemetryStore store;
+        final AtomicBoolean sampling;
+        // Reused for every sample, only touched by the sample in flight
+        final double[] values = new double[METRICS.length];
+        ContainerStatsHub.Subscription subscription;
+        // Set by unwatch; a sample still in flight is dropped
+        volatile boolean stopped;
+
+        // Latest values from the stats stream
+        volatile double cpuPercent;
+        volatile double throttledPercent;
+        volatile long memoryBytes;
+        volatile long memoryLimitBytes;
+
+        // Read by JMX clients too
+        volatile long lastRxBytes = -1;
+        volatile long lastTxBytes = -1;
+        long lastCountersNanos;
+
+        Watch(Tunnel tunnel, String containerId, String iface, History history) {
+            this.tunnel = tunnel;
+            this.containerId = containerId;
+            this.iface = iface;
+            this.store = history.store;
+            this.sampling = history.sampling;
+        }
+
+        void onStats(Statistics stats) {
+            CpuStatsConfig cpu = stats.getCpuStats();
+            CpuStatsConfig preCpu = stats.getPreCpuStats();
+            if (cpu != null && preCpu != null && cpu.getCpuUsage() != null && preCpu.getCpuUsage() != null) {
+                long systemDelta = delta(cpu.getSystemCpuUsage(), preCpu.getSystemCpuUsage());
+                if (systemDelta > 0) {
+                    long onlineCpus = cpu.getOnlineCpus() != null ? cpu.getOnlineCpus() : 1;
+                    cpuPercent = delta(cpu.getCpuUsage().getTotalUsage(), preCpu.getCpuUsage().getTotalUsage())
+                            / (double) systemDelta * onlineCpus * 100;
+                }
+                if (cpu.getThrottlingData() != null && preCpu.getThrottlingData() != null) {
+                    long periods = delta(cpu.getThrottlingData().getPeriods(),
+                            preCpu.getThrottlingData().getPeriods());
+                    long throttled = delta(cpu.getThrottlingData().getThrottledPeriods(),
+                            preCpu.getThrottlingData().getThrottledPeriods());
+                    throttledPercent = periods > 0 ? throttled * 100.0 / periods : 0;
+                }
+            }
+            if (stats.getMemoryStats() != null) {
+                memoryBytes = ResourceGovernor.workingSet(stats.getMemoryStats());
+                Long limit = stats.getMemoryStats().getLimit();
+                memoryLimitBytes = limit != null ? limit : 0;
+            }
+        }
+    }
+
+    private final DockerManager dockerManager;
+    private final Logger logger;
+    private final Map<String, Watch> watches = new ConcurrentHashMap<>();
+    private final Map<String, History> histories = new ConcurrentHashMap<>();
+    private final List<BiConsumer<Tunnel, TelemetryStore>> listeners = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService execPool;
+    private final AtomicInteger execThreadCount = new AtomicInteger();
+
+    public TelemetryCollector(DockerManager dockerManager, Logger logger) {
+        this.dockerManager = dockerManager;
+        this.logger = logger;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "WireUp-Telemetry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Grows to one thread per tunnel with an exec pending at most
+        this.execPool = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "WireUp-Telemetry-Exec-" + execThreadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (ENABLED) {
+            scheduler.scheduleWithFixedDelay(this::tick, INTERVAL_MS, INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Called from a telemetry thread after every sample with the tunnel's
+     * store; listeners must not block and must hand UI work to the EDT
+     * themselves
+     */
+    public void addListener(BiConsumer<Tunnel, TelemetryStore> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Start collecting for the tunnel's current container; a no-op if it is
+     * already watched
+     */
+    public void watch(Tunnel tunnel) {
+        String containerId = tunnel.getContainerId();
+        if (!ENABLED || containerId == null) {
+            return;
+        }
+
+        Watch existing = watches.get(tunnel.getName());
+        if (existing != null) {
+            if (existing.containerId.equals(containerId)) {
+                return;
+            }
+            unwatch(tunnel);
+        }
+
+        History history = histories.computeIfAbsent(tunnel.getName(), name -> new History());
+        Watch watch = new Watch(tunnel, containerId, dockerManager.getVpnInterface(tunnel), history);
+        watches.put(tunnel.getName(), watch);
+        try {
+            // Ends when the container stops or the daemon is gone; the next connect watches again
+            watch.subscription = dockerManager.getStatsHub().subscribe(containerId, watch::onStats,
+                    () -> watches.remove(tunnel.getName(), watch));
+        } catch (Exception e) {
+            watches.remove(tunnel.getName(), watch);
+            logger.debug("Telemetry: could not read stats of tunnel " + tunnel + ": " + e.getMessage());
+        }
+    }
+
+    public void unwatch(Tunnel tunnel) {
+        Watch watch = watches.remove(tunnel.getName());
+        if (watch != null) {
+            watch.stopped = true;
+            closeQuietly(watch.subscription);
+        }
+    }
+
+    /**
+     * History of the tunnel, indexed by the metric constants of this class;
+     * null if it was never connected
+     */
+    public TelemetryStore getStore(String tunnelName) {
+        History history = histories.get(tunnelName);
+        return history != null ? history.store : null;
+    }
+
+    /**
+     * Bytes received on the tunnel's VPN interface since the interface came
+     * up, or 0 if it is not watched
+     */
+    public long getRxBytes(String tunnelName) {
+        Watch watch = watches.get(tunnelName);
+        return watch != null ? Math.max(0, watch.lastRxBytes) : 0;
+    }
+
+    /**
+     * Bytes sent on the tunnel's VPN interface since the interface came up,
+     * or 0 if it is not watched
+     */
+    public long getTxBytes(String tunnelName) {
+        Watch watch = watches.get(tunnelName);
+        return watch != null ? Math.max(0, watch.lastTxBytes) : 0;
+    }
+
+    /**
+     * Forget the history of a removed tunnel
+     */
+    public void remove(Tunnel tunnel) {
+        unwatch(tunnel);
+        histories.remove(tunnel.getName());
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+        execPool.shutdownNow();
+        for (Watch watch : watches.values()) {
+            watch.stopped = true;
+            closeQuietly(watch.subscription);
+        }
+        watches.clear();
+    }
+
+    private void tick() {
+        for (Watch watch : watches.values()) {
+            if (!watch.sampling.compareAndSet(false, true)) {
+                continue;
+            }
+            if (readsSysfs(watch)) {
+                sampleQuietly(watch);
+                continue;
+            }
+            try {
+                execPool.execute(() -> sampleQuietly(watch));
+            } catch (RejectedExecutionException e) {
+                // Shutting down
+                watch.sampling.set(false);
+            }
+        }
+    }
+
+    private void sampleQuietly(Watch watch) {
+        try {
+            sample(watch);
+        } catch (Exception e) {
+            logger.debug("Telemetry: could not sample tunnel " + watch.tunnel + ": " + e.getMessage());
+        } finally {
+            watch.sampling.set(false);
+        }
+    }
+
+    private void sample(Watch watch) throws Exception {
+        long[] counters = readCounters(watch);
+        if (watch.stopped) {
+            return;
+        }
+        long now = System.nanoTime();
+        double rx = 0;
+        double tx = 0;
+        if (watch.lastRxBytes >= 0 && now > watch.lastCountersNanos) {
+            double seconds = (now - watch.lastCountersNanos) / 1e9;
+            // Counters restart when the tunnel is reloaded in place
+            rx = Math.max(0, counters[0] - watch.lastRxBytes) / seconds;
+            tx = Math.max(0, counters[1] - watch.lastTxBytes) / seconds;
+        }
+        boolean first = watch.lastRxBytes < 0;
+        watch.lastRxBytes = counters[0];
+        watch.lastTxBytes = counters[1];
+        watch.lastCountersNanos = now;
+        if (first) {
+            return;
+        }
+
+        double[] values = watch.values;
+        values[RX_BYTES_PER_SECOND] = rx;
+        values[TX_BYTES_PER_SECOND] = tx;
+        values[CPU_PERCENT] = watch.cpuPercent;
+        values[THROTTLED_PERCENT] = watch.throttledPercent;
+        values[MEMORY_BYTES] = watch.memoryBytes;
+        values[MEMORY_LIMIT_BYTES] = watch.memoryLimitBytes;
+        watch.store.record(System.currentTimeMillis(), values);
+        for (BiConsumer<Tunnel, TelemetryStore> listener : listeners) {
+            listener.accept(watch.tunnel, watch.store);
+        }
+    }
+
+    /**
+     * rx and tx byte counters of the VPN interface
+     */
+    private long[] readCounters(Watch watch) throws Exception {
+        if (readsSysfs(watch)) {
+            Path statistics = statisticsDir(watch);
+            return new long[] {
+                    readCounter(statistics.resolve("rx_bytes")),
+                    readCounter(statistics.resolve("tx_bytes"))
+            };
+        }
+
+        String output = dockerManager.execInContainer(watch.containerId, 5, "cat",
+                "/sys/class/net/" + watch.iface + "/statistics/rx_bytes",
+                "/sys/class/net/" + watch.iface + "/statistics/tx_bytes");
+        String[] lines = output.trim().split("\\s+");
+        if (lines.length != 2) {
+            throw new Exception("No counters for " + watch.iface);
+        }
+        return new long[] {Long.parseLong(lines[0]), Long.parseLong(lines[1])};
+    }
+
+    /**
+     * Whether the VPN interface is in this process's namespace, so its
+     * counters are read without an exec
+     */
+    private boolean readsSysfs(Watch watch) {
+        return dockerManager.isHostNetwork() && Files.isDirectory(statisticsDir(watch));
+    }
+
+    private static Path statisticsDir(Watch watch) {
+        return Paths.get("/sys/class/net", watch.iface, "statistics");
+    }
+
+    private static long readCounter(Path file) throws Exception {
+        return Long.parseLong(new String(Files.readAllBytes(file), StandardCharsets.US_ASCII).trim());
+    }
+
+    private static long delta(Long current, Long previous) {
+        return current != null && previous != null ? Math.max(0, current - previous) : 0;
+    }
+
+    private void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (Exception e) {
+                // Ignore
+            }
+        }
+    }
+}
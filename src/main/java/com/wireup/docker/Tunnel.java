@@ -0,0 +1,117 @@
+package com.wireup.docker;
+
+import com.wireup.vpn.VpnConfig;
+
+import java.nio.file.Path;
+
+/**
+ * One egress point: a named tunnel with its own labelled container, config
+ * directory and published SOCKS port. Tunnels are created and looked up through
+ * {@link DockerManager#getTunnel(String)}.
+ */
+public class Tunnel {
+
+    public static final String DEFAULT_NAME = "default";
+
+    private final String name;
+    private final int index;
+    private final Path configDir;
+    private final int preferredPort;
+    private volatile String containerId;
+    private volatile int socksPort;
+    private volatile VpnConfig.VpnType type;
+    private volatile BootReport bootReport;
+
+    Tunnel(String name, int index, Path configDir, int preferredPort) {
+        this.name = name;
+        this.index = index;
+        this.configDir = configDir;
+        this.preferredPort = preferredPort;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isDefault() {
+        return DEFAULT_NAME.equals(name);
+    }
+
+    /**
+     * Container name; the default tunnel keeps the name used before tunnels
+     * existed so orphan cleanup by name still finds old containers
+     */
+    public String getContainerName() {
+        return isDefault() ? "wireup-vpn-container" : "wireup-vpn-" + name;
+    }
+
+    /**
+     * Name of the tunnel interface in host network mode, where it lives next
+     * to the host's interfaces (at most 15 characters)
+     */
+    String getInterfaceName() {
+        return "wireup" + index;
+    }
+
+    /**
+     * Routing table of the tunnel interface in host network mode
+     */
+    int getRouteTable() {
+        return 51820 + index;
+    }
+
+    Path getConfigDir() {
+        return configDir;
+    }
+
+    /**
+     * Host port to publish SOCKS on if it is free, or 0 for any free port
+     */
+    int getPreferredPort() {
+        return preferredPort;
+    }
+
+    public String getContainerId() {
+        return containerId;
+    }
+
+    void setContainerId(String containerId) {
+        this.containerId = containerId;
+    }
+
+    /**
+     * Host port the tunnel's SOCKS5 server is published on, 0 before the first start
+     */
+    public int getSocksPort() {
+        return socksPort;
+    }
+
+    void setSocksPort(int socksPort) {
+        this.socksPort = socksPort;
+    }
+
+    public VpnConfig.VpnType getType() {
+        return type;
+    }
+
+    void setType(VpnConfig.VpnType type) {
+        this.type = type;
+    }
+
+    /**
+     * What the current container reported while booting, or null before the
+     * first start
+     */
+    public BootReport getBootReport() {
+        return bootReport;
+    }
+
+    void setBootReport(BootReport bootReport) {
+        this.bootReport = bootReport;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,21 @@
+package com.wireup.docker;
+
+/**
+ * Connect failure with a classified reason, raised as soon as the container
+ * reports a fatal error
+ */
+public class TunnelFailureException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    private final ContainerLogClassifier.FailureReason reason;
+
+    public TunnelFailureException(ContainerLogClassifier.FailureReason reason, String detail) {
+        super(reason.getDescription() + (detail != null ? ": " + detail : ""));
+        this.reason = reason;
+    }
+
+    public ContainerLogClassifier.FailureReason getReason() {
+        return reason;
+    }
+}
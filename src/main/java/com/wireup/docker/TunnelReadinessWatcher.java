@@ -0,0 +1,233 @@
+package com.wireup.docker;
+
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.async.ResultCallback;
+import com.github.dockerjava.api.command.InspectContainerResponse;
+import com.github.dockerjava.api.model.Event;
+import com.github.dockerjava.api.model.Frame;
+import com.wireup.utils.VpnLogger;
+
+import java.io.Closeable;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Detects when a freshly started tunnel container is actually usable.
+ *
+ * Follows the container log stream for the markers printed by start.sh,
+ * listens for Docker health events and probes the published SOCKS port with a
+ * SOCKS5 greeting. The readiness future completes as soon as the tunnel is up
+ * and the SOCKS server answers, instead of after a fixed sleep. Fatal log lines
+ * and container exit fail it immediately with a {@link TunnelFailureException}.
+ * Boot stage timings printed along the way are collected into a {@link BootReport}.
+ */
+public class TunnelReadinessWatcher implements Closeable {
+
+    private static final String TUNNEL_UP_MARKER = "VPN interface ";
+    private static final String TUNNEL_UP_SUFFIX = " is up";
+    private static final String READY_MARKER = "Container Ready";
+    private static final long PROBE_INTERVAL_MS = 250;
+    private static final int PROBE_TIMEOUT_MS = 1000;
+
+    private final DockerClient dockerClient;
+    private final VpnLogger logger;
+    private final String containerId;
+    private final String socksHost;
+    private final int socksPort;
+    private final CompletableFuture<Void> ready;
+    private final ContainerLogClassifier classifier;
+    private final BootReport bootReport;
+
+    private final ScheduledExecutorService probeExecutor;
+    private ResultCallback.Adapter<Frame> logCallback;
+    private ResultCallback.Adapter<Event> eventCallback;
+
+    private volatile boolean tunnelUp;
+    private volatile boolean socksReady;
+    private volatile boolean bootComplete;
+
+    public TunnelReadinessWatcher(DockerClient dockerClient, VpnLogger logger, String containerId,
+            String socksHost, int socksPort, BootReport bootReport) {
+        this.dockerClient = dockerClient;
+        this.logger = logger;
+        this.containerId = containerId;
+        this.socksHost = socksHost;
+        this.socksPort = socksPort;
+        this.ready = new CompletableFuture<>();
+        this.classifier = new ContainerLogClassifier();
+        this.bootReport = bootReport;
+        this.probeExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "WireUp-ReadinessProbe");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Start watching; the returned future completes when the tunnel is usable
+     * or exceptionally if the container dies first
+     */
+    public CompletableFuture<Void> start() {
+        eventCallback = dockerClient.eventsCmd()
+                .withContainerFilter(containerId)
+                .withEventFilter("health_status", "die")
+                .exec(new ResultCallback.Adapter<Event>() {
+                    @Override
+                    public void onNext(Event event) {
+                        onDockerEvent(event);
+                    }
+                });
+
+        logCallback = dockerClient.logContainerCmd(containerId)
+                .withStdOut(true)
+                .withStdErr(true)
+                .withFollowStream(true)
+                .withTailAll()
+                .exec(new ResultCallback.Adapter<Frame>() {
+                    private final StringBuilder partial = new StringBuilder();
+
+                    @Override
+                    public void onNext(Frame frame) {
+                        partial.append(new String(frame.getPayload(), StandardCharsets.UTF_8));
+                        int newline;
+                        while ((newline = partial.indexOf("\n")) >= 0) {
+                            String line = partial.substring(0, newline).trim();
+                            partial.delete(0, newline + 1);
+                            onLogLine(line);
+                        }
+                    }
+                });
+
+        // The container may have exited before the event stream was attached
+        checkContainerAlive();
+
+        probeExecutor.scheduleWithFixedDelay(this::probeSocks, 0, PROBE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+
+        return ready;
+    }
+
+    private void onLogLine(String line) {
+        ContainerLogClassifier.FailureReason failure = classifier.classify(line);
+        if (failure != null) {
+            logger.warn("Fatal container output: " + line);
+            ready.completeExceptionally(new TunnelFailureException(failure, line));
+            return;
+        }
+
+        if (bootReport.accept(line)) {
+            return;
+        }
+
+        if (line.startsWith(TUNNEL_UP_MARKER) && line.contains(TUNNEL_UP_SUFFIX)) {
+            logger.debug("Readiness: tunnel interface reported up");
+            tunnelUp = true;
+        } else if (line.startsWith(READY_MARKER)) {
+            logger.debug("Readiness: container reported ready");
+            tunnelUp = true;
+            bootComplete = true;
+        }
+        checkReady();
+    }
+
+    private void onDockerEvent(Event event) {
+        String action = event.getAction() != null ? event.getAction() : event.getStatus();
+        if (action == null) {
+            return;
+        }
+
+        if (action.startsWith("health_status") && action.contains("healthy") && !action.contains("unhealthy")) {
+            logger.debug("Readiness: container reported healthy");
+            tunnelUp = true;
+            checkReady();
+        } else if (action.equals("die")) {
+            ready.completeExceptionally(new TunnelFailureException(
+                    ContainerLogClassifier.FailureReason.CONTAINER_EXITED, "exited before the tunnel became ready"));
+        }
+    }
+
+    private void checkContainerAlive() {
+        try {
+            InspectContainerResponse response = dockerClient.inspectContainerCmd(containerId).exec();
+            if (response.getState() != null && !Boolean.TRUE.equals(response.getState().getRunning())) {
+                ready.completeExceptionally(new TunnelFailureException(
+                        ContainerLogClassifier.FailureReason.CONTAINER_EXITED,
+                        "exit code " + response.getState().getExitCodeLong()));
+            }
+        } catch (Exception e) {
+            ready.completeExceptionally(new Exception("Cannot inspect container: " + e.getMessage(), e));
+        }
+    }
+
+    /**
+     * SOCKS5 greeting with the "no authentication" method. docker-proxy accepts
+     * TCP connections even when nothing listens inside the container, so only a
+     * valid method-selection reply counts as ready.
+     */
+    private void probeSocks() {
+        if (ready.isDone() || socksReady) {
+            return;
+        }
+
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(socksHost, socksPort), PROBE_TIMEOUT_MS);
+            socket.setSoTimeout(PROBE_TIMEOUT_MS);
+
+            OutputStream out = socket.getOutputStream();
+            out.write(new byte[] { 0x05, 0x01, 0x00 });
+            out.flush();
+
+            InputStream in = socket.getInputStream();
+            int version = in.read();
+            int method = in.read();
+            if (version == 0x05 && method == 0x00) {
+                logger.debug("Readiness: SOCKS5 server answered on " + socksHost + ":" + socksPort);
+                socksReady = true;
+                checkReady();
+            }
+        } catch (Exception e) {
+            // Not listening yet
+        }
+    }
+
+    /**
+     * Images that report a boot profile also announce the end of boot, so wait
+     * for it to have the full stage report; older images are ready on tunnel + SOCKS
+     */
+    private void checkReady() {
+        boolean booted = bootComplete || bootReport.getProfile() == null;
+        if (tunnelUp && socksReady && booted && !ready.isDone()) {
+            ready.complete(null);
+        }
+    }
+
+    public BootReport getBootReport() {
+        return bootReport;
+    }
+
+    /**
+     * Stop following logs and events and cancel the port probe
+     */
+    @Override
+    public void close() {
+        probeExecutor.shutdownNow();
+        closeQuietly(logCallback);
+        closeQuietly(eventCallback);
+    }
+
+    private void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (Exception e) {
+                // Ignore
+            }
+        }
+    }
+}
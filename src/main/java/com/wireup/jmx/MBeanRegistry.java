@@ -0,0 +1,389 @@
+package com.wireup.jmx;
+
+import com.wireup.docker.TelemetryCollector;
+import com.wireup.proxy.Backend;
+import com.wireup.proxy.SocksFrontProxy;
+import com.wireup.utils.ConnectTrace;
+import com.wireup.utils.Logger;
+import com.wireup.utils.TelemetryStore;
+import com.wireup.vpn.ConnectionManager;
+import com.wireup.vpn.TunnelConnection;
+import com.wireup.vpn.VpnConfig;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Publishes the connection manager and its tunnels as MXBeans on the platform
+ * MBean server, so headless Burp hosts can be watched and driven with JConsole,
+ * VisualVM or any JMX agent. Tunnel beans follow the tunnels: they are
+ * registered when a tunnel first changes state and removed with the tunnel.
+ */
+public class MBeanRegistry {
+
+    public static final String DOMAIN = "com.wireup";
+
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("wireup.jmx.enabled", "true"));
+
+    private final ConnectionManager manager;
+    private final Logger logger;
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    private final Map<String, TunnelConnection> tunnels = new ConcurrentHashMap<>();
+    private volatile boolean registered;
+
+    public MBeanRegistry(ConnectionManager manager, Logger logger) {
+        this.manager = manager;
+        this.logger = logger;
+    }
+
+    /**
+     * Register the extension bean and one bean per known tunnel; a no-op if
+     * {@code wireup.jmx.enabled} is false
+     */
+    public synchronized void register() {
+        if (!ENABLED || registered) {
+            return;
+        }
+        try {
+            registerBean(new ObjectName(DOMAIN + ":type=WireUp"), new WireUpBean());
+        } catch (Exception e) {
+            logger.warn("JMX: could not register MBeans: " + e.getMessage());
+            return;
+        }
+        registered = true;
+        for (TunnelConnection connection : manager.getConnections()) {
+            registerTunnel(connection);
+        }
+        manager.addTunnelStateListener(this::onTunnelStateChange);
+        logger.info("JMX: MBeans registered under " + DOMAIN);
+    }
+
+    /**
+     * Remove every bean of this extension; called when the extension unloads
+     */
+    public synchronized void unregister() {
+        if (!registered) {
+            return;
+        }
+        registered = false;
+        for (String name : tunnels.keySet()) {
+            unregisterTunnel(name);
+        }
+        try {
+            unregisterBean(new ObjectName(DOMAIN + ":type=WireUp"));
+        } catch (Exception e) {
+            logger.debug("JMX: could not unregister MBeans: " + e.getMessage());
+        }
+    }
+
+    private synchronized void onTunnelStateChange(TunnelConnection connection,
+            ConnectionManager.ConnectionState state) {
+        if (!registered) {
+            return;
+        }
+        // Disconnected extra tunnels are dropped by the manager
+        if (state == ConnectionManager.ConnectionState.DISCONNECTED && !connection.getTunnel().isDefault()) {
+            if (tunnels.get(connection.getName()) == connection) {
+                unregisterTunnel(connection.getName());
+            }
+        } else if (tunnels.get(connection.getName()) != connection) {
+            registerTunnel(connection);
+        }
+    }
+
+    private void registerTunnel(TunnelConnection connection) {
+        try {
+            registerBean(tunnelName(connection.getName()), new TunnelBean(connection));
+            tunnels.put(connection.getName(), connection);
+        } catch (Exception e) {
+            logger.debug("JMX: could not register tunnel " + connection.getName() + ": " + e.getMessage());
+        }
+    }
+
+    private void unregisterTunnel(String name) {
+        tunnels.remove(name);
+        try {
+            unregisterBean(tunnelName(name));
+        } catch (Exception e) {
+            logger.debug("JMX: could not unregister tunnel " + name + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Register, replacing a bean left behind by an earlier load of the
+     * extension in the same JVM or by a previous tunnel of the same name
+     */
+    private void registerBean(ObjectName name, Object bean) throws Exception {
+        try {
+            server.registerMBean(bean, name);
+        } catch (InstanceAlreadyExistsException e) {
+            unregisterBean(name);
+            server.registerMBean(bean, name);
+        }
+    }
+
+    private void unregisterBean(ObjectName name) throws Exception {
+        if (server.isRegistered(name)) {
+            server.unregisterMBean(name);
+        }
+    }
+
+    private static ObjectName tunnelName(String tunnel) throws Exception {
+        return new ObjectName(DOMAIN + ":type=Tunnel,name=" + ObjectName.quote(tunnel));
+    }
+
+    private class WireUpBean implements WireUpMXBean {
+
+        @Override
+        public String getState() {
+            return manager.getState().name();
+        }
+
+        @Override
+        public String[] getTunnelNames() {
+            List<TunnelConnection> connections = manager.getConnections();
+            String[] names = new String[connections.size()];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = connections.get(i).getName();
+            }
+            return names;
+        }
+
+        @Override
+        public int getConnectedCount() {
+            return manager.getConnectedCount();
+        }
+
+        @Override
+        public int getProxyPort() {
+            return manager.getProxyPort();
+        }
+
+        @Override
+        public boolean isFrontProxyRunning() {
+            return manager.getFrontProxy() != null && manager.getFrontProxy().isRunning();
+        }
+
+        @Override
+        public int getActiveSessions() {
+            SocksFrontProxy proxy = manager.getFrontProxy();
+            return proxy != null ? proxy.getActiveSessions() : 0;
+        }
+
+        @Override
+        public long getTotalSessions() {
+            SocksFrontProxy proxy = manager.getFrontProxy();
+            return proxy != null ? proxy.getTotalSessions() : 0;
+        }
+
+        @Override
+        public long getFailedSessions() {
+            SocksFrontProxy proxy = manager.getFrontProxy();
+            return proxy != null ? proxy.getFailedSessions() : 0;
+        }
+
+        @Override
+        public long getBytesUp() {
+            SocksFrontProxy proxy = manager.getFrontProxy();
+            return proxy != null ? proxy.getBytesUp() : 0;
+        }
+
+        @Override
+        public long getBytesDown() {
+            SocksFrontProxy proxy = manager.getFrontProxy();
+            return proxy != null ? proxy.getBytesDown() : 0;
+        }
+
+        @Override
+        public String getConnectTraceFile() {
+            return manager.getTraceFile().toString();
+        }
+
+        @Override
+        public void disconnectAll() {
+            logger.info("JMX: disconnecting all tunnels");
+            manager.disconnectAll();
+        }
+    }
+
+    private class TunnelBean implements TunnelMXBean {
+
+        private final TunnelConnection connection;
+
+        TunnelBean(TunnelConnection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public String getName() {
+            return connection.getName();
+        }
+
+        @Override
+        public String getState() {
+            return connection.getState().name();
+        }
+
+        @Override
+        public String getErrorMessage() {
+            return connection.getErrorMessage();
+        }
+
+        @Override
+        public String getFailureReason() {
+            return connection.getFailureReason() != null ? connection.getFailureReason().name() : null;
+        }
+
+        @Override
+        public String getVpnIp() {
+            return connection.getVpnIp();
+        }
+
+        @Override
+        public String getProtocol() {
+            VpnConfig config = connection.getCurrentConfig();
+            return config != null ? config.getType().name() : null;
+        }
+
+        @Override
+        public String getContainerId() {
+            return connection.getTunnel().getContainerId();
+        }
+
+        @Override
+        public int getSocksPort() {
+            return connection.getProxyPort();
+        }
+
+        @Override
+        public long getLastConnectMs() {
+            ConnectTrace trace = manager.getLastConnectTrace(getName());
+            return trace != null ? trace.getTotalMs() : 0;
+        }
+
+        @Override
+        public String getLastConnectOutcome() {
+            ConnectTrace trace = manager.getLastConnectTrace(getName());
+            return trace != null ? trace.getOutcome() : null;
+        }
+
+        @Override
+        public Map<String, Long> getLastConnectPhases() {
+            Map<String, Long> phases = new LinkedHashMap<>();
+            ConnectTrace trace = manager.getLastConnectTrace(getName());
+            if (trace != null) {
+                for (ConnectTrace.Span span : trace.getSpans()) {
+                    phases.put(span.getName(), span.getDurationMs());
+                }
+            }
+            return phases;
+        }
+
+        @Override
+        public double getCpuPercent() {
+            return latest(TelemetryCollector.CPU_PERCENT);
+        }
+
+        @Override
+        public double getThrottledPercent() {
+            return latest(TelemetryCollector.THROTTLED_PERCENT);
+        }
+
+        @Override
+        public long getMemoryBytes() {
+            return (long) latest(TelemetryCollector.MEMORY_BYTES);
+        }
+
+        @Override
+        public long getMemoryLimitBytes() {
+            return (long) latest(TelemetryCollector.MEMORY_LIMIT_BYTES);
+        }
+
+        @Override
+        public double getRxBytesPerSecond() {
+            return latest(TelemetryCollector.RX_BYTES_PER_SECOND);
+        }
+
+        @Override
+        public double getTxBytesPerSecond() {
+            return latest(TelemetryCollector.TX_BYTES_PER_SECOND);
+        }
+
+        @Override
+        public long getRxBytes() {
+            return manager.getTelemetry().getRxBytes(getName());
+        }
+
+        @Override
+        public long getTxBytes() {
+            return manager.getTelemetry().getTxBytes(getName());
+        }
+
+        @Override
+        public int getActiveSessions() {
+            SocksFrontProxy proxy = manager.getFrontProxy();
+            Backend backend = proxy != null ? proxy.getBackendPool().get(getName()) : null;
+            return backend != null ? backend.getActiveConnections() : 0;
+        }
+
+        @Override
+        public long getConnectAttempts() {
+            return connection.getConnectAttempts();
+        }
+
+        @Override
+        public long getConnectFailures() {
+            return connection.getConnectFailures();
+        }
+
+        @Override
+        public long getReconnects() {
+            return connection.getReconnects();
+        }
+
+        @Override
+        public long getUnexpectedStops() {
+            return connection.getUnexpectedStops();
+        }
+
+        @Override
+        public void connect() throws Exception {
+            logger.info("JMX: connecting tunnel " + getName());
+            manager.connect(getName(), requireConfig());
+        }
+
+        @Override
+        public void disconnect() throws Exception {
+            logger.info("JMX: disconnecting tunnel " + getName());
+            manager.disconnect(getName());
+        }
+
+        @Override
+        public void reconnect() throws Exception {
+            logger.info("JMX: reconnecting tunnel " + getName());
+            manager.reconnect(getName(), requireConfig());
+        }
+
+        private VpnConfig requireConfig() throws Exception {
+            VpnConfig config = connection.getCurrentConfig();
+            if (config == null) {
+                throw new Exception("Tunnel " + getName() + " has no config yet; connect it once from the WireUp tab");
+            }
+            return config;
+        }
+
+        /**
+         * Newest telemetry sample of the metric, 0 if the tunnel was never watched
+         */
+        private double latest(int metric) {
+            TelemetryStore store = manager.getTelemetry().getStore(getName());
+            return store != null ? store.latest(metric) : 0;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.wireup.jmx;
+
+import java.util.Map;
+
+/**
+ * State, health and counters of one tunnel, registered as
+ * {@code com.wireup:type=Tunnel,name=<tunnel>}
+ */
+public interface TunnelMXBean {
+
+    String getName();
+
+    String getState();
+
+    String getErrorMessage();
+
+    /**
+     * Classified reason of the last failed connect, or null if unknown
+     */
+    String getFailureReason();
+
+    String getVpnIp();
+
+    String getProtocol();
+
+    String getContainerId();
+
+    int getSocksPort();
+
+    // Last connect
+    long getLastConnectMs();
+
+    String getLastConnectOutcome();
+
+    /**
+     * Duration in milliseconds of each phase of the last connect
+     */
+    Map<String, Long> getLastConnectPhases();
+
+    // Container load, latest telemetry sample
+    double getCpuPercent();
+
+    double getThrottledPercent();
+
+    long getMemoryBytes();
+
+    long getMemoryLimitBytes();
+
+    // VPN interface traffic
+    double getRxBytesPerSecond();
+
+    double getTxBytesPerSecond();
+
+    long getRxBytes();
+
+    long getTxBytes();
+
+    /**
+     * Front proxy sessions currently relayed through this tunnel
+     */
+    int getActiveSessions();
+
+    // Lifetime counters
+    long getConnectAttempts();
+
+    long getConnectFailures();
+
+    long getReconnects();
+
+    long getUnexpectedStops();
+
+    /**
+     * Connect with the tunnel's last config; returns once the connect is queued
+     */
+    void connect() throws Exception;
+
+    void disconnect() throws Exception;
+
+    /**
+     * Reload the last config, in place if the container is still running
+     */
+    void reconnect() throws Exception;
+}
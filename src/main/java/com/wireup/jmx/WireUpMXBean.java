@@ -0,0 +1,42 @@
+package com.wireup.jmx;
+
+/**
+ * Extension-wide state and front proxy metrics, registered as
+ * {@code com.wireup:type=WireUp}
+ */
+public interface WireUpMXBean {
+
+    /**
+     * State of the default tunnel
+     */
+    String getState();
+
+    String[] getTunnelNames();
+
+    int getConnectedCount();
+
+    /**
+     * Local SOCKS5 port Burp is pointed at
+     */
+    int getProxyPort();
+
+    boolean isFrontProxyRunning();
+
+    // Front proxy sessions and traffic; 0 while it is disabled
+    int getActiveSessions();
+
+    long getTotalSessions();
+
+    long getFailedSessions();
+
+    long getBytesUp();
+
+    long getBytesDown();
+
+    String getConnectTraceFile();
+
+    /**
+     * Disconnect every tunnel
+     */
+    void disconnectAll();
+}
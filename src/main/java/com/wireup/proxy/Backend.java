@@ -0,0 +1,120 @@
+package com.wireup.proxy;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A tunnel container's SOCKS5 server as seen by the front proxy, with the
+ * load and health figures the balancing policies use
+ */
+public class Backend {
+
+    // Consecutive failures before a backend is ejected, and the ejection period
+    private static final int EJECT_THRESHOLD = 3;
+    private static final long BASE_EJECT_MS = 5000;
+    private static final long MAX_EJECT_MS = 60000;
+
+    private final String name;
+    private final InetSocketAddress address;
+    private final AtomicInteger activeConnections = new AtomicInteger();
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicLong totalConnections = new AtomicLong();
+    private final AtomicLong totalFailures = new AtomicLong();
+    private volatile long rttNanos;
+    private volatile long ejectedUntil;
+    private volatile boolean enabled = true;
+
+    public Backend(String name, InetSocketAddress address) {
+        this.name = name;
+        this.address = address;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public InetSocketAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * Usable for new connections: enabled and not ejected
+     */
+    public boolean isAvailable(long nowMs) {
+        return enabled && nowMs >= ejectedUntil;
+    }
+
+    public boolean isEjected(long nowMs) {
+        return nowMs < ejectedUntil;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    void connectionOpened() {
+        activeConnections.incrementAndGet();
+        totalConnections.incrementAndGet();
+    }
+
+    void connectionClosed() {
+        activeConnections.decrementAndGet();
+    }
+
+    /**
+     * Successful SOCKS handshake; the RTT (connect + method selection +
+     * CONNECT reply) feeds an exponentially weighted average
+     */
+    void recordSuccess(long handshakeNanos) {
+        consecutiveFailures.set(0);
+        long current = rttNanos;
+        rttNanos = current == 0 ? handshakeNanos : (current * 7 + handshakeNanos) / 8;
+    }
+
+    /**
+     * Failed connect or handshake
+     *
+     * @return true if this failure ejected the backend
+     */
+    boolean recordFailure(long nowMs) {
+        totalFailures.incrementAndGet();
+        int failures = consecutiveFailures.incrementAndGet();
+        if (failures < EJECT_THRESHOLD) {
+            return false;
+        }
+
+        // Back off longer each time a backend fails again right after returning
+        int shift = Math.min(failures - EJECT_THRESHOLD, 4);
+        ejectedUntil = nowMs + Math.min(BASE_EJECT_MS << shift, MAX_EJECT_MS);
+        return true;
+    }
+
+    public int getActiveConnections() {
+        return activeConnections.get();
+    }
+
+    /**
+     * Smoothed handshake RTT in nanoseconds, 0 until measured
+     */
+    public long getRttNanos() {
+        return rttNanos;
+    }
+
+    public long getTotalConnections() {
+        return totalConnections.get();
+    }
+
+    public long getTotalFailures() {
+        return totalFailures.get();
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + address.getPort() + ")";
+    }
+}
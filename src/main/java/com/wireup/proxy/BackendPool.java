@@ -0,0 +1,119 @@
+package com.wireup.proxy;
+
+import com.wireup.utils.VpnLogger;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The tunnel backends of the front proxy. Backends are added and removed as
+ * tunnels connect and disconnect, and ejected for a while after repeated
+ * connect or handshake failures.
+ */
+public class BackendPool {
+
+    private final VpnLogger logger;
+    private final BalancingPolicy policy;
+    private final List<Backend> backends = new CopyOnWriteArrayList<>();
+
+    public BackendPool(VpnLogger logger, BalancingPolicy policy) {
+        this.logger = logger;
+        this.policy = policy;
+    }
+
+    /**
+     * Add or replace the backend for a tunnel
+     */
+    public synchronized void put(String name, String host, int port) {
+        Backend current = get(name);
+        if (current != null && current.getAddress().getPort() == port) {
+            current.setEnabled(true);
+            return;
+        }
+        if (current != null) {
+            backends.remove(current);
+        }
+        backends.add(new Backend(name, new InetSocketAddress(host, port)));
+        logger.info("Front proxy backend added: " + name + " (" + host + ":" + port + ")");
+    }
+
+    public synchronized void remove(String name) {
+        Backend current = get(name);
+        if (current != null) {
+            // Open sessions keep their reference and finish normally
+            current.setEnabled(false);
+            backends.remove(current);
+            logger.info("Front proxy backend removed: " + name);
+        }
+    }
+
+    public Backend get(String name) {
+        for (Backend backend : backends) {
+            if (backend.getName().equals(name)) {
+                return backend;
+            }
+        }
+        return null;
+    }
+
+    public List<Backend> getBackends() {
+        return Collections.unmodifiableList(backends);
+    }
+
+    /**
+     * Choose a backend for a new connection, skipping the ones already tried
+     * for it. If every backend is ejected, ejected ones are still tried rather
+     * than failing the connection outright.
+     *
+     * @return the backend, or null if none is left
+     */
+    public Backend select(String destinationHost, Collection<Backend> exclude) {
+        long now = System.currentTimeMillis();
+        List<Backend> candidates = new ArrayList<>();
+        List<Backend> ejected = new ArrayList<>();
+        for (Backend backend : backends) {
+            if (!backend.isEnabled() || exclude.contains(backend)) {
+                continue;
+            }
+            (backend.isAvailable(now) ? candidates : ejected).add(backend);
+        }
+
+        if (candidates.isEmpty()) {
+            candidates = ejected;
+        }
+        if (candidates.isEmpty()) {
+            return null;
+        }
+        return candidates.size() == 1 ? candidates.get(0) : policy.select(candidates, destinationHost);
+    }
+
+    /**
+     * The named tunnel's backend for a routing rule; ejection is ignored since
+     * there is no other backend to fall back to
+     *
+     * @return the backend, or null if the tunnel is not connected or was tried
+     */
+    public Backend selectTunnel(String tunnelName, Collection<Backend> exclude) {
+        Backend backend = get(tunnelName);
+        return backend != null && backend.isEnabled() && !exclude.contains(backend) ? backend : null;
+    }
+
+    /**
+     * Record a failed connect or handshake and eject the backend if it keeps failing
+     */
+    void reportFailure(Backend backend, String reason) {
+        if (backend.recordFailure(System.currentTimeMillis())) {
+            logger.warn("Front proxy backend ejected: " + backend + " - " + reason);
+        } else {
+            logger.debug("Front proxy backend failure: " + backend + " - " + reason);
+        }
+    }
+
+    public BalancingPolicy getPolicy() {
+        return policy;
+    }
+}
@@ -0,0 +1,134 @@
+package com.wireup.proxy;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Picks the backend for a new client connection among the available ones
+ */
+public interface BalancingPolicy {
+
+    /**
+     * @param candidates       available backends, never empty
+     * @param destinationHost  host name or address from the client's CONNECT request
+     */
+    Backend select(List<Backend> candidates, String destinationHost);
+
+    /**
+     * Policy by name: round-robin, least-connections, lowest-rtt or sticky-host
+     */
+    static BalancingPolicy forName(String name) {
+        if (name == null) {
+            return new RoundRobin();
+        }
+        switch (name.toLowerCase()) {
+            case "least-connections":
+                return new LeastConnections();
+            case "lowest-rtt":
+                return new LowestRtt();
+            case "sticky-host":
+                return new StickyHost();
+            default:
+                return new RoundRobin();
+        }
+    }
+
+    class RoundRobin implements BalancingPolicy {
+        private final AtomicInteger next = new AtomicInteger();
+
+        @Override
+        public Backend select(List<Backend> candidates, String destinationHost) {
+            return candidates.get(Math.floorMod(next.getAndIncrement(), candidates.size()));
+        }
+
+        @Override
+        public String toString() {
+            return "round-robin";
+        }
+    }
+
+    class LeastConnections implements BalancingPolicy {
+        @Override
+        public Backend select(List<Backend> candidates, String destinationHost) {
+            Backend best = candidates.get(0);
+            for (Backend backend : candidates) {
+                if (backend.getActiveConnections() < best.getActiveConnections()) {
+                    best = backend;
+                }
+            }
+            return best;
+        }
+
+        @Override
+        public String toString() {
+            return "least-connections";
+        }
+    }
+
+    /**
+     * Lowest smoothed handshake RTT; unmeasured backends go first so every
+     * backend gets a measurement
+     */
+    class LowestRtt implements BalancingPolicy {
+        @Override
+        public Backend select(List<Backend> candidates, String destinationHost) {
+            Backend best = null;
+            for (Backend backend : candidates) {
+                if (backend.getRttNanos() == 0) {
+                    return backend;
+                }
+                if (best == null || backend.getRttNanos() < best.getRttNanos()) {
+                    best = backend;
+                }
+            }
+            return best;
+        }
+
+        @Override
+        public String toString() {
+            return "lowest-rtt";
+        }
+    }
+
+    /**
+     * Same destination host, same backend (and egress IP). Uses rendezvous
+     * hashing so only the hosts of a removed backend move elsewhere.
+     */
+    class StickyHost implements BalancingPolicy {
+        @Override
+        public Backend select(List<Backend> candidates, String destinationHost) {
+            Backend best = null;
+            long bestWeight = Long.MIN_VALUE;
+            byte[] host = destinationHost.toLowerCase().getBytes(StandardCharsets.UTF_8);
+            for (Backend backend : candidates) {
+                long weight = hash(host, backend.getName());
+                if (best == null || weight > bestWeight) {
+                    best = backend;
+                    bestWeight = weight;
+                }
+            }
+            return best;
+        }
+
+        // FNV-1a over host and backend name, then a final mix
+        private static long hash(byte[] host, String backend) {
+            long h = 0xcbf29ce484222325L;
+            for (byte b : host) {
+                h = (h ^ (b & 0xff)) * 0x100000001b3L;
+            }
+            for (byte b : backend.getBytes(StandardCharsets.UTF_8)) {
+                h = (h ^ (b & 0xff)) * 0x100000001b3L;
+            }
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            return h;
+        }
+
+        @Override
+        public String toString() {
+            return "sticky-host";
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.wireup.proxy;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of fixed-size direct buffers shared by the proxy's selector threads.
+ *
+ * Sessions borrow a buffer only for a read/write cycle and return it once the
+ * data is written, so idle connections hold no buffer. Beyond the pool limit
+ * buffers are allocated on demand and dropped on release.
+ */
+public class BufferPool {
+
+    private final int bufferSize;
+    private final int maxPooled;
+    private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+    private final AtomicInteger inUse = new AtomicInteger();
+
+    public BufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    public ByteBuffer acquire() {
+        inUse.incrementAndGet();
+        ByteBuffer buffer = free.poll();
+        if (buffer != null) {
+            pooled.decrementAndGet();
+            return buffer;
+        }
+        return ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    /**
+     * Return a buffer; buffers not from this pool (e.g. handshake replies) are ignored
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect() || buffer.capacity() != bufferSize) {
+            return;
+        }
+        inUse.decrementAndGet();
+        if (pooled.incrementAndGet() <= maxPooled) {
+            buffer.clear();
+            free.offer(buffer);
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+
+    public int getInUse() {
+        return inUse.get();
+    }
+
+    public int getPooled() {
+        return pooled.get();
+    }
+}
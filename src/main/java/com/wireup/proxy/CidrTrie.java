@@ -0,0 +1,54 @@
+package com.wireup.proxy;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary prefix tree of CIDR rules for one address family; a lookup walks at
+ * most one bit per level and returns the longest matching prefix
+ */
+final class CidrTrie {
+
+    private static final class Node {
+        private final Node[] children = new Node[2];
+        private final List<RoutingRule> rules = new ArrayList<>(1);
+    }
+
+    private final Node root = new Node();
+
+    void add(RoutingRule rule) {
+        byte[] address = rule.getAddress();
+        Node node = root;
+        for (int bit = 0; bit < rule.getPrefixLength(); bit++) {
+            int b = bitAt(address, bit);
+            if (node.children[b] == null) {
+                node.children[b] = new Node();
+            }
+            node = node.children[b];
+        }
+        node.rules.add(rule);
+    }
+
+    /**
+     * @return the longest-prefix rule for the address and port, or null
+     */
+    RoutingRule match(byte[] address, int port) {
+        RoutingRule best = HostTrie.first(root.rules, port);
+        Node node = root;
+        for (int bit = 0; bit < address.length * 8; bit++) {
+            node = node.children[bitAt(address, bit)];
+            if (node == null) {
+                break;
+            }
+            RoutingRule rule = HostTrie.first(node.rules, port);
+            if (rule != null) {
+                best = rule;
+            }
+        }
+        return best;
+    }
+
+    private static int bitAt(byte[] address, int bit) {
+        return (address[bit >> 3] >> (7 - (bit & 7))) & 1;
+    }
+}
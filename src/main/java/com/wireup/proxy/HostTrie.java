@@ -0,0 +1,69 @@
+package com.wireup.proxy;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Host name rules keyed by reversed labels, so a lookup walks the name once
+ * from the top-level domain down and the deepest matching rule wins
+ */
+final class HostTrie {
+
+    private static final class Node {
+        private final Map<String, Node> children = new HashMap<>();
+        private final List<RoutingRule> exact = new ArrayList<>(1);
+        private final List<RoutingRule> subdomains = new ArrayList<>(1);
+    }
+
+    private final Node root = new Node();
+
+    void add(RoutingRule rule) {
+        Node node = root;
+        String[] labels = rule.getPattern().split("\\.");
+        for (int i = labels.length - 1; i >= 0; i--) {
+            node = node.children.computeIfAbsent(labels[i], k -> new Node());
+        }
+
+        if (rule.getKind() != RoutingRule.Kind.HOST_SUFFIX) {
+            node.exact.add(rule);
+        }
+        if (rule.getKind() != RoutingRule.Kind.HOST) {
+            node.subdomains.add(rule);
+        }
+    }
+
+    /**
+     * @param host lower-case host name without trailing dot
+     * @return the most specific rule for the host and port, or null
+     */
+    RoutingRule match(String host, int port) {
+        RoutingRule best = null;
+        Node node = root;
+        int end = host.length();
+        while (end > 0) {
+            int start = host.lastIndexOf('.', end - 1) + 1;
+            node = node.children.get(host.substring(start, end));
+            if (node == null) {
+                break;
+            }
+
+            RoutingRule rule = start == 0 ? first(node.exact, port) : first(node.subdomains, port);
+            if (rule != null) {
+                best = rule;
+            }
+            end = start - 1;
+        }
+        return best;
+    }
+
+    static RoutingRule first(List<RoutingRule> rules, int port) {
+        for (RoutingRule rule : rules) {
+            if (rule.matchesPort(port)) {
+                return rule;
+            }
+        }
+        return null;
+    }
+}
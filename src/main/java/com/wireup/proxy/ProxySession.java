@@ -0,0 +1,683 @@
+package com.wireup.proxy;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * One client connection of the front proxy, driven by its selector thread.
+ *
+ * The client's SOCKS5 greeting is answered locally and its CONNECT request is
+ * routed by the proxy's {@link RoutingTable}. For tunnel routes the request is
+ * replayed to a backend chosen by the pool, and the backend's reply is passed
+ * back unchanged before both sides are spliced; a backend that fails before
+ * replying is reported and the next one is tried. Direct routes connect from
+ * the host after resolving the name off the selector thread.
+ */
+final class ProxySession {
+
+    private static final int HANDSHAKE_BUFFER = 512;
+    private static final long HANDSHAKE_TIMEOUT_MS = 10000;
+
+    private static final byte SOCKS_VERSION = 0x05;
+    private static final byte CMD_CONNECT = 0x01;
+    private static final byte ATYP_IPV4 = 0x01;
+    private static final byte ATYP_DOMAIN = 0x03;
+    private static final byte ATYP_IPV6 = 0x04;
+    private static final byte REP_GENERAL_FAILURE = 0x01;
+    private static final byte REP_NOT_ALLOWED = 0x02;
+    private static final byte REP_HOST_UNREACHABLE = 0x04;
+    private static final byte REP_CONNECTION_REFUSED = 0x05;
+    private static final byte REP_COMMAND_NOT_SUPPORTED = 0x07;
+    private static final byte REP_ADDRESS_NOT_SUPPORTED = 0x08;
+
+    private enum Phase {
+        GREETING, REQUEST, RESOLVING, CONNECTING, UPSTREAM_METHOD, UPSTREAM_REPLY, RELAY, CLOSED
+    }
+
+    private final SocksFrontProxy proxy;
+    private final Selector selector;
+    private final Executor loop;
+    private final SocketChannel client;
+    private final SelectionKey clientKey;
+    private final List<Backend> tried = new ArrayList<>(2);
+
+    private Phase phase = Phase.GREETING;
+    private long deadline;
+    private ByteBuffer clientIn = ByteBuffer.allocate(HANDSHAKE_BUFFER);
+    private ByteBuffer upstreamIn;
+    private ByteBuffer earlyClientData;
+    private byte[] request;
+    private String destinationHost;
+    private int destinationPort;
+    private Route route = Route.BALANCE;
+
+    private SocketChannel upstream;
+    private SelectionKey upstreamKey;
+    private Backend backend;
+    private long handshakeStart;
+
+    // Data waiting to be written to each side; at most one buffer per direction
+    private ByteBuffer toClient;
+    private ByteBuffer toUpstream;
+    private boolean clientEof;
+    private boolean upstreamEof;
+    private boolean clientOutputShut;
+    private boolean upstreamOutputShut;
+    private boolean closeAfterFlush;
+
+    ProxySession(SocksFrontProxy proxy, Selector selector, Executor loop, SocketChannel client)
+            throws IOException {
+        this.proxy = proxy;
+        this.selector = selector;
+        this.loop = loop;
+        this.client = client;
+        client.configureBlocking(false);
+        client.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        this.clientKey = client.register(selector, SelectionKey.OP_READ, this);
+        this.deadline = System.currentTimeMillis() + HANDSHAKE_TIMEOUT_MS;
+    }
+
+    void handle(SelectionKey key) {
+        if (phase == Phase.CLOSED || !key.isValid()) {
+            return;
+        }
+
+        try {
+            if (key == clientKey) {
+                if (key.isWritable()) {
+                    flushToClient();
+                }
+                if (key.isValid() && key.isReadable()) {
+                    onClientReadable();
+                }
+            } else if (key == upstreamKey) {
+                if (key.isConnectable()) {
+                    upstream.finishConnect();
+                    if (route.getType() == Route.Type.DIRECT) {
+                        startDirectRelay();
+                    } else {
+                        startUpstreamHandshake();
+                    }
+                    return;
+                }
+                if (key.isWritable()) {
+                    flushToUpstream();
+                }
+                if (key.isValid() && key.isReadable()) {
+                    onUpstreamReadable();
+                }
+            }
+        } catch (IOException e) {
+            if (key == upstreamKey && route.getType() == Route.Type.DIRECT && phase == Phase.CONNECTING) {
+                replyQuietly(REP_CONNECTION_REFUSED);
+            } else if (key == upstreamKey && isUpstreamHandshake()) {
+                backendFailed(e.getMessage());
+            } else {
+                close();
+            }
+        }
+    }
+
+    /**
+     * Called about once a second by the selector thread
+     */
+    void checkTimeout(long now) {
+        if (phase == Phase.RELAY || phase == Phase.CLOSED || now < deadline) {
+            return;
+        }
+        if (route.getType() == Route.Type.DIRECT && (phase == Phase.RESOLVING || phase == Phase.CONNECTING)) {
+            replyQuietly(REP_HOST_UNREACHABLE);
+        } else if (isUpstreamHandshake()) {
+            backendFailed("handshake timed out");
+        } else {
+            close();
+        }
+    }
+
+    // --- Client handshake ---
+
+    private void onClientReadable() throws IOException {
+        if (phase == Phase.RELAY) {
+            relayFromClient();
+            return;
+        }
+        if (phase != Phase.GREETING && phase != Phase.REQUEST) {
+            return;
+        }
+
+        if (client.read(clientIn) < 0) {
+            close();
+            return;
+        }
+        clientIn.flip();
+        parseClientHandshake();
+        if (clientIn != null) {
+            clientIn.compact();
+        }
+    }
+
+    private void parseClientHandshake() throws IOException {
+        if (phase == Phase.GREETING) {
+            int start = clientIn.position();
+            if (clientIn.remaining() < 2) {
+                return;
+            }
+            if (clientIn.get(start) != SOCKS_VERSION) {
+                close();
+                return;
+            }
+            int methods = clientIn.get(start + 1) & 0xff;
+            if (clientIn.remaining() < 2 + methods) {
+                return;
+            }
+
+            boolean noAuth = false;
+            for (int i = 0; i < methods; i++) {
+                noAuth |= clientIn.get(start + 2 + i) == 0x00;
+            }
+            clientIn.position(start + 2 + methods);
+
+            if (!noAuth) {
+                closeAfterFlush = true;
+                sendToClient(new byte[] { SOCKS_VERSION, (byte) 0xFF });
+                return;
+            }
+            sendToClient(new byte[] { SOCKS_VERSION, 0x00 });
+            phase = Phase.REQUEST;
+        }
+
+        if (phase == Phase.REQUEST) {
+            int start = clientIn.position();
+            if (clientIn.remaining() < 5) {
+                return;
+            }
+            if (clientIn.get(start) != SOCKS_VERSION) {
+                close();
+                return;
+            }
+
+            int length;
+            byte addressType = clientIn.get(start + 3);
+            if (addressType == ATYP_IPV4) {
+                length = 10;
+            } else if (addressType == ATYP_DOMAIN) {
+                length = 7 + (clientIn.get(start + 4) & 0xff);
+            } else if (addressType == ATYP_IPV6) {
+                length = 22;
+            } else {
+                reply(REP_ADDRESS_NOT_SUPPORTED);
+                return;
+            }
+            if (clientIn.remaining() < length) {
+                return;
+            }
+
+            request = new byte[length];
+            clientIn.get(request);
+            if (request[1] != CMD_CONNECT) {
+                reply(REP_COMMAND_NOT_SUPPORTED);
+                return;
+            }
+
+            destinationHost = addressType == ATYP_DOMAIN
+                    ? new String(request, 5, length - 7, StandardCharsets.US_ASCII)
+                    : InetAddress.getByAddress(Arrays.copyOfRange(request, 4, length - 2)).getHostAddress();
+            destinationPort = ((request[length - 2] & 0xff) << 8) | (request[length - 1] & 0xff);
+
+            // Anything sent ahead of our reply goes upstream once relaying starts
+            if (clientIn.hasRemaining()) {
+                earlyClientData = ByteBuffer.allocate(clientIn.remaining());
+                earlyClientData.put(clientIn).flip();
+            }
+            clientIn = null;
+            disable(clientKey, SelectionKey.OP_READ);
+
+            route = proxy.getRoutingTable().route(destinationHost, destinationPort);
+            switch (route.getType()) {
+                case BLOCK:
+                    reply(REP_NOT_ALLOWED);
+                    break;
+                case DIRECT:
+                    resolveDirect();
+                    break;
+                default:
+                    connectUpstream();
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Send an error reply and close once it is written
+     */
+    private void reply(byte code) throws IOException {
+        proxy.sessionFailed();
+        closeAfterFlush = true;
+        disable(clientKey, SelectionKey.OP_READ);
+        sendToClient(new byte[] { SOCKS_VERSION, code, 0x00, ATYP_IPV4, 0, 0, 0, 0, 0, 0 });
+    }
+
+    private void replyQuietly(byte code) {
+        try {
+            reply(code);
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    // --- Direct connections ---
+
+    /**
+     * Resolve the destination on the proxy's resolver threads, then connect
+     * from the selector thread
+     */
+    private void resolveDirect() {
+        phase = Phase.RESOLVING;
+        deadline = System.currentTimeMillis() + HANDSHAKE_TIMEOUT_MS;
+        String host = destinationHost;
+        proxy.resolve(() -> {
+            InetAddress address;
+            try {
+                address = InetAddress.getByName(host);
+            } catch (Exception e) {
+                address = null;
+            }
+            InetAddress resolved = address;
+            loop.execute(() -> connectDirect(resolved));
+        });
+    }
+
+    private void connectDirect(InetAddress address) {
+        if (phase != Phase.RESOLVING) {
+            return;
+        }
+        if (address == null) {
+            replyQuietly(REP_HOST_UNREACHABLE);
+            return;
+        }
+
+        phase = Phase.CONNECTING;
+        try {
+            upstream = SocketChannel.open();
+            upstream.configureBlocking(false);
+            upstream.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            if (upstream.connect(new InetSocketAddress(address, destinationPort))) {
+                upstreamKey = upstream.register(selector, SelectionKey.OP_READ, this);
+                startDirectRelay();
+            } else {
+                upstreamKey = upstream.register(selector, SelectionKey.OP_CONNECT, this);
+            }
+        } catch (IOException e) {
+            replyQuietly(REP_CONNECTION_REFUSED);
+        }
+    }
+
+    /**
+     * Connected from the host; reply with the local address the way a SOCKS
+     * server reports its bound address
+     */
+    private void startDirectRelay() throws IOException {
+        upstreamKey.interestOps(SelectionKey.OP_READ);
+        InetSocketAddress local = (InetSocketAddress) upstream.getLocalAddress();
+        byte[] address = local.getAddress().getAddress();
+        byte[] reply = new byte[6 + address.length];
+        reply[0] = SOCKS_VERSION;
+        reply[3] = address.length == 4 ? ATYP_IPV4 : ATYP_IPV6;
+        System.arraycopy(address, 0, reply, 4, address.length);
+        reply[reply.length - 2] = (byte) (local.getPort() >> 8);
+        reply[reply.length - 1] = (byte) local.getPort();
+        startRelay(reply);
+    }
+
+    // --- Upstream handshake ---
+
+    private boolean isUpstreamHandshake() {
+        return phase == Phase.CONNECTING || phase == Phase.UPSTREAM_METHOD || phase == Phase.UPSTREAM_REPLY;
+    }
+
+    /**
+     * Open a connection to the next backend, skipping the ones that already
+     * failed for this session
+     */
+    private void connectUpstream() {
+        while (true) {
+            backend = route.getType() == Route.Type.TUNNEL
+                    ? proxy.getBackendPool().selectTunnel(route.getTunnel(), tried)
+                    : proxy.getBackendPool().select(destinationHost, tried);
+            if (backend == null) {
+                replyQuietly(REP_GENERAL_FAILURE);
+                return;
+            }
+
+            tried.add(backend);
+            backend.connectionOpened();
+            phase = Phase.CONNECTING;
+            handshakeStart = System.nanoTime();
+            deadline = System.currentTimeMillis() + HANDSHAKE_TIMEOUT_MS;
+
+            try {
+                upstream = SocketChannel.open();
+                upstream.configureBlocking(false);
+                upstream.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                if (upstream.connect(backend.getAddress())) {
+                    upstreamKey = upstream.register(selector, SelectionKey.OP_READ, this);
+                    startUpstreamHandshake();
+                } else {
+                    upstreamKey = upstream.register(selector, SelectionKey.OP_CONNECT, this);
+                }
+                return;
+            } catch (IOException e) {
+                dropBackend(e.getMessage());
+            }
+        }
+    }
+
+    private void startUpstreamHandshake() throws IOException {
+        phase = Phase.UPSTREAM_METHOD;
+        upstreamIn = ByteBuffer.allocate(HANDSHAKE_BUFFER);
+        upstreamKey.interestOps(SelectionKey.OP_READ);
+        sendToUpstream(new byte[] { SOCKS_VERSION, 0x01, 0x00 });
+    }
+
+    private void onUpstreamReadable() throws IOException {
+        if (phase == Phase.RELAY) {
+            relayFromUpstream();
+            return;
+        }
+        if (!isUpstreamHandshake()) {
+            return;
+        }
+
+        if (upstream.read(upstreamIn) < 0) {
+            throw new IOException("backend closed the connection during the handshake");
+        }
+        upstreamIn.flip();
+
+        if (phase == Phase.UPSTREAM_METHOD) {
+            if (upstreamIn.remaining() < 2) {
+                upstreamIn.compact();
+                return;
+            }
+            if (upstreamIn.get() != SOCKS_VERSION || upstreamIn.get() != 0x00) {
+                throw new IOException("backend rejected the no-auth method");
+            }
+            phase = Phase.UPSTREAM_REPLY;
+            sendToUpstream(request);
+        }
+
+        if (phase == Phase.UPSTREAM_REPLY) {
+            int start = upstreamIn.position();
+            if (upstreamIn.remaining() < 5) {
+                upstreamIn.compact();
+                return;
+            }
+
+            int length;
+            byte addressType = upstreamIn.get(start + 3);
+            if (addressType == ATYP_IPV4) {
+                length = 10;
+            } else if (addressType == ATYP_DOMAIN) {
+                length = 7 + (upstreamIn.get(start + 4) & 0xff);
+            } else if (addressType == ATYP_IPV6) {
+                length = 22;
+            } else {
+                throw new IOException("malformed reply from backend");
+            }
+            if (upstreamIn.remaining() < length) {
+                upstreamIn.compact();
+                return;
+            }
+
+            // The backend answered; a refused destination is not the backend's fault
+            backend.recordSuccess(System.nanoTime() - handshakeStart);
+            byte code = upstreamIn.get(start + 1);
+            byte[] reply = new byte[upstreamIn.remaining()];
+            upstreamIn.get(reply);
+            upstreamIn = null;
+
+            if (code != 0x00) {
+                proxy.sessionFailed();
+                closeAfterFlush = true;
+                sendToClient(reply);
+                return;
+            }
+            startRelay(reply);
+        }
+    }
+
+    private void backendFailed(String reason) {
+        dropBackend(reason);
+        connectUpstream();
+    }
+
+    private void dropBackend(String reason) {
+        if (backend != null) {
+            proxy.getBackendPool().reportFailure(backend, reason != null ? reason : "connection failed");
+            backend.connectionClosed();
+            backend = null;
+        }
+        closeQuietly(upstream);
+        upstream = null;
+        upstreamKey = null;
+        toUpstream = null;
+    }
+
+    // --- Relay ---
+
+    private void startRelay(byte[] reply) throws IOException {
+        phase = Phase.RELAY;
+        enable(clientKey, SelectionKey.OP_READ);
+        sendToClient(reply);
+
+        if (earlyClientData != null) {
+            toUpstream = earlyClientData;
+            earlyClientData = null;
+            flushToUpstream();
+        }
+    }
+
+    private void relayFromClient() throws IOException {
+        if (toUpstream != null) {
+            disable(clientKey, SelectionKey.OP_READ);
+            return;
+        }
+
+        ByteBuffer buffer = proxy.getBufferPool().acquire();
+        int read;
+        try {
+            read = client.read(buffer);
+        } catch (IOException e) {
+            proxy.getBufferPool().release(buffer);
+            throw e;
+        }
+
+        if (read <= 0) {
+            proxy.getBufferPool().release(buffer);
+            if (read < 0) {
+                clientEof = true;
+                disable(clientKey, SelectionKey.OP_READ);
+                flushToUpstream();
+            }
+            return;
+        }
+
+        buffer.flip();
+        proxy.addBytesUp(read);
+        toUpstream = buffer;
+        flushToUpstream();
+    }
+
+    private void relayFromUpstream() throws IOException {
+        if (toClient != null) {
+            disable(upstreamKey, SelectionKey.OP_READ);
+            return;
+        }
+
+        ByteBuffer buffer = proxy.getBufferPool().acquire();
+        int read;
+        try {
+            read = upstream.read(buffer);
+        } catch (IOException e) {
+            proxy.getBufferPool().release(buffer);
+            throw e;
+        }
+
+        if (read <= 0) {
+            proxy.getBufferPool().release(buffer);
+            if (read < 0) {
+                upstreamEof = true;
+                disable(upstreamKey, SelectionKey.OP_READ);
+                flushToClient();
+            }
+            return;
+        }
+
+        buffer.flip();
+        proxy.addBytesDown(read);
+        toClient = buffer;
+        flushToClient();
+    }
+
+    private void sendToClient(byte[] data) throws IOException {
+        toClient = append(toClient, data);
+        flushToClient();
+    }
+
+    private void sendToUpstream(byte[] data) throws IOException {
+        toUpstream = append(toUpstream, data);
+        flushToUpstream();
+    }
+
+    private ByteBuffer append(ByteBuffer pending, byte[] data) {
+        if (pending == null) {
+            return ByteBuffer.wrap(data);
+        }
+        ByteBuffer combined = ByteBuffer.allocate(pending.remaining() + data.length);
+        combined.put(pending).put(data).flip();
+        proxy.getBufferPool().release(pending);
+        return combined;
+    }
+
+    /**
+     * Write pending data to the client; while it cannot be written, reading
+     * from upstream is paused
+     */
+    private void flushToClient() throws IOException {
+        if (toClient != null) {
+            client.write(toClient);
+            if (toClient.hasRemaining()) {
+                enable(clientKey, SelectionKey.OP_WRITE);
+                if (phase == Phase.RELAY) {
+                    disable(upstreamKey, SelectionKey.OP_READ);
+                }
+                return;
+            }
+            proxy.getBufferPool().release(toClient);
+            toClient = null;
+        }
+        disable(clientKey, SelectionKey.OP_WRITE);
+
+        if (closeAfterFlush) {
+            close();
+            return;
+        }
+        if (phase == Phase.RELAY) {
+            if (!upstreamEof) {
+                enable(upstreamKey, SelectionKey.OP_READ);
+            } else if (!clientOutputShut) {
+                clientOutputShut = true;
+                client.shutdownOutput();
+            }
+            closeIfDone();
+        }
+    }
+
+    private void flushToUpstream() throws IOException {
+        if (toUpstream != null) {
+            upstream.write(toUpstream);
+            if (toUpstream.hasRemaining()) {
+                enable(upstreamKey, SelectionKey.OP_WRITE);
+                if (phase == Phase.RELAY) {
+                    disable(clientKey, SelectionKey.OP_READ);
+                }
+                return;
+            }
+            proxy.getBufferPool().release(toUpstream);
+            toUpstream = null;
+        }
+        disable(upstreamKey, SelectionKey.OP_WRITE);
+
+        if (phase == Phase.RELAY) {
+            if (!clientEof) {
+                enable(clientKey, SelectionKey.OP_READ);
+            } else if (!upstreamOutputShut) {
+                upstreamOutputShut = true;
+                upstream.shutdownOutput();
+            }
+            closeIfDone();
+        }
+    }
+
+    private void closeIfDone() {
+        if (clientEof && upstreamEof && toClient == null && toUpstream == null) {
+            close();
+        }
+    }
+
+    void close() {
+        if (phase == Phase.CLOSED) {
+            return;
+        }
+        phase = Phase.CLOSED;
+
+        closeQuietly(client);
+        closeQuietly(upstream);
+        proxy.getBufferPool().release(toClient);
+        proxy.getBufferPool().release(toUpstream);
+        toClient = null;
+        toUpstream = null;
+
+        if (backend != null) {
+            backend.connectionClosed();
+            backend = null;
+        }
+        proxy.sessionClosed();
+    }
+
+    String getDestination() {
+        return destinationHost != null ? destinationHost + ":" + destinationPort : null;
+    }
+
+    private static void enable(SelectionKey key, int op) {
+        if (key != null && key.isValid()) {
+            key.interestOps(key.interestOps() | op);
+        }
+    }
+
+    private static void disable(SelectionKey key, int op) {
+        if (key != null && key.isValid()) {
+            key.interestOps(key.interestOps() & ~op);
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.wireup.proxy;
+
+/**
+ * Where the front proxy sends a connection: balanced over all tunnels, to a
+ * named tunnel, straight from the host, or nowhere
+ */
+public final class Route {
+
+    public enum Type {
+        BALANCE,
+        TUNNEL,
+        DIRECT,
+        BLOCK
+    }
+
+    public static final Route BALANCE = new Route(Type.BALANCE, null);
+    public static final Route DIRECT = new Route(Type.DIRECT, null);
+    public static final Route BLOCK = new Route(Type.BLOCK, null);
+
+    private final Type type;
+    private final String tunnel;
+
+    private Route(Type type, String tunnel) {
+        this.type = type;
+        this.tunnel = tunnel;
+    }
+
+    public static Route tunnel(String name) {
+        return new Route(Type.TUNNEL, name);
+    }
+
+    /**
+     * Parse a rule action: direct, block, balance or a tunnel name
+     */
+    public static Route parse(String action) throws Exception {
+        switch (action.toLowerCase()) {
+            case "direct":
+                return DIRECT;
+            case "block":
+                return BLOCK;
+            case "balance":
+                return BALANCE;
+            default:
+                if (!action.matches("[A-Za-z0-9_.-]{1,32}")) {
+                    throw new Exception("Invalid tunnel name: " + action);
+                }
+                return tunnel(action);
+        }
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Tunnel name for {@link Type#TUNNEL} routes, otherwise null
+     */
+    public String getTunnel() {
+        return tunnel;
+    }
+
+    @Override
+    public String toString() {
+        return type == Type.TUNNEL ? "tunnel " + tunnel : type.name().toLowerCase();
+    }
+}
@@ -0,0 +1,228 @@
+package com.wireup.proxy;
+
+import java.net.InetAddress;
+
+/**
+ * One line of the routing rules: a destination match, optional ports, and the
+ * route to take.
+ *
+ * <pre>
+ * # match            [ports]      action
+ * *.corp.lan                      direct
+ * .example.com       80,443       us-east
+ * 10.0.0.0/8                      office
+ * 192.168.56.10      22,8000-8100 block
+ * scope                           pentest
+ * *                               balance
+ * </pre>
+ *
+ * {@code name} matches exactly, {@code *.name} only subdomains and
+ * {@code .name} both. {@code scope} matches Burp's target scope and {@code *}
+ * everything. Host rules only see the name the client sent; names are not
+ * resolved to match CIDR rules.
+ */
+public final class RoutingRule {
+
+    public enum Kind {
+        HOST,
+        HOST_SUFFIX,
+        HOST_AND_SUBDOMAINS,
+        CIDR,
+        SCOPE,
+        ANY
+    }
+
+    private final Kind kind;
+    private final String pattern;
+    private final byte[] address;
+    private final int prefixLength;
+    private final int[] portRanges;
+    private final Route route;
+    private final String source;
+
+    private RoutingRule(Kind kind, String pattern, byte[] address, int prefixLength, int[] portRanges,
+            Route route, String source) {
+        this.kind = kind;
+        this.pattern = pattern;
+        this.address = address;
+        this.prefixLength = prefixLength;
+        this.portRanges = portRanges;
+        this.route = route;
+        this.source = source;
+    }
+
+    /**
+     * Rule sending a CIDR to a tunnel, e.g. from a WireGuard peer's AllowedIPs
+     */
+    public static RoutingRule cidr(String cidr, Route route, String source) throws Exception {
+        return parseMatch(cidr, null, route, source);
+    }
+
+    /**
+     * Parse one rule line; blank lines and comments give null
+     */
+    public static RoutingRule parse(String line) throws Exception {
+        int comment = line.indexOf('#');
+        String text = (comment >= 0 ? line.substring(0, comment) : line).trim();
+        if (text.isEmpty()) {
+            return null;
+        }
+
+        String[] tokens = text.split("\\s+");
+        if (tokens.length < 2 || tokens.length > 3) {
+            throw new Exception("Expected '<match> [ports] <action>': " + text);
+        }
+        int[] ports = tokens.length == 3 ? parsePorts(tokens[1]) : null;
+        return parseMatch(tokens[0], ports, Route.parse(tokens[tokens.length - 1]), text);
+    }
+
+    private static RoutingRule parseMatch(String match, int[] ports, Route route, String source)
+            throws Exception {
+        String lower = match.toLowerCase();
+        if (lower.equals("*")) {
+            return new RoutingRule(Kind.ANY, null, null, 0, ports, route, source);
+        }
+        if (lower.equals("scope")) {
+            return new RoutingRule(Kind.SCOPE, null, null, 0, ports, route, source);
+        }
+
+        int slash = lower.indexOf('/');
+        String addressPart = slash >= 0 ? lower.substring(0, slash) : lower;
+        byte[] address = parseAddress(addressPart);
+        if (address != null) {
+            int prefix = address.length * 8;
+            if (slash >= 0) {
+                try {
+                    prefix = Integer.parseInt(lower.substring(slash + 1));
+                } catch (NumberFormatException e) {
+                    throw new Exception("Invalid prefix length: " + match);
+                }
+                if (prefix < 0 || prefix > address.length * 8) {
+                    throw new Exception("Invalid prefix length: " + match);
+                }
+            }
+            return new RoutingRule(Kind.CIDR, lower, address, prefix, ports, route, source);
+        }
+        if (slash >= 0) {
+            throw new Exception("Invalid CIDR: " + match);
+        }
+
+        Kind kind = Kind.HOST;
+        String host = lower;
+        if (host.startsWith("*.")) {
+            kind = Kind.HOST_SUFFIX;
+            host = host.substring(2);
+        } else if (host.startsWith(".")) {
+            kind = Kind.HOST_AND_SUBDOMAINS;
+            host = host.substring(1);
+        }
+        if (host.endsWith(".")) {
+            host = host.substring(0, host.length() - 1);
+        }
+        if (!host.matches("[a-z0-9_-]+(\\.[a-z0-9_-]+)*")) {
+            throw new Exception("Invalid host pattern: " + match);
+        }
+        return new RoutingRule(kind, host, null, 0, ports, route, source);
+    }
+
+    private static int[] parsePorts(String text) throws Exception {
+        String[] parts = text.split(",");
+        int[] ranges = new int[parts.length * 2];
+        for (int i = 0; i < parts.length; i++) {
+            String part = parts[i].trim();
+            int dash = part.indexOf('-');
+            try {
+                ranges[i * 2] = Integer.parseInt(dash >= 0 ? part.substring(0, dash) : part);
+                ranges[i * 2 + 1] = dash >= 0 ? Integer.parseInt(part.substring(dash + 1)) : ranges[i * 2];
+            } catch (NumberFormatException e) {
+                throw new Exception("Invalid port: " + part);
+            }
+            if (ranges[i * 2] < 1 || ranges[i * 2 + 1] > 65535 || ranges[i * 2] > ranges[i * 2 + 1]) {
+                throw new Exception("Invalid port range: " + part);
+            }
+        }
+        return ranges;
+    }
+
+    /**
+     * Parse an IPv4 or IPv6 literal without any name lookup
+     *
+     * @return the address bytes, or null if the text is not an IP literal
+     */
+    static byte[] parseAddress(String text) {
+        if (text.indexOf(':') >= 0) {
+            if (!text.matches("[0-9a-fA-F:.\\[\\]]+")) {
+                return null;
+            }
+            try {
+                // A literal containing ':' is never looked up
+                return InetAddress.getByName(text).getAddress();
+            } catch (Exception e) {
+                return null;
+            }
+        }
+
+        byte[] bytes = new byte[4];
+        int part = 0;
+        int value = -1;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                value = (value < 0 ? 0 : value * 10) + (c - '0');
+                if (value > 255) {
+                    return null;
+                }
+            } else if (c == '.' && value >= 0 && part < 3) {
+                bytes[part++] = (byte) value;
+                value = -1;
+            } else {
+                return null;
+            }
+        }
+        if (part != 3 || value < 0) {
+            return null;
+        }
+        bytes[3] = (byte) value;
+        return bytes;
+    }
+
+    boolean matchesPort(int port) {
+        if (portRanges == null) {
+            return true;
+        }
+        for (int i = 0; i < portRanges.length; i += 2) {
+            if (port >= portRanges[i] && port <= portRanges[i + 1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * Host name without wildcard prefix, or the CIDR text
+     */
+    String getPattern() {
+        return pattern;
+    }
+
+    byte[] getAddress() {
+        return address;
+    }
+
+    int getPrefixLength() {
+        return prefixLength;
+    }
+
+    public Route getRoute() {
+        return route;
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+}
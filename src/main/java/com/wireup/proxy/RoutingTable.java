@@ -0,0 +1,115 @@
+package com.wireup.proxy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BiPredicate;
+
+/**
+ * Compiled routing rules. Host names are looked up in a label trie and IP
+ * literals in per-family prefix trees, so the cost per connection depends on
+ * the destination's length rather than the number of rules.
+ *
+ * Precedence: the most specific host or CIDR rule, then {@code scope} rules,
+ * then {@code *} rules, then balancing over all tunnels. Among rules with the
+ * same match, the first one listed whose ports match wins.
+ */
+public final class RoutingTable {
+
+    public static final RoutingTable EMPTY = new RoutingTable(Collections.emptyList(), null);
+
+    private final List<RoutingRule> rules;
+    private final HostTrie hosts = new HostTrie();
+    private final CidrTrie ipv4 = new CidrTrie();
+    private final CidrTrie ipv6 = new CidrTrie();
+    private final List<RoutingRule> scopeRules = new ArrayList<>();
+    private final List<RoutingRule> anyRules = new ArrayList<>();
+    private final BiPredicate<String, Integer> scope;
+
+    /**
+     * @param scope host/port in Burp's target scope; null if unavailable
+     */
+    public RoutingTable(List<RoutingRule> rules, BiPredicate<String, Integer> scope) {
+        this.rules = Collections.unmodifiableList(new ArrayList<>(rules));
+        this.scope = scope;
+        for (RoutingRule rule : rules) {
+            switch (rule.getKind()) {
+                case CIDR:
+                    (rule.getAddress().length == 4 ? ipv4 : ipv6).add(rule);
+                    break;
+                case SCOPE:
+                    scopeRules.add(rule);
+                    break;
+                case ANY:
+                    anyRules.add(rule);
+                    break;
+                default:
+                    hosts.add(rule);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Parse rule text, one rule per line
+     *
+     * @throws Exception naming the first invalid line
+     */
+    public static List<RoutingRule> parseRules(String text) throws Exception {
+        List<RoutingRule> rules = new ArrayList<>();
+        String[] lines = text.split("\\r?\\n");
+        for (int i = 0; i < lines.length; i++) {
+            try {
+                RoutingRule rule = RoutingRule.parse(lines[i]);
+                if (rule != null) {
+                    rules.add(rule);
+                }
+            } catch (Exception e) {
+                throw new Exception("Line " + (i + 1) + ": " + e.getMessage());
+            }
+        }
+        return rules;
+    }
+
+    /**
+     * Route for a destination as sent in the client's CONNECT request
+     */
+    public Route route(String host, int port) {
+        RoutingRule rule = match(host, port);
+        return rule != null ? rule.getRoute() : Route.BALANCE;
+    }
+
+    /**
+     * The rule deciding the route, or null if none matches
+     */
+    public RoutingRule match(String host, int port) {
+        if (rules.isEmpty()) {
+            return null;
+        }
+
+        String name = host.toLowerCase();
+        if (name.endsWith(".")) {
+            name = name.substring(0, name.length() - 1);
+        }
+
+        byte[] address = RoutingRule.parseAddress(name);
+        RoutingRule rule = address == null
+                ? hosts.match(name, port)
+                : (address.length == 4 ? ipv4 : ipv6).match(address, port);
+        if (rule != null) {
+            return rule;
+        }
+
+        if (!scopeRules.isEmpty() && scope != null && scope.test(name, port)) {
+            rule = HostTrie.first(scopeRules, port);
+            if (rule != null) {
+                return rule;
+            }
+        }
+        return HostTrie.first(anyRules, port);
+    }
+
+    public List<RoutingRule> getRules() {
+        return rules;
+    }
+}
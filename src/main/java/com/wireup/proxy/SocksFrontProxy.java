@@ -0,0 +1,335 @@
+package com.wireup.proxy;
+
+import com.wireup.utils.VpnLogger;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local SOCKS5 endpoint that Burp points at, spreading client connections over
+ * the SOCKS servers of the connected tunnels.
+ *
+ * A small fixed set of selector threads runs all sessions; the first one also
+ * accepts and hands new connections out round-robin. Relay buffers are direct
+ * buffers from a shared {@link BufferPool}. Connections are routed by a
+ * {@link RoutingTable} that can be swapped at any time; names for direct
+ * connections are resolved on a separate pair of threads.
+ */
+public class SocksFrontProxy {
+
+    public static final String BIND_HOST = "127.0.0.1";
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 256;
+    private static final long TIMEOUT_CHECK_MS = 1000;
+    private static final int RESOLVER_THREADS = 2;
+
+    private final VpnLogger logger;
+    private final BackendPool backendPool;
+    private final BufferPool bufferPool;
+    private final int selectorThreads;
+
+    private final AtomicInteger resolverThreadCount = new AtomicInteger();
+    private volatile RoutingTable routingTable = RoutingTable.EMPTY;
+
+    private ServerSocketChannel server;
+    private ExecutorService resolver;
+    private SelectorLoop[] loops;
+    private volatile boolean running;
+    private volatile int port;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+
+    private final AtomicInteger activeSessions = new AtomicInteger();
+    private final AtomicLong totalSessions = new AtomicLong();
+    private final AtomicLong failedSessions = new AtomicLong();
+    private final AtomicLong bytesUp = new AtomicLong();
+    private final AtomicLong bytesDown = new AtomicLong();
+
+    public SocksFrontProxy(VpnLogger logger, BalancingPolicy policy, int selectorThreads) {
+        this.logger = logger;
+        this.backendPool = new BackendPool(logger, policy);
+        this.bufferPool = new BufferPool(BUFFER_SIZE, MAX_POOLED_BUFFERS);
+        this.selectorThreads = Math.max(1, selectorThreads);
+    }
+
+    /**
+     * Bind the listener on {@link #BIND_HOST} and start the selector threads
+     *
+     * @param port port to listen on, 0 for any free port
+     */
+    public synchronized void start(int port) throws IOException {
+        if (running) {
+            return;
+        }
+
+        server = ServerSocketChannel.open();
+        try {
+            server.bind(new InetSocketAddress(BIND_HOST, port), 1024);
+            server.configureBlocking(false);
+
+            loops = new SelectorLoop[selectorThreads];
+            for (int i = 0; i < loops.length; i++) {
+                loops[i] = new SelectorLoop(Selector.open());
+            }
+            server.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            closeQuietly();
+            throw e;
+        }
+
+        this.port = server.socket().getLocalPort();
+        resolver = Executors.newFixedThreadPool(RESOLVER_THREADS, r -> {
+            Thread thread = new Thread(r, "WireUp-Proxy-Resolver-" + resolverThreadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        running = true;
+        for (int i = 0; i < loops.length; i++) {
+            Thread thread = new Thread(loops[i], "WireUp-Proxy-" + (i + 1));
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        logger.info("Front proxy listening on " + BIND_HOST + ":" + this.port + " (" + loops.length
+                + " selector threads, policy " + backendPool.getPolicy() + ")");
+    }
+
+    /**
+     * Close the listener and every open session
+     */
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        for (SelectorLoop loop : loops) {
+            loop.selector.wakeup();
+        }
+        closeQuietly();
+        resolver.shutdownNow();
+        logger.info("Front proxy stopped");
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Port the proxy listens on, 0 when not started
+     */
+    public int getPort() {
+        return running ? port : 0;
+    }
+
+    /**
+     * Replace the routing rules; applies to connections opened from now on
+     */
+    public void setRoutingTable(RoutingTable routingTable) {
+        this.routingTable = routingTable != null ? routingTable : RoutingTable.EMPTY;
+    }
+
+    public RoutingTable getRoutingTable() {
+        return routingTable;
+    }
+
+    public BackendPool getBackendPool() {
+        return backendPool;
+    }
+
+    BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    public int getActiveSessions() {
+        return activeSessions.get();
+    }
+
+    public long getTotalSessions() {
+        return totalSessions.get();
+    }
+
+    public long getFailedSessions() {
+        return failedSessions.get();
+    }
+
+    public long getBytesUp() {
+        return bytesUp.get();
+    }
+
+    public long getBytesDown() {
+        return bytesDown.get();
+    }
+
+    public int getBuffersInUse() {
+        return bufferPool.getInUse();
+    }
+
+    /**
+     * Run a blocking name lookup off the selector threads
+     */
+    void resolve(Runnable lookup) {
+        try {
+            resolver.execute(lookup);
+        } catch (Exception e) {
+            // Stopped; the session is closed with its selector
+        }
+    }
+
+    void sessionFailed() {
+        failedSessions.incrementAndGet();
+    }
+
+    void sessionClosed() {
+        activeSessions.decrementAndGet();
+    }
+
+    void addBytesUp(int count) {
+        bytesUp.addAndGet(count);
+    }
+
+    void addBytesDown(int count) {
+        bytesDown.addAndGet(count);
+    }
+
+    private void accept() {
+        try {
+            SocketChannel channel;
+            while ((channel = server.accept()) != null) {
+                SocketChannel accepted = channel;
+                SelectorLoop loop = loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+                loop.execute(() -> loop.register(accepted));
+            }
+        } catch (IOException e) {
+            if (running) {
+                logger.warn("Front proxy accept failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            if (server != null) {
+                server.close();
+            }
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+
+    /**
+     * One selector thread; other threads hand it work through its task queue
+     */
+    private class SelectorLoop implements Runnable, Executor {
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private long lastTimeoutCheck;
+
+        SelectorLoop(Selector selector) {
+            this.selector = selector;
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        void register(SocketChannel channel) {
+            try {
+                new ProxySession(SocksFrontProxy.this, selector, this, channel);
+                activeSessions.incrementAndGet();
+                totalSessions.incrementAndGet();
+            } catch (IOException e) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // Ignore
+                }
+            }
+        }
+
+        /**
+         * A bug in one session closes only that session, so the others on this
+         * selector keep running and the session counters stay accurate
+         */
+        private void handle(ProxySession session, SelectionKey key) {
+            try {
+                session.handle(key);
+            } catch (RuntimeException e) {
+                fail(session, e);
+            }
+        }
+
+        private void fail(ProxySession session, RuntimeException e) {
+            logger.warn("Front proxy session " + session.getDestination() + " failed: " + e);
+            session.close();
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    selector.select(TIMEOUT_CHECK_MS);
+
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        if (key.attachment() instanceof ProxySession) {
+                            handle((ProxySession) key.attachment(), key);
+                        } else if (key.isValid() && key.isAcceptable()) {
+                            accept();
+                        }
+                    }
+
+                    long now = System.currentTimeMillis();
+                    if (now - lastTimeoutCheck >= TIMEOUT_CHECK_MS) {
+                        lastTimeoutCheck = now;
+                        // Copied, a timed-out handshake may register a new upstream channel
+                        for (SelectionKey key : new ArrayList<>(selector.keys())) {
+                            if (key.attachment() instanceof ProxySession) {
+                                ProxySession session = (ProxySession) key.attachment();
+                                try {
+                                    session.checkTimeout(now);
+                                } catch (RuntimeException e) {
+                                    fail(session, e);
+                                }
+                            }
+                        }
+                    }
+                } catch (Exception e) {
+                    logger.warn("Front proxy selector error: " + e.getMessage());
+                }
+            }
+
+            for (SelectionKey key : new ArrayList<>(selector.keys())) {
+                if (key.attachment() instanceof ProxySession) {
+                    ((ProxySession) key.attachment()).close();
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+}
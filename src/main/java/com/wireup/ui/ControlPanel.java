@@ -20,6 +20,8 @@ public class ControlPanel {
     private JButton disconnectButton;
     private JButton reconnectButton;
     private JButton viewLogsButton;
+    private JButton addTunnelButton;
+    private JButton routingButton;
     private ConfigPanel configPanel;
 
     public ControlPanel(ConnectionManager connectionManager, Logger logger) {
@@ -34,6 +36,13 @@ public class ControlPanel {
      */
     public void setConnectionManager(ConnectionManager connectionManager) {
         this.connectionManager = connectionManager;
+        if (connectionManager != null) {
+            SwingUtilities.invokeLater(() -> {
+                updateButtons(connectionManager.getState());
+                addTunnelButton.setEnabled(true);
+                routingButton.setEnabled(true);
+            });
+        }
     }
 
     private void initializeUI() {
@@ -45,6 +54,8 @@ public class ControlPanel {
         connectButton.setForeground(new Color(0, 128, 0));
         connectButton.setToolTipText("Start the Docker container and establish VPN connection");
         connectButton.addActionListener(e -> onConnect());
+        // Enabled once Docker setup has finished in the background
+        connectButton.setEnabled(connectionManager != null);
 
         // Disconnect button
         disconnectButton = new JButton("Disconnect");
@@ -55,9 +66,21 @@ public class ControlPanel {
         // Reconnect button
         reconnectButton = new JButton("Reconnect");
         reconnectButton.setEnabled(false);
-        reconnectButton.setToolTipText("Restart the connection (useful for connection resets)");
+        reconnectButton.setToolTipText("Apply config changes or restart the tunnel (keeps the container when the protocol is unchanged)");
         reconnectButton.addActionListener(e -> onReconnect());
 
+        // Additional tunnel button
+        addTunnelButton = new JButton("Add Tunnel");
+        addTunnelButton.setEnabled(connectionManager != null);
+        addTunnelButton.setToolTipText("Start another tunnel container with this config, on its own SOCKS port");
+        addTunnelButton.addActionListener(e -> onAddTunnel());
+
+        // Routing rules button
+        routingButton = new JButton("Routing Rules");
+        routingButton.setEnabled(connectionManager != null);
+        routingButton.setToolTipText("Choose a tunnel, direct connection or block per destination host, CIDR or port");
+        routingButton.addActionListener(e -> onEditRoutingRules());
+
         // View logs button
         viewLogsButton = new JButton("View Logs");
         viewLogsButton.setToolTipText("View internal Docker container logs for debugging");
@@ -66,6 +89,8 @@ public class ControlPanel {
         panel.add(connectButton);
         panel.add(disconnectButton);
         panel.add(reconnectButton);
+        panel.add(addTunnelButton);
+        panel.add(routingButton);
         panel.add(viewLogsButton);
     }
 
@@ -94,16 +119,34 @@ public class ControlPanel {
             return;
         }
 
+        com.wireup.vpn.VpnConfig config = buildConfig(true);
+        if (config == null) {
+            return;
+        }
+
+        // Connect
+        logger.info("User initiated connection (" + config.getType() + ")");
+        connectionManager.connect(config);
+    }
+
+    /**
+     * Build and validate a VPN config from the config panel
+     *
+     * @return the config, or null if it is missing or invalid
+     */
+    private com.wireup.vpn.VpnConfig buildConfig(boolean showErrors) {
         // Get config from the config panel
         String configText = configPanel.getConfigText();
         com.wireup.vpn.VpnConfig.VpnType vpnType = configPanel.getVpnType();
 
         if (configText == null || configText.trim().isEmpty() || configText.contains("# Paste your WireGuard")) {
-            JOptionPane.showMessageDialog(panel,
-                    "Please enter a valid configuration first",
-                    "No Configuration",
-                    JOptionPane.WARNING_MESSAGE);
-            return;
+            if (showErrors) {
+                JOptionPane.showMessageDialog(panel,
+                        "Please enter a valid configuration first",
+                        "No Configuration",
+                        JOptionPane.WARNING_MESSAGE);
+            }
+            return null;
         }
 
         // Validate config
@@ -128,23 +171,23 @@ public class ControlPanel {
         }
 
         if (!config.isValid()) {
-            JOptionPane.showMessageDialog(panel,
-                    "Invalid configuration:\n" + config.getErrorMessage(),
-                    "Validation Error",
-                    JOptionPane.ERROR_MESSAGE);
-            return;
+            if (showErrors) {
+                JOptionPane.showMessageDialog(panel,
+                        "Invalid configuration:\n" + config.getErrorMessage(),
+                        "Validation Error",
+                        JOptionPane.ERROR_MESSAGE);
+            }
+            return null;
         }
 
-        // Connect
-        logger.info("User initiated connection (" + vpnType + ")");
-        connectionManager.connect(config);
+        return config;
     }
 
     private void onDisconnect() {
         // Show confirmation dialog
         int choice = JOptionPane.showConfirmDialog(panel,
                 "Are you sure you want to disconnect from the VPN?\n" +
-                        "This will stop routing traffic through the VPN tunnel.",
+                        "This will stop routing traffic through all VPN tunnels.",
                 "Confirm Disconnect",
                 JOptionPane.YES_NO_OPTION,
                 JOptionPane.WARNING_MESSAGE);
@@ -162,7 +205,7 @@ public class ControlPanel {
         // Run disconnect in background thread to keep UI responsive
         new Thread(() -> {
             try {
-                connectionManager.disconnect();
+                connectionManager.disconnectAll();
             } finally {
                 // Reset button text on EDT
                 SwingUtilities.invokeLater(() -> {
@@ -172,16 +215,91 @@ public class ControlPanel {
         }).start();
     }
 
+    private void onAddTunnel() {
+        if (connectionManager == null || configPanel == null) {
+            return;
+        }
+
+        com.wireup.vpn.VpnConfig config = buildConfig(true);
+        if (config == null) {
+            return;
+        }
+
+        String name = JOptionPane.showInputDialog(panel,
+                "Name for the additional tunnel (letters, digits, '-', '_' or '.'):",
+                "Add Tunnel",
+                JOptionPane.QUESTION_MESSAGE);
+        if (name == null || name.trim().isEmpty()) {
+            return;
+        }
+
+        try {
+            logger.info("User added tunnel " + name.trim() + " (" + config.getType() + ")");
+            connectionManager.connect(name.trim(), config);
+        } catch (Exception e) {
+            JOptionPane.showMessageDialog(panel,
+                    "Cannot add tunnel:\n" + e.getMessage(),
+                    "Add Tunnel",
+                    JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    private void onEditRoutingRules() {
+        if (connectionManager == null) {
+            return;
+        }
+
+        String text = connectionManager.getRoutingRules();
+        if (text.isEmpty()) {
+            text = "# <host | *.domain | .domain | CIDR | scope | *>  [ports]  <tunnel | direct | block | balance>\n"
+                    + "# *.corp.lan            direct\n"
+                    + "# 10.0.0.0/8            office\n"
+                    + "# example.com  80,443   default\n";
+        }
+
+        JTextArea editor = new JTextArea(text, 16, 60);
+        editor.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+
+        while (true) {
+            int result = JOptionPane.showConfirmDialog(panel, new JScrollPane(editor),
+                    "WireUp - Routing Rules", JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+            if (result != JOptionPane.OK_OPTION) {
+                return;
+            }
+
+            try {
+                connectionManager.setRoutingRules(editor.getText());
+                return;
+            } catch (Exception e) {
+                JOptionPane.showMessageDialog(panel, e.getMessage(), "Invalid Routing Rule",
+                        JOptionPane.ERROR_MESSAGE);
+            }
+        }
+    }
+
     private void onReconnect() {
         logger.info("User initiated reconnect");
-        connectionManager.reconnect();
+
+        // Pick up edits in the config panel; same-protocol changes are applied in place
+        com.wireup.vpn.VpnConfig config = configPanel != null ? buildConfig(false) : null;
+        if (config != null) {
+            connectionManager.reconnect(config);
+        } else {
+            connectionManager.reconnect();
+        }
     }
 
     private void onViewLogs() {
+        // Self-tests are not part of the fast boot, run them now so they show up in the log
+        if (connectionManager != null) {
+            new Thread(connectionManager::runDiagnostics, "WireUp-Diagnostics").start();
+        }
+
         // Show extension logs
         JOptionPane.showMessageDialog(panel,
                 "Check the Burp Suite 'Extensions' tab for logs.\n" +
-                        "Look for '[WireUp]' entries in the Output/Errors tabs.",
+                        "Look for '[WireUp]' entries in the Output/Errors tabs.\n" +
+                        "Container diagnostics are being written there now.",
                 "View Logs",
                 JOptionPane.INFORMATION_MESSAGE);
     }
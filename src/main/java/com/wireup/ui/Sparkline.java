@@ -0,0 +1,85 @@
+package com.wireup.ui;
+
+import javax.swing.*;
+import java.awt.*;
+
+/**
+ * Compact line chart of recent values with a caption, scaled to the largest
+ * value shown (or a fixed maximum such as 100 for percentages)
+ */
+public class Sparkline extends JComponent {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int CHART_WIDTH = 60;
+    private static final int CHART_HEIGHT = 14;
+
+    private final Color lineColor;
+    private final double fixedMax;
+    private double[] values = new double[0];
+    private String caption = "-";
+
+    /**
+     * @param fixedMax top of the scale, or 0 to scale to the values
+     */
+    public Sparkline(Color lineColor, double fixedMax) {
+        this.lineColor = lineColor;
+        this.fixedMax = fixedMax;
+        setFont(new Font("Arial", Font.BOLD, 11));
+    }
+
+    /**
+     * Replace the values and caption; call on the EDT
+     */
+    public void update(double[] values, String caption) {
+        this.values = values;
+        this.caption = caption;
+        revalidate();
+        repaint();
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        FontMetrics metrics = getFontMetrics(getFont());
+        return new Dimension(CHART_WIDTH + 6 + metrics.stringWidth(caption),
+                Math.max(CHART_HEIGHT, metrics.getHeight()));
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        Graphics2D g2 = (Graphics2D) g.create();
+        try {
+            g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            int top = (getHeight() - CHART_HEIGHT) / 2;
+            g2.setColor(new Color(0, 0, 0, 20));
+            g2.fillRect(0, top, CHART_WIDTH, CHART_HEIGHT);
+
+            if (values.length > 1) {
+                double max = fixedMax;
+                if (max <= 0) {
+                    for (double value : values) {
+                        max = Math.max(max, value);
+                    }
+                }
+                if (max > 0) {
+                    int[] xs = new int[values.length];
+                    int[] ys = new int[values.length];
+                    for (int i = 0; i < values.length; i++) {
+                        xs[i] = i * (CHART_WIDTH - 1) / (values.length - 1);
+                        ys[i] = top + CHART_HEIGHT - 1
+                                - (int) Math.round(Math.min(values[i], max) / max * (CHART_HEIGHT - 2));
+                    }
+                    g2.setColor(lineColor);
+                    g2.drawPolyline(xs, ys, values.length);
+                }
+            }
+
+            g2.setColor(getForeground() != null ? getForeground() : Color.BLACK);
+            g2.setFont(getFont());
+            FontMetrics metrics = g2.getFontMetrics();
+            g2.drawString(caption, CHART_WIDTH + 6, (getHeight() + metrics.getAscent() - metrics.getDescent()) / 2);
+        } finally {
+            g2.dispose();
+        }
+    }
+}
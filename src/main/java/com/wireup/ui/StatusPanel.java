@@ -1,23 +1,46 @@
 package com.wireup.ui;
 
+import com.wireup.docker.BootReport;
+import com.wireup.docker.ContainerStateCache;
+import com.wireup.docker.TelemetryCollector;
 import com.wireup.vpn.ConnectionManager;
+import com.wireup.vpn.TunnelConnection;
+import com.wireup.proxy.SocksFrontProxy;
+import com.wireup.utils.ConnectTrace;
+import com.wireup.utils.TelemetryStore;
 import com.wireup.utils.IpVerifier;
 
 import javax.swing.*;
 import javax.swing.border.TitledBorder;
 import java.awt.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Panel to display connection status and information
  */
 public class StatusPanel {
 
+    // Telemetry arrives once a second per tunnel; the sparklines repaint at most this often
+    private static final int TELEMETRY_REFRESH_MS = 500;
+    private static final int SPARKLINE_SAMPLES = 60;
+
     private JPanel panel;
     private JLabel stateLabel;
     private JLabel hostIpLabel;
     private JLabel vpnIpLabel;
     private JLabel containerLabel;
     private JLabel proxyConfigLabel;
+    private JLabel setupLabel;
+    private JLabel tunnelsLabel;
+    private JLabel linkLabel;
+    private JLabel connectTimeLabel;
+    private Sparkline rxSparkline;
+    private Sparkline txSparkline;
+    private Sparkline cpuSparkline;
+    private Sparkline memorySparkline;
+    private Timer telemetryTimer;
+    private final AtomicBoolean telemetryDirty = new AtomicBoolean();
+    private volatile ConnectionManager telemetryManager;
     private JPanel statusIndicator;
 
     public StatusPanel() {
@@ -41,7 +64,7 @@ public class StatusPanel {
         statusIndicator.setBorder(BorderFactory.createLineBorder(Color.DARK_GRAY, 1));
 
         // Info panel
-        JPanel infoPanel = new JPanel(new GridLayout(5, 2, 10, 5));
+        JPanel infoPanel = new JPanel(new GridLayout(10, 2, 10, 5));
         infoPanel.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
 
         // Labels
@@ -75,6 +98,43 @@ public class StatusPanel {
         proxyConfigLabel = new JLabel("Not configured");
         proxyConfigLabel.setFont(valueFont);
 
+        JLabel tunnelsTitle = new JLabel("Tunnels:");
+        tunnelsTitle.setFont(labelFont);
+        tunnelsLabel = new JLabel("0 connected");
+        tunnelsLabel.setFont(valueFont);
+
+        JLabel linkTitle = new JLabel("Link:");
+        linkTitle.setFont(labelFont);
+        linkLabel = new JLabel("-");
+        linkLabel.setFont(valueFont);
+
+        JLabel connectTimeTitle = new JLabel("Last Connect:");
+        connectTimeTitle.setFont(labelFont);
+        connectTimeLabel = new JLabel("-");
+        connectTimeLabel.setFont(valueFont);
+
+        JLabel loadTitle = new JLabel("Tunnel Load:");
+        loadTitle.setFont(labelFont);
+        rxSparkline = new Sparkline(new Color(0, 128, 0), 0);
+        txSparkline = new Sparkline(Color.BLUE, 0);
+        cpuSparkline = new Sparkline(Color.ORANGE, 0);
+        memorySparkline = new Sparkline(Color.MAGENTA, 0);
+        JPanel loadPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 8, 0));
+        loadPanel.add(rxSparkline);
+        loadPanel.add(txSparkline);
+        loadPanel.add(cpuSparkline);
+        loadPanel.add(memorySparkline);
+        resetTelemetry();
+
+        // Coalesces any number of samples into one repaint per tick; idle while disconnected
+        telemetryTimer = new Timer(TELEMETRY_REFRESH_MS, e -> refreshTelemetry());
+
+        JLabel setupTitle = new JLabel("Setup:");
+        setupTitle.setFont(labelFont);
+        setupLabel = new JLabel("Starting...");
+        setupLabel.setFont(valueFont);
+        setupLabel.setForeground(Color.GRAY);
+
         infoPanel.add(stateTitle);
         infoPanel.add(stateLabel);
         infoPanel.add(hostIpTitle);
@@ -85,6 +145,16 @@ public class StatusPanel {
         infoPanel.add(containerLabel);
         infoPanel.add(proxyTitle);
         infoPanel.add(proxyConfigLabel);
+        infoPanel.add(tunnelsTitle);
+        infoPanel.add(tunnelsLabel);
+        infoPanel.add(linkTitle);
+        infoPanel.add(linkLabel);
+        infoPanel.add(connectTimeTitle);
+        infoPanel.add(connectTimeLabel);
+        infoPanel.add(loadTitle);
+        infoPanel.add(loadPanel);
+        infoPanel.add(setupTitle);
+        infoPanel.add(setupLabel);
 
         // Left panel with indicator
         JPanel leftPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 10, 10));
@@ -112,6 +182,9 @@ public class StatusPanel {
                 vpnIpLabel.setForeground(Color.GRAY);
                 containerLabel.setText("Not running");
                 proxyConfigLabel.setText("Not configured");
+                linkLabel.setText("-");
+                telemetryTimer.stop();
+                resetTelemetry();
                 updateHostIp();
                 break;
 
@@ -133,8 +206,22 @@ public class StatusPanel {
                     vpnIpLabel.setForeground(new Color(0, 128, 0));
                 }
 
-                containerLabel.setText("Running");
-                proxyConfigLabel.setText("127.0.0.1:1080 (SOCKS5)");
+                ContainerStateCache.ContainerState container = manager.getContainerState();
+                containerLabel.setText(container != null && container.getHealth() != null
+                        ? "Running (" + container.getHealth() + ")"
+                        : "Running");
+                SocksFrontProxy frontProxy = manager.getFrontProxy();
+                proxyConfigLabel.setText("127.0.0.1:" + manager.getProxyPort() + (frontProxy != null
+                        ? " (SOCKS5, " + frontProxy.getBackendPool().getPolicy() + " over "
+                                + manager.getConnectedCount() + " tunnels)"
+                        : " (SOCKS5)"));
+
+                BootReport boot = manager.getLastBootReport();
+                String link = boot != null ? boot.describeLink() : null;
+                linkLabel.setText(link != null ? link : "-");
+                updateConnectTrace(manager);
+                telemetryManager = manager;
+                telemetryTimer.start();
                 break;
 
             case ERROR:
@@ -143,10 +230,146 @@ public class StatusPanel {
                         "Error: " + (manager.getErrorMessage() != null ? manager.getErrorMessage() : "Unknown error"));
                 stateLabel.setForeground(Color.RED);
                 containerLabel.setText("Failed");
+                updateConnectTrace(manager);
                 break;
         }
     }
 
+    /**
+     * Note that a telemetry sample of the default tunnel arrived; safe to call
+     * from any thread, the sparklines catch up on the next timer tick
+     */
+    public void onTelemetrySample() {
+        telemetryDirty.set(true);
+    }
+
+    private void refreshTelemetry() {
+        ConnectionManager manager = telemetryManager;
+        if (manager == null || !telemetryDirty.getAndSet(false)) {
+            return;
+        }
+        TelemetryStore store = manager.getTelemetry().getStore(manager.getDefaultConnection().getName());
+        if (store == null) {
+            return;
+        }
+
+        rxSparkline.update(read(store, TelemetryCollector.RX_BYTES_PER_SECOND),
+                "rx " + formatBytes(store.latest(TelemetryCollector.RX_BYTES_PER_SECOND)) + "/s");
+        txSparkline.update(read(store, TelemetryCollector.TX_BYTES_PER_SECOND),
+                "tx " + formatBytes(store.latest(TelemetryCollector.TX_BYTES_PER_SECOND)) + "/s");
+        double throttled = store.latest(TelemetryCollector.THROTTLED_PERCENT);
+        cpuSparkline.update(read(store, TelemetryCollector.CPU_PERCENT),
+                String.format("CPU %.0f%%", store.latest(TelemetryCollector.CPU_PERCENT))
+                        + (throttled >= 1 ? String.format(" (throttled %.0f%%)", throttled) : ""));
+        double limit = store.latest(TelemetryCollector.MEMORY_LIMIT_BYTES);
+        memorySparkline.update(read(store, TelemetryCollector.MEMORY_BYTES),
+                "mem " + formatBytes(store.latest(TelemetryCollector.MEMORY_BYTES))
+                        + (limit > 0 ? " / " + formatBytes(limit) : ""));
+
+        rxSparkline.setToolTipText(describeHistory(store, TelemetryCollector.RX_BYTES_PER_SECOND, "rx", "/s"));
+        txSparkline.setToolTipText(describeHistory(store, TelemetryCollector.TX_BYTES_PER_SECOND, "tx", "/s"));
+    }
+
+    private static double[] read(TelemetryStore store, int metric) {
+        return store.read(TelemetryStore.Resolution.SECOND, metric, SPARKLINE_SAMPLES);
+    }
+
+    /**
+     * Average and peak of the last hour and day, from the store's rollups
+     */
+    private static String describeHistory(TelemetryStore store, int metric, String name, String unit) {
+        StringBuilder sb = new StringBuilder("<html>").append(name);
+        appendHistory(sb, store, metric, TelemetryStore.Resolution.MINUTE, 60, "hour", unit);
+        appendHistory(sb, store, metric, TelemetryStore.Resolution.QUARTER_HOUR, 96, "day", unit);
+        return sb.append("</html>").toString();
+    }
+
+    private static void appendHistory(StringBuilder sb, TelemetryStore store, int metric,
+            TelemetryStore.Resolution resolution, int buckets, String period, String unit) {
+        double[] means = new double[buckets];
+        double[] peaks = new double[buckets];
+        int n = Math.min(store.read(resolution, metric, false, null, means),
+                store.read(resolution, metric, true, null, peaks));
+        if (n == 0) {
+            return;
+        }
+        double sum = 0;
+        double peak = 0;
+        for (int i = 0; i < n; i++) {
+            sum += means[i];
+            peak = Math.max(peak, peaks[i]);
+        }
+        sb.append("<br>Last ").append(period).append(": avg ").append(formatBytes(sum / n)).append(unit)
+                .append(", peak ").append(formatBytes(peak)).append(unit);
+    }
+
+    /**
+     * e.g. "812 B", "1.4 KB", "12.0 MB"
+     */
+    private static String formatBytes(double bytes) {
+        if (bytes < 1024) {
+            return String.format("%.0f B", bytes);
+        }
+        if (bytes < 1024 * 1024) {
+            return String.format("%.1f KB", bytes / 1024);
+        }
+        return String.format("%.1f MB", bytes / (1024 * 1024));
+    }
+
+    private void resetTelemetry() {
+        telemetryDirty.set(false);
+        rxSparkline.update(new double[0], "rx -");
+        txSparkline.update(new double[0], "tx -");
+        cpuSparkline.update(new double[0], "CPU -");
+        memorySparkline.update(new double[0], "mem -");
+    }
+
+    /**
+     * Show where the last connect spent its time; the tooltip lists every
+     * phase with its attributes and where the trace file is
+     */
+    private void updateConnectTrace(ConnectionManager manager) {
+        ConnectTrace trace = manager.getLastConnectTrace();
+        if (trace == null) {
+            connectTimeLabel.setText("-");
+            connectTimeLabel.setToolTipText(null);
+            return;
+        }
+        connectTimeLabel.setText(trace.describe());
+        StringBuilder tooltip = new StringBuilder("<html>");
+        for (String line : trace.describeSpans()) {
+            tooltip.append(line.replace("&", "&amp;").replace("<", "&lt;").replace("  ", "&nbsp;&nbsp;&nbsp;&nbsp;"))
+                    .append("<br>");
+        }
+        tooltip.append("<br>Last ").append(manager.getConnectTraces().size()).append(" connects: ")
+                .append(manager.getTraceFile()).append("</html>");
+        connectTimeLabel.setToolTipText(tooltip.toString());
+    }
+
+    /**
+     * Show how many tunnels are connected, with their SOCKS ports
+     */
+    public void updateTunnels(ConnectionManager manager) {
+        StringBuilder text = new StringBuilder();
+        int connected = 0;
+        for (TunnelConnection connection : manager.getConnections()) {
+            if (connection.isConnected()) {
+                text.append(connected == 0 ? " (" : ", ")
+                        .append(connection.getName()).append(':').append(connection.getProxyPort());
+                connected++;
+            }
+        }
+        tunnelsLabel.setText(connected + " connected" + (connected > 0 ? text + ")" : ""));
+    }
+
+    /**
+     * Show extension bootstrap progress (Docker detection, image preparation)
+     */
+    public void updateSetupStatus(String status, boolean failed) {
+        setupLabel.setText(status);
+        setupLabel.setForeground(failed ? Color.RED : Color.GRAY);
+    }
+
     private void updateHostIp() {
         new Thread(() -> {
             String ip = IpVerifier.getCurrentIp();
@@ -1,6 +1,7 @@
 package com.wireup.ui;
 
 import burp.api.montoya.MontoyaApi;
+import com.wireup.docker.Tunnel;
 import com.wireup.utils.Logger;
 import com.wireup.vpn.ConnectionManager;
 
@@ -58,9 +59,25 @@ public class WireUpTab {
                     controlPanel.updateButtons(state);
                 });
             });
+            connectionManager.addTunnelStateListener((connection, state) -> {
+                SwingUtilities.invokeLater(() -> statusPanel.updateTunnels(connectionManager));
+            });
+            // No EDT hop per sample; the status panel repaints on its own timer
+            connectionManager.getTelemetry().addListener((tunnel, sample) -> {
+                if (Tunnel.DEFAULT_NAME.equals(tunnel.getName())) {
+                    statusPanel.onTelemetrySample();
+                }
+            });
         }
     }
 
+    /**
+     * Report bootstrap progress; safe to call from any thread
+     */
+    public void setSetupStatus(String status, boolean failed) {
+        SwingUtilities.invokeLater(() -> statusPanel.updateSetupStatus(status, failed));
+    }
+
     private void initializeUI() {
         mainPanel = new JPanel(new BorderLayout(10, 10));
         mainPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
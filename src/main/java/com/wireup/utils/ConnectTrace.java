@@ -0,0 +1,223 @@
+package com.wireup.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Timed phases of one tunnel connect. Spans are measured with the monotonic
+ * clock and kept relative to the start of the connect; the wall-clock start
+ * only places the trace on a timeline when it is exported.
+ */
+public class ConnectTrace {
+
+    /**
+     * One phase of the connect, closed with try-with-resources or {@link #end()}
+     */
+    public static class Span implements AutoCloseable {
+        private final String name;
+        private final long startNanos;
+        private volatile long endNanos;
+        private final Map<String, String> attributes = new LinkedHashMap<>();
+        private final List<Span> children = new ArrayList<>();
+
+        Span(String name, long startNanos) {
+            this.name = name;
+            this.startNanos = startNanos;
+        }
+
+        public synchronized Span attr(String key, Object value) {
+            attributes.put(key, String.valueOf(value));
+            return this;
+        }
+
+        /**
+         * Record why the phase failed
+         */
+        public Span error(Throwable error) {
+            return attr("error", error.getMessage() != null ? error.getMessage() : error.getClass().getSimpleName());
+        }
+
+        /**
+         * Record a sub-phase measured elsewhere, e.g. a container boot stage
+         */
+        public synchronized Span child(String name, long startNanos, long endNanos) {
+            Span child = new Span(name, startNanos);
+            child.endNanos = endNanos;
+            children.add(child);
+            return child;
+        }
+
+        public void end() {
+            if (endNanos == 0) {
+                endNanos = System.nanoTime();
+            }
+        }
+
+        @Override
+        public void close() {
+            end();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getStartNanos() {
+            return startNanos;
+        }
+
+        /**
+         * End of the span, or 0 while it is open
+         */
+        public long getEndNanos() {
+            return endNanos;
+        }
+
+        public long getDurationMs() {
+            return ((endNanos != 0 ? endNanos : System.nanoTime()) - startNanos) / 1_000_000;
+        }
+
+        public synchronized Map<String, String> getAttributes() {
+            return new LinkedHashMap<>(attributes);
+        }
+
+        public synchronized List<Span> getChildren() {
+            return new ArrayList<>(children);
+        }
+    }
+
+    private final String tunnel;
+    private final long startTimeMillis = System.currentTimeMillis();
+    private final long startNanos = System.nanoTime();
+    private final Map<String, String> attributes = new LinkedHashMap<>();
+    private final List<Span> spans = new ArrayList<>();
+    private volatile long endNanos;
+    private volatile String outcome;
+
+    public ConnectTrace(String tunnel) {
+        this.tunnel = tunnel;
+    }
+
+    /**
+     * Start a phase now
+     */
+    public synchronized Span span(String name) {
+        Span span = new Span(name, System.nanoTime());
+        spans.add(span);
+        return span;
+    }
+
+    /**
+     * Record a phase that started before the trace had a chance to open it
+     */
+    public synchronized Span span(String name, long startNanos) {
+        Span span = new Span(name, startNanos);
+        spans.add(span);
+        return span;
+    }
+
+    /**
+     * Attribute of the whole connect, e.g. protocol or data plane
+     */
+    public synchronized ConnectTrace attr(String key, Object value) {
+        attributes.put(key, String.valueOf(value));
+        return this;
+    }
+
+    /**
+     * Close the trace; open spans end now
+     *
+     * @param outcome "connected" or the failure message
+     */
+    public void finish(String outcome) {
+        for (Span span : getSpans()) {
+            span.end();
+        }
+        this.outcome = outcome;
+        this.endNanos = System.nanoTime();
+    }
+
+    public String getTunnel() {
+        return tunnel;
+    }
+
+    public long getStartTimeMillis() {
+        return startTimeMillis;
+    }
+
+    public long getStartNanos() {
+        return startNanos;
+    }
+
+    /**
+     * "connected", the failure message, or null while the connect runs
+     */
+    public String getOutcome() {
+        return outcome;
+    }
+
+    /**
+     * End of the connect, or 0 while it runs
+     */
+    public long getEndNanos() {
+        return endNanos;
+    }
+
+    public long getTotalMs() {
+        return ((endNanos != 0 ? endNanos : System.nanoTime()) - startNanos) / 1_000_000;
+    }
+
+    public synchronized Map<String, String> getAttributes() {
+        return new LinkedHashMap<>(attributes);
+    }
+
+    public synchronized List<Span> getSpans() {
+        return Collections.unmodifiableList(new ArrayList<>(spans));
+    }
+
+    /**
+     * One-line breakdown, e.g. "3120 ms: queue 0, image 4, create 95, start 310, ready 2410, verify 301"
+     */
+    public String describe() {
+        StringBuilder sb = new StringBuilder().append(getTotalMs()).append(" ms");
+        String separator = ": ";
+        for (Span span : getSpans()) {
+            sb.append(separator).append(span.getName()).append(' ').append(span.getDurationMs());
+            separator = ", ";
+        }
+        return sb.toString();
+    }
+
+    /**
+     * One line per span with its sub-phases and attributes
+     */
+    public List<String> describeSpans() {
+        List<String> lines = new ArrayList<>();
+        for (Span span : getSpans()) {
+            lines.add(describeSpan(span, ""));
+            for (Span child : span.getChildren()) {
+                lines.add(describeSpan(child, "  "));
+            }
+        }
+        return lines;
+    }
+
+    private static String describeSpan(Span span, String indent) {
+        StringBuilder sb = new StringBuilder(indent).append(span.getName()).append(' ')
+                .append(span.getDurationMs()).append(" ms");
+        Map<String, String> attributes = span.getAttributes();
+        if (!attributes.isEmpty()) {
+            sb.append(' ').append(attributes);
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "tunnel " + tunnel + " " + getAttributes() + ", " + describe()
+                + (outcome != null ? " (" + outcome + ")" : "");
+    }
+}
@@ -0,0 +1,167 @@
+package com.wireup.utils;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The last N connect traces, exportable as a Chrome trace event file
+ * (chrome://tracing, Perfetto or speedscope). Each connect is one row of the
+ * timeline; container boot stages are nested under the readiness span.
+ */
+public class ConnectTraceLog {
+
+    private final int capacity;
+    private final Deque<ConnectTrace> traces = new ArrayDeque<>();
+    private long sequence;
+    private final Map<ConnectTrace, Long> ids = new IdentityHashMap<>();
+
+    public ConnectTraceLog(int capacity) {
+        this.capacity = Math.max(1, capacity);
+    }
+
+    public synchronized void add(ConnectTrace trace) {
+        traces.addLast(trace);
+        ids.put(trace, ++sequence);
+        while (traces.size() > capacity) {
+            ids.remove(traces.removeFirst());
+        }
+    }
+
+    /**
+     * Kept traces, oldest first
+     */
+    public synchronized List<ConnectTrace> getTraces() {
+        return new ArrayList<>(traces);
+    }
+
+    /**
+     * Most recent trace of the tunnel, or null if it has none
+     */
+    public synchronized ConnectTrace getLatest(String tunnel) {
+        Iterator<ConnectTrace> it = traces.descendingIterator();
+        while (it.hasNext()) {
+            ConnectTrace trace = it.next();
+            if (trace.getTunnel().equals(tunnel)) {
+                return trace;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Write the kept traces to the file, replacing it atomically
+     */
+    public void export(Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path temp = Files.createTempFile(parent, "wireup-trace", ".json");
+        try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            writer.write(toJson());
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Complete ("X") events in microseconds of wall-clock time
+     */
+    public synchronized String toJson() {
+        StringBuilder sb = new StringBuilder("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+        boolean first = true;
+        for (ConnectTrace trace : traces) {
+            long tid = ids.get(trace);
+            Map<String, String> threadName = new LinkedHashMap<>();
+            threadName.put("name", "connect #" + tid + " (" + trace.getTunnel() + ")");
+            first = appendEvent(sb, first, "thread_name", "M", tid, -1, -1, threadName);
+
+            Map<String, String> attributes = trace.getAttributes();
+            attributes.put("tunnel", trace.getTunnel());
+            attributes.put("outcome", trace.getOutcome() != null ? trace.getOutcome() : "in progress");
+            long end = trace.getEndNanos() != 0 ? trace.getEndNanos() : System.nanoTime();
+            first = appendEvent(sb, first, "connect", "X", tid, micros(trace, trace.getStartNanos()),
+                    (end - trace.getStartNanos()) / 1000, attributes);
+
+            for (ConnectTrace.Span span : trace.getSpans()) {
+                first = appendSpan(sb, first, trace, tid, span);
+                for (ConnectTrace.Span child : span.getChildren()) {
+                    first = appendSpan(sb, first, trace, tid, child);
+                }
+            }
+        }
+        return sb.append("]}").toString();
+    }
+
+    private static boolean appendSpan(StringBuilder sb, boolean first, ConnectTrace trace, long tid,
+            ConnectTrace.Span span) {
+        long end = span.getEndNanos() != 0 ? span.getEndNanos() : System.nanoTime();
+        return appendEvent(sb, first, span.getName(), "X", tid, micros(trace, span.getStartNanos()),
+                (end - span.getStartNanos()) / 1000, span.getAttributes());
+    }
+
+    private static long micros(ConnectTrace trace, long nanos) {
+        return trace.getStartTimeMillis() * 1000 + (nanos - trace.getStartNanos()) / 1000;
+    }
+
+    private static boolean appendEvent(StringBuilder sb, boolean first, String name, String phase, long tid,
+            long ts, long dur, Map<String, String> args) {
+        if (!first) {
+            sb.append(',');
+        }
+        sb.append("{\"name\":").append(quote(name)).append(",\"ph\":\"").append(phase)
+                .append("\",\"pid\":1,\"tid\":").append(tid);
+        if (ts >= 0) {
+            sb.append(",\"ts\":").append(ts).append(",\"dur\":").append(Math.max(0, dur));
+        }
+        sb.append(",\"args\":{");
+        boolean firstArg = true;
+        for (Map.Entry<String, String> arg : args.entrySet()) {
+            sb.append(firstArg ? "" : ",").append(quote(arg.getKey())).append(':').append(quote(arg.getValue()));
+            firstArg = false;
+        }
+        sb.append("}}");
+        return false;
+    }
+
+    private static String quote(String value) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
@@ -1,36 +1,11 @@
 package com.wireup.utils;
 
 /**
- * Docker detection and auto-start utilities
+ * Docker auto-start and installation help utilities. Availability checks live
+ * in {@link com.wireup.docker.DockerProbe}.
  */
 public class DockerUtils {
 
-    /**
-     * Check if Docker is installed on the system
-     */
-    public static boolean isDockerInstalled() {
-        try {
-            Process process = Runtime.getRuntime().exec(new String[] { "docker", "--version" });
-            process.waitFor();
-            return process.exitValue() == 0;
-        } catch (Exception e) {
-            return false;
-        }
-    }
-
-    /**
-     * Check if Docker daemon is running
-     */
-    public static boolean isDockerRunning() {
-        try {
-            Process process = Runtime.getRuntime().exec(new String[] { "docker", "info" });
-            process.waitFor();
-            return process.exitValue() == 0;
-        } catch (Exception e) {
-            return false;
-        }
-    }
-
     /**
      * Attempt to start Docker Desktop (macOS and Linux)
      * Returns true if start command was executed, false otherwise
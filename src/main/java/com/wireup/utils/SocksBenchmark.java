@@ -0,0 +1,443 @@
+package com.wireup.utils;
+
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.model.Statistics;
+import com.github.dockerjava.core.DefaultDockerClientConfig;
+import com.github.dockerjava.core.DockerClientConfig;
+import com.github.dockerjava.core.DockerClientImpl;
+import com.github.dockerjava.core.InvocationBuilder;
+import com.github.dockerjava.httpclient5.ApacheDockerHttpClient;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Command-line latency and throughput comparison of SOCKS5 endpoints, e.g. a
+ * tunnel in bridge mode against the same tunnel in host network mode, or two
+ * tunnels running different SOCKS engines:
+ *
+ * <pre>
+ * java -cp wireup.jar com.wireup.utils.SocksBenchmark --target example.com:80 bridge=1080 host=41234
+ * java -cp wireup.jar com.wireup.utils.SocksBenchmark --concurrent 500 \
+ *     dante=41001@wireup-vpn-a microsocks=41002@wireup-vpn-b
+ * </pre>
+ *
+ * For each endpoint it measures the SOCKS CONNECT time and the time to the
+ * first response byte over sequential connections, the rate of new sessions
+ * from parallel clients, then the download rate of parallel HTTP GETs for a
+ * fixed duration.
+ *
+ * With {@code --concurrent N} it instead checks that an endpoint carries N
+ * sessions at once (e.g. to verify a concurrency profile): it opens N SOCKS
+ * sessions, holds them all open, then sends a request on each and waits for
+ * the answers. The exit status is 1 if any session failed. When the endpoint
+ * names its container ({@code label=port@container}), the container's memory
+ * is read from Docker before and while the sessions are open to report the
+ * memory cost per session.
+ */
+public class SocksBenchmark {
+
+    private static final int CONNECT_TIMEOUT_MS = 10000;
+
+    private String targetHost = "1.1.1.1";
+    private int targetPort = 80;
+    private String path = "/";
+    private int connects = 50;
+    private int streams = 4;
+    private int durationSeconds = 10;
+    private int concurrent;
+    private final Map<String, Integer> endpoints = new LinkedHashMap<>();
+    private final Map<String, String> containers = new LinkedHashMap<>();
+    private DockerClient dockerClient;
+
+    /**
+     * Results for one endpoint
+     */
+    public static class Result {
+        final String label;
+        final long[] connectNanos;
+        final long[] firstByteNanos;
+        final int failures;
+        final double connectsPerSecond;
+        final double megabytesPerSecond;
+
+        Result(String label, long[] connectNanos, long[] firstByteNanos, int failures, double connectsPerSecond,
+                double megabytesPerSecond) {
+            this.label = label;
+            this.connectNanos = connectNanos;
+            this.firstByteNanos = firstByteNanos;
+            this.failures = failures;
+            this.connectsPerSecond = connectsPerSecond;
+            this.megabytesPerSecond = megabytesPerSecond;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        SocksBenchmark benchmark = new SocksBenchmark();
+        try {
+            benchmark.parseArgs(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: SocksBenchmark [--target host:port] [--path /] [--connects 50]"
+                    + " [--streams 4] [--duration 10] [--concurrent N] label=port[@container] ...");
+            System.exit(2);
+        }
+
+        if (benchmark.concurrent > 0) {
+            boolean passed = true;
+            for (Map.Entry<String, Integer> endpoint : benchmark.endpoints.entrySet()) {
+                passed &= benchmark.runConcurrent(endpoint.getKey(), endpoint.getValue());
+            }
+            System.exit(passed ? 0 : 1);
+        }
+
+        List<Result> results = new ArrayList<>();
+        for (Map.Entry<String, Integer> endpoint : benchmark.endpoints.entrySet()) {
+            System.out.println("Benchmarking " + endpoint.getKey() + " (127.0.0.1:" + endpoint.getValue() + ")...");
+            results.add(benchmark.run(endpoint.getKey(), endpoint.getValue()));
+        }
+        benchmark.print(results);
+    }
+
+    private void parseArgs(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.startsWith("--")) {
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Missing value for " + arg);
+                }
+                String value = args[++i];
+                switch (arg) {
+                    case "--target":
+                        int colon = value.lastIndexOf(':');
+                        if (colon <= 0) {
+                            throw new IllegalArgumentException("Target must be host:port");
+                        }
+                        targetHost = value.substring(0, colon);
+                        targetPort = Integer.parseInt(value.substring(colon + 1));
+                        break;
+                    case "--path":
+                        path = value;
+                        break;
+                    case "--connects":
+                        connects = Integer.parseInt(value);
+                        break;
+                    case "--streams":
+                        streams = Integer.parseInt(value);
+                        break;
+                    case "--duration":
+                        durationSeconds = Integer.parseInt(value);
+                        break;
+                    case "--concurrent":
+                        concurrent = Integer.parseInt(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option: " + arg);
+                }
+            } else {
+                int equals = arg.indexOf('=');
+                String label = equals > 0 ? arg.substring(0, equals) : "port " + arg;
+                String port = equals > 0 ? arg.substring(equals + 1) : arg;
+                int at = port.indexOf('@');
+                if (at > 0) {
+                    containers.put(label, port.substring(at + 1));
+                    port = port.substring(0, at);
+                }
+                endpoints.put(label, Integer.parseInt(port));
+            }
+        }
+        if (endpoints.isEmpty()) {
+            throw new IllegalArgumentException("No SOCKS endpoint given");
+        }
+    }
+
+    Result run(String label, int socksPort) throws Exception {
+        List<Long> connectTimes = new ArrayList<>();
+        List<Long> firstByteTimes = new ArrayList<>();
+        int failures = 0;
+
+        for (int i = 0; i < connects; i++) {
+            long start = System.nanoTime();
+            try (Socket socket = openThroughSocks(socksPort)) {
+                connectTimes.add(System.nanoTime() - start);
+                OutputStream out = socket.getOutputStream();
+                out.write(httpRequest());
+                out.flush();
+                if (socket.getInputStream().read() < 0) {
+                    throw new IOException("Empty response");
+                }
+                firstByteTimes.add(System.nanoTime() - start);
+            } catch (IOException e) {
+                failures++;
+            }
+        }
+
+        return new Result(label, toSortedArray(connectTimes), toSortedArray(firstByteTimes), failures,
+                measureConnectRate(socksPort), measureThroughput(socksPort));
+    }
+
+    /**
+     * Complete {@code connects} SOCKS CONNECTs from {@code streams} parallel clients
+     *
+     * @return sessions established per second
+     */
+    private double measureConnectRate(int socksPort) throws Exception {
+        AtomicLong established = new AtomicLong();
+        ExecutorService executor = Executors.newFixedThreadPool(streams);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int i = 0; i < connects; i++) {
+                futures.add(executor.submit(() -> {
+                    try {
+                        openThroughSocks(socksPort).close();
+                        established.incrementAndGet();
+                    } catch (IOException e) {
+                        // Counted by the latency phase
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            return established.get() / ((System.nanoTime() - start) / 1e9);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Open {@code concurrent} sessions, keep them all open, then exchange a
+     * request on each
+     *
+     * @return true if every session was established and answered
+     */
+    boolean runConcurrent(String label, int socksPort) throws Exception {
+        System.out.println("Opening " + concurrent + " concurrent sessions through " + label
+                + " (127.0.0.1:" + socksPort + ")...");
+        Map<String, Integer> failures = new ConcurrentHashMap<>();
+        List<Socket> sockets = Collections.synchronizedList(new ArrayList<>());
+        String container = containers.get(label);
+        long memoryBefore = container != null ? containerMemory(container) : -1;
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(concurrent, 256));
+        try {
+            long start = System.nanoTime();
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < concurrent; i++) {
+                futures.add(executor.submit(() -> {
+                    try {
+                        sockets.add(openThroughSocks(socksPort));
+                    } catch (IOException e) {
+                        failures.merge("connect: " + e.getMessage(), 1, Integer::sum);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            int established = sockets.size();
+            long openMs = (System.nanoTime() - start) / 1_000_000;
+            long memoryOpen = container != null ? containerMemory(container) : -1;
+
+            // Every session is open at this point; now use each of them
+            futures.clear();
+            AtomicLong answered = new AtomicLong();
+            for (Socket socket : sockets) {
+                futures.add(executor.submit(() -> {
+                    try {
+                        socket.getOutputStream().write(httpRequest());
+                        if (socket.getInputStream().read() < 0) {
+                            throw new IOException("Empty response");
+                        }
+                        answered.incrementAndGet();
+                    } catch (IOException e) {
+                        failures.merge("request: " + e.getMessage(), 1, Integer::sum);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+
+            System.out.println(label + ": " + established + "/" + concurrent + " sessions established in "
+                    + openMs + " ms, " + answered.get() + " answered");
+            if (memoryBefore >= 0 && memoryOpen >= 0 && established > 0) {
+                System.out.printf("  memory %.1f MB idle, %.1f MB with sessions open, %.1f KB per session%n",
+                        memoryBefore / 1048576.0, memoryOpen / 1048576.0,
+                        (memoryOpen - memoryBefore) / 1024.0 / established);
+            }
+            for (Map.Entry<String, Integer> failure : failures.entrySet()) {
+                System.out.println("  " + failure.getValue() + " x " + failure.getKey());
+            }
+            return answered.get() == concurrent;
+        } finally {
+            executor.shutdownNow();
+            for (Socket socket : sockets) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * Download in parallel streams until the duration is over
+     *
+     * @return megabytes per second over all streams
+     */
+    private double measureThroughput(int socksPort) throws Exception {
+        AtomicLong bytes = new AtomicLong();
+        long deadline = System.nanoTime() + durationSeconds * 1_000_000_000L;
+        ExecutorService executor = Executors.newFixedThreadPool(streams);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int i = 0; i < streams; i++) {
+                futures.add(executor.submit(() -> {
+                    byte[] buffer = new byte[64 * 1024];
+                    while (System.nanoTime() < deadline) {
+                        try (Socket socket = openThroughSocks(socksPort)) {
+                            socket.getOutputStream().write(httpRequest());
+                            InputStream in = socket.getInputStream();
+                            int read;
+                            while ((read = in.read(buffer)) > 0 && System.nanoTime() < deadline) {
+                                bytes.addAndGet(read);
+                            }
+                        } catch (IOException e) {
+                            // Counted by the latency phase; keep streaming
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            return bytes.get() / seconds / (1024 * 1024);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Current memory usage of a container, or -1 if Docker cannot be reached
+     */
+    private long containerMemory(String container) {
+        try {
+            if (dockerClient == null) {
+                DockerClientConfig config = DefaultDockerClientConfig.createDefaultConfigBuilder().build();
+                dockerClient = DockerClientImpl.getInstance(config,
+                        new ApacheDockerHttpClient.Builder().dockerHost(config.getDockerHost()).build());
+            }
+            InvocationBuilder.AsyncResultCallback<Statistics> callback = new InvocationBuilder.AsyncResultCallback<>();
+            dockerClient.statsCmd(container).withNoStream(true).exec(callback);
+            Statistics stats = callback.awaitResult();
+            callback.close();
+            return stats.getMemoryStats() != null && stats.getMemoryStats().getUsage() != null
+                    ? stats.getMemoryStats().getUsage()
+                    : -1;
+        } catch (Exception e) {
+            System.err.println("Cannot read memory of container " + container + ": " + e.getMessage());
+            return -1;
+        }
+    }
+
+    private Socket openThroughSocks(int socksPort) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(CONNECT_TIMEOUT_MS);
+            socket.connect(new InetSocketAddress("127.0.0.1", socksPort), CONNECT_TIMEOUT_MS);
+
+            OutputStream out = socket.getOutputStream();
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            byte[] host = targetHost.getBytes(StandardCharsets.US_ASCII);
+            byte[] request = new byte[3 + 5 + host.length + 2];
+            request[0] = 0x05;
+            request[1] = 0x01;
+            request[3] = 0x05;
+            request[4] = 0x01;
+            request[6] = 0x03;
+            request[7] = (byte) host.length;
+            System.arraycopy(host, 0, request, 8, host.length);
+            request[request.length - 2] = (byte) (targetPort >> 8);
+            request[request.length - 1] = (byte) targetPort;
+            out.write(request);
+            out.flush();
+
+            byte[] method = new byte[2];
+            in.readFully(method);
+            if (method[1] != 0x00) {
+                throw new IOException("SOCKS method rejected");
+            }
+            byte[] reply = new byte[4];
+            in.readFully(reply);
+            if (reply[1] != 0x00) {
+                throw new IOException("SOCKS CONNECT failed with code " + reply[1]);
+            }
+            int addressLength = reply[3] == 0x01 ? 4 : reply[3] == 0x04 ? 16 : in.readUnsignedByte();
+            in.readFully(new byte[addressLength + 2]);
+            return socket;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    private byte[] httpRequest() {
+        return ("GET " + path + " HTTP/1.1\r\nHost: " + targetHost + "\r\nConnection: close\r\n"
+                + "User-Agent: WireUp-Benchmark\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private void print(List<Result> results) {
+        System.out.println();
+        System.out.println("Target " + targetHost + ":" + targetPort + path + ", " + connects + " connects, "
+                + streams + " streams for " + durationSeconds + " s");
+        System.out.printf("%-12s %10s %10s %10s %10s %10s %8s %10s %10s%n", "endpoint", "conn p50", "conn p90",
+                "conn p99", "ttfb p50", "ttfb p99", "failed", "conn/s", "MB/s");
+        for (Result result : results) {
+            System.out.printf("%-12s %10s %10s %10s %10s %10s %8d %10.1f %10.2f%n", result.label,
+                    millis(percentile(result.connectNanos, 50)), millis(percentile(result.connectNanos, 90)),
+                    millis(percentile(result.connectNanos, 99)), millis(percentile(result.firstByteNanos, 50)),
+                    millis(percentile(result.firstByteNanos, 99)), result.failures, result.connectsPerSecond,
+                    result.megabytesPerSecond);
+        }
+    }
+
+    private static long[] toSortedArray(List<Long> values) {
+        long[] array = values.stream().mapToLong(Long::longValue).toArray();
+        Arrays.sort(array);
+        return array;
+    }
+
+    static long percentile(long[] sorted, int percentile) {
+        if (sorted.length == 0) {
+            return -1;
+        }
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    private static String millis(long nanos) {
+        return nanos < 0 ? "-" : String.format("%.2f ms", nanos / 1e6);
+    }
+}
@@ -0,0 +1,247 @@
+package com.wireup.utils;
+
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+/**
+ * Fixed-size metrics history for long sessions.
+ *
+ * Samples of a fixed set of metrics are kept in three rings of primitive
+ * arrays: raw samples (about one per second), one-minute rollups and
+ * fifteen-minute rollups. Rollups keep the mean and the peak of each metric,
+ * so short bursts stay visible in the coarse history. Nothing is allocated
+ * after construction, and memory use is constant:
+ * <pre>
+ *   raw slots      x (8 + 8 x metrics) bytes
+ * + rollup slots   x (8 + 16 x metrics) bytes, per rollup ring
+ * </pre>
+ * The defaults (5 minutes raw, 12 hours of minutes, 7 days of quarter hours)
+ * take about 160 KB for six metrics; see {@link #getMemoryBytes()}.
+ *
+ * One thread records, any number of threads read without locks: the writer
+ * fills a slot before publishing it through the ring's volatile head, readers
+ * never touch the slot being written and retry if the writer lapped them
+ * while they were copying.
+ */
+public class TelemetryStore {
+
+    public enum Resolution {
+        SECOND(1_000L),
+        MINUTE(60_000L),
+        QUARTER_HOUR(900_000L);
+
+        private final long millis;
+
+        Resolution(long millis) {
+            this.millis = millis;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+    }
+
+    public static final int DEFAULT_SECOND_SLOTS = 300;
+    public static final int DEFAULT_MINUTE_SLOTS = 720;
+    public static final int DEFAULT_QUARTER_HOUR_SLOTS = 672;
+
+    private static final Resolution[] RESOLUTIONS = Resolution.values();
+    private static final Resolution[] ROLLUPS = {Resolution.MINUTE, Resolution.QUARTER_HOUR};
+
+    /**
+     * Slots of one resolution: bucket start times and per-metric means (and
+     * peaks for rollups)
+     */
+    private static final class Ring {
+        final int capacity;
+        final long[] times;
+        final double[][] means;
+        final double[][] peaks;
+        volatile long head;
+
+        Ring(int capacity, int metrics, boolean rollup) {
+            this.capacity = Math.max(2, capacity);
+            this.times = new long[this.capacity];
+            this.means = new double[metrics][this.capacity];
+            this.peaks = rollup ? new double[metrics][this.capacity] : null;
+        }
+
+        /**
+         * Writer only
+         */
+        void append(long time, double[] mean, double[] peak) {
+            long next = head;
+            int slot = (int) (next % capacity);
+            times[slot] = time;
+            for (int m = 0; m < means.length; m++) {
+                means[m][slot] = mean[m];
+                if (peaks != null) {
+                    peaks[m][slot] = peak[m];
+                }
+            }
+            // Publishes the slot to readers
+            head = next + 1;
+        }
+
+        /**
+         * Newest published value; stable until the writer laps the ring
+         */
+        double newest(int metric) {
+            long end = head;
+            return end > 0 ? means[metric][(int) ((end - 1) % capacity)] : 0;
+        }
+
+        /**
+         * Copy the newest slots, oldest first
+         */
+        int read(int metric, boolean peak, long[] timesOut, double[] valuesOut) {
+            double[] source = peak && peaks != null ? peaks[metric] : means[metric];
+            int wanted = valuesOut.length;
+            if (timesOut != null) {
+                wanted = Math.min(wanted, timesOut.length);
+            }
+            while (true) {
+                long end = head;
+                // The slot after the newest may be mid-write
+                int n = (int) Math.min(Math.min(wanted, capacity - 1), end);
+                long start = end - n;
+                for (int i = 0; i < n; i++) {
+                    int slot = (int) ((start + i) % capacity);
+                    valuesOut[i] = source[slot];
+                    if (timesOut != null) {
+                        timesOut[i] = times[slot];
+                    }
+                }
+                // Keep the plain slot reads above from moving past the check
+                VarHandle.loadLoadFence();
+                // Slots the writer touched meanwhile map to sequence numbers below this
+                if (head - capacity < start) {
+                    return n;
+                }
+            }
+        }
+    }
+
+    private final String[] metrics;
+    private final Ring[] rings = new Ring[RESOLUTIONS.length];
+
+    // Writer-only rollup accumulators, indexed by resolution ordinal
+    private final long[] bucket = new long[RESOLUTIONS.length];
+    private final int[] count = new int[RESOLUTIONS.length];
+    private final double[][] sum;
+    private final double[][] max;
+    private final double[] mean;
+
+    public TelemetryStore(String[] metrics, int secondSlots, int minuteSlots, int quarterHourSlots) {
+        this.metrics = metrics.clone();
+        int n = metrics.length;
+        rings[Resolution.SECOND.ordinal()] = new Ring(secondSlots, n, false);
+        rings[Resolution.MINUTE.ordinal()] = new Ring(minuteSlots, n, true);
+        rings[Resolution.QUARTER_HOUR.ordinal()] = new Ring(quarterHourSlots, n, true);
+        sum = new double[rings.length][n];
+        max = new double[rings.length][n];
+        mean = new double[n];
+        Arrays.fill(bucket, -1);
+    }
+
+    public TelemetryStore(String... metrics) {
+        this(metrics, DEFAULT_SECOND_SLOTS, DEFAULT_MINUTE_SLOTS, DEFAULT_QUARTER_HOUR_SLOTS);
+    }
+
+    /**
+     * Index of the named metric, for the read methods
+     */
+    public int indexOf(String metric) {
+        for (int i = 0; i < metrics.length; i++) {
+            if (metrics[i].equals(metric)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown metric: " + metric);
+    }
+
+    public String[] getMetrics() {
+        return metrics.clone();
+    }
+
+    /**
+     * Record one sample of every metric, in the order given to the
+     * constructor. Single writer: call from one thread only.
+     */
+    public void record(long timeMillis, double[] values) {
+        for (Resolution resolution : ROLLUPS) {
+            int r = resolution.ordinal();
+            long current = timeMillis / resolution.getMillis();
+            if (current != bucket[r]) {
+                flush(r);
+                bucket[r] = current;
+            }
+            for (int m = 0; m < values.length; m++) {
+                sum[r][m] += values[m];
+                max[r][m] = count[r] == 0 ? values[m] : Math.max(max[r][m], values[m]);
+            }
+            count[r]++;
+        }
+        rings[Resolution.SECOND.ordinal()].append(timeMillis, values, null);
+    }
+
+    private void flush(int r) {
+        if (count[r] == 0) {
+            return;
+        }
+        for (int m = 0; m < mean.length; m++) {
+            mean[m] = sum[r][m] / count[r];
+        }
+        rings[r].append(bucket[r] * RESOLUTIONS[r].getMillis(), mean, max[r]);
+        Arrays.fill(sum[r], 0);
+        count[r] = 0;
+    }
+
+    /**
+     * Copy the newest values of a metric, oldest first: up to the ring size
+     * minus one. The current, unfinished rollup bucket is not included.
+     *
+     * @param peak for rollups, the peak instead of the mean of each bucket
+     * @param times receives the sample or bucket start times, may be null
+     * @return number of values copied
+     */
+    public int read(Resolution resolution, int metric, boolean peak, long[] times, double[] values) {
+        return rings[resolution.ordinal()].read(metric, peak, times, values);
+    }
+
+    /**
+     * Newest values of a metric in a new array, oldest first
+     */
+    public double[] read(Resolution resolution, int metric, int maxPoints) {
+        double[] values = new double[maxPoints];
+        int n = read(resolution, metric, false, null, values);
+        return n == maxPoints ? values : Arrays.copyOf(values, n);
+    }
+
+    /**
+     * Most recent value of a metric, 0 before the first sample
+     */
+    public double latest(int metric) {
+        return rings[Resolution.SECOND.ordinal()].newest(metric);
+    }
+
+    /**
+     * Number of samples recorded at the given resolution since construction
+     */
+    public long getCount(Resolution resolution) {
+        return rings[resolution.ordinal()].head;
+    }
+
+    /**
+     * Bytes held by the rings and accumulators, fixed at construction
+     */
+    public long getMemoryBytes() {
+        long bytes = 0;
+        for (Ring ring : rings) {
+            bytes += ring.capacity * (8L + 8L * metrics.length * (ring.peaks != null ? 2 : 1));
+        }
+        // Accumulators: sum and max rows and the mean scratch array
+        bytes += 8L * metrics.length * (2L * rings.length + 1);
+        return bytes;
+    }
+}
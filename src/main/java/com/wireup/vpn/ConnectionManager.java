@@ -1,17 +1,55 @@
 package com.wireup.vpn;
 
 import burp.api.montoya.MontoyaApi;
-import com.wireup.docker.DockerManager;
+import com.wireup.docker.BootReport;
 import com.wireup.docker.ContainerHealthMonitor;
-import com.wireup.utils.IpVerifier;
+import com.wireup.docker.ResourceGovernor;
+import com.wireup.docker.TelemetryCollector;
+import com.wireup.docker.ContainerLogClassifier;
+import com.wireup.docker.ContainerStateCache;
+import com.wireup.docker.DockerManager;
+import com.wireup.docker.Tunnel;
+import com.wireup.proxy.BalancingPolicy;
+import com.wireup.proxy.Route;
+import com.wireup.proxy.RoutingRule;
+import com.wireup.proxy.RoutingTable;
+import com.wireup.proxy.SocksFrontProxy;
+import com.wireup.utils.ConnectTrace;
+import com.wireup.utils.ConnectTraceLog;
 import com.wireup.utils.Logger;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
 /**
- * Manages VPN connection state and integrates Docker with Burp proxy settings
+ * Manages VPN connection state and integrates Docker with Burp proxy settings.
+ *
+ * Holds one {@link TunnelConnection} per named tunnel. Connects run on a
+ * bounded executor, so several tunnels come up in parallel without starting
+ * an unbounded number of containers at once. The single-tunnel methods
+ * (connect, disconnect, getState, ...) act on the default tunnel, which is the
+ * one driven by the WireUp tab.
+ *
+ * Unless disabled, a {@link SocksFrontProxy} owns port 1080 and balances
+ * Burp's connections over every connected tunnel; the tunnels themselves are
+ * then published on Docker-assigned ports. Its routing rules are the user's
+ * rules (kept in Burp's preferences) followed by rules seeded from the
+ * AllowedIPs of connected split-tunnel WireGuard configs.
  */
 public class ConnectionManager {
 
@@ -22,131 +60,315 @@ public class ConnectionManager {
         ERROR
     }
 
+    private static final String PROXY_HOST = "127.0.0.1";
+    private static final int MAX_PARALLEL_CONNECTS = Math.max(1,
+            Integer.getInteger("wireup.tunnels.maxParallelConnects", 3));
+    private static final boolean FRONT_PROXY_ENABLED = Boolean.parseBoolean(
+            System.getProperty("wireup.proxy.enabled", "true"));
+    private static final int FRONT_PROXY_PORT = Integer.getInteger("wireup.proxy.port", 1080);
+    private static final String FRONT_PROXY_POLICY = System.getProperty("wireup.proxy.policy", "round-robin");
+    private static final int FRONT_PROXY_THREADS = Integer.getInteger("wireup.proxy.selectorThreads",
+            Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private static final boolean SEED_ALLOWED_IPS = Boolean.parseBoolean(
+            System.getProperty("wireup.routing.seedAllowedIps", "true"));
+    private static final String ROUTING_RULES_KEY = "wireup.routing.rules";
+    private static final int TRACE_KEEP = Integer.getInteger("wireup.trace.keep", 20);
+    private static final Path TRACE_FILE = Paths.get(System.getProperty("wireup.trace.file",
+            Paths.get(System.getProperty("java.io.tmpdir"), "wireup-connect-traces.json").toString()));
+
+    private final MontoyaApi api;
     private final DockerManager dockerManager;
     private final Logger logger;
     private final ContainerHealthMonitor healthMonitor;
-
-    private ConnectionState state;
-    private VpnConfig currentConfig;
-    private String errorMessage;
-    private String vpnIp;
-    private List<Consumer<ConnectionState>> stateChangeListeners;
-
-    private static final String PROXY_HOST = "127.0.0.1";
-    private static final int PROXY_PORT = 1080;
+    private final ResourceGovernor resourceGovernor;
+    private final TelemetryCollector telemetry;
+    private final ExecutorService connectExecutor;
+    private final AtomicInteger connectThreadCount = new AtomicInteger();
+    private final SocksFrontProxy frontProxy;
+    private volatile List<RoutingRule> userRules = Collections.emptyList();
+    private final Map<String, List<RoutingRule>> seededRules = new ConcurrentHashMap<>();
+    private final ConnectTraceLog traceLog = new ConnectTraceLog(TRACE_KEEP);
+
+    private final Map<String, TunnelConnection> connections = new LinkedHashMap<>();
+    private final List<Consumer<ConnectionState>> stateChangeListeners;
+    private final List<BiConsumer<TunnelConnection, ConnectionState>> tunnelStateListeners;
 
     public ConnectionManager(MontoyaApi api, DockerManager dockerManager, Logger logger) {
+        this.api = api;
         this.dockerManager = dockerManager;
         this.logger = logger;
         this.healthMonitor = new ContainerHealthMonitor(dockerManager, logger);
-        this.state = ConnectionState.DISCONNECTED;
+        this.resourceGovernor = new ResourceGovernor(dockerManager, logger,
+                ResourceGovernor.Settings.fromSystemProperties());
+        this.telemetry = new TelemetryCollector(dockerManager, logger);
         this.stateChangeListeners = new ArrayList<>();
+        this.tunnelStateListeners = new CopyOnWriteArrayList<>();
+        this.connectExecutor = Executors.newFixedThreadPool(MAX_PARALLEL_CONNECTS, r -> {
+            Thread thread = new Thread(r, "WireUp-Connect-" + connectThreadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.frontProxy = startFrontProxy();
+        loadRoutingRules();
+        getDefaultConnection();
 
         // Start health monitoring
         healthMonitor.startMonitoring(this::onContainerStateChange);
     }
 
     /**
-     * Connect to VPN with the given config object
+     * Start the front proxy on its port; if that fails, Burp is pointed at the
+     * default tunnel directly as before
      */
-    public void connect(VpnConfig config) {
-        new Thread(() -> {
-            try {
-                setState(ConnectionState.CONNECTING);
-                logger.info("Initiating VPN connection (DEBUG BUILD v2)...");
-                logger.info("NOTE: Container cleanup is DISABLED on error.");
+    private SocksFrontProxy startFrontProxy() {
+        if (!FRONT_PROXY_ENABLED) {
+            return null;
+        }
 
-                // Validate config (double check)
-                if (!config.isValid()) {
-                    throw new Exception("Invalid config: " + config.getErrorMessage());
-                }
+        SocksFrontProxy proxy = new SocksFrontProxy(logger, BalancingPolicy.forName(FRONT_PROXY_POLICY),
+                FRONT_PROXY_THREADS);
+        try {
+            proxy.start(FRONT_PROXY_PORT);
+            dockerManager.setDynamicPorts(true);
+            return proxy;
+        } catch (IOException e) {
+            logger.warn("Front proxy could not listen on port " + FRONT_PROXY_PORT + ": " + e.getMessage()
+                    + " - Burp must use the tunnel's own SOCKS port");
+            return null;
+        }
+    }
 
-                this.currentConfig = config;
+    private void loadRoutingRules() {
+        String text = getRoutingRules();
+        if (text.isEmpty()) {
+            return;
+        }
+        try {
+            userRules = RoutingTable.parseRules(text);
+            rebuildRoutingTable();
+        } catch (Exception e) {
+            logger.warn("Saved routing rules ignored: " + e.getMessage());
+        }
+    }
 
-                logger.info("Config validated successfully: " + config.getType());
-                logger.debug(config.getSummary());
+    /**
+     * Routing rules text as last saved, empty if none
+     */
+    public String getRoutingRules() {
+        String text = api.persistence().preferences().getString(ROUTING_RULES_KEY);
+        return text != null ? text : "";
+    }
 
-                // Create and start Docker container
-                String containerId = dockerManager.createAndStartContainer(config);
-                logger.info("Container started: " + containerId);
+    /**
+     * Validate, apply and save routing rules; they take effect for new
+     * connections through the front proxy
+     *
+     * @throws Exception naming the first invalid line; nothing is changed then
+     */
+    public void setRoutingRules(String text) throws Exception {
+        List<RoutingRule> rules = RoutingTable.parseRules(text);
+        userRules = rules;
+        api.persistence().preferences().setString(ROUTING_RULES_KEY, text);
+        rebuildRoutingTable();
+
+        if (frontProxy == null && !rules.isEmpty()) {
+            logger.warn("Routing rules saved, but they only apply while the front proxy is running");
+        }
+    }
 
-                // Wait for SOCKS proxy to be ready and retry connection
-                logger.info("Waiting for SOCKS proxy to become ready...");
-                Thread.sleep(10000); // Increased to 10 seconds
+    private void rebuildRoutingTable() {
+        if (frontProxy == null) {
+            return;
+        }
 
-                // Retry logic for SOCKS proxy connection
-                String vpnIp = null;
-                int maxRetries = 3;
-                for (int i = 0; i < maxRetries; i++) {
-                    logger.info("Verifying VPN connection (attempt " + (i + 1) + "/" + maxRetries + ")...");
-                    vpnIp = IpVerifier.getIpThroughProxy(PROXY_HOST, PROXY_PORT);
+        List<RoutingRule> rules = new ArrayList<>(userRules);
+        for (List<RoutingRule> seeded : seededRules.values()) {
+            rules.addAll(seeded);
+        }
+        frontProxy.setRoutingTable(new RoutingTable(rules, this::isInScope));
+        logger.info("Routing rules applied: " + userRules.size() + " configured, "
+                + (rules.size() - userRules.size()) + " from AllowedIPs");
+    }
 
-                    if (!vpnIp.startsWith("Error")) {
-                        logger.info("VPN IP verified: " + vpnIp);
-                        break;
-                    }
+    private boolean isInScope(String host, int port) {
+        String authority = host.indexOf(':') >= 0 ? "[" + host + "]" : host;
+        return api.scope().isInScope((port == 80 ? "http://" : "https://") + authority + ":" + port + "/");
+    }
 
-                    if (i < maxRetries - 1) {
-                        logger.warn("SOCKS proxy not ready yet: " + vpnIp);
-                        logger.info("Waiting 5 more seconds...");
-                        Thread.sleep(5000); // Increased to 5 seconds between retries
-                    }
-                }
+    /**
+     * Route a split-tunnel WireGuard config's AllowedIPs to its tunnel; a
+     * default route (0.0.0.0/0, ::/0) says nothing about where traffic belongs
+     */
+    private void seedRoutingRules(TunnelConnection connection) {
+        if (!SEED_ALLOWED_IPS || !(connection.getCurrentConfig() instanceof WireGuardConfig)) {
+            return;
+        }
 
-                if (vpnIp == null || vpnIp.startsWith("Error")) {
-                    // Get container logs for debugging
-                    String logs = dockerManager.getContainerLogs();
-                    logger.error("Container logs:\n" + logs);
-                    throw new Exception(
-                            "Cannot connect through SOCKS proxy after " + maxRetries + " attempts: " + vpnIp);
-                }
+        String allowedIps = ((WireGuardConfig) connection.getCurrentConfig()).getPeerValue("AllowedIPs");
+        if (allowedIps == null) {
+            return;
+        }
+
+        List<RoutingRule> rules = new ArrayList<>();
+        for (String cidr : allowedIps.split(",")) {
+            cidr = cidr.trim();
+            if (cidr.isEmpty() || cidr.equals("0.0.0.0/0") || cidr.equals("::/0")) {
+                continue;
+            }
+            try {
+                rules.add(RoutingRule.cidr(cidr, Route.tunnel(connection.getName()),
+                        cidr + " " + connection.getName() + " # AllowedIPs"));
+            } catch (Exception e) {
+                logger.debug("AllowedIPs entry not routable: " + cidr + " - " + e.getMessage());
+            }
+        }
+        seededRules.put(connection.getName(), rules);
+    }
+
+    /**
+     * Get or create the connection for the named tunnel
+     */
+    public TunnelConnection getConnection(String tunnelName) throws Exception {
+        Tunnel tunnel = dockerManager.getTunnel(tunnelName);
+        synchronized (connections) {
+            TunnelConnection connection = connections.get(tunnel.getName());
+            if (connection == null) {
+                connection = new TunnelConnection(tunnel, dockerManager, logger, this);
+                connections.put(tunnel.getName(), connection);
+            }
+            return connection;
+        }
+    }
 
-                logger.info("VPN IP verified: " + vpnIp);
+    public TunnelConnection getDefaultConnection() {
+        try {
+            return getConnection(Tunnel.DEFAULT_NAME);
+        } catch (Exception e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
 
-                // Configure Burp's upstream proxy
-                configureBurpProxy(true);
+    /**
+     * All tunnel connections, in creation order
+     */
+    public List<TunnelConnection> getConnections() {
+        synchronized (connections) {
+            return Collections.unmodifiableList(new ArrayList<>(connections.values()));
+        }
+    }
 
-                setState(ConnectionState.CONNECTED);
-                logger.info("VPN connection established successfully!");
+    /**
+     * Connect the default tunnel with the given config object
+     */
+    public void connect(VpnConfig config) {
+        connect(getDefaultConnection(), config);
+    }
 
-            } catch (Exception e) {
-                logger.error("Connection failed: " + e.getMessage(), e);
-                errorMessage = e.getMessage();
-                setState(ConnectionState.ERROR);
-
-                // CRITICAL: Always clean up on error to prevent orphaned containers
-                // try {
-                // logger.info("Cleaning up failed connection...");
-                // dockerManager.stopAndRemoveContainer();
-                // logger.debug("Container cleanup completed");
-                // } catch (Exception cleanupEx) {
-                // logger.debug("Cleanup error (may be already removed): " +
-                // cleanupEx.getMessage());
-                // }
-            }
-        }, "WireUp-Connect").start();
+    /**
+     * Connect the named tunnel; runs on the bounded connect executor
+     */
+    public CompletableFuture<Void> connect(String tunnelName, VpnConfig config) throws Exception {
+        return connect(getConnection(tunnelName), config);
     }
 
     /**
-     * Disconnect from VPN
+     * Bring up several tunnels in parallel, at most
+     * {@code wireup.tunnels.maxParallelConnects} at a time
+     *
+     * @param configs tunnel name to config
+     */
+    public CompletableFuture<Void> connectAll(Map<String, VpnConfig> configs) throws Exception {
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (Map.Entry<String, VpnConfig> entry : configs.entrySet()) {
+            futures.add(connect(entry.getKey(), entry.getValue()));
+        }
+        logger.info("Connecting " + configs.size() + " tunnels (" + MAX_PARALLEL_CONNECTS + " at a time)");
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]));
+    }
+
+    private CompletableFuture<Void> connect(TunnelConnection connection, VpnConfig config) {
+        // Started here so time spent waiting for a connect thread shows up as the queue phase
+        ConnectTrace trace = newTrace(connection);
+        return CompletableFuture.runAsync(() -> connectNow(connection, config, trace), connectExecutor);
+    }
+
+    private void connectNow(TunnelConnection connection, VpnConfig config, ConnectTrace trace) {
+        trace.span("queue", trace.getStartNanos()).end();
+        connection.connect(config, trace);
+        exportTraces();
+        if (connection.isConnected()) {
+            // Configure Burp's upstream proxy
+            configureBurpProxy(connection, true);
+        }
+    }
+
+    /**
+     * Start a trace and keep it right away, so state listeners already see it
+     * when the connect finishes
+     */
+    private ConnectTrace newTrace(TunnelConnection connection) {
+        ConnectTrace trace = new ConnectTrace(connection.getName());
+        traceLog.add(trace);
+        return trace;
+    }
+
+    /**
+     * Rewrite the trace file with the last connects
+     */
+    private void exportTraces() {
+        try {
+            traceLog.export(TRACE_FILE);
+        } catch (IOException e) {
+            logger.debug("Could not write connect traces to " + TRACE_FILE + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Disconnect the default tunnel
      */
     public void disconnect() {
+        disconnect(getDefaultConnection());
+    }
+
+    /**
+     * Disconnect the named tunnel and forget it; the default tunnel is kept so
+     * it can be reconnected
+     */
+    public void disconnect(String tunnelName) throws Exception {
+        TunnelConnection connection = getConnection(tunnelName);
+        disconnect(connection);
+        if (!connection.getTunnel().isDefault()) {
+            synchronized (connections) {
+                connections.remove(tunnelName);
+            }
+        }
+    }
+
+    /**
+     * Disconnect every tunnel
+     */
+    public void disconnectAll() {
+        for (TunnelConnection connection : getConnections()) {
+            disconnect(connection);
+        }
+    }
+
+    private void disconnect(TunnelConnection connection) {
         new Thread(() -> {
             try {
                 logger.info("Disconnecting VPN...");
 
                 // Remove Burp proxy configuration
-                configureBurpProxy(false);
+                configureBurpProxy(connection, false);
 
                 // Stop Docker container
-                dockerManager.stopAndRemoveContainer();
-
-                // Don't clear currentConfig here, allowing reconnect
-                vpnIp = null;
-                errorMessage = null;
-
-                setState(ConnectionState.DISCONNECTED);
-                logger.info("VPN disconnected");
+                connection.disconnect();
+                if (!connection.getTunnel().isDefault()) {
+                    telemetry.remove(connection.getTunnel());
+                    dockerManager.removeTunnel(connection.getTunnel());
+                }
+                logger.info("VPN disconnected (tunnel " + connection.getName() + ")");
 
             } catch (Exception e) {
                 logger.error("Error during disconnect: " + e.getMessage(), e);
@@ -155,29 +377,68 @@ public class ConnectionManager {
     }
 
     /**
-     * Reconnect with current configuration
+     * Reconnect the default tunnel with its current configuration
      */
     public void reconnect() {
+        VpnConfig currentConfig = getCurrentConfig();
         if (currentConfig != null) {
-            disconnect();
-
-            // Wait a bit before reconnecting
-            new Thread(() -> {
-                try {
-                    Thread.sleep(2000);
-                    // Re-use the existing config object
-                    connect(currentConfig);
-                } catch (InterruptedException e) {
-                    logger.debug("Reconnect interrupted");
-                }
-            }, "WireUp-Reconnect").start();
+            reconnect(currentConfig);
         }
     }
 
+    /**
+     * Switch the default tunnel to the given config. While connected, a config
+     * of the same protocol is applied in place (WireGuard peer sync, or a
+     * restart of the VPN interface/process) without recreating the container;
+     * otherwise, or if the in-place reload fails, a full connect is done.
+     */
+    public void reconnect(VpnConfig config) {
+        reconnect(getDefaultConnection(), config);
+    }
+
+    public void reconnect(String tunnelName, VpnConfig config) throws Exception {
+        reconnect(getConnection(tunnelName), config);
+    }
+
+    private void reconnect(TunnelConnection connection, VpnConfig config) {
+        connection.countReconnect();
+        VpnConfigDiff.Change change = VpnConfigDiff.between(connection.getCurrentConfig(), config);
+
+        if (connection.getState() != ConnectionState.CONNECTED || change == VpnConfigDiff.Change.PROTOCOL
+                || !connection.isContainerRunning()) {
+            logger.info("Reconnecting with a new container (" + change + ")");
+            connect(connection, config);
+            return;
+        }
+
+        CompletableFuture.runAsync(() -> {
+            if (!connection.reconfigure(config, change)) {
+                connectNow(connection, config, newTrace(connection));
+            }
+        }, connectExecutor);
+    }
+
+    /**
+     * Run the container self-tests of the default tunnel and log their output
+     */
+    public void runDiagnostics() {
+        getDefaultConnection().runDiagnostics();
+    }
+
     /**
      * Configure Burp Suite's upstream proxy settings
      */
-    private void configureBurpProxy(boolean enable) {
+    private void configureBurpProxy(TunnelConnection connection, boolean enable) {
+        // Burp has a single upstream proxy setting; only the default tunnel prompts for it
+        if (!connection.getTunnel().isDefault()) {
+            if (enable) {
+                logger.info("Tunnel " + connection.getName() + " SOCKS5 proxy: " + PROXY_HOST + ":"
+                        + connection.getProxyPort()
+                        + (frontProxy != null ? " (behind front proxy port " + frontProxy.getPort() + ")" : ""));
+            }
+            return;
+        }
+
         try {
             if (enable) {
                 // Note: Burp Montoya API doesn't have direct proxy configuration methods
@@ -187,7 +448,7 @@ public class ConnectionManager {
                         "1. Go to Settings -> Network -> Connections\n" +
                         "2. Under 'Upstream Proxy Servers', click 'Add'\n" +
                         "3. Set Proxy host: " + PROXY_HOST + "\n" +
-                        "4. Set Proxy port: " + PROXY_PORT + "\n" +
+                        "4. Set Proxy port: " + getProxyPort() + "\n" +
                         "5. Select 'SOCKS proxy'\n" +
                         "6. Click 'OK'\n\n" +
                         "Without this, Burp will bypass the VPN!";
@@ -216,58 +477,202 @@ public class ConnectionManager {
     /**
      * Handle container state changes from health monitor
      */
-    private void onContainerStateChange(boolean running) {
-        if (!running && state == ConnectionState.CONNECTED) {
-            logger.warn("Container stopped unexpectedly!");
-            errorMessage = "Container stopped unexpectedly";
-            setState(ConnectionState.ERROR);
+    private void onContainerStateChange(Tunnel tunnel, boolean running) {
+        TunnelConnection connection;
+        synchronized (connections) {
+            connection = connections.get(tunnel.getName());
+        }
+        if (connection != null) {
+            connection.onContainerStateChange(running);
         }
     }
 
     /**
-     * Set connection state and notify listeners
+     * Called by a tunnel connection when its state changes; notifies the
+     * per-tunnel listeners and, for the default tunnel, the state listeners
      */
-    private void setState(ConnectionState newState) {
-        if (this.state != newState) {
-            this.state = newState;
-            logger.debug("State changed to: " + newState);
+    void onTunnelStateChange(TunnelConnection connection, ConnectionState newState) {
+        logger.debug("State changed to: " + newState + " (tunnel " + connection.getName() + ")");
+
+        if (newState == ConnectionState.CONNECTED) {
+            resourceGovernor.watch(connection.getTunnel());
+            telemetry.watch(connection.getTunnel());
+        } else {
+            resourceGovernor.unwatch(connection.getTunnel());
+            telemetry.unwatch(connection.getTunnel());
+        }
 
-            // Notify all listeners
-            for (Consumer<ConnectionState> listener : stateChangeListeners) {
-                try {
-                    listener.accept(newState);
-                } catch (Exception e) {
-                    logger.debug("Error notifying listener: " + e.getMessage());
+        if (frontProxy != null) {
+            if (newState == ConnectionState.CONNECTED) {
+                frontProxy.getBackendPool().put(connection.getName(), PROXY_HOST, connection.getProxyPort());
+                seedRoutingRules(connection);
+                rebuildRoutingTable();
+            } else {
+                frontProxy.getBackendPool().remove(connection.getName());
+                if (seededRules.remove(connection.getName()) != null) {
+                    rebuildRoutingTable();
                 }
             }
         }
+
+        for (BiConsumer<TunnelConnection, ConnectionState> listener : tunnelStateListeners) {
+            try {
+                listener.accept(connection, newState);
+            } catch (Exception e) {
+                logger.debug("Error notifying listener: " + e.getMessage());
+            }
+        }
+
+        if (!connection.getTunnel().isDefault()) {
+            return;
+        }
+
+        // Notify all listeners
+        for (Consumer<ConnectionState> listener : stateChangeListeners) {
+            try {
+                listener.accept(newState);
+            } catch (Exception e) {
+                logger.debug("Error notifying listener: " + e.getMessage());
+            }
+        }
     }
 
     /**
-     * Add a state change listener
+     * Add a state change listener for the default tunnel
      */
     public void addStateChangeListener(Consumer<ConnectionState> listener) {
         stateChangeListeners.add(listener);
     }
 
-    // Getters
+    /**
+     * Add a state change listener for all tunnels
+     */
+    public void addTunnelStateListener(BiConsumer<TunnelConnection, ConnectionState> listener) {
+        tunnelStateListeners.add(listener);
+    }
+
+    /**
+     * Stop background monitoring and pending connects; called when the
+     * extension unloads
+     */
+    public void shutdown() {
+        healthMonitor.stopMonitoring();
+        resourceGovernor.shutdown();
+        telemetry.shutdown();
+        connectExecutor.shutdownNow();
+        if (frontProxy != null) {
+            frontProxy.stop();
+        }
+    }
+
+    // Getters (default tunnel)
     public ConnectionState getState() {
-        return state;
+        return getDefaultConnection().getState();
     }
 
     public String getErrorMessage() {
-        return errorMessage;
+        return getDefaultConnection().getErrorMessage();
+    }
+
+    /**
+     * Classified reason of the last failed connect, or null if unknown
+     */
+    public ContainerLogClassifier.FailureReason getFailureReason() {
+        return getDefaultConnection().getFailureReason();
+    }
+
+    /**
+     * Cached state of the VPN container, or null if none is running
+     */
+    public ContainerStateCache.ContainerState getContainerState() {
+        return getDefaultConnection().getContainerState();
+    }
+
+    /**
+     * Boot profile and stage timings of the last connect, or null before the
+     * first one
+     */
+    public BootReport getLastBootReport() {
+        return getDefaultConnection().getLastBootReport();
+    }
+
+    /**
+     * Phase timings of the default tunnel's last connect, or null before the
+     * first one
+     */
+    public ConnectTrace getLastConnectTrace() {
+        return traceLog.getLatest(getDefaultConnection().getName());
+    }
+
+    /**
+     * Phase timings of the named tunnel's last connect, or null if none is kept
+     */
+    public ConnectTrace getLastConnectTrace(String tunnelName) {
+        return traceLog.getLatest(tunnelName);
+    }
+
+    /**
+     * The last {@code wireup.trace.keep} connects of all tunnels, oldest first
+     */
+    public List<ConnectTrace> getConnectTraces() {
+        return traceLog.getTraces();
+    }
+
+    /**
+     * File the connect traces are written to after every connect
+     */
+    public Path getTraceFile() {
+        return TRACE_FILE;
+    }
+
+    /**
+     * Live throughput, CPU and memory of connected tunnels
+     */
+    public TelemetryCollector getTelemetry() {
+        return telemetry;
     }
 
     public String getVpnIp() {
-        return vpnIp;
+        return getDefaultConnection().getVpnIp();
+    }
+
+    /**
+     * Local port of the SOCKS5 proxy Burp should use: the front proxy if it
+     * is running, otherwise the default tunnel's own port
+     */
+    public int getProxyPort() {
+        return frontProxy != null ? frontProxy.getPort() : getDefaultConnection().getProxyPort();
+    }
+
+    /**
+     * The front proxy, or null if it is disabled or could not listen
+     */
+    public SocksFrontProxy getFrontProxy() {
+        return frontProxy;
     }
 
     public VpnConfig getCurrentConfig() {
-        return currentConfig;
+        return getDefaultConnection().getCurrentConfig();
     }
 
     public boolean isConnected() {
-        return state == ConnectionState.CONNECTED;
+        return getDefaultConnection().isConnected();
+    }
+
+    /**
+     * Number of tunnels currently connected
+     */
+    public int getConnectedCount() {
+        int count = 0;
+        for (TunnelConnection connection : getConnections()) {
+            if (connection.isConnected()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public Collection<Tunnel> getTunnels() {
+        return dockerManager.getTunnels();
     }
 }
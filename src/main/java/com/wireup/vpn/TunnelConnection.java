@@ -0,0 +1,367 @@
+package com.wireup.vpn;
+
+import com.wireup.docker.BootReport;
+import com.wireup.docker.ContainerLogClassifier;
+import com.wireup.docker.ContainerStateCache;
+import com.wireup.docker.DnsCacheStats;
+import com.wireup.docker.DockerManager;
+import com.wireup.docker.Tunnel;
+import com.wireup.docker.TunnelFailureException;
+import com.wireup.docker.TunnelReadinessWatcher;
+import com.wireup.utils.ConnectTrace;
+import com.wireup.utils.IpVerifier;
+import com.wireup.utils.Logger;
+
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Connection state and lifecycle of a single tunnel. The blocking operations
+ * are run by {@link ConnectionManager} on its connect executor.
+ */
+public class TunnelConnection {
+
+    private static final String PROXY_HOST = "127.0.0.1";
+    private static final long READY_TIMEOUT_SECONDS = 60;
+    private static final long VERIFY_RETRY_DELAY_MS = 1000;
+
+    private final Tunnel tunnel;
+    private final DockerManager dockerManager;
+    private final Logger logger;
+    private final ConnectionManager manager;
+
+    private volatile ConnectionManager.ConnectionState state = ConnectionManager.ConnectionState.DISCONNECTED;
+    private volatile VpnConfig currentConfig;
+    private volatile String errorMessage;
+    private volatile ContainerLogClassifier.FailureReason failureReason;
+    private volatile String vpnIp;
+    private volatile BootReport lastBootReport;
+
+    // Lifetime counters, kept across reconnects
+    private final AtomicLong connectAttempts = new AtomicLong();
+    private final AtomicLong connectFailures = new AtomicLong();
+    private final AtomicLong reconnects = new AtomicLong();
+    private final AtomicLong unexpectedStops = new AtomicLong();
+
+    TunnelConnection(Tunnel tunnel, DockerManager dockerManager, Logger logger, ConnectionManager manager) {
+        this.tunnel = tunnel;
+        this.dockerManager = dockerManager;
+        this.logger = logger;
+        this.manager = manager;
+    }
+
+    /**
+     * Create the tunnel's container and wait until the tunnel is usable
+     *
+     * @param trace receives the phases of this connect and is finished on return
+     */
+    void connect(VpnConfig config, ConnectTrace trace) {
+        connectAttempts.incrementAndGet();
+        try {
+            failureReason = null;
+            setState(ConnectionManager.ConnectionState.CONNECTING);
+            logger.info("Initiating VPN connection (DEBUG BUILD v2, tunnel " + tunnel + ")...");
+            logger.info("NOTE: Container cleanup is DISABLED on error.");
+
+            // Validate config (double check)
+            if (!config.isValid()) {
+                throw new Exception("Invalid config: " + config.getErrorMessage());
+            }
+
+            this.currentConfig = config;
+            trace.attr("protocol", config.getType()).attr("boot_profile", dockerManager.getBootProfile());
+
+            logger.info("Config validated successfully: " + config.getType());
+            logger.debug(config.getSummary());
+
+            // Create and start Docker container
+            String containerId = dockerManager.createAndStartContainer(tunnel, config, trace);
+            logger.info("Container started: " + containerId);
+
+            // Wait until the tunnel is up and the SOCKS proxy answers
+            logger.info("Waiting for tunnel and SOCKS proxy to become ready...");
+            long readyStart = System.nanoTime();
+            ConnectTrace.Span readySpan = trace.span("ready", readyStart);
+            try (TunnelReadinessWatcher watcher = dockerManager.watchReadiness(tunnel)) {
+                lastBootReport = watcher.getBootReport();
+                watcher.start().get(READY_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (TimeoutException e) {
+                throw new Exception("Tunnel did not become ready within " + READY_TIMEOUT_SECONDS + " seconds");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof TunnelFailureException) {
+                    throw (TunnelFailureException) e.getCause();
+                }
+                throw new Exception(e.getCause().getMessage(), e.getCause());
+            }
+            readySpan.end();
+            logger.info("Tunnel ready after " + readySpan.getDurationMs() + " ms");
+            logger.info("Boot stages: " + lastBootReport);
+            addBootStages(readySpan, lastBootReport);
+            dockerManager.rememberPathMtu(tunnel);
+            String dataPlane = dockerManager.getDataPlane(tunnel);
+            if (dataPlane != null) {
+                trace.attr("data_plane", dataPlane);
+            }
+            if ("wireguard-go".equals(dataPlane)) {
+                logger.warn("Host kernel has no WireGuard module, tunnel " + tunnel
+                        + " uses the slower userspace wireguard-go");
+            } else if (dataPlane != null) {
+                logger.info("Tunnel " + tunnel + " data plane: " + dataPlane);
+            }
+
+            // The proxy is up; retries only cover transient failures of the IP check itself
+            ConnectTrace.Span verifySpan = trace.span("verify");
+            String ip = null;
+            int maxRetries = 3;
+            for (int i = 0; i < maxRetries; i++) {
+                verifySpan.attr("attempts", i + 1);
+                logger.info("Verifying VPN connection (attempt " + (i + 1) + "/" + maxRetries + ")...");
+                ip = IpVerifier.getIpThroughProxy(PROXY_HOST, getProxyPort());
+
+                if (!ip.startsWith("Error")) {
+                    break;
+                }
+
+                if (i < maxRetries - 1) {
+                    logger.warn("IP verification failed: " + ip);
+                    Thread.sleep(VERIFY_RETRY_DELAY_MS);
+                }
+            }
+
+            if (ip == null || ip.startsWith("Error")) {
+                // Get container logs for debugging
+                String logs = dockerManager.getContainerLogs(tunnel);
+                logger.error("Container logs:\n" + logs);
+                throw new Exception(
+                        "Cannot connect through SOCKS proxy after " + maxRetries + " attempts: " + ip);
+            }
+
+            logger.info("VPN IP verified: " + ip);
+            verifySpan.end();
+            this.vpnIp = ip;
+            trace.finish("connected");
+            logger.info("Connect phases (tunnel " + tunnel + "): " + trace.describe());
+
+            setState(ConnectionManager.ConnectionState.CONNECTED);
+            logger.info("VPN connection established successfully! (tunnel " + tunnel + ", SOCKS port "
+                    + getProxyPort() + ")");
+
+        } catch (TunnelFailureException e) {
+            // Classified from container output, the stack trace adds nothing
+            logger.error("Connection failed (" + e.getReason() + "): " + e.getMessage());
+            logger.error("Container logs:\n" + dockerManager.getContainerLogs(tunnel));
+            failureReason = e.getReason();
+            errorMessage = e.getMessage();
+            connectFailures.incrementAndGet();
+            trace.finish(e.getReason() + ": " + e.getMessage());
+            setState(ConnectionManager.ConnectionState.ERROR);
+            runDiagnostics();
+
+        } catch (Exception e) {
+            logger.error("Connection failed: " + e.getMessage(), e);
+            errorMessage = e.getMessage();
+            connectFailures.incrementAndGet();
+            trace.finish("failed: " + e.getMessage());
+            setState(ConnectionManager.ConnectionState.ERROR);
+            runDiagnostics();
+        }
+    }
+
+    /**
+     * Nest the container's boot stages under the readiness span. The container
+     * reports durations only, so they are laid out back to back ending when
+     * readiness was observed.
+     */
+    private static void addBootStages(ConnectTrace.Span readySpan, BootReport bootReport) {
+        long end = readySpan.getEndNanos();
+        long start = end - bootReport.getTotalMs() * 1_000_000;
+        for (Map.Entry<String, Long> stage : bootReport.getStages().entrySet()) {
+            long stageEnd = start + stage.getValue() * 1_000_000;
+            readySpan.child("boot." + stage.getKey(), start, stageEnd).attr("source", "container");
+            start = stageEnd;
+        }
+    }
+
+    /**
+     * Apply a config of the same protocol inside the running container
+     *
+     * @return false if the in-place reload failed and a full connect is needed
+     */
+    boolean reconfigure(VpnConfig config, VpnConfigDiff.Change change) {
+        try {
+            setState(ConnectionManager.ConnectionState.CONNECTING);
+            logger.info("Reconfiguring tunnel " + tunnel + " in place (" + change + ")...");
+
+            if (!config.isValid()) {
+                throw new Exception("Invalid config: " + config.getErrorMessage());
+            }
+
+            // An unchanged config still restarts the tunnel, which is what a manual reconnect is for
+            dockerManager.reconfigureTunnel(tunnel, config, change == VpnConfigDiff.Change.PEERS);
+
+            String ip = IpVerifier.getIpThroughProxy(PROXY_HOST, getProxyPort());
+            if (ip.startsWith("Error")) {
+                throw new Exception("Cannot connect through SOCKS proxy after reload: " + ip);
+            }
+
+            this.currentConfig = config;
+            this.vpnIp = ip;
+            logger.info("VPN IP verified: " + ip);
+            setState(ConnectionManager.ConnectionState.CONNECTED);
+            return true;
+
+        } catch (Exception e) {
+            logger.warn("In-place reconfiguration failed, recreating container: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Stop the tunnel's container; the config is kept for reconnect
+     */
+    void disconnect() {
+        logger.info("Disconnecting tunnel " + tunnel + "...");
+        dockerManager.stopAndRemoveContainer(tunnel);
+
+        // Don't clear currentConfig here, allowing reconnect
+        vpnIp = null;
+        errorMessage = null;
+
+        setState(ConnectionManager.ConnectionState.DISCONNECTED);
+    }
+
+    /**
+     * Run the container self-tests skipped by the fast boot profile and log
+     * their output
+     */
+    void runDiagnostics() {
+        if (!dockerManager.isContainerRunning(tunnel)) {
+            logger.info("Diagnostics skipped: no container running");
+            return;
+        }
+
+        try {
+            logger.info("Running container diagnostics (tunnel " + tunnel + ")...");
+            logger.info("Diagnostics:\n" + dockerManager.runDiagnostics(tunnel));
+            DnsCacheStats dnsStats = dockerManager.getDnsStats(tunnel);
+            logger.info("DNS cache: " + (dnsStats != null ? dnsStats : "not running"));
+        } catch (Exception e) {
+            logger.warn("Diagnostics failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Handle container state changes from health monitor
+     */
+    void onContainerStateChange(boolean running) {
+        if (!running && state == ConnectionManager.ConnectionState.CONNECTED) {
+            logger.warn("Container stopped unexpectedly! (tunnel " + tunnel + ")");
+            errorMessage = "Container stopped unexpectedly";
+            unexpectedStops.incrementAndGet();
+            setState(ConnectionManager.ConnectionState.ERROR);
+        }
+    }
+
+    private void setState(ConnectionManager.ConnectionState newState) {
+        if (this.state != newState) {
+            this.state = newState;
+            manager.onTunnelStateChange(this, newState);
+        }
+    }
+
+    public Tunnel getTunnel() {
+        return tunnel;
+    }
+
+    public String getName() {
+        return tunnel.getName();
+    }
+
+    public ConnectionManager.ConnectionState getState() {
+        return state;
+    }
+
+    public boolean isConnected() {
+        return state == ConnectionManager.ConnectionState.CONNECTED;
+    }
+
+    public VpnConfig getCurrentConfig() {
+        return currentConfig;
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    /**
+     * Classified reason of the last failed connect, or null if unknown
+     */
+    public ContainerLogClassifier.FailureReason getFailureReason() {
+        return failureReason;
+    }
+
+    public String getVpnIp() {
+        return vpnIp;
+    }
+
+    /**
+     * Boot profile and stage timings of the last connect, or null before the
+     * first one
+     */
+    public BootReport getLastBootReport() {
+        return lastBootReport;
+    }
+
+    /**
+     * Cached state of the tunnel's container, or null if none is running
+     */
+    public ContainerStateCache.ContainerState getContainerState() {
+        return dockerManager.getContainerState(tunnel);
+    }
+
+    /**
+     * Local port of the tunnel's SOCKS5 proxy
+     */
+    public int getProxyPort() {
+        return tunnel.getSocksPort();
+    }
+
+    /**
+     * Connects started, including those of reconnects
+     */
+    public long getConnectAttempts() {
+        return connectAttempts.get();
+    }
+
+    public long getConnectFailures() {
+        return connectFailures.get();
+    }
+
+    /**
+     * Reconnects requested, whether applied in place or with a new container
+     */
+    public long getReconnects() {
+        return reconnects.get();
+    }
+
+    /**
+     * Times the container stopped while the tunnel was connected
+     */
+    public long getUnexpectedStops() {
+        return unexpectedStops.get();
+    }
+
+    void countReconnect() {
+        reconnects.incrementAndGet();
+    }
+
+    /**
+     * Whether a container is running for this tunnel
+     */
+    boolean isContainerRunning() {
+        return dockerManager.isContainerRunning(tunnel);
+    }
+}
@@ -0,0 +1,55 @@
+package com.wireup.vpn;
+
+import java.util.Objects;
+
+/**
+ * Works out how much of a running tunnel has to be rebuilt to move from one
+ * VPN config to another
+ */
+public class VpnConfigDiff {
+
+    public enum Change {
+        /**
+         * Configs are identical
+         */
+        NONE,
+        /**
+         * Only WireGuard [Peer] settings changed; applied with wg syncconf
+         */
+        PEERS,
+        /**
+         * Same protocol, but the tunnel interface/process has to be restarted
+         */
+        TUNNEL,
+        /**
+         * Protocol changed; the container has to be recreated
+         */
+        PROTOCOL
+    }
+
+    private VpnConfigDiff() {
+    }
+
+    public static Change between(VpnConfig oldConfig, VpnConfig newConfig) {
+        if (oldConfig == null || newConfig == null || oldConfig.getType() != newConfig.getType()) {
+            return Change.PROTOCOL;
+        }
+
+        if (oldConfig.getType() == VpnConfig.VpnType.WIREGUARD) {
+            WireGuardConfig oldWg = (WireGuardConfig) oldConfig;
+            WireGuardConfig newWg = (WireGuardConfig) newConfig;
+
+            if (!oldWg.getInterfaceSection().equals(newWg.getInterfaceSection())) {
+                return Change.TUNNEL;
+            }
+            return oldWg.getPeerSection().equals(newWg.getPeerSection()) ? Change.NONE : Change.PEERS;
+        }
+
+        OpenVpnConfig oldOvpn = (OpenVpnConfig) oldConfig;
+        OpenVpnConfig newOvpn = (OpenVpnConfig) newConfig;
+        boolean sameConfig = Objects.equals(oldOvpn.getRawConfig(), newOvpn.getRawConfig())
+                && Objects.equals(oldOvpn.getUsername(), newOvpn.getUsername())
+                && Objects.equals(oldOvpn.getPassword(), newOvpn.getPassword());
+        return sameConfig ? Change.NONE : Change.TUNNEL;
+    }
+}
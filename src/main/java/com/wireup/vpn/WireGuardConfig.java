@@ -1,5 +1,6 @@
 package com.wireup.vpn;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -135,6 +136,14 @@ public class WireGuardConfig implements VpnConfig {
         return peerSection.get(key);
     }
 
+    Map<String, String> getInterfaceSection() {
+        return Collections.unmodifiableMap(interfaceSection);
+    }
+
+    Map<String, String> getPeerSection() {
+        return Collections.unmodifiableMap(peerSection);
+    }
+
     /**
      * Get a summary of the configuration for display
      */
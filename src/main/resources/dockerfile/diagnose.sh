@@ -0,0 +1,27 @@
+#!/bin/sh
+# Network diagnostics for the WireUp container. Not on the boot critical path:
+# run on demand (DockerManager.runDiagnostics), after a failed boot, or during
+# boot with WIREUP_BOOT_PROFILE=diagnostic.
+echo "=== WireUp diagnostics ==="
+echo "--- PROCESSES ---"; ps | head -n 20
+echo "--- IP ADDR ---"; ip addr
+echo "--- IP RULES ---"; ip rule show
+echo "--- ROUTES (table ${WIREUP_ROUTE_TABLE:-100}) ---"; ip route show table "${WIREUP_ROUTE_TABLE:-100}"
+echo "--- RP FILTER (eth0) ---"; cat /proc/sys/net/ipv4/conf/eth0/rp_filter
+
+# Test connectivity (UDP vs TCP)
+echo "Testing UDP (DNS)..."
+nslookup google.com 8.8.8.8 || echo "UDP/DNS FAILED"
+echo "Testing DNS (tunnel resolver $(awk "/^nameserver/ {print \$2; exit}" /etc/resolv.conf))..."
+nslookup example.com || echo "TUNNEL DNS FAILED"
+if command -v nc > /dev/null 2>&1; then
+    echo "Testing TCP (Netcat)..."
+    nc -z -v -w 5 1.1.1.1 80 || echo "TCP/HTTP FAILED"
+fi
+
+# curl is only installed in the debug image variants
+if command -v curl > /dev/null 2>&1; then
+    echo "Running Internal SOCKS Self-Test..."
+    curl -v --max-time 5 -x socks5://127.0.0.1:${WIREUP_SOCKS_PORT:-1080} http://1.1.1.1 || echo "SELF-TEST FAILED"
+fi
+echo "=== End of diagnostics ==="
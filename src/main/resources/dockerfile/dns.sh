@@ -0,0 +1,95 @@
+#!/bin/sh
+# DNS setup shared by start.sh and reload.sh (sourced, not run).
+#
+# The SOCKS engine resolves through a caching dnsmasq in the container, which
+# forwards over the tunnel to the config's DNS servers (WireGuard DNS= line,
+# or dhcp-option DNS set in / pushed to the OpenVPN client); 1.1.1.1 if there
+# are none. Only IPv4 servers are used, like the tunnel address.
+# WIREUP_DNS_CACHE=0 points resolv.conf straight at the first server instead.
+#
+# setup_dns expects VPN_TYPE, VPN_IFACE, VPN_IP, NETWORK_MODE and ROUTE_TABLE,
+# and sets DNS_SERVERS and DNS_SERVER. Calling it again after the tunnel was
+# re-established replaces the routes and the resolver of the previous call.
+setup_dns() {
+    if [ "$VPN_TYPE" = "openvpn" ]; then
+        # The --up script writes the pushed servers right after the interface gets its address
+        _dns_wait=0
+        while [ ! -f /tmp/wireup_pushed_dns ] && [ $_dns_wait -lt 20 ]; do
+            sleep 0.1
+            _dns_wait=$((_dns_wait+1))
+        done
+        DNS_SERVERS=$( { cat /tmp/wireup_pushed_dns 2>/dev/null
+            grep "^dhcp-option DNS " /etc/openvpn/client.conf | awk "{print \$3}"; } \
+            | grep -E "^[0-9.]+$" | awk "!seen[\$0]++")
+    else
+        DNS_SERVERS=$(grep "^DNS" /etc/wireguard/wg0.conf 2>/dev/null | cut -d= -f2 | tr "," "\n" \
+            | tr -d " " | grep -E "^[0-9.]+$")
+    fi
+    DNS_SERVERS="${DNS_SERVERS:-1.1.1.1}"
+    DNS_SERVER=$(echo "$DNS_SERVERS" | head -n 1)
+
+    # Routes of the previous servers (gone already if the interface was recreated)
+    for server in $(cat /tmp/wireup_dns_servers 2>/dev/null); do
+        if [ "$NETWORK_MODE" = "host" ]; then
+            while ip rule del to "$server" lookup "$ROUTE_TABLE" priority 99 2>/dev/null; do :; done
+        else
+            ip route del "$server" dev "$VPN_IFACE" 2>/dev/null
+        fi
+    done
+    for server in $DNS_SERVERS; do
+        if [ "$NETWORK_MODE" = "host" ]; then
+            # dnsmasq sends from the tunnel address, which already selects the
+            # tunnel table; the rule covers the direct fallback below
+            ip rule add to "$server" ipproto udp dport 53 lookup "$ROUTE_TABLE" priority 99 \
+                || ip rule add to "$server" lookup "$ROUTE_TABLE" priority 99
+        else
+            # Private-range servers would otherwise match the LAN exemptions and leave via eth0
+            ip route replace "$server" dev "$VPN_IFACE"
+        fi
+    done
+    echo "$DNS_SERVERS" > /tmp/wireup_dns_servers
+
+    # A running dnsmasq keeps its servers (and answers cached from them) until restarted
+    if [ -f /tmp/dnsmasq.pid ]; then
+        _dns_pid=$(cat /tmp/dnsmasq.pid)
+        kill "$_dns_pid" 2>/dev/null
+        while kill -0 "$_dns_pid" 2>/dev/null; do sleep 0.1; done
+        rm -f /tmp/dnsmasq.pid
+    fi
+
+    DNS_LISTEN=""
+    if [ "${WIREUP_DNS_CACHE:-1}" = "1" ]; then
+        # Host mode shares the host's loopback: one address per tunnel table
+        DNS_LISTEN=127.0.0.1
+        DNS_SOURCE=""
+        if [ "$NETWORK_MODE" = "host" ]; then
+            DNS_LISTEN="127.53.$((ROUTE_TABLE / 256 % 256)).$((ROUTE_TABLE % 256))"
+            DNS_SOURCE="@$VPN_IP"
+        fi
+        {
+            echo "listen-address=$DNS_LISTEN"
+            echo "bind-interfaces"
+            echo "no-resolv"
+            echo "user=root"
+            echo "pid-file=/tmp/dnsmasq.pid"
+            echo "log-facility=/tmp/dnsmasq.log"
+            echo "cache-size=${WIREUP_DNS_CACHE_SIZE:-1000}"
+            [ -n "$WIREUP_DNS_MIN_TTL" ] && echo "min-cache-ttl=$WIREUP_DNS_MIN_TTL"
+            [ -n "$WIREUP_DNS_MAX_TTL" ] && echo "max-cache-ttl=$WIREUP_DNS_MAX_TTL"
+            if [ "${WIREUP_DNS_NEG_TTL:-60}" = "0" ]; then
+                echo "no-negcache"
+            else
+                echo "neg-ttl=${WIREUP_DNS_NEG_TTL:-60}"
+            fi
+            for server in $DNS_SERVERS; do echo "server=$server$DNS_SOURCE"; done
+        } > /tmp/dnsmasq.conf
+        dnsmasq --conf-file=/tmp/dnsmasq.conf || { echo "Warning: dnsmasq failed to start"; DNS_LISTEN=""; }
+    fi
+    if [ -n "$DNS_LISTEN" ]; then
+        echo "nameserver $DNS_LISTEN" > /etc/resolv.conf
+        echo "DNS: caching resolver on $DNS_LISTEN via tunnel to" $DNS_SERVERS
+    else
+        echo "nameserver $DNS_SERVER" > /etc/resolv.conf
+        echo "DNS via tunnel: $DNS_SERVER"
+    fi
+}
@@ -0,0 +1,121 @@
+#!/bin/sh
+# Tunnel MTU shared by start.sh and reload.sh (sourced, not run).
+#
+# choose_mtu probes the underlay path to the VPN endpoint with DF-bit pings and
+# must run while no tunnel carries the endpoint's traffic (afterwards the pings
+# would be routed into it). It derives the tunnel MTU and OpenVPN's mssfix from
+# the path; WIREUP_MTU overrides the tunnel MTU. Path MTUs the extension already
+# knows for an endpoint skip the probe.
+#
+# choose_mtu expects VPN_TYPE and the config in /etc/openvpn or /etc/wireguard,
+# and sets VPN_ENDPOINT, PATH_MTU, VPN_MTU, MTU_SOURCE and OVPN_MSSFIX.
+# apply_mtu expects VPN_IFACE and DNS_SERVER (set by setup_dns) once the tunnel
+# is up; calling it again replaces the MSS clamp of the previous call.
+vpn_endpoint() {
+    if [ "$VPN_TYPE" = "openvpn" ]; then
+        awk "\$1 == \"remote\" {print \$2; exit}" /etc/openvpn/client.conf
+    else
+        grep -i "^Endpoint" /etc/wireguard/wg0.conf | head -n 1 | cut -d= -f2 | tr -d " " \
+            | sed "s/:[0-9]*$//; s/^\[//; s/\]$//"
+    fi
+}
+
+# Largest path MTU (1200-1500) answered with DF set, 0 if ICMP does not get through
+probe_path_mtu() {
+    _hdr=28
+    case "$1" in *:*) _hdr=48 ;; esac
+    ping -M do -c 1 -W 1 -s $((1500 - _hdr)) "$1" > /dev/null 2>&1 && { echo 1500; return; }
+    ping -M do -c 1 -W 1 -s $((1200 - _hdr)) "$1" > /dev/null 2>&1 || { echo 0; return; }
+    _lo=1200; _hi=1500
+    while [ $((_hi - _lo)) -gt 8 ]; do
+        _mid=$(((_lo + _hi) / 2))
+        if ping -M do -c 1 -W 1 -s $((_mid - _hdr)) "$1" > /dev/null 2>&1; then _lo=$_mid; else _hi=$_mid; fi
+    done
+    echo $_lo
+}
+
+# Path MTU the extension already knows for an endpoint from an earlier boot
+# ("<endpoint>=<path mtu>" entries, 0 if the endpoint drops ICMP), so
+# reconnects skip the probe; empty if unknown
+known_path_mtu() {
+    _known="$WIREUP_PATH_MTUS"
+    [ -f /etc/wireup/path_mtus ] && _known=$(cat /etc/wireup/path_mtus)
+    for _entry in $_known; do
+        [ "${_entry%=*}" = "$1" ] && { echo "${_entry##*=}"; return; }
+    done
+}
+
+choose_mtu() {
+    PATH_MTU=0
+    VPN_ENDPOINT=$(vpn_endpoint)
+    # Encapsulation overhead: outer IP + UDP + WireGuard header/tag, or the
+    # OpenVPN data channel (opcode, packet id, AEAD tag; TCP adds framing)
+    case "$VPN_ENDPOINT" in *:*) _outer_ip=40 ;; *) _outer_ip=20 ;; esac
+    if [ "$VPN_TYPE" = "openvpn" ]; then
+        _overhead=$((_outer_ip + 49))
+        grep -q "^proto tcp" /etc/openvpn/client.conf && _overhead=$((_overhead + 22))
+    else
+        _overhead=$((_outer_ip + 40))
+    fi
+    _known_mtu=""
+    [ -n "$VPN_ENDPOINT" ] && _known_mtu=$(known_path_mtu "$VPN_ENDPOINT")
+    if [ -n "$WIREUP_MTU" ]; then
+        VPN_MTU="$WIREUP_MTU"
+        MTU_SOURCE="override"
+    elif [ -n "$_known_mtu" ] && [ "$_known_mtu" -gt 0 ]; then
+        PATH_MTU="$_known_mtu"
+        VPN_MTU=$((PATH_MTU - _overhead))
+        MTU_SOURCE="cached"
+    elif [ -n "$_known_mtu" ]; then
+        # The endpoint dropped the probes before; don't wait for them again
+        VPN_MTU=1200
+        MTU_SOURCE="default"
+    else
+        [ -n "$VPN_ENDPOINT" ] && PATH_MTU=$(probe_path_mtu "$VPN_ENDPOINT")
+        if [ "$PATH_MTU" -gt 0 ]; then
+            VPN_MTU=$((PATH_MTU - _overhead))
+            MTU_SOURCE="probed"
+        else
+            # No ICMP to the endpoint: keep the conservative value
+            VPN_MTU=1200
+            MTU_SOURCE="default"
+        fi
+    fi
+
+    # Largest encapsulated UDP payload; without a probe keep the old safe value
+    OVPN_MSSFIX=1000
+    [ "$PATH_MTU" -gt 0 ] && OVPN_MSSFIX=$((PATH_MTU - _outer_ip - 8))
+    # The override is the tunnel MTU; the path it implies carries the overhead on top
+    [ "$MTU_SOURCE" = "override" ] && OVPN_MSSFIX=$((VPN_MTU + _overhead - _outer_ip - 8))
+    echo "Path MTU to ${VPN_ENDPOINT:-endpoint}: $PATH_MTU, tunnel MTU $VPN_MTU ($MTU_SOURCE)"
+}
+
+apply_mtu() {
+    ip link set dev "$VPN_IFACE" mtu "$VPN_MTU"
+
+    # Confirm inside the tunnel (PLPMTUD-style): if a full-size DF probe is lost
+    # but a 1200-byte one passes, something on the path is smaller than probed
+    if { [ "$MTU_SOURCE" = "probed" ] || [ "$MTU_SOURCE" = "cached" ]; } && [ "$VPN_MTU" -gt 1200 ]; then
+        _probe_target="${DNS_SERVER:-1.1.1.1}"
+        if ! ping -M do -c 1 -W 1 -s $((VPN_MTU - 28)) -I "$VPN_IFACE" "$_probe_target" > /dev/null 2>&1 \
+                && ping -M do -c 1 -W 1 -s 1172 -I "$VPN_IFACE" "$_probe_target" > /dev/null 2>&1; then
+            VPN_MTU=1200
+            MTU_SOURCE="fallback"
+            ip link set dev "$VPN_IFACE" mtu "$VPN_MTU"
+        fi
+    fi
+    echo "$VPN_MTU" > /tmp/wireup_mtu
+    echo "$VPN_ENDPOINT" > /tmp/wireup_endpoint
+
+    # The rules outlive the interface; find them by interface, the old clamp may differ
+    iptables -t mangle -S POSTROUTING 2>/dev/null | grep -- "-o $VPN_IFACE " | grep -- "-j TCPMSS" \
+        | sed 's/^-A /-D /' | while read -r rule; do
+            # Unquoted: the listed rule is split back into arguments
+            iptables -t mangle $rule 2>/dev/null
+        done
+    MSS=$((VPN_MTU - 40))
+    iptables -t mangle -A POSTROUTING -o "$VPN_IFACE" -p tcp --tcp-flags SYN,RST SYN -j TCPMSS --set-mss "$MSS" \
+        || echo "Warning: MSS clamping failed"
+    echo "WIREUP_MTU $VPN_MTU $MTU_SOURCE $PATH_MTU $VPN_ENDPOINT"
+    echo "Tunnel MTU $VPN_MTU, MSS $MSS"
+}
@@ -0,0 +1,113 @@
+#!/bin/sh
+# In-place tunnel reload: /reload.sh peers|tunnel
+# Expects the new config in /etc/wireup (same layout as standby injection).
+# Works on the interface and SOCKS port start.sh recorded in /tmp, so bridge
+# and host network mode reload the same way.
+MODE="$1"
+VPN_TYPE=$(cat /etc/wireup/vpn_type)
+NETWORK_MODE="${WIREUP_NETWORK_MODE:-bridge}"
+ROUTE_TABLE="$WIREUP_ROUTE_TABLE"
+VPN_IFACE=$(cat /tmp/wireup_iface)
+SOCKS_PORT=$(cat /tmp/wireup_socks_port 2>/dev/null || echo 1080)
+echo "Reloading tunnel ($VPN_TYPE, $MODE)..."
+. /mtu.sh
+if [ "$VPN_TYPE" = "openvpn" ]; then
+    cp /etc/wireup/client.conf /etc/openvpn/client.conf
+    rm -f /etc/openvpn/auth.txt
+    if [ -f /etc/wireup/auth.txt ]; then
+        cp /etc/wireup/auth.txt /etc/openvpn/auth.txt
+        sed -i "s/auth-user-pass$/auth-user-pass \/etc\/openvpn\/auth.txt/" /etc/openvpn/client.conf
+    fi
+else
+    # Kept in place for the DNS= servers read by setup_dns
+    cp /etc/wireup/wg0.conf /etc/wireguard/wg0.conf
+fi
+
+# A new endpoint may sit behind a different path: probe it once the old tunnel
+# is down, which wg syncconf would never take
+NEW_ENDPOINT="false"
+if [ "$(vpn_endpoint)" != "$(cat /tmp/wireup_endpoint 2>/dev/null)" ]; then
+    NEW_ENDPOINT="true"
+    [ "$MODE" = "peers" ] && echo "Endpoint changed, restarting the tunnel"
+    MODE="tunnel"
+fi
+
+if [ "$VPN_TYPE" = "openvpn" ]; then
+    killall openvpn 2>/dev/null
+    while pidof openvpn > /dev/null; do sleep 0.1; done
+    if [ "$NEW_ENDPOINT" = "true" ]; then
+        choose_mtu
+        echo "$OVPN_MSSFIX" > /tmp/wireup_mssfix
+    fi
+    # The --up script written by start.sh records the servers the new config pushes
+    rm -f /tmp/wireup_pushed_dns
+    OVPN_ARGS="--mssfix $(cat /tmp/wireup_mssfix 2>/dev/null || echo 1000) --script-security 2 --up /tmp/wireup-ovpn-up.sh"
+    # Pushed routes would change the host's routing; the table is filled below
+    [ "$NETWORK_MODE" = "host" ] && OVPN_ARGS="$OVPN_ARGS --dev $VPN_IFACE --dev-type tun --route-noexec"
+    # Unquoted: split into arguments
+    openvpn --config /etc/openvpn/client.conf $OVPN_ARGS \
+        --daemon --log-append /proc/1/fd/1 || { echo "Reload failed: OpenVPN failed to start"; exit 1; }
+else
+    # wg-quick names the interface after the file
+    WG_CONF="/tmp/$VPN_IFACE.conf"
+    if [ "$NETWORK_MODE" = "host" ]; then
+        grep -v -e "^DNS" -e "^Table" /etc/wireguard/wg0.conf \
+            | sed "/^\[Interface\]/a Table = $ROUTE_TABLE" > "$WG_CONF.new"
+    else
+        grep -v "^DNS" /etc/wireguard/wg0.conf > "$WG_CONF.new"
+    fi
+    if [ "$MODE" = "peers" ]; then
+        mv "$WG_CONF.new" "$WG_CONF"
+        wg-quick strip "$WG_CONF" > /tmp/wg0-sync.conf && wg syncconf "$VPN_IFACE" /tmp/wg0-sync.conf || { echo "Reload failed: wg syncconf failed"; exit 1; }
+    else
+        # Down with the config it was brought up with
+        wg-quick down "$WG_CONF" > /dev/null 2>&1
+        mv "$WG_CONF.new" "$WG_CONF"
+        [ "$NEW_ENDPOINT" = "true" ] && choose_mtu
+        WG_QUICK_USERSPACE_IMPLEMENTATION=wireguard-go WG_I_PREFER_BUGGY_USERSPACE_TO_POLISHED_KMOD=1 wg-quick up "$WG_CONF" || { echo "Reload failed: WireGuard failed to start"; exit 1; }
+    fi
+fi
+VPN_IP=""
+ip_wait=0
+while [ -z "$VPN_IP" ] && [ $ip_wait -lt 100 ]; do
+    VPN_IP=$(ip -4 addr show dev "$VPN_IFACE" 2>/dev/null | grep inet | awk "{print \$2}" | cut -d/ -f1 | head -n 1)
+    [ -z "$VPN_IP" ] && sleep 0.1
+    ip_wait=$((ip_wait+1))
+done
+if [ -z "$VPN_IP" ]; then echo "Reload failed: no IP on $VPN_IFACE"; exit 1; fi
+echo "VPN interface $VPN_IFACE is up."
+OLD_VPN_IP=$(cat /tmp/wireup_vpn_ip 2>/dev/null)
+if [ "$NETWORK_MODE" = "host" ]; then
+    # The table's default route went away with the old interface
+    [ "$VPN_TYPE" = "openvpn" ] && ip route replace default dev "$VPN_IFACE" table "$ROUTE_TABLE"
+    if [ "$OLD_VPN_IP" != "$VPN_IP" ]; then
+        ip rule del from "$OLD_VPN_IP" lookup "$ROUTE_TABLE" priority 100 2>/dev/null
+        ip rule add from "$VPN_IP" lookup "$ROUTE_TABLE" priority 100
+    fi
+fi
+# The new config's DNS servers; restarting the interface also dropped their routes
+. /dns.sh
+setup_dns
+if [ "$NEW_ENDPOINT" = "true" ]; then
+    apply_mtu
+else
+    # Keep the MTU chosen at boot (probed or overridden)
+    ip link set dev "$VPN_IFACE" mtu "$(cat /tmp/wireup_mtu 2>/dev/null || echo 1200)"
+fi
+# Restart the SOCKS engine only if the tunnel address changed: Dante binds the
+# interface's address at startup, microsocks was given it with -b
+if [ "$OLD_VPN_IP" != "$VPN_IP" ]; then
+    if [ "$(cat /tmp/wireup_socks_engine 2>/dev/null)" = "microsocks" ]; then
+        SOCKS_LISTEN=0.0.0.0
+        [ "$NETWORK_MODE" = "host" ] && SOCKS_LISTEN=127.0.0.1
+        killall microsocks 2>/dev/null
+        while pidof microsocks > /dev/null; do sleep 0.1; done
+        microsocks -q -i "$SOCKS_LISTEN" -p "$SOCKS_PORT" -b "$VPN_IP" > /proc/1/fd/1 2>&1 &
+    else
+        killall sockd 2>/dev/null
+        while pidof sockd > /dev/null; do sleep 0.1; done
+        /usr/sbin/sockd -f /etc/danted.conf -D > /proc/1/fd/1 2>&1
+    fi
+    echo "$VPN_IP" > /tmp/wireup_vpn_ip
+fi
+echo "Reload complete: $VPN_IFACE $VPN_IP"
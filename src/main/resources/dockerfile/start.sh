@@ -0,0 +1,363 @@
+#!/bin/sh
+# WireUp container entrypoint: brings up the VPN tunnel, then the SOCKS5 engine
+# (WIREUP_SOCKS_ENGINE=dante or microsocks) on port 1080.
+# Shipped as a resource and COPY'd last, so editing it only rebuilds the final layer.
+#
+# WIREUP_BOOT_PROFILE=fast (default) keeps the critical path to tunnel up ->
+# SOCKS up -> ready; =diagnostic also runs /diagnose.sh and verbose SOCKS logging
+# before reporting ready. Each stage prints "WIREUP_STAGE <name> <ms>" for the host.
+#
+# WIREUP_NETWORK_MODE=host (Linux only) runs in the host's network namespace:
+# the tunnel interface WIREUP_IFACE gets its own routing table WIREUP_ROUTE_TABLE,
+# selected only for traffic sourced from the tunnel address, and the SOCKS engine listens
+# on 127.0.0.1:WIREUP_SOCKS_PORT. No docker-proxy hop, no NAT, and the host's
+# own routing is left alone.
+BOOT_PROFILE="${WIREUP_BOOT_PROFILE:-fast}"
+NETWORK_MODE="${WIREUP_NETWORK_MODE:-bridge}"
+SOCKS_PORT="${WIREUP_SOCKS_PORT:-1080}"
+SOCKS_ENGINE="${WIREUP_SOCKS_ENGINE:-dante}"
+
+now_ms() {
+    awk "{printf \"%d\", \$1 * 1000}" /proc/uptime
+}
+
+STAGE_START=$(now_ms)
+stage() {
+    _now=$(now_ms)
+    echo "WIREUP_STAGE $1 $((_now - STAGE_START))"
+    STAGE_START=$_now
+}
+
+echo "Starting WireUp VPN Adapter..."
+echo "WIREUP_PROFILE $BOOT_PROFILE"
+mkdir -p /dev/net
+if [ ! -c /dev/net/tun ]; then
+    mknod /dev/net/tun c 10 200
+fi
+
+if [ "$NETWORK_MODE" = "host" ]; then
+    VPN_IFACE="$WIREUP_IFACE"
+    ROUTE_TABLE="$WIREUP_ROUTE_TABLE"
+    # Everything this container adds to the host is keyed by its interface and
+    # table; also run at start in case a previous container was killed
+    host_cleanup() {
+        while ip rule del lookup "$ROUTE_TABLE" 2>/dev/null; do :; done
+        ip route flush table "$ROUTE_TABLE" 2>/dev/null
+        while iptables -t mangle -D POSTROUTING -o "$VPN_IFACE" -p tcp -j CHECKSUM --checksum-fill 2>/dev/null; do :; done
+        # The clamp value depends on the MTU probed by the container that added
+        # the rule, so find the rules by interface instead of matching it
+        iptables -t mangle -S POSTROUTING 2>/dev/null | grep -- "-o $VPN_IFACE " | grep -- "-j TCPMSS" \
+            | sed 's/^-A /-D /' | while read -r rule; do
+                # Unquoted: the listed rule is split back into arguments
+                iptables -t mangle $rule 2>/dev/null
+            done
+        ip link del "$VPN_IFACE" 2>/dev/null
+    }
+    host_cleanup
+    trap 'host_cleanup; exit 0' TERM INT
+    echo "Host network mode: interface $VPN_IFACE, table $ROUTE_TABLE, SOCKS on 127.0.0.1:$SOCKS_PORT"
+else
+    # Disable RP Filter to allow asymmetric routing
+    echo 0 > /proc/sys/net/ipv4/conf/all/rp_filter
+    echo 0 > /proc/sys/net/ipv4/conf/eth0/rp_filter
+fi
+
+# Concurrency profile: conntrack is a single table for the whole kernel, so
+# only ever raise it
+CONNTRACK_FILE=/proc/sys/net/netfilter/nf_conntrack_max
+if [ -n "$WIREUP_CONNTRACK_MAX" ] && [ -w "$CONNTRACK_FILE" ] \
+        && [ "$(cat "$CONNTRACK_FILE")" -lt "$WIREUP_CONNTRACK_MAX" ]; then
+    echo "$WIREUP_CONNTRACK_MAX" > "$CONNTRACK_FILE" && echo "Raised nf_conntrack_max to $WIREUP_CONNTRACK_MAX"
+fi
+echo "Limits: nofile $(ulimit -n), pids $(cat /sys/fs/cgroup/pids.max 2>/dev/null || cat /sys/fs/cgroup/pids/pids.max 2>/dev/null)"
+stage prepare
+
+# Standby containers (warm pool) stop here until a config is injected
+if [ "$WIREUP_STANDBY" = "1" ]; then
+    echo "Standby: waiting for config injection..."
+    while [ ! -f /etc/wireup/ready ]; do sleep 0.2; done
+    # Time spent idle in the pool is not boot time
+    STAGE_START=$(now_ms)
+    VPN_TYPE=$(cat /etc/wireup/vpn_type)
+    [ -f /etc/wireup/wg0.conf ] && cp /etc/wireup/wg0.conf /etc/wireguard/wg0.conf
+    [ -f /etc/wireup/client.conf ] && cp /etc/wireup/client.conf /etc/openvpn/client.conf
+    [ -f /etc/wireup/auth.txt ] && cp /etc/wireup/auth.txt /etc/openvpn/auth.txt
+    [ -f /etc/wireup/danted.conf ] && cp /etc/wireup/danted.conf /etc/danted.conf
+    [ -f /etc/wireup/socks_engine ] && SOCKS_ENGINE=$(cat /etc/wireup/socks_engine)
+    echo "Standby: config received ($VPN_TYPE)"
+fi
+
+# Path MTU: probed before the tunnel exists (shared with reload.sh)
+. /mtu.sh
+choose_mtu
+stage mtu
+
+# Select VPN Mode based on environment variable
+if [ "$VPN_TYPE" = "openvpn" ]; then
+    echo "Starting OpenVPN..."
+    echo "$OVPN_MSSFIX" > /tmp/wireup_mssfix
+    # Create TUN device
+    mkdir -p /dev/net
+    mknod /dev/net/tun c 10 200 || true
+    # Check if auth file exists and modify config
+    if [ -f /etc/openvpn/auth.txt ]; then
+        echo "Using authentication file"
+        sed -i "s/auth-user-pass$/auth-user-pass \/etc\/openvpn\/auth.txt/" /etc/openvpn/client.conf 2>/dev/null || true
+    fi
+    # Record the DNS servers pushed by the server for the resolver below
+    printf '#!/bin/sh\nenv | sed -n "s/^foreign_option_[0-9]*=dhcp-option DNS //p" > /tmp/wireup_pushed_dns.tmp\nmv /tmp/wireup_pushed_dns.tmp /tmp/wireup_pushed_dns\nexit 0\n' \
+        > /tmp/wireup-ovpn-up.sh
+    chmod +x /tmp/wireup-ovpn-up.sh
+    OVPN_UP="--script-security 2 --up /tmp/wireup-ovpn-up.sh"
+    # Start OpenVPN, exit if it fails
+    # Use mssfix to prevent fragmentation issues
+    # Daemonized so reload.sh can restart it; logs still go to the container output
+    if [ "$NETWORK_MODE" = "host" ]; then
+        # Pushed routes would change the host's routing; the table is filled below
+        openvpn --config /etc/openvpn/client.conf --dev "$VPN_IFACE" --dev-type tun --route-noexec \
+            --mssfix "$OVPN_MSSFIX" $OVPN_UP --daemon --log-append /proc/1/fd/1 || { echo "OpenVPN failed to start"; exit 1; }
+    else
+        openvpn --config /etc/openvpn/client.conf --mssfix "$OVPN_MSSFIX" $OVPN_UP --daemon --log-append /proc/1/fd/1 || { echo "OpenVPN failed to start"; exit 1; }
+        VPN_IFACE="tun0"
+    fi
+else
+    echo "Starting WireGuard..."
+    # wg-quick uses the in-kernel WireGuard when the host kernel has it (modules
+    # cannot be loaded from a container) and only otherwise starts the bundled
+    # userspace implementation
+    export WG_QUICK_USERSPACE_IMPLEMENTATION=wireguard-go
+    export WG_I_PREFER_BUGGY_USERSPACE_TO_POLISHED_KMOD=1
+    # Strip DNS from config to avoid resolvconf issues in Docker
+    if [ "$NETWORK_MODE" = "host" ]; then
+        # wg-quick names the interface after the file; Table keeps AllowedIPs
+        # routes out of the host's main table
+        grep -v -e "^DNS" -e "^Table" /etc/wireguard/wg0.conf \
+            | sed "/^\[Interface\]/a Table = $ROUTE_TABLE" > "/tmp/$VPN_IFACE.conf"
+        wg-quick up "/tmp/$VPN_IFACE.conf" || { echo "WireGuard failed to start"; exit 1; }
+    else
+        grep -v "^DNS" /etc/wireguard/wg0.conf > /tmp/wg0-nodns.conf || cp /etc/wireguard/wg0.conf /tmp/wg0-nodns.conf
+        wg-quick up /tmp/wg0-nodns.conf || { echo "WireGuard failed to start"; exit 1; }
+        VPN_IFACE="wg0-nodns"
+    fi
+fi
+
+# Wait for VPN interface to be created (10s, polled every 100ms)
+echo "Waiting for interface $VPN_IFACE..."
+timeout=100
+while ! ip link show "$VPN_IFACE" > /dev/null 2>&1; do
+    sleep 0.1
+    timeout=$((timeout-1))
+    if [ "$timeout" -eq 0 ]; then
+        echo "Timeout waiting for $VPN_IFACE";
+        /bin/sh /diagnose.sh
+        echo "Entering debug wait loop (container kept alive)...";
+        while true; do sleep 3600; done
+    fi
+done
+
+echo "VPN interface $VPN_IFACE is up."
+# Report which data plane carries the tunnel
+if [ "$VPN_TYPE" = "openvpn" ]; then
+    DATA_PLANE="openvpn"
+elif ip -d link show "$VPN_IFACE" | grep -q "wireguard"; then
+    DATA_PLANE="kernel"
+else
+    DATA_PLANE="wireguard-go"
+fi
+echo "WIREUP_DATAPLANE $DATA_PLANE"
+stage tunnel
+
+if [ "$NETWORK_MODE" != "host" ]; then
+    # Enable Source Port Routing with Dedicated Table
+    # Create table 100 for host traffic
+    ip route show table main | grep "dev eth0" | while read -r line; do
+        ip route add $line table 100
+    done
+    # Force SOCKS replies (port 1080) to use table 100
+    # Exempt local/LAN traffic from forcing table 100
+    ip rule add to 127.0.0.0/8 lookup main priority 80
+    ip rule add to 10.0.0.0/8 lookup main priority 81
+    ip rule add to 172.16.0.0/12 lookup main priority 82
+    ip rule add to 192.168.0.0/16 lookup main priority 83
+    ip rule add sport 1080 table 100 priority 90
+
+    # Enable Split Tunneling (Legacy/Backup)
+    ip rule add to 10.0.0.0/8 table main
+    ip rule add to 172.16.0.0/12 table main
+    ip rule add to 192.168.0.0/16 table main
+fi
+
+# Tunnel address for the SOCKS engine's outgoing side
+echo "Detecting VPN IP on $VPN_IFACE..."
+VPN_IP=""
+ip_wait=0
+while [ -z "$VPN_IP" ] && [ $ip_wait -lt 100 ]; do
+    VPN_IP=$(ip -4 addr show dev "$VPN_IFACE" | grep inet | awk "{print \$2}" | cut -d/ -f1 | head -n 1)
+    if [ -z "$VPN_IP" ]; then
+        sleep 0.1
+        ip_wait=$((ip_wait+1))
+    fi
+done
+if [ -z "$VPN_IP" ]; then echo "FATAL: Could not detect IP for $VPN_IFACE"; /bin/sh /diagnose.sh; sleep 3600; exit 1; fi
+echo "Detected VPN IP: $VPN_IP"
+echo "$VPN_IP" > /tmp/wireup_vpn_ip
+# reload.sh works on the same interface and port
+echo "$VPN_IFACE" > /tmp/wireup_iface
+echo "$SOCKS_PORT" > /tmp/wireup_socks_port
+if [ "$NETWORK_MODE" = "host" ]; then
+    # Only sockets bound to the tunnel address (the SOCKS engine's outgoing side) use the tunnel
+    [ "$VPN_TYPE" = "openvpn" ] && ip route add default dev "$VPN_IFACE" table "$ROUTE_TABLE"
+    ip rule add from "$VPN_IP" lookup "$ROUTE_TABLE" priority 100
+fi
+
+# WireGuard: wg-quick succeeds even if the peer never answers, so send a packet
+# into the tunnel to start the handshake and fail fast if none completes.
+# WIREUP_HANDSHAKE_TIMEOUT=0 skips the wait.
+HANDSHAKE_TIMEOUT="${WIREUP_HANDSHAKE_TIMEOUT:-10}"
+if [ "$VPN_TYPE" != "openvpn" ] && [ "$HANDSHAKE_TIMEOUT" -gt 0 ]; then
+    # Any address the peer routes will do; the catch-all routes have none of their own.
+    # IPv6 only when the peer routes no IPv4 at all
+    ALLOWED_IPS=$(wg show "$VPN_IFACE" allowed-ips | tr "\t " "\n\n")
+    HANDSHAKE_PING="ping"
+    HANDSHAKE_TARGET=$(echo "$ALLOWED_IPS" | grep -E "^[0-9.]+/[0-9]+$" | head -n 1 | cut -d/ -f1)
+    [ "$HANDSHAKE_TARGET" = "0.0.0.0" ] && HANDSHAKE_TARGET=1.1.1.1
+    if [ -z "$HANDSHAKE_TARGET" ]; then
+        HANDSHAKE_PING="ping -6"
+        HANDSHAKE_TARGET=$(echo "$ALLOWED_IPS" | grep -E "^[0-9a-fA-F:]+/[0-9]+$" | head -n 1 | cut -d/ -f1)
+        [ "$HANDSHAKE_TARGET" = "::" ] && HANDSHAKE_TARGET=2606:4700:4700::1111
+    fi
+    if [ -z "$HANDSHAKE_TARGET" ]; then
+        # Nothing to send into the tunnel; wg-quick's result has to do
+        echo "Warning: peer has no allowed IPs, not waiting for the WireGuard handshake"
+    else
+        # Unquoted: "ping -6" is split into arguments
+        $HANDSHAKE_PING -c 1 -W "$HANDSHAKE_TIMEOUT" -I "$VPN_IFACE" "$HANDSHAKE_TARGET" > /dev/null 2>&1 &
+        hs_wait=0
+        while ! wg show "$VPN_IFACE" latest-handshakes | awk "\$2 > 0 { found = 1 } END { exit !found }"; do
+            if [ $hs_wait -ge $((HANDSHAKE_TIMEOUT * 5)) ]; then
+                echo "FATAL: WireGuard handshake did not complete within ${HANDSHAKE_TIMEOUT}s"
+                /bin/sh /diagnose.sh; sleep 3600; exit 1
+            fi
+            sleep 0.2
+            hs_wait=$((hs_wait+1))
+        done
+        echo "WireGuard handshake completed"
+    fi
+    stage handshake
+fi
+
+# DNS: caching dnsmasq forwarding over the tunnel (shared with reload.sh)
+. /dns.sh
+setup_dns
+apply_mtu
+stage routing
+
+# Checksum offload: some host/kernel combinations hand TCP packets with
+# unfinished checksums to the tunnel ("UDP works, TCP fails"). Rather than
+# always paying for software checksums, try a TCP exchange through the tunnel
+# and escalate only as far as needed:
+#   none   - offloads on, no rule
+#   fill   - CHECKSUM --checksum-fill on TCP leaving through the tunnel
+#   legacy - fill on all TCP and eth0 offloads off (bridge mode only; in host
+#            mode the host NIC is never touched)
+# If no step passes the target is most likely filtered, which says nothing
+# about checksums: fill is kept and the policy is reported as inconclusive.
+# WIREUP_OFFLOAD_POLICY=none|fill|legacy skips the self-test.
+tcp_self_test() {
+    printf "HEAD / HTTP/1.0\r\nHost: %s\r\n\r\n" "$SELF_TEST_HOST" \
+        | nc -w 1 -s "$VPN_IP" "$SELF_TEST_HOST" "$SELF_TEST_PORT" 2>/dev/null | grep -q "^HTTP/"
+}
+
+apply_offload_policy() {
+    case "$1" in
+        fill)
+            iptables -t mangle -A POSTROUTING -o "$VPN_IFACE" -p tcp -j CHECKSUM --checksum-fill \
+                || echo "Warning: Checksum fill failed"
+            ;;
+        legacy)
+            if [ "$NETWORK_MODE" = "host" ]; then
+                apply_offload_policy fill
+            else
+                iptables -t mangle -D POSTROUTING -o "$VPN_IFACE" -p tcp -j CHECKSUM --checksum-fill 2>/dev/null
+                iptables -t mangle -A POSTROUTING -p tcp -j CHECKSUM --checksum-fill || echo "Warning: Checksum fill failed"
+                ethtool -K eth0 tx off rx off tso off gso off gro off > /dev/null 2>&1 \
+                    || echo "Warning: ethtool failed (interface might be virtual)"
+            fi
+            ;;
+    esac
+}
+
+reset_offload_policy() {
+    while iptables -t mangle -D POSTROUTING -o "$VPN_IFACE" -p tcp -j CHECKSUM --checksum-fill 2>/dev/null; do :; done
+    if [ "$NETWORK_MODE" != "host" ]; then
+        iptables -t mangle -D POSTROUTING -p tcp -j CHECKSUM --checksum-fill 2>/dev/null
+        ethtool -K eth0 tx on rx on tso on gso on gro on > /dev/null 2>&1
+    fi
+}
+
+SELF_TEST_HOST="${WIREUP_SELF_TEST_TARGET%:*}"
+SELF_TEST_HOST="${SELF_TEST_HOST:-1.1.1.1}"
+SELF_TEST_PORT=80
+case "$WIREUP_SELF_TEST_TARGET" in *:*) SELF_TEST_PORT="${WIREUP_SELF_TEST_TARGET##*:}" ;; esac
+if [ -n "$WIREUP_OFFLOAD_POLICY" ]; then
+    OFFLOAD_POLICY="$WIREUP_OFFLOAD_POLICY"
+    OFFLOAD_TEST="forced"
+    apply_offload_policy "$OFFLOAD_POLICY"
+else
+    OFFLOAD_STEPS="none fill legacy"
+    # legacy is the same as fill in host mode
+    [ "$NETWORK_MODE" = "host" ] && OFFLOAD_STEPS="none fill"
+    OFFLOAD_TEST="failed"
+    for OFFLOAD_POLICY in $OFFLOAD_STEPS; do
+        apply_offload_policy "$OFFLOAD_POLICY"
+        if tcp_self_test; then
+            OFFLOAD_TEST="passed"
+            break
+        fi
+    done
+    if [ "$OFFLOAD_TEST" = "failed" ]; then
+        reset_offload_policy
+        apply_offload_policy fill
+        OFFLOAD_POLICY="inconclusive"
+    fi
+fi
+echo "WIREUP_OFFLOAD $OFFLOAD_POLICY $OFFLOAD_TEST"
+echo "Checksum offload policy: $OFFLOAD_POLICY (self-test $OFFLOAD_TEST)"
+stage offload
+
+# Start SOCKS5 proxy and wait until it listens (port in hex, state 0A = LISTEN)
+# danted.conf is rendered per tunnel by the extension and mounted or injected;
+# microsocks takes its few settings on the command line
+echo "Starting SOCKS5 proxy ($SOCKS_ENGINE)..."
+echo "$SOCKS_ENGINE" > /tmp/wireup_socks_engine
+if [ "$SOCKS_ENGINE" = "microsocks" ]; then
+    SOCKS_LISTEN=0.0.0.0
+    [ "$NETWORK_MODE" = "host" ] && SOCKS_LISTEN=127.0.0.1
+    MICROSOCKS_QUIET="-q"
+    [ "$BOOT_PROFILE" = "diagnostic" ] && MICROSOCKS_QUIET=""
+    microsocks $MICROSOCKS_QUIET -i "$SOCKS_LISTEN" -p "$SOCKS_PORT" -b "$VPN_IP" &
+else
+    /usr/sbin/sockd -f /etc/danted.conf -D &
+fi
+SOCKS_HEX=$(printf "%04X" "$SOCKS_PORT")
+socks_wait=0
+while ! grep -q ":$SOCKS_HEX [0-9A-F]*:0000 0A" /proc/net/tcp && [ $socks_wait -lt 50 ]; do
+    sleep 0.1
+    socks_wait=$((socks_wait+1))
+done
+stage socks
+
+if [ "$BOOT_PROFILE" = "diagnostic" ]; then
+    /bin/sh /diagnose.sh
+    stage diagnostics
+fi
+
+echo "Container Ready ($BOOT_PROFILE boot)"
+echo "Waiting for traffic..."
+if [ "$NETWORK_MODE" = "host" ]; then
+    # Wait in the background so the TERM trap can remove the host state
+    tail -f /dev/null &
+    wait $!
+else
+    tail -f /var/log/sockd.log 2>/dev/null || tail -f /dev/null
+fi
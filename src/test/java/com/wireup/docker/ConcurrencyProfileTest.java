@@ -0,0 +1,103 @@
+package com.wireup.docker;
+
+import com.github.dockerjava.api.model.Ulimit;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConcurrencyProfileTest {
+
+    @Test
+    void standardKeepsThePreviousLimits() {
+        ConcurrencyProfile profile = ConcurrencyProfile.parse("standard");
+
+        assertEquals("standard", profile.getName());
+        assertEquals(ConcurrencyProfile.STANDARD_SESSIONS, profile.getSessions());
+        assertEquals(4096, profile.getNofile());
+        assertEquals(100, profile.getPidsLimit(SocksEngine.DANTE));
+        assertEquals(65536, profile.getConntrackMax());
+        assertEquals("1024", profile.getSysctls().get("net.core.somaxconn"));
+        assertEquals("1024 65535", profile.getSysctls().get("net.ipv4.ip_local_port_range"));
+    }
+
+    @Test
+    void highScalesEveryLimit() {
+        ConcurrencyProfile profile = ConcurrencyProfile.parse(" HIGH ");
+
+        assertEquals("high", profile.getName());
+        assertEquals(ConcurrencyProfile.HIGH_SESSIONS, profile.getSessions());
+        assertEquals(4096 * 4 + 1024, profile.getNofile());
+        assertEquals(4096 / 8 + 64, profile.getPidsLimit(SocksEngine.DANTE));
+        assertEquals(65536, profile.getConntrackMax());
+        assertEquals("4096", profile.getSysctls().get("net.core.somaxconn"));
+    }
+
+    @Test
+    void numericValueSetsTheSessionCount() {
+        ConcurrencyProfile profile = ConcurrencyProfile.parse("20000");
+
+        assertEquals("20000 sessions", profile.getName());
+        assertEquals(20000, profile.getSessions());
+        assertEquals(20000 * 4L + 1024, profile.getNofile());
+        assertEquals(20000 / 8 + 64, profile.getPidsLimit(SocksEngine.DANTE));
+        assertEquals(80000, profile.getConntrackMax());
+        assertEquals("20000", profile.getSysctls().get("net.core.somaxconn"));
+        assertTrue(profile.getEnv().contains("WIREUP_CONNTRACK_MAX=80000"));
+    }
+
+    @Test
+    void invalidValuesFallBackToStandard() {
+        assertEquals("standard", ConcurrencyProfile.parse("0").getName());
+        assertEquals("standard", ConcurrencyProfile.parse("-5").getName());
+        assertEquals("standard", ConcurrencyProfile.parse("lots").getName());
+    }
+
+    @Test
+    void microsocksGetsAThreadPerSession() {
+        ConcurrencyProfile standard = ConcurrencyProfile.parse("standard");
+        ConcurrencyProfile high = ConcurrencyProfile.parse("high");
+
+        assertTrue(standard.getPidsLimit(SocksEngine.MICROSOCKS) > standard.getSessions());
+        assertTrue(high.getPidsLimit(SocksEngine.MICROSOCKS) > high.getSessions());
+        // Standby containers may be claimed by either engine
+        assertEquals(standard.getPidsLimit(SocksEngine.MICROSOCKS), standard.getPidsLimit());
+    }
+
+    @Test
+    void nprocMatchesThePidsLimit() {
+        ConcurrencyProfile profile = ConcurrencyProfile.parse("high");
+        List<Ulimit> ulimits = profile.getUlimits(profile.getPidsLimit(SocksEngine.DANTE));
+
+        assertEquals(2, ulimits.size());
+        assertEquals("nofile", ulimits.get(0).getName());
+        assertEquals(profile.getNofile(), (long) ulimits.get(0).getSoft());
+        assertEquals(profile.getNofile(), (long) ulimits.get(0).getHard());
+        assertEquals("nproc", ulimits.get(1).getName());
+        assertEquals(profile.getPidsLimit(SocksEngine.DANTE), (long) ulimits.get(1).getSoft());
+    }
+
+    @Test
+    void standardDanteSettingsKeepDefaultTimeouts() {
+        List<String> settings = ConcurrencyProfile.parse("standard").getDanteSettings();
+
+        assertEquals(List.of("timeout.negotiate: 30", "timeout.connect: 30", "timeout.io: 86400"), settings);
+    }
+
+    @Test
+    void highDanteSettingsShortenTimeoutsAndRecycleChildren() {
+        List<String> settings = ConcurrencyProfile.parse("high").getDanteSettings();
+
+        assertEquals(List.of("child.maxrequests: 10000", "timeout.negotiate: 10", "timeout.connect: 15",
+                "timeout.io: 300", "timeout.tcp_fin_wait: 15"), settings);
+    }
+
+    @Test
+    void numericDanteSettingsSwitchAboveStandard() {
+        assertFalse(ConcurrencyProfile.parse("256").getDanteSettings().contains("timeout.io: 300"));
+        assertTrue(ConcurrencyProfile.parse("257").getDanteSettings().contains("timeout.io: 300"));
+    }
+}
@@ -0,0 +1,55 @@
+package com.wireup.docker;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DanteConfigTest {
+
+    @Test
+    void rendersListenAddressAndInterface() throws Exception {
+        String config = new DanteConfig()
+                .internal("127.0.0.1", 41001)
+                .external("wg-tun1")
+                .render();
+
+        assertTrue(config.contains("internal: 127.0.0.1 port = 41001\n"));
+        assertTrue(config.contains("external: wg-tun1\n"));
+        assertTrue(config.contains("log: error\n"));
+        for (String line : config.split("\n")) {
+            assertFalse(!line.startsWith("#") && line.contains("{{"), "unfilled placeholder: " + line);
+        }
+        assertFalse(config.contains("Concurrency profile"));
+    }
+
+    @Test
+    void defaultsToAllInterfacesOnPort1080() throws Exception {
+        String config = new DanteConfig().external("wg0").render();
+
+        assertTrue(config.contains("internal: 0.0.0.0 port = 1080\n"));
+    }
+
+    @Test
+    void verboseLogsConnects() throws Exception {
+        String config = new DanteConfig().external("tun0").verbose(true).render();
+
+        assertTrue(config.contains("log: connect disconnect error\n"));
+        assertFalse(config.contains("log: error\n"));
+    }
+
+    @Test
+    void includesTheProfileSettings() throws Exception {
+        String config = new DanteConfig()
+                .external("wg0")
+                .profile(ConcurrencyProfile.parse("high"))
+                .render();
+
+        assertTrue(config.contains("# Concurrency profile: high\n"));
+        for (String setting : ConcurrencyProfile.parse("high").getDanteSettings()) {
+            assertTrue(config.contains("\n" + setting + "\n"), setting);
+        }
+        // Settings come before the rules, as danted.conf requires
+        assertTrue(config.indexOf("timeout.io: 300") < config.indexOf("client pass {"));
+    }
+}
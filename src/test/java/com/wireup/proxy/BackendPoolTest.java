@@ -0,0 +1,142 @@
+package com.wireup.proxy;
+
+import com.wireup.utils.NullLogger;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BackendPoolTest {
+
+    private static final long SECOND = 1000;
+
+    private BackendPool pool;
+
+    @BeforeEach
+    void createPool() {
+        pool = new BackendPool(new NullLogger(), new BalancingPolicy.RoundRobin());
+    }
+
+    @Test
+    void ejectsAfterThreeConsecutiveFailures() {
+        Backend backend = new Backend("a", new InetSocketAddress("127.0.0.1", 41001));
+
+        assertFalse(backend.recordFailure(0));
+        assertFalse(backend.recordFailure(0));
+        assertTrue(backend.isAvailable(0));
+        assertTrue(backend.recordFailure(0));
+        assertFalse(backend.isAvailable(0));
+        assertTrue(backend.isEjected(5 * SECOND - 1));
+        assertTrue(backend.isAvailable(5 * SECOND));
+        assertEquals(3, backend.getTotalFailures());
+    }
+
+    @Test
+    void successResetsTheFailureCount() {
+        Backend backend = new Backend("a", new InetSocketAddress("127.0.0.1", 41001));
+        backend.recordFailure(0);
+        backend.recordFailure(0);
+        backend.recordSuccess(1_000_000);
+
+        assertFalse(backend.recordFailure(0));
+        assertFalse(backend.recordFailure(0));
+        assertTrue(backend.recordFailure(0));
+    }
+
+    @Test
+    void backoffDoublesUpToOneMinute() {
+        Backend backend = new Backend("a", new InetSocketAddress("127.0.0.1", 41001));
+        backend.recordFailure(0);
+        backend.recordFailure(0);
+
+        long[] expected = {5, 10, 20, 40, 60, 60, 60};
+        for (long seconds : expected) {
+            // Fails again as soon as it returns
+            assertTrue(backend.recordFailure(0));
+            assertTrue(backend.isEjected(seconds * SECOND - 1), seconds + "s");
+            assertFalse(backend.isEjected(seconds * SECOND), seconds + "s");
+        }
+    }
+
+    @Test
+    void selectSkipsEjectedAndExcludedBackends() {
+        pool.put("a", "127.0.0.1", 41001);
+        pool.put("b", "127.0.0.1", 41002);
+        Backend a = pool.get("a");
+        Backend b = pool.get("b");
+        for (int i = 0; i < 3; i++) {
+            pool.reportFailure(a, "connection refused");
+        }
+
+        for (int i = 0; i < 4; i++) {
+            assertSame(b, pool.select("example.com", Collections.emptyList()));
+        }
+        // With the only available backend already tried, the ejected one is the last resort
+        assertSame(a, pool.select("example.com", List.of(b)));
+        assertNull(pool.select("example.com", List.of(a, b)));
+    }
+
+    @Test
+    void allEjectedBackendsAreStillTried() {
+        pool.put("a", "127.0.0.1", 41001);
+        pool.put("b", "127.0.0.1", 41002);
+        for (Backend backend : pool.getBackends()) {
+            for (int i = 0; i < 3; i++) {
+                pool.reportFailure(backend, "handshake timeout");
+            }
+        }
+
+        Backend first = pool.select("example.com", Collections.emptyList());
+        Backend second = pool.select("example.com", Collections.emptyList());
+        assertNotSame(first, second);
+    }
+
+    @Test
+    void putReplacesOnlyWhenThePortChanges() {
+        pool.put("a", "127.0.0.1", 41001);
+        Backend original = pool.get("a");
+        original.connectionOpened();
+
+        pool.put("a", "127.0.0.1", 41001);
+        assertSame(original, pool.get("a"));
+
+        pool.put("a", "127.0.0.1", 41005);
+        assertNotSame(original, pool.get("a"));
+        assertEquals(41005, pool.get("a").getAddress().getPort());
+        assertEquals(1, pool.getBackends().size());
+    }
+
+    @Test
+    void removedBackendIsNoLongerSelected() {
+        pool.put("a", "127.0.0.1", 41001);
+        Backend a = pool.get("a");
+        pool.remove("a");
+
+        assertFalse(a.isEnabled());
+        assertNull(pool.get("a"));
+        assertNull(pool.select("example.com", Collections.emptyList()));
+        assertNull(pool.selectTunnel("a", Collections.emptyList()));
+    }
+
+    @Test
+    void selectTunnelIgnoresEjection() {
+        pool.put("a", "127.0.0.1", 41001);
+        Backend a = pool.get("a");
+        for (int i = 0; i < 3; i++) {
+            pool.reportFailure(a, "connection refused");
+        }
+
+        assertSame(a, pool.selectTunnel("a", Collections.emptyList()));
+        assertNull(pool.selectTunnel("a", List.of(a)));
+        assertNull(pool.selectTunnel("b", Collections.emptyList()));
+    }
+}
@@ -0,0 +1,110 @@
+package com.wireup.proxy;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BalancingPolicyTest {
+
+    private static List<Backend> backends(String... names) {
+        List<Backend> backends = new ArrayList<>();
+        for (int i = 0; i < names.length; i++) {
+            backends.add(new Backend(names[i], new InetSocketAddress("127.0.0.1", 41001 + i)));
+        }
+        return backends;
+    }
+
+    @Test
+    void forNameFallsBackToRoundRobin() {
+        assertInstanceOf(BalancingPolicy.LeastConnections.class, BalancingPolicy.forName("Least-Connections"));
+        assertInstanceOf(BalancingPolicy.LowestRtt.class, BalancingPolicy.forName("lowest-rtt"));
+        assertInstanceOf(BalancingPolicy.StickyHost.class, BalancingPolicy.forName("sticky-host"));
+        assertInstanceOf(BalancingPolicy.RoundRobin.class, BalancingPolicy.forName("random"));
+        assertInstanceOf(BalancingPolicy.RoundRobin.class, BalancingPolicy.forName(null));
+        assertEquals("lowest-rtt", BalancingPolicy.forName("lowest-rtt").toString());
+    }
+
+    @Test
+    void roundRobinCyclesThroughCandidates() {
+        List<Backend> backends = backends("a", "b", "c");
+        BalancingPolicy policy = new BalancingPolicy.RoundRobin();
+
+        StringBuilder order = new StringBuilder();
+        for (int i = 0; i < 7; i++) {
+            order.append(policy.select(backends, "example.com").getName());
+        }
+        assertEquals("abcabca", order.toString());
+    }
+
+    @Test
+    void leastConnectionsPicksTheIdlestBackend() {
+        List<Backend> backends = backends("a", "b", "c");
+        backends.get(0).connectionOpened();
+        backends.get(0).connectionOpened();
+        backends.get(1).connectionOpened();
+        backends.get(2).connectionOpened();
+        BalancingPolicy policy = new BalancingPolicy.LeastConnections();
+
+        // Ties go to the first candidate
+        assertSame(backends.get(1), policy.select(backends, "example.com"));
+
+        backends.get(1).connectionOpened();
+        assertSame(backends.get(2), policy.select(backends, "example.com"));
+    }
+
+    @Test
+    void lowestRttTriesUnmeasuredBackendsFirst() {
+        List<Backend> backends = backends("a", "b", "c");
+        backends.get(0).recordSuccess(30_000_000);
+        backends.get(1).recordSuccess(10_000_000);
+        BalancingPolicy policy = new BalancingPolicy.LowestRtt();
+
+        assertSame(backends.get(2), policy.select(backends, "example.com"));
+
+        backends.get(2).recordSuccess(20_000_000);
+        assertSame(backends.get(1), policy.select(backends, "example.com"));
+    }
+
+    @Test
+    void rttIsSmoothed() {
+        Backend backend = backends("a").get(0);
+        backend.recordSuccess(80_000_000);
+        backend.recordSuccess(0);
+
+        assertEquals(70_000_000, backend.getRttNanos());
+    }
+
+    @Test
+    void stickyHostKeepsEachHostOnOneBackend() {
+        List<Backend> backends = backends("a", "b", "c");
+        BalancingPolicy policy = new BalancingPolicy.StickyHost();
+
+        Map<String, Backend> chosen = new HashMap<>();
+        for (int i = 0; i < 300; i++) {
+            String host = "host-" + i + ".example.com";
+            chosen.put(host, policy.select(backends, host));
+            assertSame(chosen.get(host), policy.select(backends, host.toUpperCase()));
+        }
+        // Every backend gets a share of the hosts
+        for (Backend backend : backends) {
+            assertTrue(chosen.containsValue(backend), backend.getName());
+        }
+
+        // Removing a backend only moves the hosts that were on it
+        List<Backend> remaining = backends.subList(0, 2);
+        for (Map.Entry<String, Backend> entry : chosen.entrySet()) {
+            if (entry.getValue() != backends.get(2)) {
+                assertSame(entry.getValue(), policy.select(remaining, entry.getKey()), entry.getKey());
+            }
+        }
+    }
+}
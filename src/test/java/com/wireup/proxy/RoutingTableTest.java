@@ -0,0 +1,275 @@
+package com.wireup.proxy;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BiPredicate;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RoutingTableTest {
+
+    private static RoutingTable table(String rules) throws Exception {
+        return new RoutingTable(RoutingTable.parseRules(rules), null);
+    }
+
+    private static String route(RoutingTable table, String host, int port) {
+        return table.route(host, port).toString();
+    }
+
+    // --- Host rules ---
+
+    @Test
+    void exactNameMatchesOnlyItself() throws Exception {
+        RoutingTable table = table("example.com a");
+
+        assertEquals("tunnel a", route(table, "example.com", 443));
+        assertEquals("balance", route(table, "www.example.com", 443));
+        assertEquals("balance", route(table, "badexample.com", 443));
+    }
+
+    @Test
+    void wildcardMatchesOnlySubdomains() throws Exception {
+        RoutingTable table = table("*.example.com a");
+
+        assertEquals("balance", route(table, "example.com", 443));
+        assertEquals("tunnel a", route(table, "www.example.com", 443));
+        assertEquals("tunnel a", route(table, "a.b.example.com", 443));
+    }
+
+    @Test
+    void leadingDotMatchesNameAndSubdomains() throws Exception {
+        RoutingTable table = table(".example.com a");
+
+        assertEquals("tunnel a", route(table, "example.com", 443));
+        assertEquals("tunnel a", route(table, "www.example.com", 443));
+        assertEquals("balance", route(table, "example.org", 443));
+    }
+
+    @Test
+    void deepestHostMatchWins() throws Exception {
+        RoutingTable table = table(String.join("\n",
+                ".example.com a",
+                "*.api.example.com b",
+                "v2.api.example.com c"));
+
+        assertEquals("tunnel a", route(table, "api.example.com", 443));
+        assertEquals("tunnel b", route(table, "v1.api.example.com", 443));
+        assertEquals("tunnel c", route(table, "v2.api.example.com", 443));
+        assertEquals("tunnel b", route(table, "x.v2.api.example.com", 443));
+    }
+
+    @Test
+    void portFilteredMissFallsBackToParentRule() throws Exception {
+        RoutingTable table = table(String.join("\n",
+                ".example.com a",
+                "*.api.example.com 80,8000-8100 b"));
+
+        assertEquals("tunnel b", route(table, "v1.api.example.com", 80));
+        assertEquals("tunnel b", route(table, "v1.api.example.com", 8050));
+        assertEquals("tunnel a", route(table, "v1.api.example.com", 443));
+        assertEquals("tunnel a", route(table, "v1.api.example.com", 8101));
+    }
+
+    @Test
+    void firstListedRuleWinsForTheSameMatch() throws Exception {
+        RoutingTable table = table(String.join("\n",
+                "example.com 443 a",
+                "example.com b",
+                "example.com c"));
+
+        assertEquals("tunnel a", route(table, "example.com", 443));
+        assertEquals("tunnel b", route(table, "example.com", 80));
+    }
+
+    @Test
+    void namesAreCaseInsensitiveAndIgnoreTrailingDot() throws Exception {
+        RoutingTable table = table("*.Corp.LAN. direct");
+
+        assertEquals("direct", route(table, "Intranet.corp.lan", 80));
+        assertEquals("direct", route(table, "intranet.corp.lan.", 80));
+    }
+
+    // --- CIDR rules ---
+
+    @Test
+    void longestPrefixWins() throws Exception {
+        RoutingTable table = table(String.join("\n",
+                "10.0.0.0/8 a",
+                "10.1.0.0/16 b",
+                "10.1.2.3 block",
+                "0.0.0.0/0 direct"));
+
+        assertEquals("tunnel a", route(table, "10.2.3.4", 80));
+        assertEquals("tunnel b", route(table, "10.1.9.9", 80));
+        assertEquals("block", route(table, "10.1.2.3", 80));
+        assertEquals("direct", route(table, "192.0.2.1", 80));
+    }
+
+    @Test
+    void cidrPortMissFallsBackToShorterPrefix() throws Exception {
+        RoutingTable table = table(String.join("\n",
+                "10.0.0.0/8 a",
+                "10.1.0.0/16 22 b"));
+
+        assertEquals("tunnel b", route(table, "10.1.0.5", 22));
+        assertEquals("tunnel a", route(table, "10.1.0.5", 443));
+    }
+
+    @Test
+    void ipv6RulesMatchIpv6Literals() throws Exception {
+        RoutingTable table = table(String.join("\n",
+                "2001:db8::/32 a",
+                "[2001:db8:1::]/48 b",
+                "::1 direct"));
+
+        assertEquals("tunnel a", route(table, "2001:db8:ffff::1", 443));
+        assertEquals("tunnel b", route(table, "2001:db8:1::42", 443));
+        assertEquals("tunnel b", route(table, "[2001:db8:1::42]", 443));
+        assertEquals("direct", route(table, "0:0:0:0:0:0:0:1", 443));
+        assertEquals("balance", route(table, "2001:db9::1", 443));
+    }
+
+    @Test
+    void familiesDoNotMix() throws Exception {
+        RoutingTable table = table("0.0.0.0/0 a");
+
+        assertEquals("tunnel a", route(table, "198.51.100.7", 80));
+        assertEquals("balance", route(table, "2001:db8::1", 80));
+    }
+
+    @Test
+    void hostRulesDoNotMatchAddressesAndViceVersa() throws Exception {
+        RoutingTable table = table(String.join("\n",
+                "*.0.0.10 a",
+                "10.0.0.0/8 b"));
+
+        assertEquals("tunnel b", route(table, "10.0.0.1", 80));
+        assertEquals("tunnel a", route(table, "host.0.0.10", 80));
+    }
+
+    @Test
+    void ipv4LiteralWithTrailingDotIsAnAddress() throws Exception {
+        RoutingTable table = table("10.0.0.0/8 a");
+
+        assertEquals("tunnel a", route(table, "10.20.30.40.", 80));
+    }
+
+    // --- scope and * ---
+
+    @Test
+    void specificRulesBeatScopeAndScopeBeatsAny() throws Exception {
+        BiPredicate<String, Integer> scope = (host, port) -> host.endsWith(".target.com");
+        RoutingTable table = new RoutingTable(RoutingTable.parseRules(String.join("\n",
+                "* direct",
+                "scope pentest",
+                "admin.target.com block")), scope);
+
+        assertEquals("block", route(table, "admin.target.com", 443));
+        assertEquals("tunnel pentest", route(table, "www.target.com", 443));
+        assertEquals("direct", route(table, "example.org", 443));
+    }
+
+    @Test
+    void scopeRulesAreSkippedWithoutBurpScope() throws Exception {
+        RoutingTable table = table(String.join("\n",
+                "scope pentest",
+                "* 443 a"));
+
+        assertEquals("tunnel a", route(table, "www.target.com", 443));
+        assertEquals("balance", route(table, "www.target.com", 80));
+    }
+
+    @Test
+    void emptyTableBalances() {
+        assertSame(Route.BALANCE, RoutingTable.EMPTY.route("example.com", 443));
+        assertNull(RoutingTable.EMPTY.match("example.com", 443));
+        assertNull(new RoutingTable(Collections.emptyList(), null).match("10.0.0.1", 22));
+    }
+
+    // --- Parsing ---
+
+    @Test
+    void parsesCommentsAndBlankLines() throws Exception {
+        List<RoutingRule> rules = RoutingTable.parseRules(String.join("\r\n",
+                "# office",
+                "",
+                "   ",
+                "10.0.0.0/8   office   # VPN",
+                "scope pentest"));
+
+        assertEquals(2, rules.size());
+        assertEquals(RoutingRule.Kind.CIDR, rules.get(0).getKind());
+        assertEquals("10.0.0.0/8   office", rules.get(0).toString());
+        assertEquals(RoutingRule.Kind.SCOPE, rules.get(1).getKind());
+    }
+
+    @Test
+    void parsesRuleKinds() throws Exception {
+        assertEquals(RoutingRule.Kind.HOST, RoutingRule.parse("example.com a").getKind());
+        assertEquals(RoutingRule.Kind.HOST_SUFFIX, RoutingRule.parse("*.example.com a").getKind());
+        assertEquals(RoutingRule.Kind.HOST_AND_SUBDOMAINS, RoutingRule.parse(".example.com a").getKind());
+        assertEquals(RoutingRule.Kind.CIDR, RoutingRule.parse("192.168.56.10 block").getKind());
+        assertEquals(32, RoutingRule.parse("192.168.56.10 block").getPrefixLength());
+        assertEquals(128, RoutingRule.parse("::1 block").getPrefixLength());
+        assertEquals(RoutingRule.Kind.ANY, RoutingRule.parse("* balance").getKind());
+    }
+
+    @Test
+    void parsesAddressLiterals() {
+        assertArrayEquals(new byte[] {10, 0, 0, 1}, RoutingRule.parseAddress("10.0.0.1"));
+        assertArrayEquals(new byte[] {(byte) 255, 0, 0, 0}, RoutingRule.parseAddress("255.0.0.0"));
+        assertEquals(16, RoutingRule.parseAddress("2001:db8::1").length);
+        assertEquals(16, RoutingRule.parseAddress("[2001:db8::1]").length);
+
+        assertNull(RoutingRule.parseAddress("256.0.0.1"));
+        assertNull(RoutingRule.parseAddress("10.0.0"));
+        assertNull(RoutingRule.parseAddress("10.0.0.1.5"));
+        assertNull(RoutingRule.parseAddress("10..0.1"));
+        assertNull(RoutingRule.parseAddress("example.com"));
+        assertNull(RoutingRule.parseAddress("host:8080x"));
+        assertNull(RoutingRule.parseAddress("2001:db8::zz"));
+    }
+
+    @Test
+    void rejectsInvalidPorts() throws Exception {
+        assertTrue(assertThrows(Exception.class, () -> RoutingRule.parse("example.com 0 a"))
+                .getMessage().contains("Invalid port range"));
+        assertTrue(assertThrows(Exception.class, () -> RoutingRule.parse("example.com 65536 a"))
+                .getMessage().contains("Invalid port range"));
+        assertTrue(assertThrows(Exception.class, () -> RoutingRule.parse("example.com 9000-8000 a"))
+                .getMessage().contains("Invalid port range"));
+        assertTrue(assertThrows(Exception.class, () -> RoutingRule.parse("example.com http a"))
+                .getMessage().contains("Invalid port"));
+        assertTrue(RoutingRule.parse("example.com 1-65535 a").matchesPort(65535));
+    }
+
+    @Test
+    void rejectsInvalidMatches() {
+        assertThrows(Exception.class, () -> RoutingRule.parse("10.0.0.0/33 a"));
+        assertThrows(Exception.class, () -> RoutingRule.parse("10.0.0.0/x a"));
+        assertThrows(Exception.class, () -> RoutingRule.parse("::/129 a"));
+        assertThrows(Exception.class, () -> RoutingRule.parse("example.com/24 a"));
+        assertThrows(Exception.class, () -> RoutingRule.parse("exa mple.com 80 a b"));
+        assertThrows(Exception.class, () -> RoutingRule.parse("ex!ample.com a"));
+        assertThrows(Exception.class, () -> RoutingRule.parse("example.com"));
+        assertThrows(Exception.class, () -> RoutingRule.parse("example.com bad/tunnel"));
+    }
+
+    @Test
+    void parseErrorsNameTheLine() {
+        Exception error = assertThrows(Exception.class, () -> RoutingTable.parseRules(String.join("\n",
+                "# comment",
+                "example.com a",
+                "",
+                "10.0.0.0/40 b")));
+
+        assertEquals("Line 4: Invalid prefix length: 10.0.0.0/40", error.getMessage());
+    }
+}
@@ -0,0 +1,218 @@
+package com.wireup.proxy;
+
+import com.wireup.utils.NullLogger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SocksFrontProxyTest {
+
+    private static final int SESSIONS = 200;
+
+    private final List<EchoSocksServer> backends = new ArrayList<>();
+    private SocksFrontProxy proxy;
+
+    @BeforeEach
+    void startProxy() throws IOException {
+        proxy = new SocksFrontProxy(new NullLogger(), new BalancingPolicy.RoundRobin(), 2);
+        proxy.start(0);
+    }
+
+    @AfterEach
+    void stopProxy() {
+        proxy.stop();
+        for (EchoSocksServer backend : backends) {
+            backend.close();
+        }
+    }
+
+    @Test
+    void carriesConcurrentSessions() throws Exception {
+        addBackend("a");
+        addBackend("b");
+
+        List<Socket> clients = new ArrayList<>();
+        try {
+            // All sessions are established before any of them is closed
+            for (int i = 0; i < SESSIONS; i++) {
+                clients.add(connect("target-" + i + ".example", 80));
+            }
+            waitFor(() -> proxy.getActiveSessions() == SESSIONS);
+            assertEquals(SESSIONS, proxy.getActiveSessions());
+            assertEquals(SESSIONS / 2, proxy.getBackendPool().get("a").getActiveConnections());
+            assertEquals(SESSIONS / 2, proxy.getBackendPool().get("b").getActiveConnections());
+
+            for (int i = 0; i < SESSIONS; i++) {
+                byte[] message = ("session " + i + "\n").getBytes(StandardCharsets.US_ASCII);
+                clients.get(i).getOutputStream().write(message);
+            }
+            for (int i = 0; i < SESSIONS; i++) {
+                byte[] expected = ("session " + i + "\n").getBytes(StandardCharsets.US_ASCII);
+                byte[] echoed = new byte[expected.length];
+                new DataInputStream(clients.get(i).getInputStream()).readFully(echoed);
+                assertArrayEquals(expected, echoed);
+            }
+        } finally {
+            for (Socket client : clients) {
+                client.close();
+            }
+        }
+
+        waitFor(() -> proxy.getActiveSessions() == 0);
+        assertEquals(0, proxy.getActiveSessions());
+        assertEquals(SESSIONS, proxy.getTotalSessions());
+        assertEquals(0, proxy.getFailedSessions());
+        assertEquals(0, proxy.getBuffersInUse());
+    }
+
+    @Test
+    void failsOverToTheNextBackend() throws Exception {
+        // Nothing listens on the first backend's port
+        int closedPort;
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            closedPort = socket.getLocalPort();
+        }
+        proxy.getBackendPool().put("dead", "127.0.0.1", closedPort);
+        addBackend("live");
+
+        for (int i = 0; i < 4; i++) {
+            try (Socket client = connect("example.com", 443)) {
+                client.getOutputStream().write(new byte[] {42});
+                assertEquals(42, client.getInputStream().read());
+            }
+        }
+        assertEquals(0, proxy.getFailedSessions());
+        assertEquals(4, proxy.getBackendPool().get("live").getTotalConnections());
+    }
+
+    private void addBackend(String name) throws IOException {
+        EchoSocksServer backend = new EchoSocksServer();
+        backends.add(backend);
+        proxy.getBackendPool().put(name, "127.0.0.1", backend.getPort());
+    }
+
+    /**
+     * Open a SOCKS5 CONNECT session through the proxy
+     */
+    private Socket connect(String host, int port) throws IOException {
+        Socket socket = new Socket(SocksFrontProxy.BIND_HOST, proxy.getPort());
+        socket.setSoTimeout(10000);
+        OutputStream out = socket.getOutputStream();
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+
+        out.write(new byte[] {0x05, 0x01, 0x00});
+        byte[] method = new byte[2];
+        in.readFully(method);
+        assertArrayEquals(new byte[] {0x05, 0x00}, method);
+
+        byte[] name = host.getBytes(StandardCharsets.US_ASCII);
+        byte[] request = new byte[7 + name.length];
+        request[0] = 0x05;
+        request[1] = 0x01;
+        request[3] = 0x03;
+        request[4] = (byte) name.length;
+        System.arraycopy(name, 0, request, 5, name.length);
+        request[request.length - 2] = (byte) (port >> 8);
+        request[request.length - 1] = (byte) port;
+        out.write(request);
+
+        byte[] reply = new byte[10];
+        in.readFully(reply);
+        assertEquals(0x00, reply[1], "CONNECT reply " + Arrays.toString(reply));
+        return socket;
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Minimal SOCKS5 server standing in for a tunnel container: accepts any
+     * CONNECT and echoes the relayed bytes back
+     */
+    private static class EchoSocksServer {
+        private final ServerSocket server;
+        private final ExecutorService threads = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "EchoSocks");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        EchoSocksServer() throws IOException {
+            server = new ServerSocket(0, SESSIONS, InetAddress.getLoopbackAddress());
+            threads.execute(this::acceptLoop);
+        }
+
+        int getPort() {
+            return server.getLocalPort();
+        }
+
+        private void acceptLoop() {
+            while (!server.isClosed()) {
+                try {
+                    Socket socket = server.accept();
+                    threads.execute(() -> serve(socket));
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }
+
+        private void serve(Socket socket) {
+            try (Socket s = socket) {
+                DataInputStream in = new DataInputStream(s.getInputStream());
+                OutputStream out = s.getOutputStream();
+
+                byte[] greeting = new byte[2];
+                in.readFully(greeting);
+                in.readFully(new byte[greeting[1]]);
+                out.write(new byte[] {0x05, 0x00});
+
+                byte[] header = new byte[4];
+                in.readFully(header);
+                int addressLength = header[3] == 0x01 ? 4 : header[3] == 0x04 ? 16 : in.readUnsignedByte();
+                in.readFully(new byte[addressLength + 2]);
+                out.write(new byte[] {0x05, 0x00, 0x00, 0x01, 0, 0, 0, 0, 0, 0});
+
+                InputStream relay = s.getInputStream();
+                byte[] buffer = new byte[4096];
+                int read;
+                while ((read = relay.read(buffer)) > 0) {
+                    out.write(buffer, 0, read);
+                }
+            } catch (IOException e) {
+                // Client went away
+            }
+        }
+
+        void close() {
+            try {
+                server.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+            threads.shutdownNow();
+        }
+    }
+}
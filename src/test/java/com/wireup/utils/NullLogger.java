@@ -0,0 +1,31 @@
+package com.wireup.utils;
+
+/**
+ * Logger for tests that discards everything
+ */
+public class NullLogger implements VpnLogger {
+
+    @Override
+    public void debug(String message) {
+    }
+
+    @Override
+    public void info(String message) {
+    }
+
+    @Override
+    public void warn(String message) {
+    }
+
+    @Override
+    public void error(String message) {
+    }
+
+    @Override
+    public void error(String message, Throwable throwable) {
+    }
+
+    @Override
+    public void securityInfo(String message) {
+    }
+}
@@ -0,0 +1,222 @@
+package com.wireup.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.fail;
+
+class TelemetryStoreTest {
+
+    private static final long SECOND = 1_000L;
+    private static final long MINUTE = 60_000L;
+    private static final long QUARTER_HOUR = 900_000L;
+
+    @Test
+    void emptyStoreReadsNothing() {
+        TelemetryStore store = new TelemetryStore("a", "b");
+
+        assertEquals(0, store.read(TelemetryStore.Resolution.SECOND, 0, 10).length);
+        assertEquals(0, store.latest(0));
+        assertEquals(0, store.getCount(TelemetryStore.Resolution.SECOND));
+    }
+
+    @Test
+    void readsOldestFirstWithTimes() {
+        TelemetryStore store = new TelemetryStore(new String[] {"a", "b"}, 10, 10, 10);
+        for (int i = 0; i < 5; i++) {
+            store.record(i * SECOND, new double[] {i, -i});
+        }
+
+        long[] times = new long[5];
+        double[] values = new double[5];
+        assertEquals(5, store.read(TelemetryStore.Resolution.SECOND, 1, false, times, values));
+        assertArrayEquals(new double[] {0, -1, -2, -3, -4}, values);
+        assertArrayEquals(new long[] {0, 1000, 2000, 3000, 4000}, times);
+        assertEquals(4, store.latest(0));
+        assertEquals(1, store.indexOf("b"));
+        assertThrows(IllegalArgumentException.class, () -> store.indexOf("c"));
+    }
+
+    @Test
+    void wrapsAroundKeepingTheNewestCapacityMinusOne() {
+        TelemetryStore store = new TelemetryStore(new String[] {"a"}, 8, 8, 8);
+        for (int i = 0; i < 21; i++) {
+            store.record(i * SECOND, new double[] {i});
+        }
+
+        // The slot after the newest may be mid-write, so one is never read
+        double[] values = store.read(TelemetryStore.Resolution.SECOND, 0, 100);
+        assertArrayEquals(new double[] {14, 15, 16, 17, 18, 19, 20}, values);
+        assertArrayEquals(new double[] {18, 19, 20}, store.read(TelemetryStore.Resolution.SECOND, 0, 3));
+        assertEquals(21, store.getCount(TelemetryStore.Resolution.SECOND));
+        assertEquals(20, store.latest(0));
+    }
+
+    @Test
+    void timesArrayLimitsTheRead() {
+        TelemetryStore store = new TelemetryStore(new String[] {"a"}, 8, 8, 8);
+        for (int i = 0; i < 5; i++) {
+            store.record(i * SECOND, new double[] {i});
+        }
+
+        long[] times = new long[2];
+        double[] values = new double[5];
+        assertEquals(2, store.read(TelemetryStore.Resolution.SECOND, 0, false, times, values));
+        assertEquals(3, values[0]);
+        assertEquals(4, values[1]);
+        assertArrayEquals(new long[] {3000, 4000}, times);
+    }
+
+    @Test
+    void unfinishedMinuteIsNotIncluded() {
+        TelemetryStore store = new TelemetryStore("a");
+        for (int i = 0; i < 59; i++) {
+            store.record(i * SECOND, new double[] {1});
+        }
+
+        assertEquals(0, store.read(TelemetryStore.Resolution.MINUTE, 0, 10).length);
+
+        // The first sample of the next minute closes the previous one
+        store.record(MINUTE, new double[] {1});
+        assertEquals(1, store.read(TelemetryStore.Resolution.MINUTE, 0, 10).length);
+    }
+
+    @Test
+    void minuteRollupKeepsMeanAndPeak() {
+        TelemetryStore store = new TelemetryStore("a", "b");
+        // One burst to 100 in an otherwise idle minute
+        for (int i = 0; i < 60; i++) {
+            store.record(MINUTE + i * SECOND, new double[] {i == 30 ? 100 : 10, 2});
+        }
+        store.record(2 * MINUTE, new double[] {0, 0});
+
+        long[] times = new long[4];
+        double[] means = new double[4];
+        assertEquals(1, store.read(TelemetryStore.Resolution.MINUTE, 0, false, times, means));
+        assertEquals(MINUTE, times[0]);
+        assertEquals((59 * 10 + 100) / 60.0, means[0], 1e-9);
+
+        double[] peaks = new double[4];
+        assertEquals(1, store.read(TelemetryStore.Resolution.MINUTE, 0, true, null, peaks));
+        assertEquals(100, peaks[0]);
+
+        assertArrayEquals(new double[] {2}, store.read(TelemetryStore.Resolution.MINUTE, 1, 4));
+    }
+
+    @Test
+    void peakOfRawSamplesIsTheValue() {
+        TelemetryStore store = new TelemetryStore(new String[] {"a"}, 8, 8, 8);
+        store.record(0, new double[] {3});
+        store.record(SECOND, new double[] {4});
+
+        double[] values = new double[4];
+        assertEquals(2, store.read(TelemetryStore.Resolution.SECOND, 0, true, null, values));
+        assertEquals(3, values[0]);
+        assertEquals(4, values[1]);
+    }
+
+    @Test
+    void quarterHourRollupCoversSparseSamples() {
+        TelemetryStore store = new TelemetryStore("a");
+        // One sample per minute for half an hour, value = minute
+        for (int minute = 0; minute <= 30; minute++) {
+            store.record(minute * MINUTE, new double[] {minute});
+        }
+
+        long[] times = new long[4];
+        double[] means = new double[4];
+        assertEquals(2, store.read(TelemetryStore.Resolution.QUARTER_HOUR, 0, false, times, means));
+        assertArrayEquals(new long[] {0, QUARTER_HOUR}, new long[] {times[0], times[1]});
+        assertEquals(7, means[0], 1e-9);
+        assertEquals(22, means[1], 1e-9);
+
+        double[] peaks = new double[4];
+        store.read(TelemetryStore.Resolution.QUARTER_HOUR, 0, true, null, peaks);
+        assertEquals(14, peaks[0]);
+        assertEquals(29, peaks[1]);
+
+        // Minute 30 is still open
+        assertEquals(30, store.getCount(TelemetryStore.Resolution.MINUTE));
+    }
+
+    @Test
+    void rollupSkipsBucketsWithoutSamples() {
+        TelemetryStore store = new TelemetryStore("a");
+        store.record(0, new double[] {1});
+        store.record(5 * MINUTE, new double[] {2});
+        store.record(6 * MINUTE, new double[] {3});
+
+        long[] times = new long[4];
+        double[] means = new double[4];
+        assertEquals(2, store.read(TelemetryStore.Resolution.MINUTE, 0, false, times, means));
+        assertArrayEquals(new long[] {0, 5 * MINUTE}, new long[] {times[0], times[1]});
+        assertArrayEquals(new double[] {1, 2}, new double[] {means[0], means[1]});
+    }
+
+    @Test
+    void memoryMatchesTheDocumentedFormula() {
+        int metrics = 6;
+        TelemetryStore store = new TelemetryStore(new String[] {"a", "b", "c", "d", "e", "f"});
+
+        long expected = TelemetryStore.DEFAULT_SECOND_SLOTS * (8L + 8L * metrics)
+                + TelemetryStore.DEFAULT_MINUTE_SLOTS * (8L + 16L * metrics)
+                + TelemetryStore.DEFAULT_QUARTER_HOUR_SLOTS * (8L + 16L * metrics)
+                + 8L * metrics * (2 * 3 + 1);
+        assertEquals(expected, store.getMemoryBytes());
+        // "about 160 KB for six metrics"
+        assertEquals(160, store.getMemoryBytes() / 1024, 10);
+
+        for (int i = 0; i < 10_000; i++) {
+            store.record(i * SECOND, new double[metrics]);
+        }
+        assertEquals(expected, store.getMemoryBytes());
+    }
+
+    @Test
+    void readersNeverSeeTornOrLappedSlots() throws Exception {
+        // A tiny ring makes the writer lap readers constantly
+        TelemetryStore store = new TelemetryStore(new String[] {"a", "b"}, 4, 2, 2);
+        AtomicBoolean done = new AtomicBoolean();
+        Thread writer = new Thread(() -> {
+            double[] values = new double[2];
+            for (long i = 0; i < 2_000_000 && !done.get(); i++) {
+                values[0] = i;
+                values[1] = -i;
+                store.record(i, values);
+            }
+            done.set(true);
+        });
+        writer.start();
+
+        long[] times = new long[3];
+        double[] a = new double[3];
+        double[] b = new double[3];
+        try {
+            while (!done.get()) {
+                int n = store.read(TelemetryStore.Resolution.SECOND, 0, false, times, a);
+                for (int i = 0; i < n; i++) {
+                    // Each slot holds one sample, and consecutive slots are consecutive samples
+                    if (a[i] != times[i] || (i > 0 && times[i] != times[i - 1] + 1)) {
+                        fail("inconsistent read " + Arrays.toString(times) + " "
+                                + Arrays.toString(a));
+                    }
+                }
+                n = store.read(TelemetryStore.Resolution.SECOND, 1, false, times, b);
+                for (int i = 0; i < n; i++) {
+                    if (b[i] != -times[i]) {
+                        fail("inconsistent read " + Arrays.toString(times) + " "
+                                + Arrays.toString(b));
+                    }
+                }
+            }
+        } finally {
+            done.set(true);
+            writer.join();
+        }
+    }
+}